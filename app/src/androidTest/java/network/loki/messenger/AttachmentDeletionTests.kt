@@ -0,0 +1,128 @@
+package network.loki.messenger
+
+import android.content.ContentValues
+import android.content.Context
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.io.File
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+@SmallTest
+class AttachmentDeletionTests {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext.applicationContext
+    private val databaseComponent = DatabaseComponent.get(context)
+    private val attachmentDb = databaseComponent.attachmentDatabase()
+    private val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
+    private val created = mutableListOf<File>()
+
+    private var threadId = -1L
+
+    @Before
+    fun createThread() {
+        val accountId = "05" + Random.nextBytes(32).joinToString("") { "%02x".format(it) }
+        threadId = databaseComponent.threadDatabase()
+            .getOrCreateThreadIdFor(Recipient.from(context, Address.fromSerialized(accountId), false))
+    }
+
+    @After
+    fun deleteThread() {
+        databaseComponent.threadDatabase().deleteConversation(threadId)
+        created.forEach { it.delete() }
+    }
+
+    @Test
+    fun committedThreadDeletionShouldDeleteAttachmentFiles() {
+        val data = createFile()
+        val thumbnail = createFile()
+        insertMessageWithAttachment(data, thumbnail)
+
+        databaseComponent.mmsDatabase().deleteThread(threadId)
+        attachmentDb.deleteJournaledFiles()
+
+        assertFalse(data.exists())
+        assertFalse(thumbnail.exists())
+    }
+
+    @Test
+    fun rolledBackThreadDeletionShouldKeepAttachmentFiles() {
+        val data = createFile()
+        val thumbnail = createFile()
+        val messageId = insertMessageWithAttachment(data, thumbnail)
+
+        val database = databaseComponent.openHelper().writableDatabase
+        database.beginTransaction()
+        try {
+            databaseComponent.mmsDatabase().deleteThread(threadId)
+        } finally {
+            // Never marked successful, so the deletion is rolled back along with its journal entries
+            database.endTransaction()
+        }
+        attachmentDb.deleteJournaledFiles()
+
+        assertEquals(threadId, databaseComponent.mmsDatabase().getThreadIdForMessage(messageId))
+        assertTrue(data.exists())
+        assertTrue(thumbnail.exists())
+    }
+
+    @Test
+    fun sweepShouldOnlyDeleteOldUnreferencedFiles() {
+        val now = System.currentTimeMillis()
+        val data = createFile(lastModified = now - HOUR_MS)
+        val thumbnail = createFile(lastModified = now - HOUR_MS)
+        val oldOrphan = createFile(lastModified = now - HOUR_MS)
+        // Could still be being written for an attachment that isn't saved yet
+        val newOrphan = createFile(lastModified = now)
+        insertMessageWithAttachment(data, thumbnail)
+
+        attachmentDb.deleteOrphanedFiles(now - MINUTE_MS)
+
+        assertTrue(data.exists())
+        assertTrue(thumbnail.exists())
+        assertTrue(newOrphan.exists())
+        assertFalse(oldOrphan.exists())
+    }
+
+    private fun createFile(lastModified: Long = System.currentTimeMillis()): File =
+        File.createTempFile("part", ".mms", partsDirectory).also {
+            it.writeBytes(Random.nextBytes(16))
+            it.setLastModified(lastModified)
+            created += it
+        }
+
+    private fun insertMessageWithAttachment(data: File, thumbnail: File): Long {
+        val database = databaseComponent.openHelper().writableDatabase
+
+        val messageId = database.insert(MmsDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(MmsSmsColumns.THREAD_ID, threadId)
+            put(MmsSmsColumns.NORMALIZED_DATE_SENT, System.currentTimeMillis())
+        })
+        database.insert(AttachmentDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(AttachmentDatabase.MMS_ID, messageId)
+            put(AttachmentDatabase.UNIQUE_ID, System.nanoTime())
+            put(AttachmentDatabase.DATA, data.absolutePath)
+            put(AttachmentDatabase.THUMBNAIL, thumbnail.absolutePath)
+        })
+        return messageId
+    }
+
+    private companion object {
+        const val MINUTE_MS = 60_000L
+        const val HOUR_MS = 60 * MINUTE_MS
+    }
+}
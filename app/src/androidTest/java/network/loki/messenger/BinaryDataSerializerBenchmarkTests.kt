@@ -0,0 +1,75 @@
+package network.loki.messenger
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.google.protobuf.ByteString
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.utilities.Data
+import org.session.libsignal.protos.UtilProtos
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer
+import java.util.Random
+
+/**
+ * Persist and resume cost of a full BatchMessageReceiveJob payload, with the JSON serializer it replaced as a
+ * baseline. Timed on a device since it's too noisy for the unit tests; `BinaryDataSerializerTest` checks that the
+ * same batch round trips.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class BinaryDataSerializerBenchmarkTests {
+
+    private val json = JsonDataSerializer()
+    private val binary = BinaryDataSerializer()
+
+    @Test
+    fun persistingAndResumingAFullReceiveBatchShouldBeCheaperThanJson() {
+        val batch = createReceiveBatch()
+        assertArrayEquals(batch.getByteArray("data"), binary.deserialize(binary.serialize(batch)).getByteArray("data"))
+
+        repeat(WARM_UP_ROUNDS) {
+            json.deserialize(json.serialize(batch)).getByteArray("data")
+            binary.deserialize(binary.serialize(batch)).getByteArray("data")
+        }
+        val jsonNs = measure { json.deserialize(json.serialize(batch)).getByteArray("data") }
+        val binaryNs = measure { binary.deserialize(binary.serialize(batch)).getByteArray("data") }
+
+        assertTrue("Binary took $binaryNs ns a round, JSON $jsonNs ns", binaryNs < jsonNs)
+    }
+
+    /** @return The average nanoseconds per round. */
+    private fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        repeat(ROUNDS) { block() }
+        return (System.nanoTime() - start) / ROUNDS
+    }
+
+    private fun createReceiveBatch(): Data {
+        val random = Random(42)
+        val envelopes = UtilProtos.ByteArrayList.newBuilder()
+        val serverHashes = arrayOfNulls<String>(BATCH_SIZE)
+
+        for (i in 0 until BATCH_SIZE) {
+            envelopes.addContent(ByteString.copyFrom(ByteArray(ENVELOPE_SIZE).also(random::nextBytes)))
+            serverHashes[i] = java.lang.Long.toHexString(random.nextLong()) + java.lang.Long.toHexString(random.nextLong())
+        }
+
+        return Data.Builder()
+            .putInt("number_of_messages", BATCH_SIZE)
+            .putByteArray("data", envelopes.build().toByteArray())
+            .putString("open_group_id", null)
+            .putLongArray("open_group_message_server_id", LongArray(BATCH_SIZE) { -1L })
+            .putStringArray("server_hash", serverHashes)
+            .build()
+    }
+
+    private companion object {
+        const val BATCH_SIZE = 512
+        const val ENVELOPE_SIZE = 720
+        const val WARM_UP_ROUNDS = 5
+        const val ROUNDS = 20
+    }
+}
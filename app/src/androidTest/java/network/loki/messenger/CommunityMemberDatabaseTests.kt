@@ -0,0 +1,103 @@
+package network.loki.messenger
+
+import android.content.ContentValues
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.open_groups.CommunityMember
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.GroupUtil
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.CommunityMemberDatabase
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.database.SessionContactDatabase
+import org.thoughtcrime.securesms.database.SmsDatabase
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+@SmallTest
+class CommunityMemberDatabaseTests {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext.applicationContext
+    private val databaseComponent = DatabaseComponent.get(context)
+    private val memberDb = databaseComponent.communityMemberDatabase()
+
+    private val communityAddress = GroupUtil.getEncodedOpenGroupID("https://example.org.room${Random.nextLong()}".toByteArray())
+    private val alice = randomAccountId()
+    private val bob = randomAccountId()
+    private var threadId = -1L
+
+    @Before
+    fun createCommunity() {
+        threadId = databaseComponent.threadDatabase()
+            .getOrCreateThreadIdFor(Recipient.from(context, Address.fromSerialized(communityAddress), false))
+    }
+
+    @After
+    fun deleteCommunity() {
+        databaseComponent.threadDatabase().deleteConversation(threadId)
+        databaseComponent.openHelper().writableDatabase.delete(
+            SessionContactDatabase.sessionContactTable,
+            "${SessionContactDatabase.accountID} IN (?, ?)",
+            arrayOf(alice, bob)
+        )
+    }
+
+    @Test
+    fun namesShouldOnlyBeReplacedByNewerOnes() {
+        memberDb.updateMembers(threadId, listOf(CommunityMember(alice, "Alice", lastSeen = 20)))
+
+        // An older message doesn't rename them, and one without a profile doesn't forget their name
+        memberDb.updateMembers(threadId, listOf(CommunityMember(alice, "Old Alice", lastSeen = 10)))
+        memberDb.updateMembers(threadId, listOf(CommunityMember(alice, null, lastSeen = 30)))
+        assertEquals(listOf(CommunityMember(alice, "Alice", lastSeen = 30)), memberDb.getMembers(threadId))
+
+        memberDb.updateMembers(threadId, listOf(CommunityMember(alice, "New Alice", lastSeen = 40)))
+        assertEquals(listOf(CommunityMember(alice, "New Alice", lastSeen = 40)), memberDb.getMembers(threadId))
+    }
+
+    @Test
+    fun deletingTheCommunityShouldForgetItsMembers() {
+        memberDb.updateMembers(threadId, listOf(CommunityMember(alice, "Alice", lastSeen = 1)))
+
+        databaseComponent.threadDatabase().deleteConversation(threadId)
+
+        assertEquals(emptyList<CommunityMember>(), memberDb.getMembers(threadId))
+    }
+
+    @Test
+    fun backfillShouldIndexTheSendersOfStoredMessages() {
+        databaseComponent.sessionContactDatabase().setContact(Contact(alice).also { it.name = "Alice" })
+        insertMessage(from = alice, sentAt = 10)
+        insertMessage(from = alice, sentAt = 20)
+        insertMessage(from = bob, sentAt = 15)
+        // Outgoing messages are addressed to the community itself
+        insertMessage(from = communityAddress, sentAt = 30)
+
+        // As the lokiV49 migration does
+        databaseComponent.openHelper().writableDatabase.execSQL(CommunityMemberDatabase.BACKFILL_COMMUNITY_MEMBERS_COMMAND)
+
+        assertEquals(
+            setOf(CommunityMember(alice, "Alice", lastSeen = 20), CommunityMember(bob, null, lastSeen = 15)),
+            memberDb.getMembers(threadId).toSet()
+        )
+    }
+
+    private fun insertMessage(from: String, sentAt: Long) {
+        val values = ContentValues().apply {
+            put(MmsSmsColumns.THREAD_ID, threadId)
+            put(MmsSmsColumns.ADDRESS, from)
+            put(MmsSmsColumns.NORMALIZED_DATE_SENT, sentAt)
+        }
+        databaseComponent.openHelper().writableDatabase.insert(SmsDatabase.TABLE_NAME, null, values)
+    }
+
+    private fun randomAccountId() = "05" + Random.nextBytes(32).joinToString("") { "%02x".format(it) }
+}
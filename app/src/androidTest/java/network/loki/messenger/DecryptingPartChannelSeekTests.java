@@ -0,0 +1,124 @@
+package network.loki.messenger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.DecryptingPartChannel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Seeks around a large classic attachment on a device, which is too slow and needs too much disk to run with the
+ * unit tests. {@code DecryptingPartChannelTest} covers the channel's reads on small files.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DecryptingPartChannelSeekTests {
+
+  private static final long FILE_LENGTH = 500L * 1024 * 1024;
+  private static final int  SEEKS       = 2000;
+  private static final int  READ_LENGTH = 4096;
+  // Generous, since devices vary a lot; a seek should only have to decrypt about one block
+  private static final double MAX_AVERAGE_SEEK_MS = 10;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[]           classicCipherKey = randomBytes(16);
+  private final byte[]           classicMacKey    = randomBytes(20);
+  private final AttachmentSecret attachmentSecret = new AttachmentSecret(classicCipherKey, classicMacKey, randomBytes(32));
+
+  /**
+   * Seeking around a 500MB video in the classic format, as a media player does, should take about as long
+   * wherever in the file each seek lands.
+   */
+  @Test
+  public void randomSeeksShouldReadTheRightBytesQuickly() throws Exception {
+    File   file   = writeClassic(FILE_LENGTH);
+    Random random = new Random(42);
+    byte[] buffer = new byte[READ_LENGTH];
+
+    try (DecryptingPartChannel channel = DecryptingPartChannel.forClassic(attachmentSecret, file)) {
+      assertEquals(FILE_LENGTH, channel.size());
+
+      long seekStart = System.nanoTime();
+      for (int i = 0; i < SEEKS; i++) {
+        long position = (long) (random.nextDouble() * (FILE_LENGTH - buffer.length));
+
+        assertEquals(buffer.length, channel.read(position, buffer, 0, buffer.length));
+        assertEquals(plaintextAt(position), buffer[0]);
+        assertEquals(plaintextAt(position + buffer.length - 1), buffer[buffer.length - 1]);
+      }
+      double seekMs = (System.nanoTime() - seekStart) / 1e6 / SEEKS;
+
+      assertTrue("Seeks took " + seekMs + " ms each", seekMs < MAX_AVERAGE_SEEK_MS);
+    }
+  }
+
+  /**
+   * Writes a file in the classic format: an IV, AES-CBC ciphertext, and an HMAC-SHA1 of both.
+   */
+  private File writeClassic(long length) throws IOException, GeneralSecurityException {
+    File   file   = folder.newFile();
+    byte[] iv     = randomBytes(16);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    Mac    mac    = Mac.getInstance("HmacSHA1");
+
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(classicCipherKey, "AES"), new IvParameterSpec(iv));
+    mac.init(new SecretKeySpec(classicMacKey, "HmacSHA1"));
+
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024)) {
+      out.write(iv);
+      mac.update(iv);
+
+      byte[] plaintext = new byte[1024 * 1024];
+      for (long position = 0; position < length; position += plaintext.length) {
+        int count = (int) Math.min(plaintext.length, length - position);
+        for (int i = 0; i < count; i++) {
+          plaintext[i] = plaintextAt(position + i);
+        }
+
+        byte[] ciphertext = cipher.update(plaintext, 0, count);
+        if (ciphertext != null) {
+          out.write(ciphertext);
+          mac.update(ciphertext);
+        }
+      }
+
+      byte[] ciphertext = cipher.doFinal();
+      out.write(ciphertext);
+      mac.update(ciphertext);
+      out.write(mac.doFinal());
+    }
+
+    return file;
+  }
+
+  private static byte plaintextAt(long position) {
+    return (byte) ((position * 0x9E3779B97F4A7C15L) >>> 56);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
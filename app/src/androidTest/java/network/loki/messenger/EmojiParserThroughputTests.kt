@@ -0,0 +1,103 @@
+package network.loki.messenger
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.mock
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree
+import org.thoughtcrime.securesms.components.emoji.parsing.Fitzpatrick
+import org.thoughtcrime.securesms.emoji.EmojiPage
+import java.util.Random
+
+/**
+ * Parse throughput over a corpus of chat-like messages, most of which have no emoji at all, with the parser it
+ * replaced as a baseline. Timed on a device since it's too noisy for the unit tests; `EmojiParserTest` checks that
+ * both parsers find the same emoji in the same corpus.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class EmojiParserThroughputTests {
+
+    private val page = mock<EmojiPage>()
+    private val tree = EmojiTree().apply {
+        EMOJI.forEachIndexed { index, emoji -> add(emoji, EmojiDrawInfo(page, index, emoji, null, null)) }
+    }
+
+    @Test
+    fun singlePassParsingShouldBeFasterThanCheckingEveryPrefix() {
+        val corpus = createCorpus()
+        val parser = EmojiParser(tree)
+
+        // Texts are copied each round so the parser's results cache doesn't hide the parsing cost
+        repeat(WARM_UP_ROUNDS) {
+            corpus.forEach { findCandidatesByPrefix(it); parser.findCandidates(StringBuilder(it)) }
+        }
+        val byPrefixNs = measure { corpus.forEach { findCandidatesByPrefix(it) } }
+        val singlePassNs = measure { corpus.forEach { parser.findCandidates(StringBuilder(it)) } }
+
+        assertTrue("Single pass took $singlePassNs ns a round, by prefix $byPrefixNs ns", singlePassNs < byPrefixNs)
+    }
+
+    /**
+     * The previous parser: checks every prefix from each position against the tree from the root.
+     *
+     * @return The start and end of each emoji found.
+     */
+    private fun findCandidatesByPrefix(text: CharSequence): List<Pair<Int, Int>> {
+        val results = mutableListOf<Pair<Int, Int>>()
+        var i = 0
+        while (i < text.length) {
+            var end = -1
+            for (j in i + 1..text.length) {
+                val status = tree.isEmoji(text, i, j)
+                if (status.exactMatch()) end = j else if (status.impossibleMatch()) break
+            }
+
+            if (end != -1) {
+                tree.getEmoji(text, i, end)
+                if (end + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, end) != null) end += 2
+                results.add(i to end)
+                i = end
+            } else {
+                i++
+            }
+        }
+        return results
+    }
+
+    /** @return The average nanoseconds per round. */
+    private fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        repeat(ROUNDS) { block() }
+        return (System.nanoTime() - start) / ROUNDS
+    }
+
+    private fun createCorpus(): List<String> {
+        val random = Random(42)
+        val words = listOf("hey", "are", "you", "coming", "tonight", "lol", "ok", "see", "you", "there", "thanks", "https://getsession.org", "ça", "va", "日本語", "привет")
+        val emoji = EMOJI + listOf("👍🏿")
+
+        return (0 until MESSAGE_COUNT).map {
+            val builder = StringBuilder()
+            val hasEmoji = random.nextInt(4) == 0
+            repeat(1 + random.nextInt(20)) {
+                if (builder.isNotEmpty()) builder.append(' ')
+                if (hasEmoji && random.nextInt(5) == 0) builder.append(emoji[random.nextInt(emoji.size)])
+                else builder.append(words[random.nextInt(words.size)])
+            }
+            builder.toString()
+        }
+    }
+
+    private companion object {
+        val EMOJI = listOf("😀", "👍", "👨", "👩", "👨‍👩‍👧", "🇦🇺", "#️⃣", "❤")
+
+        const val MESSAGE_COUNT = 5000
+        const val WARM_UP_ROUNDS = 5
+        const val ROUNDS = 20
+    }
+}
@@ -0,0 +1,50 @@
+package network.loki.messenger
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.conversation.v2.mention.MemberIndex
+import org.thoughtcrime.securesms.conversation.v2.mention.MentionViewModel
+import kotlin.random.Random
+
+/**
+ * Times mention searches in a 50k member community on a device, which is too noisy to do with the unit tests.
+ * `MemberIndexTest` checks the same room's results against a plain scan.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class MemberIndexSearchTests {
+
+    @Test
+    fun searchingA50kMemberRoomShouldKeepUpWithTyping() {
+        val random = Random(42)
+        val index = MemberIndex(List(MEMBER_COUNT) { i ->
+            val name = (0 until 1 + random.nextInt(3)).joinToString(" ") { WORDS[random.nextInt(WORDS.size)] } + " $i"
+            MemberIndex.Entry(MentionViewModel.Member("05%064x".format(i), name, isModerator = false), random.nextLong(1_000_000))
+        })
+
+        repeat(WARM_UP_ROUNDS) { QUERIES.forEach { index.search(it, LIMIT) } }
+        val timesMs = QUERIES.map { query ->
+            val start = System.nanoTime()
+            repeat(ROUNDS) { index.search(query, LIMIT) }
+            (System.nanoTime() - start) / 1e6 / ROUNDS
+        }
+
+        val medianMs = timesMs.sorted()[timesMs.size / 2]
+        assertTrue("Searches took $timesMs ms", medianMs < MAX_MEDIAN_SEARCH_MS)
+    }
+
+    private companion object {
+        const val MEMBER_COUNT = 50_000
+        const val LIMIT = 100
+        const val WARM_UP_ROUNDS = 5
+        const val ROUNDS = 20
+        // Well within a keystroke, and generous enough for a slow device
+        const val MAX_MEDIAN_SEARCH_MS = 20.0
+
+        val WORDS = listOf("Alice", "Bob", "Carol", "Dave", "Eve", "Mallory", "Trent", "Peggy", "Victor", "Walter", "Élodie", "Łukasz", "Søren", "李云海", "Анна")
+        val QUERIES = listOf("a", "al", "ali", "alice", "ce m", "łuk", "ANNA", "云", "4999", "zzz")
+    }
+}
@@ -0,0 +1,112 @@
+package network.loki.messenger
+
+import android.database.ContentObserver
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.messages.signal.OutgoingTextMessage
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.DatabaseContentProviders
+import org.thoughtcrime.securesms.database.ReactionDatabase
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+@SmallTest
+class ReactionDatabaseTests {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext.applicationContext
+    private val databaseComponent = DatabaseComponent.get(context)
+    private val reactionDb = databaseComponent.reactionDatabase()
+
+    private var threadId = -1L
+    private lateinit var messageId: MessageId
+
+    @Before
+    fun createMessage() {
+        val recipient = Recipient.from(context, Address.fromSerialized(randomAccountId()), false)
+        val now = System.currentTimeMillis()
+        val result = databaseComponent.smsDatabase()
+            .insertMessageOutbox(-1, OutgoingTextMessage(recipient, "Hello", 0, 0, -1, now), now, false)
+            .get()
+
+        threadId = result.threadId
+        messageId = MessageId(result.messageId, false)
+    }
+
+    @After
+    fun deleteMessage() {
+        databaseComponent.threadDatabase().deleteConversation(threadId)
+    }
+
+    @Test
+    fun settingTheSameReactionsAgainShouldNotRewriteOrNotify() {
+        val reactions = listOf(reaction(randomAccountId(), "👍", count = 2), reaction(randomAccountId(), "❤️", count = 1))
+
+        // The first write changes the thread, which also checks that notifications get through
+        val firstNotification = observeThread()
+        reactionDb.setReactions(mapOf(messageId to reactions))
+        assertTrue(firstNotification.await(NOTIFICATION_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+
+        val rowIds = readRowIds()
+        assertEquals(reactions.size, rowIds.size)
+
+        // As a poll would build them again: no row IDs, in whatever order the server returned them
+        val secondNotification = observeThread()
+        reactionDb.setReactions(mapOf(messageId to reactions.reversed()))
+
+        assertEquals(rowIds, readRowIds())
+        assertEquals(reactions.sortedBy { it.emoji }, reactionDb.getReactions(messageId).sortedBy { it.emoji })
+        assertFalse(secondNotification.await(NOTIFICATION_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+    }
+
+    private fun observeThread(): CountDownLatch {
+        val notified = CountDownLatch(1)
+        val observer = object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean) {
+                notified.countDown()
+                context.contentResolver.unregisterContentObserver(this)
+            }
+        }
+        context.contentResolver.registerContentObserver(DatabaseContentProviders.Conversation.getUriForThread(threadId), false, observer)
+        return notified
+    }
+
+    private fun readRowIds(): Map<String, Long> {
+        val query = "${ReactionDatabase.MESSAGE_ID} = ? AND ${ReactionDatabase.IS_MMS} = 0"
+        val columns = arrayOf(ReactionDatabase.ROW_ID, ReactionDatabase.EMOJI)
+
+        return databaseComponent.openHelper().readableDatabase
+            .query(ReactionDatabase.TABLE_NAME, columns, query, arrayOf("${messageId.id}"), null, null, null)
+            .use { cursor -> generateSequence { if (cursor.moveToNext()) cursor.getString(1) to cursor.getLong(0) else null }.toMap() }
+    }
+
+    private fun reaction(author: String, emoji: String, count: Long) = ReactionRecord(
+        messageId = messageId.id,
+        isMms = false,
+        author = author,
+        emoji = emoji,
+        serverId = "1234",
+        count = count,
+        sortId = count
+    )
+
+    private fun randomAccountId() = "05" + Random.nextBytes(32).joinToString("") { "%02x".format(it) }
+
+    private companion object {
+        // Conversation notifications are debounced, so this leaves plenty of time for one to arrive
+        const val NOTIFICATION_TIMEOUT_MS = 1_000L
+    }
+}
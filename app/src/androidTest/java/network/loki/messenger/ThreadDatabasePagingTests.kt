@@ -0,0 +1,112 @@
+package network.loki.messenger
+
+import android.database.Cursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import org.thoughtcrime.securesms.database.model.ThreadRecord
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+@SmallTest
+class ThreadDatabasePagingTests {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext.applicationContext
+    private val threadDb: ThreadDatabase = DatabaseComponent.get(context).threadDatabase()
+    private val created = mutableListOf<Long>()
+
+    @Before
+    fun createThreads() {
+        // Several threads share a date so that page boundaries fall between ties
+        val dates = listOf(900L, 800, 800, 800, 700, 600, 600, 500, 400, 300, 300, 200, 100)
+
+        dates.forEachIndexed { index, date ->
+            val threadId = threadDb.getOrCreateThreadIdFor(Recipient.from(context, Address.fromSerialized(randomAccountId()), false))
+            threadDb.setHasSent(threadId, true)
+            threadDb.setDate(threadId, date)
+            if (index % 4 == 1) threadDb.setPinned(threadId, true)
+            created += threadId
+        }
+    }
+
+    @After
+    fun deleteThreads() {
+        created.forEach(threadDb::deleteConversation)
+    }
+
+    @Test
+    fun pagesShouldMatchTheUnpagedList() {
+        val expected = readThreads(threadDb.approvedConversationList).filter { it.threadId in created }
+
+        for (pageSize in listOf(1, 2, 3, 5, created.size, created.size + 1)) {
+            val paged = readAllPages(pageSize)
+
+            assertEquals("page size $pageSize", expected.map { it.threadId }, paged.filter { it.threadId in created }.map { it.threadId })
+            assertEquals("page size $pageSize", paged.size, paged.distinctBy { it.threadId }.size)
+        }
+    }
+
+    @Test
+    fun pinnedThreadsShouldComeFirstOnEveryPage() {
+        val paged = readAllPages(2).filter { it.threadId in created }
+        val firstUnpinned = paged.indexOfFirst { !it.isPinned }
+
+        assertTrue(paged.take(firstUnpinned).all { it.isPinned })
+        assertTrue(paged.drop(firstUnpinned).none { it.isPinned })
+
+        // Within each group, newest first and then by thread ID, across page boundaries
+        paged.zipWithNext().filter { (a, b) -> a.isPinned == b.isPinned }.forEach { (a, b) ->
+            assertTrue(a.date > b.date || (a.date == b.date && a.threadId > b.threadId))
+        }
+    }
+
+    @Test
+    fun archivedThreadsShouldBeLeftOutOfEveryPage() {
+        val archived = created.filterIndexed { index, _ -> index % 3 == 0 }
+        archived.forEach(threadDb::setThreadArchived)
+
+        val paged = readAllPages(2).map { it.threadId }
+
+        assertTrue(archived.none { it in paged })
+        assertEquals(created.size - archived.size, paged.count { it in created })
+    }
+
+    @Test
+    fun readingChangedThreadsShouldOnlyReturnThoseStillInTheList() {
+        val archived = created[2]
+        threadDb.setThreadArchived(archived)
+
+        val changed = created.take(4).toSet()
+        val records = readThreads(threadDb.getApprovedConversationList(changed)).map { it.threadId }
+
+        assertEquals(changed - archived, records.toSet())
+    }
+
+    private fun readAllPages(pageSize: Int): List<ThreadRecord> {
+        val all = mutableListOf<ThreadRecord>()
+        var page = readThreads(threadDb.getApprovedConversationListPage(null, pageSize))
+
+        while (true) {
+            assertTrue(page.size <= pageSize)
+            all += page
+            if (page.size < pageSize) return all
+            page = readThreads(threadDb.getApprovedConversationListPage(page.last(), pageSize))
+        }
+    }
+
+    private fun readThreads(cursor: Cursor): List<ThreadRecord> = cursor.use { openCursor ->
+        threadDb.readerFor(openCursor).run { generateSequence { next }.toList() }
+    }
+
+    private fun randomAccountId() = "05" + Random.nextBytes(32).joinToString("") { "%02x".format(it) }
+}
@@ -25,6 +25,8 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.pm.ShortcutInfoCompat;
@@ -37,6 +39,7 @@ import androidx.lifecycle.ProcessLifecycleOwner;
 import org.conscrypt.Conscrypt;
 import org.session.libsession.database.MessageDataProvider;
 import org.session.libsession.messaging.MessagingModuleConfiguration;
+import org.session.libsession.messaging.jobs.JobQueue;
 import org.session.libsession.messaging.sending_receiving.notifications.MessageNotifier;
 import org.session.libsession.messaging.sending_receiving.pollers.ClosedGroupPollerV2;
 import org.session.libsession.messaging.sending_receiving.pollers.Poller;
@@ -50,18 +53,15 @@ import org.session.libsession.utilities.TextSecurePreferences;
 import org.session.libsession.utilities.Util;
 import org.session.libsession.utilities.WindowDebouncer;
 import org.session.libsignal.utilities.HTTP;
-import org.session.libsignal.utilities.JsonUtil;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.ThreadUtils;
 import org.signal.aesgcmprovider.AesGcmProvider;
 import org.thoughtcrime.securesms.components.TypingStatusSender;
 import org.thoughtcrime.securesms.crypto.KeyPairUtilities;
-import org.thoughtcrime.securesms.database.EmojiSearchDatabase;
 import org.thoughtcrime.securesms.database.LastSentTimestampCache;
 import org.thoughtcrime.securesms.database.LokiAPIDatabase;
 import org.thoughtcrime.securesms.database.Storage;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
-import org.thoughtcrime.securesms.database.model.EmojiSearchData;
 import org.thoughtcrime.securesms.debugmenu.DebugActivity;
 import org.thoughtcrime.securesms.dependencies.AppComponent;
 import org.thoughtcrime.securesms.dependencies.ConfigFactory;
@@ -87,17 +87,13 @@ import org.thoughtcrime.securesms.sskenvironment.ReadReceiptManager;
 import org.thoughtcrime.securesms.sskenvironment.TypingStatusRepository;
 import org.thoughtcrime.securesms.util.Broadcaster;
 import org.thoughtcrime.securesms.util.VersionDataFetcher;
+import org.thoughtcrime.securesms.video.Media3VideoEncoder;
 import org.thoughtcrime.securesms.webrtc.CallMessageProcessor;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.PeerConnectionFactory.InitializationOptions;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.security.Security;
-import java.util.Arrays;
-import java.util.List;
 import java.util.Timer;
-import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -242,7 +238,7 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         initializeWebRtc();
         initializeBlobProvider();
         resubmitProfilePictureIfNeeded();
-        loadEmojiSearchIndexIfNeeded();
+        deleteOrphanedAttachmentFiles();
         EmojiSource.refresh();
 
         NetworkConstraint networkConstraint = new NetworkConstraint.Factory(this).create();
@@ -302,6 +298,17 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         }
         ClosedGroupPollerV2.getShared().stopAll();
         versionDataFetcher.stopTimedVersionCheck();
+        // Received messages are processed without being persisted first, write out anything still in flight
+        // now that the process could be killed at any time
+        ThreadUtils.queue(() -> JobQueue.getShared().persistEphemeralJobs());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            ThreadUtils.queue(() -> JobQueue.getShared().persistEphemeralJobs());
+        }
     }
 
     @Override
@@ -438,22 +445,17 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         }
     }
 
-    private void resubmitProfilePictureIfNeeded() {
-        ProfilePictureUtilities.INSTANCE.resubmitProfilePictureIfNeeded(this);
+    private void deleteOrphanedAttachmentFiles() {
+        // Anything written since this process started may belong to an attachment that's still being saved
+        long processStartTime = System.currentTimeMillis() - (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        ThreadUtils.queue(() -> {
+            getDatabaseComponent().attachmentDatabase().deleteOrphanedFiles(processStartTime);
+            Media3VideoEncoder.deleteOutputFiles(this, processStartTime);
+        });
     }
 
-    private void loadEmojiSearchIndexIfNeeded() {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            EmojiSearchDatabase emojiSearchDb = getDatabaseComponent().emojiSearchDatabase();
-            if (emojiSearchDb.query("face", 1).isEmpty()) {
-                try (InputStream inputStream = getAssets().open("emoji/emoji_search_index.json")) {
-                    List<EmojiSearchData> searchIndex = Arrays.asList(JsonUtil.fromJson(inputStream, EmojiSearchData[].class));
-                    emojiSearchDb.setSearchIndex(searchIndex);
-                } catch (IOException e) {
-                    Log.e("Loki", "Failed to load emoji search index");
-                }
-            }
-        });
+    private void resubmitProfilePictureIfNeeded() {
+        ProfilePictureUtilities.INSTANCE.resubmitProfilePictureIfNeeded(this);
     }
 
     // Method to clear the local data - returns true on success otherwise false
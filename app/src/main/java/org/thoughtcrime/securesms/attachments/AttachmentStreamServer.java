@@ -0,0 +1,393 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.session.libsession.messaging.sending_receiving.attachments.Attachment;
+import org.session.libsession.utilities.Util;
+import org.session.libsignal.utilities.Hex;
+import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.mms.PartAuthority;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single local HTTP endpoint that streams decrypted attachments to the media players.
+ *
+ * Attachments are registered under an unguessable token and served from
+ * {@code http://127.0.0.1:port/token}. Connections are kept alive between requests, and range
+ * requests open the attachment directly at the requested offset (via the CTR offset support of
+ * {@link PartAuthority#getAttachmentStream(Context, Uri, long)}) rather than decrypting from the start.
+ */
+public final class AttachmentStreamServer {
+
+  private static final String TAG = AttachmentStreamServer.class.getSimpleName();
+
+  private static final int MAX_CONNECTIONS    = 6;
+  private static final int IDLE_TIMEOUT_MS    = 15_000;
+  private static final int MAX_HEADER_SIZE    = 8192;
+  private static final int BUFFER_SIZE        = 64 * 1024;
+  private static final int OUTPUT_BUFFER_SIZE = 32 * 1024;
+
+  private static volatile AttachmentStreamServer instance;
+
+  private final Context                 context;
+  private final Map<String, Attachment> attachments = new ConcurrentHashMap<>();
+  private final BufferPool              bufferPool  = new BufferPool(MAX_CONNECTIONS, BUFFER_SIZE);
+  private final ExecutorService         executor;
+
+  private ServerSocket socket;
+  private int          port;
+
+  public static AttachmentStreamServer getInstance(@NonNull Context context) {
+    if (instance == null) {
+      synchronized (AttachmentStreamServer.class) {
+        if (instance == null) {
+          instance = new AttachmentStreamServer(context.getApplicationContext());
+        }
+      }
+    }
+    return instance;
+  }
+
+  private AttachmentStreamServer(@NonNull Context context) {
+    this.context  = context;
+    this.executor = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                                           r -> new Thread(r, "AttachmentStreamServer"));
+  }
+
+  /**
+   * Makes the attachment available to stream until {@link #unregister(String)} is called.
+   *
+   * @return The token identifying the attachment in its {@link #getUri(String)}.
+   */
+  public synchronized @NonNull String register(@NonNull Attachment attachment) throws IOException {
+    startIfNeeded();
+
+    String token = Hex.toStringCondensed(Util.getSecretBytes(16));
+    attachments.put(token, attachment);
+    return token;
+  }
+
+  public void unregister(@NonNull String token) {
+    attachments.remove(token);
+  }
+
+  public synchronized @NonNull Uri getUri(@NonNull String token) {
+    return Uri.parse(String.format(Locale.ROOT, "http://127.0.0.1:%d/%s", port, token));
+  }
+
+  private void startIfNeeded() throws IOException {
+    if (socket != null && !socket.isClosed()) return;
+
+    try {
+      socket = new ServerSocket(0, 0, InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
+      port   = socket.getLocalPort();
+    } catch (UnknownHostException e) {
+      throw new AssertionError(e);
+    }
+
+    ServerSocket serverSocket = socket;
+    Thread       acceptThread = new Thread(() -> acceptLoop(serverSocket), "AttachmentStreamServer-accept");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  private void acceptLoop(@NonNull ServerSocket serverSocket) {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket client = serverSocket.accept();
+        client.setSoTimeout(IDLE_TIMEOUT_MS);
+
+        try {
+          executor.execute(() -> serve(client));
+        } catch (RejectedExecutionException e) {
+          Log.w(TAG, "Too many concurrent streams, dropping connection.");
+          client.close();
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Error accepting client", e);
+      }
+    }
+  }
+
+  /**
+   * Serves requests on the connection until the client closes it, asks to close it, or sits idle.
+   */
+  private void serve(@NonNull Socket client) {
+    byte[] buffer = bufferPool.acquire();
+
+    try (Socket ignored = client) {
+      InputStream  input  = new BufferedInputStream(client.getInputStream());
+      OutputStream output = new BufferedOutputStream(client.getOutputStream(), OUTPUT_BUFFER_SIZE);
+
+      while (!client.isClosed()) {
+        Request request = Request.read(input);
+
+        if (request == null || !respond(request, output, buffer) || !request.keepAlive) {
+          break;
+        }
+      }
+    } catch (SocketTimeoutException e) {
+      Log.d(TAG, "Idle connection closed.");
+    } catch (SocketException e) {
+      Log.d(TAG, "Client closed the connection, this can exit harmlessly.");
+    } catch (IOException e) {
+      Log.w(TAG, "Error streaming attachment", e);
+    } finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+  /**
+   * @return Whether the connection can be reused for another request.
+   */
+  private boolean respond(@NonNull Request request, @NonNull OutputStream output, @NonNull byte[] buffer) throws IOException {
+    if (!"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+      writeHeaders(output, "405 Method Not Allowed", null, 0, null, false);
+      output.flush();
+      return false;
+    }
+
+    Attachment attachment = request.path.length() > 1 ? attachments.get(request.path.substring(1)) : null;
+
+    if (attachment == null || attachment.getDataUri() == null) {
+      Log.w(TAG, "Bad auth token!");
+      writeHeaders(output, "404 Not Found", null, 0, null, false);
+      output.flush();
+      return false;
+    }
+
+    long  size  = attachment.getSize();
+    Range range = Range.parse(request.headers.get("range"), size);
+
+    if (range == Range.UNSATISFIABLE) {
+      writeHeaders(output, "416 Range Not Satisfiable", null, 0, "bytes */" + size, request.keepAlive);
+      output.flush();
+      return true;
+    }
+
+    long start  = range != null ? range.start : 0;
+    long length = range != null ? range.end - start + 1 : size;
+
+    if (range != null) {
+      writeHeaders(output, "206 Partial Content", attachment.getContentType(), length,
+                   "bytes " + range.start + "-" + range.end + "/" + size, request.keepAlive);
+    } else {
+      writeHeaders(output, "200 OK", attachment.getContentType(), length, null, request.keepAlive);
+    }
+
+    if ("HEAD".equals(request.method) || length == 0) {
+      output.flush();
+      return true;
+    }
+
+    try (InputStream inputStream = PartAuthority.getAttachmentStream(context, attachment.getDataUri(), start)) {
+      long remaining = length;
+
+      while (remaining > 0) {
+        int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read == -1) break;
+
+        output.write(buffer, 0, read);
+        remaining -= read;
+      }
+
+      output.flush();
+
+      // The headers promised more than we had, so the connection can't be trusted for another request
+      return remaining == 0;
+    }
+  }
+
+  private static void writeHeaders(@NonNull OutputStream output,
+                                   @NonNull String status,
+                                   @Nullable String contentType,
+                                   long contentLength,
+                                   @Nullable String contentRange,
+                                   boolean keepAlive)
+      throws IOException
+  {
+    StringBuilder headers = new StringBuilder();
+    headers.append("HTTP/1.1 ").append(status).append("\r\n");
+    if (contentType != null) headers.append("Content-Type: ").append(contentType).append("\r\n");
+    headers.append("Accept-Ranges: bytes\r\n");
+    headers.append("Content-Length: ").append(contentLength).append("\r\n");
+    if (contentRange != null) headers.append("Content-Range: ").append(contentRange).append("\r\n");
+    headers.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+    headers.append("\r\n");
+
+    output.write(headers.toString().getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @VisibleForTesting
+  static final class Request {
+    final String              method;
+    final String              path;
+    final Map<String, String> headers;
+    final boolean             keepAlive;
+
+    private Request(@NonNull String method, @NonNull String path, @NonNull Map<String, String> headers, boolean keepAlive) {
+      this.method    = method;
+      this.path      = path;
+      this.headers   = headers;
+      this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Reads the next request off a connection.
+     *
+     * @return The request, or null if the connection was closed or the request is malformed.
+     */
+    static @Nullable Request read(@NonNull InputStream input) throws IOException {
+      String requestLine = readLine(input);
+      if (requestLine == null || requestLine.isEmpty()) return null;
+
+      String[] parts = requestLine.split(" ");
+      if (parts.length < 2) {
+        Log.w(TAG, "BAD REQUEST: " + requestLine);
+        return null;
+      }
+
+      Map<String, String> headers = new HashMap<>();
+      String              line;
+
+      while ((line = readLine(input)) != null && !line.isEmpty()) {
+        int separator = line.indexOf(':');
+        if (separator > 0) {
+          headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+        }
+      }
+
+      if (line == null) return null;
+
+      String  connection = headers.get("connection");
+      boolean http11     = parts.length > 2 && "HTTP/1.1".equals(parts[2]);
+      boolean keepAlive  = connection != null ? connection.equalsIgnoreCase("keep-alive") : http11;
+
+      int    query = parts[1].indexOf('?');
+      String path  = query >= 0 ? parts[1].substring(0, query) : parts[1];
+
+      return new Request(parts[0], path, headers, keepAlive);
+    }
+
+    private static @Nullable String readLine(@NonNull InputStream input) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int                   read;
+
+      while ((read = input.read()) != -1) {
+        if (read == '\n') {
+          return new String(line.toByteArray(), StandardCharsets.US_ASCII).trim();
+        }
+
+        if (line.size() >= MAX_HEADER_SIZE) {
+          throw new IOException("Header line too long");
+        }
+
+        line.write(read);
+      }
+
+      return line.size() > 0 ? new String(line.toByteArray(), StandardCharsets.US_ASCII).trim() : null;
+    }
+  }
+
+  @VisibleForTesting
+  static final class Range {
+    static final Range UNSATISFIABLE = new Range(-1, -1);
+
+    final long start;
+    final long end;
+
+    private Range(long start, long end) {
+      this.start = start;
+      this.end   = end;
+    }
+
+    /**
+     * Parses a single {@code bytes=} range, clamping it to the resource size.
+     *
+     * @return The inclusive range, {@link #UNSATISFIABLE}, or null if the whole resource should be sent.
+     */
+    static @Nullable Range parse(@Nullable String header, long size) {
+      if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+
+      String spec = header.substring(6).trim();
+      int    dash = spec.indexOf('-');
+      if (dash < 0) return null;
+
+      try {
+        String first = spec.substring(0, dash).trim();
+        String last  = spec.substring(dash + 1).trim();
+
+        long start;
+        long end;
+
+        if (first.isEmpty()) {
+          // A suffix range, the last N bytes
+          if (last.isEmpty()) return null;
+          start = Math.max(0, size - Long.parseLong(last));
+          end   = size - 1;
+        } else {
+          start = Long.parseLong(first);
+          end   = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+        }
+
+        if (start >= size || start > end) return UNSATISFIABLE;
+
+        return new Range(start, end);
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Bad range: " + header);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Hands out reusable transfer buffers, keeping at most {@code capacity} of them around.
+   */
+  private static final class BufferPool {
+    private final BlockingQueue<byte[]> buffers;
+    private final int                   bufferSize;
+
+    BufferPool(int capacity, int bufferSize) {
+      this.buffers    = new ArrayBlockingQueue<>(capacity);
+      this.bufferSize = bufferSize;
+    }
+
+    @NonNull byte[] acquire() {
+      byte[] buffer = buffers.poll();
+      return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void release(@NonNull byte[] buffer) {
+      buffers.offer(buffer);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.attachments
 
 import android.content.Context
+import android.os.SystemClock
 import android.text.TextUtils
 import com.google.protobuf.ByteString
 import org.greenrobot.eventbus.EventBus
@@ -16,6 +17,7 @@ import org.session.libsession.messaging.sending_receiving.attachments.PointerAtt
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentPointer
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentStream
 import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.MediaTypes
 import org.session.libsession.utilities.UploadResult
 import org.session.libsession.utilities.Util
 import org.session.libsession.utilities.recipients.Recipient
@@ -32,13 +34,23 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.events.PartProgressEvent
 import org.thoughtcrime.securesms.mms.MediaConstraints
+import org.thoughtcrime.securesms.mms.MediaStream
 import org.thoughtcrime.securesms.mms.PartAuthority
 import org.thoughtcrime.securesms.util.MediaUtil
+import org.thoughtcrime.securesms.video.Media3VideoEncoder
+import org.thoughtcrime.securesms.video.VideoTranscoder
+import java.io.FileInputStream
 import java.io.IOException
 import java.io.InputStream
 
 class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper), MessageDataProvider {
 
+    companion object {
+        private val TAG = DatabaseAttachmentProvider::class.java.simpleName
+
+        private const val DELETION_CHECK_INTERVAL_MS = 1000L
+    }
+
     override fun getAttachmentStream(attachmentId: Long): SessionServiceAttachmentStream? {
         val attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase()
         val databaseAttachment = attachmentDatabase.getAttachment(AttachmentId(attachmentId, 0)) ?: return null
@@ -118,17 +130,9 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
         attachmentDatabase.insertAttachmentsForPlaceholder(messageId, attachmentId, stream)
     }
 
-    override fun updateAudioAttachmentDuration(
-        attachmentId: AttachmentId,
-        durationMs: Long,
-        threadId: Long
-    ) {
+    override fun updateAudioAttachmentExtras(extras: DatabaseAttachmentAudioExtras, threadId: Long) {
         val attachmentDb = DatabaseComponent.get(context).attachmentDatabase()
-        attachmentDb.setAttachmentAudioExtras(DatabaseAttachmentAudioExtras(
-            attachmentId = attachmentId,
-            visualSamples = byteArrayOf(),
-            durationMs = durationMs
-        ), threadId)
+        attachmentDb.setAttachmentAudioExtras(extras, threadId)
     }
 
     override fun isMmsOutgoing(mmsMessageId: Long): Boolean {
@@ -238,7 +242,9 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
 
     private fun scaleAndStripExif(attachmentDatabase: AttachmentDatabase, constraints: MediaConstraints, attachment: Attachment): Attachment? {
         return try {
-            if (constraints.isSatisfied(context, attachment)) {
+            if (MediaUtil.isVideo(attachment) && attachment is DatabaseAttachment) {
+                transcodeVideo(attachmentDatabase, constraints, attachment)
+            } else if (constraints.isSatisfied(context, attachment)) {
                 if (MediaUtil.isJpeg(attachment)) {
                     val stripped = constraints.getResizedMedia(context, attachment)
                     attachmentDatabase.updateAttachmentData(attachment, stripped)
@@ -252,10 +258,52 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
                 throw Exception("Size constraints could not be met!")
             }
         } catch (e: Exception) {
+            Log.w(TAG, "Couldn't meet the size constraints", e)
             return null
         }
     }
 
+    /**
+     * Shrinks a video to fit the attachment limit, if it needs to be, reporting progress as the upload does. Gives up
+     * if the video's message is deleted while it's being transcoded.
+     */
+    private fun transcodeVideo(attachmentDatabase: AttachmentDatabase, constraints: MediaConstraints, attachment: DatabaseAttachment): Attachment {
+        val server = AttachmentServer(context, attachment)
+        val output = try {
+            Media3VideoEncoder.createOutputFile(context)
+        } catch (e: IOException) {
+            server.stop()
+            throw e
+        }
+        var lastDeletionCheck = 0L
+
+        try {
+            val encoder = Media3VideoEncoder(context, server.uri, attachment.size)
+            val job = VideoTranscoder.getInstance().transcode(encoder, output, constraints.getVideoMaxSize(context).toLong()) { transcoding, fraction ->
+                EventBus.getDefault().postSticky(PartProgressEvent(attachment, 100, (fraction * 100).toLong()))
+
+                val now = SystemClock.elapsedRealtime()
+                if (now - lastDeletionCheck >= DELETION_CHECK_INTERVAL_MS) {
+                    lastDeletionCheck = now
+                    if (attachmentDatabase.getAttachment(attachment.attachmentId) == null) transcoding.cancel()
+                }
+            }
+            val target = job.await() ?: return attachment
+
+            Log.i(TAG, "Transcoded a video of ${attachment.size} bytes to ${output.length()} bytes, $target")
+            return attachmentDatabase.updateAttachmentData(attachment, MediaStream(FileInputStream(output), MediaTypes.VIDEO_MP4, target.width, target.height))
+        } catch (e: IOException) {
+            // A video the device can't transcode can still go as it is, if it's small enough
+            if (e is VideoTranscoder.TooLargeException || !constraints.isSatisfied(context, attachment)) throw e
+
+            Log.w(TAG, "Couldn't transcode a video, sending it as it is", e)
+            return attachment
+        } finally {
+            server.stop()
+            output.delete()
+        }
+    }
+
     private fun getAttachmentFor(attachment: Attachment): SignalServiceAttachmentStream? {
         try {
             if (attachment.dataUri == null || attachment.size == 0L) throw IOException("Assertion failed, outgoing attachment has no data!")
@@ -10,7 +10,6 @@ import com.bumptech.glide.load.engine.DiskCacheStrategy
 import network.loki.messenger.R
 import network.loki.messenger.databinding.ViewProfilePictureBinding
 import org.session.libsession.avatars.ContactColors
-import org.session.libsession.avatars.PlaceholderAvatarPhoto
 import org.session.libsession.avatars.ProfileContactPhoto
 import org.session.libsession.avatars.ResourceContactPhoto
 import org.session.libsession.messaging.contacts.Contact
@@ -20,6 +19,7 @@ import org.session.libsession.utilities.GroupUtil
 import org.session.libsession.utilities.recipients.Recipient
 import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.util.AvatarPlaceholderGenerator
 import com.bumptech.glide.Glide
 import com.bumptech.glide.RequestManager
 
@@ -129,13 +129,14 @@ class ProfilePictureView @JvmOverloads constructor(
 
             glide.clear(imageView)
 
-            val placeholder = PlaceholderAvatarPhoto(publicKey, displayName ?: "${publicKey.take(4)}...${publicKey.takeLast(4)}")
+            // Placeholders are drawn directly rather than loaded into a bitmap through Glide
+            val placeholder = AvatarPlaceholderGenerator.createDrawable(context, publicKey, displayName ?: "${publicKey.take(4)}...${publicKey.takeLast(4)}")
 
             if (signalProfilePicture != null && avatar != "0" && avatar != "") {
                 glide.load(signalProfilePicture)
                     .placeholder(unknownRecipientDrawable)
                     .centerCrop()
-                    .error(glide.load(placeholder))
+                    .error(placeholder)
                     .diskCacheStrategy(DiskCacheStrategy.NONE)
                     .circleCrop()
                     .into(imageView)
@@ -146,11 +147,7 @@ class ProfilePictureView @JvmOverloads constructor(
                     .circleCrop()
                     .into(imageView)
             } else {
-                glide.load(placeholder)
-                    .placeholder(unknownRecipientDrawable)
-                    .centerCrop()
-                    .circleCrop()
-                    .diskCacheStrategy(DiskCacheStrategy.NONE).circleCrop().into(imageView)
+                imageView.setImageDrawable(placeholder)
             }
         } else {
             glide.load(unknownRecipientDrawable)
@@ -22,6 +22,7 @@ import org.session.libsession.utilities.FutureTaskListener;
 import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.emoji.EmojiPageCache;
 import org.thoughtcrime.securesms.emoji.EmojiSource;
 import org.thoughtcrime.securesms.util.Util;
@@ -34,9 +35,26 @@ public class EmojiProvider {
   private static final    String TAG   = Log.tag(EmojiProvider.class);
   private static final    Paint  PAINT = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
+  private static volatile EmojiParser parser;
+
   public static @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(EmojiSource.getLatest().getEmojiTree()).findCandidates(text);
+    return getParser().findCandidates(text);
+  }
+
+  /**
+   * The parser for the latest emoji source, kept so that its results cache outlives a single call.
+   */
+  private static @NonNull EmojiParser getParser() {
+    EmojiTree   tree    = EmojiSource.getLatest().getEmojiTree();
+    EmojiParser current = parser;
+
+    if (current == null || current.getEmojiTree() != tree) {
+      current = new EmojiParser(tree);
+      parser  = current;
+    }
+
+    return current;
   }
 
   static  @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv, boolean jumboEmoji) {
@@ -21,38 +21,89 @@
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
 
+import android.text.SpannableString;
+import android.text.SpannedString;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Based in part on code from emoji-java
  */
 public class EmojiParser {
 
+  private static final int CACHE_SIZE = 64;
+
   private final EmojiTree emojiTree;
 
+  /**
+   * The most recent results, by the identity of the text they were found in. Views often set the same text
+   * again on rebind and layout, so it's only parsed once while it stays on screen.
+   */
+  private final Map<TextKey, CandidateList> cache = new LinkedHashMap<TextKey, CandidateList>(CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<TextKey, CandidateList> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
   public EmojiParser(EmojiTree emojiTree) {
     this.emojiTree = emojiTree;
   }
 
+  public @NonNull EmojiTree getEmojiTree() {
+    return emojiTree;
+  }
+
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    if (text == null) return new CandidateList(Collections.emptyList(), false);
+
+    // Only texts whose characters can't change are cached
+    boolean cacheable = text instanceof String || text instanceof SpannedString || text instanceof SpannableString;
+
+    if (cacheable) {
+      synchronized (cache) {
+        CandidateList cached = cache.get(new TextKey(text));
+        if (cached != null) return cached;
+      }
+    }
+
+    CandidateList candidates = parse(text);
 
-    if (text == null) return new CandidateList(results, false);
+    if (cacheable) {
+      synchronized (cache) {
+        cache.put(new TextKey(text), candidates);
+      }
+    }
+
+    return candidates;
+  }
+
+  private @NonNull CandidateList parse(@NonNull CharSequence text) {
+    List<Candidate> results   = new ArrayList<>();
+    EmojiDrawInfo[] match     = new EmojiDrawInfo[1];
+    int             length    = text.length();
+    boolean         allEmojis = length > 0;
 
-    boolean allEmojis = text.length() > 0;
+    for (int i = 0; i < length; i++) {
+      if (!emojiTree.canStartEmoji(text.charAt(i))) {
+        allEmojis = false;
+        continue;
+      }
 
-    for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.findLongestEmoji(text, i, match);
 
       if (emojiEnd != -1) {
-        EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
+        EmojiDrawInfo drawInfo = match[0];
 
-        if (emojiEnd + 2 <= text.length()) {
+        if (emojiEnd + 2 <= length) {
           if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
             emojiEnd += 2;
           }
@@ -66,23 +117,25 @@ public class EmojiParser {
       }
     }
 
-    return new CandidateList(results, allEmojis);
+    return new CandidateList(Collections.unmodifiableList(results), allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
+  private static final class TextKey {
+    private final CharSequence text;
 
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
+    TextKey(CharSequence text) {
+      this.text = text;
+    }
 
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TextKey && ((TextKey) o).text == text;
     }
 
-    return best;
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(text);
+    }
   }
 
   public static class Candidate {
@@ -22,8 +22,8 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Based in part on code from emoji-java
@@ -32,11 +32,18 @@ public class EmojiTree {
 
   private final EmojiTreeNode root = new EmojiTreeNode();
 
+  /** The first char of every emoji, so text that can't start one is skipped without walking the tree. */
+  private final BitSet firstChars = new BitSet(Character.MAX_VALUE + 1);
+
   private static final char TERMINATOR = '\ufe0f';
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
     EmojiTreeNode tree = root;
 
+    if (!emojiEncoding.isEmpty()) {
+      firstChars.set(emojiEncoding.charAt(0));
+    }
+
     for (char c: emojiEncoding.toCharArray()) {
       if (!tree.hasChild(c)) {
         tree.addChild(c);
@@ -48,6 +55,49 @@ public class EmojiTree {
     tree.setEmoji(emoji);
   }
 
+  /**
+   * @return false if no emoji starts with {@code c}.
+   */
+  public boolean canStartEmoji(char c) {
+    return firstChars.get(c);
+  }
+
+  /**
+   * Finds the longest emoji that starts at {@code startPosition} in a single walk down the tree, with the same
+   * rules as {@link #isEmoji(CharSequence, int, int)} and {@link #getEmoji(CharSequence, int, int)}.
+   *
+   * @param match Receives the emoji's draw info in its first element.
+   * @return The end of the emoji, or -1 if there isn't one.
+   */
+  public int findLongestEmoji(CharSequence sequence, int startPosition, EmojiDrawInfo[] match) {
+    EmojiTreeNode tree = root;
+    int           best = -1;
+
+    for (int i=startPosition; i<sequence.length(); i++) {
+      char character = sequence.charAt(i);
+
+      tree = tree.getChild(character);
+
+      if (tree == null) {
+        break;
+      }
+
+      if (tree.isEndOfEmoji()) {
+        best     = i + 1;
+        match[0] = tree.getEmoji();
+      } else if (character != TERMINATOR) {
+        EmojiTreeNode terminator = tree.getChild(TERMINATOR);
+
+        if (terminator != null && terminator.isEndOfEmoji()) {
+          best     = i + 1;
+          match[0] = terminator.getEmoji();
+        }
+      }
+    }
+
+    return best;
+  }
+
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
     if (sequence == null) {
       return Matches.POSSIBLY;
@@ -95,8 +145,13 @@ public class EmojiTree {
 
   private static class EmojiTreeNode {
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    private static final char[]          NO_KEYS     = new char[0];
+    private static final EmojiTreeNode[] NO_CHILDREN = new EmojiTreeNode[0];
+
+    // Sorted keys and their children, searched without boxing each char as a map key would
+    private char[]          keys     = NO_KEYS;
+    private EmojiTreeNode[] children = NO_CHILDREN;
+    private EmojiDrawInfo   emoji;
 
     public void setEmoji(EmojiDrawInfo emoji) {
       this.emoji = emoji;
@@ -107,15 +162,33 @@ public class EmojiTree {
     }
 
     boolean hasChild(char child) {
-      return children.containsKey(child);
+      return Arrays.binarySearch(keys, child) >= 0;
     }
 
     void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+      int index = Arrays.binarySearch(keys, child);
+      if (index >= 0) return;
+
+      int insertAt = -index - 1;
+
+      char[]          newKeys     = new char[keys.length + 1];
+      EmojiTreeNode[] newChildren = new EmojiTreeNode[children.length + 1];
+
+      System.arraycopy(keys, 0, newKeys, 0, insertAt);
+      System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+      System.arraycopy(children, 0, newChildren, 0, insertAt);
+      System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+      newKeys[insertAt]     = child;
+      newChildren[insertAt] = new EmojiTreeNode();
+
+      keys     = newKeys;
+      children = newChildren;
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    @Nullable EmojiTreeNode getChild(char child) {
+      int index = Arrays.binarySearch(keys, child);
+      return index >= 0 ? children[index] : null;
     }
 
     boolean isEndOfEmoji() {
@@ -240,7 +240,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
 
     private val screenWidth = Resources.getSystem().displayMetrics.widthPixels
     private val linkPreviewViewModel: LinkPreviewViewModel by lazy {
-        ViewModelProvider(this, LinkPreviewViewModel.Factory(LinkPreviewRepository()))
+        ViewModelProvider(this, LinkPreviewViewModel.Factory(LinkPreviewRepository(this)))
             .get(LinkPreviewViewModel::class.java)
     }
 
@@ -766,13 +766,19 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
 
     // called from onCreate
     private fun setUpTypingObserver() {
-        ApplicationContext.getInstance(this).typingStatusRepository.getTypists(viewModel.threadId).observe(this) { state ->
-            val recipients = if (state != null) state.typists else listOf()
-            // FIXME: Also checking isScrolledToBottom is a quick fix for an issue where the
-            //        typing indicator overlays the recycler view when scrolled up
-            val viewContainer = binding.typingIndicatorViewContainer
-            viewContainer.isVisible = recipients.isNotEmpty() && isScrolledToBottom
-            viewContainer.setTypists(recipients)
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                ApplicationContext.getInstance(this@ConversationActivityV2).typingStatusRepository
+                    .getTypists(this@ConversationActivityV2, viewModel.threadId)
+                    .collect { state ->
+                        val recipients = state.typists
+                        // FIXME: Also checking isScrolledToBottom is a quick fix for an issue where the
+                        //        typing indicator overlays the recycler view when scrolled up
+                        val viewContainer = binding.typingIndicatorViewContainer
+                        viewContainer.isVisible = recipients.isNotEmpty() && isScrolledToBottom
+                        viewContainer.setTypists(recipients)
+                    }
+            }
         }
         if (textSecurePreferences.isTypingIndicatorsEnabled()) {
             binding.inputBar.addTextChangedListener {
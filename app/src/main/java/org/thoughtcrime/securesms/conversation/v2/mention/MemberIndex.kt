@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.conversation.v2.mention
+
+import android.graphics.Typeface
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.StyleSpan
+import org.thoughtcrime.securesms.conversation.v2.mention.MentionViewModel.Candidate
+import org.thoughtcrime.securesms.conversation.v2.mention.MentionViewModel.Member
+
+/**
+ * The members that can be mentioned in a thread, ready to be searched by name.
+ *
+ * Members are ranked by when they were last seen, most recent first, and then by name. Every name is case folded
+ * into one string in that order, so a search is a run of [String.indexOf] over it rather than a comparison per
+ * member, and each name's matches come out in rank order.
+ */
+class MemberIndex(entries: List<Entry>) {
+
+    class Entry(val member: Member, val lastSeen: Long)
+
+    private val members: Array<Member>
+    private val names: String
+    /** Where each member's name starts in [names], in rank order. */
+    private val offsets: IntArray
+
+    init {
+        val ranked = entries.sortedWith(compareByDescending<Entry> { it.lastSeen }.thenBy { it.member.name })
+        members = Array(ranked.size) { ranked[it].member }
+        offsets = IntArray(ranked.size)
+
+        val builder = StringBuilder(ranked.sumOf { it.member.name.length + 1 })
+        ranked.forEachIndexed { index, entry ->
+            offsets[index] = builder.length
+            entry.member.name.forEach { builder.append(fold(it)) }
+            builder.append(SEPARATOR)
+        }
+        names = builder.toString()
+    }
+
+    val size: Int get() = members.size
+
+    /**
+     * Finds the members whose names contain [query], ignoring case.
+     *
+     * @return Up to [limit] candidates, the ones whose names match earliest first (so prefix matches lead),
+     * then in rank order.
+     */
+    fun search(query: String, limit: Int): List<Candidate> {
+        if (query.isBlank()) {
+            return members.take(limit).map { Candidate(it, it.name, 0) }
+        }
+
+        val needle = String(CharArray(query.length) { fold(query[it]) })
+        if (SEPARATOR in needle) return emptyList()
+
+        // Each match packs its position in the name above the member's rank, so sorting them sorts by both
+        var matches = LongArray(16)
+        var matchCount = 0
+        var from = 0
+        while (true) {
+            val at = names.indexOf(needle, from)
+            if (at < 0) break
+
+            val rank = memberAt(at)
+            if (matchCount == matches.size) matches = matches.copyOf(matchCount * 2)
+            matches[matchCount++] = (at - offsets[rank]).toLong() shl 32 or rank.toLong()
+
+            // Only the first match in each name counts
+            from = if (rank + 1 < offsets.size) offsets[rank + 1] else names.length
+        }
+
+        matches.sort(0, matchCount)
+        return List(minOf(matchCount, limit)) { i ->
+            val startIndex = (matches[i] ushr 32).toInt()
+            val member = members[matches[i].toInt()]
+            val highlighted = SpannableStringBuilder(member.name)
+            highlighted.setSpan(
+                StyleSpan(Typeface.BOLD),
+                startIndex,
+                startIndex + query.length,
+                Spanned.SPAN_INCLUSIVE_EXCLUSIVE
+            )
+            Candidate(member = member, nameHighlighted = highlighted, matchScore = startIndex)
+        }
+    }
+
+    /** @return The rank of the member whose name spans [position] in [names]. */
+    private fun memberAt(position: Int): Int {
+        val index = offsets.binarySearch(position)
+        return if (index >= 0) index else -index - 2
+    }
+
+    private companion object {
+        const val SEPARATOR = '\u0000'
+
+        /** Folds case the way [String.equals] with `ignoreCase` compares characters. */
+        fun fold(c: Char): Char = Character.toLowerCase(Character.toUpperCase(c))
+    }
+}
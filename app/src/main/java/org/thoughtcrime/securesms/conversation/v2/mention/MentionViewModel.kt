@@ -1,11 +1,7 @@
 package org.thoughtcrime.securesms.conversation.v2.mention
 
 import android.content.ContentResolver
-import android.graphics.Typeface
 import android.text.Editable
-import android.text.SpannableStringBuilder
-import android.text.Spanned
-import android.text.style.StyleSpan
 import androidx.core.text.getSpans
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
@@ -27,10 +23,11 @@ import kotlinx.coroutines.flow.onStart
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.withContext
 import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.utilities.truncateIdForDisplay
+import org.thoughtcrime.securesms.database.CommunityMemberDatabase
 import org.thoughtcrime.securesms.database.DatabaseContentProviders.Conversation
 import org.thoughtcrime.securesms.database.GroupDatabase
 import org.thoughtcrime.securesms.database.GroupMemberDatabase
-import org.thoughtcrime.securesms.database.MmsDatabase
 import org.thoughtcrime.securesms.database.SessionContactDatabase
 import org.thoughtcrime.securesms.database.Storage
 import org.thoughtcrime.securesms.database.ThreadDatabase
@@ -48,7 +45,7 @@ class MentionViewModel(
     contentResolver: ContentResolver,
     threadDatabase: ThreadDatabase,
     groupDatabase: GroupDatabase,
-    mmsDatabase: MmsDatabase,
+    communityMemberDatabase: CommunityMemberDatabase,
     contactDatabase: SessionContactDatabase,
     memberDatabase: GroupMemberDatabase,
     storage: Storage,
@@ -75,7 +72,7 @@ class MentionViewModel(
     }
 
     @Suppress("OPT_IN_USAGE")
-    private val members: StateFlow<List<Member>?> =
+    private val members: StateFlow<MemberIndex?> =
         (contentResolver.observeChanges(Conversation.getUriForThread(threadID)) as Flow<Any?>)
             .debounce(500L)
             .onStart { emit(Unit) }
@@ -84,44 +81,64 @@ class MentionViewModel(
                     "Recipient not found for thread ID: $threadID"
                 }
 
-                val memberIDs = when {
-                    recipient.isClosedGroupRecipient -> {
-                        groupDatabase.getGroupMemberAddresses(recipient.address.toGroupString(), false)
-                            .map { it.serialize() }
-                    }
-
-                    recipient.isCommunityRecipient -> mmsDatabase.getRecentChatMemberIDs(threadID, 20)
-                    recipient.isContactRecipient -> listOf(recipient.address.serialize())
-                    else -> listOf()
+                val contactContext = if (recipient.isCommunityRecipient) {
+                    Contact.ContactContext.OPEN_GROUP
+                } else {
+                    Contact.ContactContext.REGULAR
                 }
 
-                val moderatorIDs = if (recipient.isCommunityRecipient) {
+                val entries = if (recipient.isCommunityRecipient) {
                     val groupId = storage.getOpenGroup(threadID)?.id
-                    if (groupId.isNullOrBlank()) {
+                    val moderatorIDs = if (groupId.isNullOrBlank()) {
                         emptySet()
                     } else {
-                        memberDatabase.getGroupMembersRoles(groupId, memberIDs)
-                            .mapNotNullTo(hashSetOf()) { (memberId, roles) ->
-                                memberId.takeIf { roles.any { it.isModerator } }
-                            }
+                        memberDatabase.getGroupMembersRoles(groupId)
+                            .filterValues { roles -> roles.any { it.isModerator } }
+                            .keys
                     }
-                } else {
-                    emptySet()
-                }
 
-                val contactContext = if (recipient.isCommunityRecipient) {
-                    Contact.ContactContext.OPEN_GROUP
+                    // Everyone seen in the community, named as they were in their latest message unless the user
+                    // has given them a nickname
+                    communityMemberDatabase.getMembers(threadID).chunked(CONTACT_PAGE_SIZE).flatMap { page ->
+                        val contacts = contactDatabase.getContacts(page.map { it.accountId }).associateBy { it.accountID }
+
+                        page.map { member ->
+                            val contact = contacts[member.accountId] ?: Contact(member.accountId)
+                            member.displayName?.let { contact.name = it }
+                            MemberIndex.Entry(
+                                Member(
+                                    publicKey = member.accountId,
+                                    name = contact.displayName(contactContext) ?: truncateIdForDisplay(member.accountId),
+                                    isModerator = member.accountId in moderatorIDs,
+                                ),
+                                lastSeen = member.lastSeen
+                            )
+                        }
+                    }
                 } else {
-                    Contact.ContactContext.REGULAR
-                }
+                    val memberIDs = when {
+                        recipient.isClosedGroupRecipient -> {
+                            groupDatabase.getGroupMemberAddresses(recipient.address.toGroupString(), false)
+                                .map { it.serialize() }
+                        }
 
-                contactDatabase.getContacts(memberIDs).map { contact ->
-                    Member(
-                        publicKey = contact.accountID,
-                        name = contact.displayName(contactContext).orEmpty(),
-                        isModerator = contact.accountID in moderatorIDs,
-                    )
+                        recipient.isContactRecipient -> listOf(recipient.address.serialize())
+                        else -> listOf()
+                    }
+
+                    contactDatabase.getContacts(memberIDs).map { contact ->
+                        MemberIndex.Entry(
+                            Member(
+                                publicKey = contact.accountID,
+                                name = contact.displayName(contactContext).orEmpty(),
+                                isModerator = false,
+                            ),
+                            lastSeen = 0
+                        )
+                    }
                 }
+
+                MemberIndex(entries)
             }
             .flowOn(dispatcher)
             .stateIn(viewModelScope, SharingStarted.WhileSubscribed(10_000L), null)
@@ -141,40 +158,12 @@ class MentionViewModel(
                 }
 
                 withContext(Dispatchers.Default) {
-                    val filtered = if (query.query.isBlank()) {
-                        members.mapTo(mutableListOf()) { Candidate(it, it.name, 0) }
-                    } else {
-                        members.mapNotNullTo(mutableListOf()) { searchAndHighlight(it, query.query) }
-                    }
-
-                    filtered.sortWith(Candidate.MENTION_LIST_COMPARATOR)
-                    AutoCompleteState.Result(filtered, query.query)
+                    AutoCompleteState.Result(members.search(query.query, MAX_CANDIDATES), query.query)
                 }
             }
         }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(), AutoCompleteState.Idle)
 
-    private fun searchAndHighlight(
-        haystack: Member,
-        needle: String
-    ): Candidate? {
-        val startIndex = haystack.name.indexOf(needle, ignoreCase = true)
-
-        return if (startIndex >= 0) {
-            val endIndex = startIndex + needle.length
-            val spanned = SpannableStringBuilder(haystack.name)
-            spanned.setSpan(
-                StyleSpan(Typeface.BOLD),
-                startIndex,
-                endIndex,
-                Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-            )
-            Candidate(member = haystack, nameHighlighted = spanned, matchScore = startIndex)
-        } else {
-            null
-        }
-    }
-
     fun onCandidateSelected(candidatePublicKey: String) {
         val query = editable.mentionSearchQuery ?: return
         val autoCompleteState = autoCompleteState.value as? AutoCompleteState.Result ?: return
@@ -232,11 +221,14 @@ class MentionViewModel(
         val nameHighlighted: CharSequence,
         // The score of matching the query keyword. Lower is better.
         val matchScore: Int,
-    ) {
-        companion object {
-            val MENTION_LIST_COMPARATOR = compareBy<Candidate> { it.matchScore }
-                .then(compareBy { it.member.name })
-        }
+    )
+
+    companion object {
+        /** The most candidates offered at once, so a search in a large community stays cheap to show. */
+        private const val MAX_CANDIDATES = 100
+
+        /** How many community members' stored contacts are looked up at once. */
+        private const val CONTACT_PAGE_SIZE = 500
     }
 
     sealed interface AutoCompleteState {
@@ -256,7 +248,7 @@ class MentionViewModel(
         private val contentResolver: ContentResolver,
         private val threadDatabase: ThreadDatabase,
         private val groupDatabase: GroupDatabase,
-        private val mmsDatabase: MmsDatabase,
+        private val communityMemberDatabase: CommunityMemberDatabase,
         private val contactDatabase: SessionContactDatabase,
         private val storage: Storage,
         private val memberDatabase: GroupMemberDatabase,
@@ -268,7 +260,7 @@ class MentionViewModel(
                 contentResolver = contentResolver,
                 threadDatabase = threadDatabase,
                 groupDatabase = groupDatabase,
-                mmsDatabase = mmsDatabase,
+                communityMemberDatabase = communityMemberDatabase,
                 contactDatabase = contactDatabase,
                 memberDatabase = memberDatabase,
                 storage = storage,
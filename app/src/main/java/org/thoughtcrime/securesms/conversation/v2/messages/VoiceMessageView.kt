@@ -6,10 +6,17 @@ import android.util.AttributeSet
 import android.view.View
 import android.widget.RelativeLayout
 import androidx.core.view.isVisible
+import androidx.lifecycle.findViewTreeLifecycleOwner
+import androidx.lifecycle.lifecycleScope
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import network.loki.messenger.R
 import network.loki.messenger.databinding.ViewVoiceMessageBinding
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment
+import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras
+import org.session.libsession.utilities.AudioExtrasProcessor
 import org.thoughtcrime.securesms.audio.AudioSlidePlayer
 import org.thoughtcrime.securesms.components.CornerMask
 import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBubbleUtilities
@@ -35,6 +42,8 @@ class VoiceMessageView : RelativeLayout, AudioSlidePlayer.Listener {
     private var progress = 0.0
     private var duration = 0L
     private var player: AudioSlidePlayer? = null
+    private var extrasRequest: Deferred<DatabaseAttachmentAudioExtras?>? = null
+    private var extrasJob: Job? = null
     var delegate: VisibleMessageViewDelegate? = null
     var indexInAdapter = -1
 
@@ -54,6 +63,9 @@ class VoiceMessageView : RelativeLayout, AudioSlidePlayer.Listener {
 
     // region Updating
     fun bind(message: MmsMessageRecord, isStartOfMessageCluster: Boolean, isEndOfMessageCluster: Boolean) {
+        extrasJob?.cancel()
+        extrasJob = null
+        extrasRequest = null
         val audio = message.slideDeck.audioSlide!!
         binding.voiceMessageViewLoader.isVisible = audio.isInProgress
         val cornerRadii = MessageBubbleUtilities.calculateRadii(context, isStartOfMessageCluster, isEndOfMessageCluster, message.isOutgoing)
@@ -72,18 +84,47 @@ class VoiceMessageView : RelativeLayout, AudioSlidePlayer.Listener {
         this.player = player
 
         (audio.asAttachment() as? DatabaseAttachment)?.let { attachment ->
-            attachmentDb.getAttachmentAudioExtras(attachment.attachmentId)?.let { audioExtras ->
-                if (audioExtras.durationMs > 0) {
-                    duration = audioExtras.durationMs
-                    binding.voiceMessageViewDurationTextView.visibility = View.VISIBLE
-                    binding.voiceMessageViewDurationTextView.text = String.format("%01d:%02d",
-                            TimeUnit.MILLISECONDS.toMinutes(audioExtras.durationMs),
-                            TimeUnit.MILLISECONDS.toSeconds(audioExtras.durationMs) % 60)
-                }
+            val audioExtras = attachmentDb.getAttachmentAudioExtras(attachment.attachmentId)
+            if (audioExtras != null) {
+                showDuration(audioExtras)
+            } else {
+                // Not processed when it was sent or received; this is shared with any other request for it
+                extrasRequest = AudioExtrasProcessor.process(attachment.attachmentId, message.threadId)
+                if (isAttachedToWindow) awaitExtras()
             }
         }
     }
 
+    private fun awaitExtras() {
+        val request = extrasRequest ?: return
+        extrasJob?.cancel()
+        // Tied to whatever the view is shown in, so nothing outlives it
+        extrasJob = findViewTreeLifecycleOwner()?.lifecycleScope?.launch {
+            request.await()?.let(::showDuration)
+        }
+    }
+
+    private fun showDuration(audioExtras: DatabaseAttachmentAudioExtras) {
+        if (audioExtras.durationMs > 0) {
+            duration = audioExtras.durationMs
+            binding.voiceMessageViewDurationTextView.visibility = View.VISIBLE
+            binding.voiceMessageViewDurationTextView.text = String.format("%01d:%02d",
+                    TimeUnit.MILLISECONDS.toMinutes(audioExtras.durationMs),
+                    TimeUnit.MILLISECONDS.toSeconds(audioExtras.durationMs) % 60)
+        }
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        awaitExtras()
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        extrasJob?.cancel()
+        extrasJob = null
+    }
+
     override fun onPlayerStart(player: AudioSlidePlayer) {
         isPlaying = true
     }
@@ -138,6 +138,8 @@ public class AttachmentManager {
     final SettableFuture<Boolean> result = new SettableFuture<>();
 
     new AsyncTask<Void, Void, Slide>() {
+      private boolean canSendVideo;
+
       @Override
       protected void onPreExecute() {
 
@@ -146,14 +148,20 @@ public class AttachmentManager {
       @Override
       protected @Nullable Slide doInBackground(Void... params) {
         try {
+          Slide slide;
+
           if (PartAuthority.isLocalUri(uri)) {
-            return getManuallyCalculatedSlideInfo(uri, width, height);
+            slide = getManuallyCalculatedSlideInfo(uri, width, height);
           } else {
-            Slide result = getContentResolverSlideInfo(uri, width, height);
+            slide = getContentResolverSlideInfo(uri, width, height);
 
-            if (result == null) return getManuallyCalculatedSlideInfo(uri, width, height);
-            else                return result;
+            if (slide == null) slide = getManuallyCalculatedSlideInfo(uri, width, height);
           }
+
+          // Reads how long the video is, if it's too big to send as it is
+          canSendVideo = slide != null && slide.hasVideo() && constraints.canSendVideo(context, uri, slide.asAttachment().getSize());
+
+          return slide;
         } catch (IOException e) {
           Log.w(TAG, e);
           return null;
@@ -164,7 +172,7 @@ public class AttachmentManager {
       protected void onPostExecute(@Nullable final Slide slide) {
         if (slide == null) {
           result.set(false);
-        } else if (!areConstraintsSatisfied(context, slide, constraints)) {
+        } else if (!areConstraintsSatisfied(context, slide, constraints, canSendVideo)) {
           result.set(false);
         } else {
           setSlide(slide);
@@ -363,7 +371,8 @@ public class AttachmentManager {
 
   private boolean areConstraintsSatisfied(final @NonNull  Context context,
                                           final @Nullable Slide slide,
-                                          final @NonNull  MediaConstraints constraints)
+                                          final @NonNull  MediaConstraints constraints,
+                                          final           boolean canSendVideo)
   {
     // Null attachment? Not satisfied.
     if (slide == null) return false;
@@ -371,6 +380,12 @@ public class AttachmentManager {
     // Attachments are excessively large? Not satisfied.
     // Note: This file size test must come BEFORE the `constraints.isSatisfied` check below because
     // it is a more specific type of check.
+    // Videos are the exception, as they're transcoded to fit when they're sent.
+    if (slide.hasVideo()) {
+      if (!canSendVideo) Toast.makeText(context, R.string.attachmentsErrorSize, Toast.LENGTH_SHORT).show();
+      return canSendVideo;
+    }
+
     if (slide.asAttachment().getSize() > MAX_ATTACHMENTS_FILE_SIZE_BYTES) {
       Toast.makeText(context, R.string.attachmentsErrorSize, Toast.LENGTH_SHORT).show();
       return false;
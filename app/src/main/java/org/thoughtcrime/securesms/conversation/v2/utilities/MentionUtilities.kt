@@ -4,8 +4,10 @@ import android.content.Context
 import android.graphics.Typeface
 import android.text.Spannable
 import android.text.SpannableString
+import android.text.SpannableStringBuilder
 import android.text.style.ForegroundColorSpan
 import android.text.style.StyleSpan
+import android.util.LruCache
 import android.util.Range
 import network.loki.messenger.R
 import nl.komponents.kovenant.combine.Tuple2
@@ -19,12 +21,26 @@ import org.session.libsession.utilities.truncateIdForDisplay
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.util.RoundedBackgroundSpan
 import org.thoughtcrime.securesms.util.getAccentColor
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.regex.Pattern
 
 object MentionUtilities {
 
     private val pattern by lazy { Pattern.compile("@[0-9a-fA-F]*") }
 
+    private const val NAME_CACHE_SIZE = 512
+
+    /**
+     * Display names of mentioned accounts, including ones without a contact, so each is only looked up once.
+     * Entries are dropped whenever their contact is written.
+     */
+    private val names = LruCache<String, MentionName>(NAME_CACHE_SIZE)
+    private val isListeningForContactChanges = AtomicBoolean(false)
+
+    private class MentionName(val regular: String, val openGroup: String) {
+        fun get(context: Contact.ContactContext) = if (context == Contact.ContactContext.OPEN_GROUP) openGroup else regular
+    }
+
     /**
      * Highlights mentions in a given text.
      *
@@ -46,41 +62,43 @@ object MentionUtilities {
         threadID: Long,
         context: Context
     ): SpannableString {
-        @Suppress("NAME_SHADOWING") var text = text
+        val matcher = pattern.matcher(text)
+        if (!matcher.find()) return SpannableString(text)
+
+        val matches = mutableListOf<Range<Int>>()
+        do {
+            matches += Range.create(matcher.start(), matcher.end())
+        } while (matcher.find())
 
-        var matcher = pattern.matcher(text)
-        val mentions = mutableListOf<Tuple2<Range<Int>, String>>()
-        var startIndex = 0
         val userPublicKey = TextSecurePreferences.getLocalNumber(context)!!
         val openGroup by lazy { DatabaseComponent.get(context).storage().getOpenGroup(threadID) }
+        val contactContext by lazy { if (openGroup != null) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR }
 
-        // Format the mention text
-        if (matcher.find(startIndex)) {
-            while (true) {
-                val publicKey = text.subSequence(matcher.start() + 1, matcher.end()).toString() // +1 to get rid of the @
-
-                val isYou = isYou(publicKey, userPublicKey, openGroup)
-                val userDisplayName: String? = if (isYou) {
-                    context.getString(R.string.you)
-                } else {
-                    val contact = DatabaseComponent.get(context).sessionContactDatabase().getContactWithAccountID(publicKey)
-                    @Suppress("NAME_SHADOWING") val context = if (openGroup != null) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR
-                    contact?.displayName(context) ?: truncateIdForDisplay(publicKey)
-                }
-                if (userDisplayName != null) {
-                    val mention = "@$userDisplayName"
-                    text = text.subSequence(0, matcher.start()).toString() + mention + text.subSequence(matcher.end(), text.length)
-                    val endIndex = matcher.start() + 1 + userDisplayName.length
-                    startIndex = endIndex
-                    mentions.add(Tuple2(Range.create(matcher.start(), endIndex), publicKey))
-                } else {
-                    startIndex = matcher.end()
-                }
-                matcher = pattern.matcher(text)
-                if (!matcher.find(startIndex)) { break }
+        // Whether each mentioned key is the user's is worked out once, as it can mean deriving a blinded ID
+        val publicKeys = matches.map { text.subSequence(it.lower + 1, it.upper).toString() } // +1 to get rid of the @
+        val isYou = publicKeys.distinct().associateWith { isYou(it, userPublicKey, openGroup) }
+        val resolvedNames = resolveNames(context, isYou.filterValues { !it }.keys)
+
+        // Format the mention text in a single pass
+        val builder = SpannableStringBuilder()
+        val mentions = mutableListOf<Tuple2<Range<Int>, String>>()
+        var previousEnd = 0
+        matches.forEachIndexed { index, match ->
+            val publicKey = publicKeys[index]
+            val userDisplayName = if (isYou.getValue(publicKey)) {
+                context.getString(R.string.you)
+            } else {
+                resolvedNames.getValue(publicKey).get(contactContext)
             }
+            builder.append(text, previousEnd, match.lower)
+            val startIndex = builder.length
+            builder.append('@').append(userDisplayName)
+            mentions.add(Tuple2(Range.create(startIndex, builder.length), publicKey))
+            previousEnd = match.upper
         }
-        val result = SpannableString(text)
+        builder.append(text, previousEnd, text.length)
+
+        val result = SpannableString(builder.toString())
 
         // apply styling if required
         // Normal text color: black in dark mode and primary text color for light mode
@@ -107,7 +125,7 @@ object MentionUtilities {
                     foregroundColor = if(isOutgoingMessage) null else highlightedTextColor
                 }
                 // incoming message mentioning you
-                else if (isYou(mention.second, userPublicKey, openGroup)) {
+                else if (isYou.getValue(mention.second)) {
                     backgroundColor = context.getAccentColor()
                     foregroundColor = mainTextColor
                 }
@@ -157,6 +175,32 @@ object MentionUtilities {
         return result
     }
 
+    /**
+     * Looks up the display names of [publicKeys] that aren't cached yet with a single query.
+     */
+    private fun resolveNames(context: Context, publicKeys: Collection<String>): Map<String, MentionName> {
+        val contactDatabase = DatabaseComponent.get(context).sessionContactDatabase()
+        if (isListeningForContactChanges.compareAndSet(false, true)) {
+            contactDatabase.addContactChangeListener { accountID -> names.remove(accountID) }
+        }
+
+        val resolved = publicKeys.mapNotNull { publicKey -> names.get(publicKey)?.let { publicKey to it } }.toMap(HashMap())
+        val missing = publicKeys.filter { it !in resolved }
+        if (missing.isEmpty()) return resolved
+
+        val contacts = contactDatabase.getContacts(missing).associateBy { it.accountID }
+        for (publicKey in missing) {
+            val contact = contacts[publicKey]
+            val name = MentionName(
+                regular = contact?.displayName(Contact.ContactContext.REGULAR) ?: truncateIdForDisplay(publicKey),
+                openGroup = contact?.displayName(Contact.ContactContext.OPEN_GROUP) ?: truncateIdForDisplay(publicKey)
+            )
+            names.put(publicKey, name)
+            resolved[publicKey] = name
+        }
+        return resolved
+    }
+
     private fun isYou(mentionedPublicKey: String, userPublicKey: String, openGroup: OpenGroup?): Boolean {
         val isUserBlindedPublicKey = openGroup?.let { SodiumUtilities.accountId(userPublicKey, mentionedPublicKey, it.publicKey) } ?: false
         return mentionedPublicKey.equals(userPublicKey, ignoreCase = true) || isUserBlindedPublicKey
@@ -0,0 +1,306 @@
+package org.thoughtcrime.securesms.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads an encrypted attachment at any offset, for media players that jump around a file.
+ *
+ * The file stays open between reads, and both formats can start decrypting at any block: the modern format is
+ * AES-CTR, where a block's counter is its index, and the classic format is AES-CBC, where a block only depends on
+ * the ciphertext block before it. Each read decrypts a window around where it starts, and the cipher carries on
+ * from the end of the window, so a player reading through the file in small pieces decrypts each block once.
+ *
+ * Not thread safe.
+ */
+public abstract class DecryptingPartChannel implements Closeable {
+
+  private static final int BLOCK_LENGTH  = 16;
+  private static final int WINDOW_LENGTH = 64 * 1024;
+
+  protected final FileChannel channel;
+  protected final Cipher      cipher;
+
+  private final ByteBuffer ciphertext = ByteBuffer.allocate(WINDOW_LENGTH);
+  private final byte[]     window     = new byte[WINDOW_LENGTH];
+
+  private long windowStart  = 0;
+  private int  windowLength = 0;
+  private long cipherPosition = -1;
+
+  public static DecryptingPartChannel forClassic(@NonNull AttachmentSecret attachmentSecret, @NonNull File file) throws IOException {
+    return new Classic(attachmentSecret, file);
+  }
+
+  public static DecryptingPartChannel forModern(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file) throws IOException {
+    return new Modern(attachmentSecret, random, file);
+  }
+
+  private DecryptingPartChannel(@NonNull File file, @NonNull String transformation) throws IOException {
+    this.channel = new RandomAccessFile(file, "r").getChannel();
+
+    try {
+      this.cipher = Cipher.getInstance(transformation);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * @return The length of the decrypted file.
+   */
+  public abstract long size();
+
+  /**
+   * Reads decrypted bytes from {@code position}, just like {@link android.media.MediaDataSource#readAt}.
+   *
+   * @return How many bytes were read, which is less than {@code length} only at the end of the file, or -1 if
+   * {@code position} is at or past the end.
+   */
+  public int read(long position, @NonNull byte[] bytes, int offset, int length) throws IOException {
+    if (position >= size()) return -1;
+
+    int read = 0;
+
+    while (read < length && position + read < size()) {
+      long at = position + read;
+
+      if (at < windowStart || at >= windowStart + windowLength) {
+        fillWindow(at - at % BLOCK_LENGTH);
+      }
+
+      int start = (int) (at - windowStart);
+      int count = Math.min(length - read, windowLength - start);
+
+      System.arraycopy(window, start, bytes, offset + read, count);
+      read += count;
+    }
+
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Decrypts the window of the file starting at the block at {@code start}.
+   */
+  private void fillWindow(long start) throws IOException {
+    if (start != cipherPosition) {
+      try {
+        initCipher(start / BLOCK_LENGTH);
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    int length = (int) Math.min(WINDOW_LENGTH, getCiphertextLength() - start);
+
+    ciphertext.clear().limit(length);
+    readFully(getCiphertextOffset() + start, ciphertext);
+    ciphertext.flip();
+
+    try {
+      cipher.update(ciphertext.array(), 0, length, window, 0);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+
+    windowStart    = start;
+    windowLength   = (int) Math.min(length, size() - start);
+    cipherPosition = start + length;
+  }
+
+  protected void readFully(long position, @NonNull ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) throw new IOException("Unexpected end of file");
+      position += read;
+    }
+  }
+
+  /**
+   * Prepares the cipher to decrypt from the start of the block at {@code blockIndex}.
+   */
+  protected abstract void initCipher(long blockIndex) throws IOException, GeneralSecurityException;
+
+  /**
+   * @return Where the ciphertext starts in the file.
+   */
+  protected abstract long getCiphertextOffset();
+
+  /**
+   * @return The length of the ciphertext, including any padding.
+   */
+  protected abstract long getCiphertextLength();
+
+  /**
+   * AES-CBC with PKCS#5 padding: an IV, then the ciphertext, then an HMAC-SHA1 of both.
+   */
+  private static final class Classic extends DecryptingPartChannel {
+
+    private static final int IV_LENGTH  = 16;
+    private static final int MAC_LENGTH = 20;
+
+    private final SecretKeySpec key;
+    private final long          ciphertextLength;
+    private final long          size;
+
+    Classic(@NonNull AttachmentSecret attachmentSecret, @NonNull File file) throws IOException {
+      super(file, "AES/CBC/NoPadding");
+
+      try {
+        this.key              = new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES");
+        this.ciphertextLength = channel.size() - IV_LENGTH - MAC_LENGTH;
+
+        if (ciphertextLength <= 0 || ciphertextLength % BLOCK_LENGTH != 0) {
+          throw new IOException("Bad ciphertext length: " + ciphertextLength);
+        }
+
+        verifyMac(attachmentSecret);
+        this.size = ciphertextLength - readPaddingLength();
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    protected void initCipher(long blockIndex) throws IOException, GeneralSecurityException {
+      // Each block is decrypted with the one before it, the first with the IV
+      ByteBuffer iv = ByteBuffer.allocate(BLOCK_LENGTH);
+      readFully(IV_LENGTH + (blockIndex - 1) * BLOCK_LENGTH, iv);
+
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv.array()));
+    }
+
+    @Override
+    protected long getCiphertextOffset() {
+      return IV_LENGTH;
+    }
+
+    @Override
+    protected long getCiphertextLength() {
+      return ciphertextLength;
+    }
+
+    private int readPaddingLength() throws IOException {
+      ByteBuffer lastBlock = ByteBuffer.allocate(BLOCK_LENGTH);
+      readFully(IV_LENGTH + ciphertextLength - BLOCK_LENGTH, lastBlock);
+
+      try {
+        initCipher(ciphertextLength / BLOCK_LENGTH - 1);
+        byte[] plaintext     = cipher.doFinal(lastBlock.array());
+        int    paddingLength = plaintext[BLOCK_LENGTH - 1] & 0xFF;
+
+        if (paddingLength < 1 || paddingLength > BLOCK_LENGTH) {
+          throw new IOException("Bad padding");
+        }
+
+        return paddingLength;
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void verifyMac(@NonNull AttachmentSecret attachmentSecret) throws IOException {
+      try {
+        Mac        mac    = Mac.getInstance("HmacSHA1");
+        ByteBuffer buffer = ByteBuffer.allocate(WINDOW_LENGTH);
+        long       end    = IV_LENGTH + ciphertextLength;
+
+        mac.init(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
+
+        for (long position = 0; position < end; position += buffer.limit()) {
+          buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+          readFully(position, buffer);
+          buffer.flip();
+          mac.update(buffer);
+        }
+
+        ByteBuffer theirMac = ByteBuffer.allocate(MAC_LENGTH);
+        readFully(end, theirMac);
+
+        if (!MessageDigest.isEqual(mac.doFinal(), theirMac.array())) {
+          throw new IOException("Bad MAC");
+        }
+      } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /**
+   * AES-CTR keyed by an HMAC of the file's random, with the whole file as ciphertext.
+   */
+  private static final class Modern extends DecryptingPartChannel {
+
+    private final SecretKeySpec key;
+    private final long          size;
+
+    Modern(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file) throws IOException {
+      super(file, "AES/CTR/NoPadding");
+
+      try {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+        this.key  = new SecretKeySpec(mac.doFinal(random), "AES");
+        this.size = channel.size();
+      } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    protected void initCipher(long blockIndex) throws InvalidKeyException, InvalidAlgorithmParameterException {
+      // The counter starts at zero for the first block
+      byte[] iv = new byte[BLOCK_LENGTH];
+      for (int i = 0; i < 8; i++) {
+        iv[BLOCK_LENGTH - 1 - i] = (byte) (blockIndex >>> (8 * i));
+      }
+
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+    }
+
+    @Override
+    protected long getCiphertextOffset() {
+      return 0;
+    }
+
+    @Override
+    protected long getCiphertextLength() {
+      return size;
+    }
+  }
+}
@@ -35,7 +35,6 @@ import com.bumptech.glide.Glide;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
-import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.session.libsession.messaging.sending_receiving.attachments.Attachment;
@@ -53,7 +52,6 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
-import org.thoughtcrime.securesms.database.model.MmsAttachmentInfo;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
@@ -72,6 +70,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -149,6 +148,14 @@ public class AttachmentDatabase extends Database {
     STICKER_PACK_KEY + " DEFAULT NULL, " + STICKER_ID + " INTEGER DEFAULT -1," +
     AUDIO_VISUAL_SAMPLES + " BLOB, " + AUDIO_DURATION + " INTEGER);";
 
+  // Files of deleted attachments that are still to be removed from disk
+  private static final String DELETION_JOURNAL_TABLE_NAME = "part_deletion_journal";
+  private static final String JOURNAL_FILE                = "file";
+  private static final String JOURNAL_CLEARS_IMAGE_CACHE  = "clears_image_cache";
+
+  public static final String CREATE_DELETION_JOURNAL_TABLE = "CREATE TABLE IF NOT EXISTS " + DELETION_JOURNAL_TABLE_NAME + " (" +
+    JOURNAL_FILE + " TEXT PRIMARY KEY, " + JOURNAL_CLEARS_IMAGE_CACHE + " INTEGER DEFAULT 0);";
+
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
@@ -271,74 +278,111 @@ public class AttachmentDatabase extends Database {
     return attachments;
   }
 
-  void deleteAttachmentsForMessages(String[] messageIds) {
-    StringBuilder queryBuilder = new StringBuilder();
-    for (int i = 0; i < messageIds.length; i++) {
-      queryBuilder.append(MMS_ID+" = ").append(messageIds[i]);
-      if (i+1 < messageIds.length) {
-        queryBuilder.append(" OR ");
-      }
-    }
-    String idsAsString = queryBuilder.toString();
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    Cursor cursor = null;
-    List<MmsAttachmentInfo> attachmentInfos = new ArrayList<>();
+  /**
+   * Deletes the attachments of the given messages in one transaction, binding their IDs a chunk at a time.
+   *
+   * The attachments' files are recorded in the deletion journal rather than deleted, so they're only removed
+   * once the deletion has committed: call {@link #deleteJournaledFiles()} after the outermost transaction ends.
+   * If the process dies before then, {@link #deleteOrphanedFiles(long)} removes them on the next start.
+   */
+  void deleteAttachmentsForMessages(@NonNull List<Long> mmsIds) {
+    if (mmsIds.isEmpty()) return;
+
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.beginTransaction();
     try {
-      cursor = database.query(TABLE_NAME, new String[] { DATA, THUMBNAIL, CONTENT_TYPE}, idsAsString, null, null, null, null);
-      while (cursor != null && cursor.moveToNext()) {
-        attachmentInfos.add(new MmsAttachmentInfo(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+      for (List<Long> partition : Util.partition(mmsIds, 900)) {
+        String   where = MMS_ID + " IN (" + Util.join(Collections.nCopies(partition.size(), "?"), ",") + ")";
+        String[] args  = new String[partition.size()];
+
+        for (int i = 0; i < partition.size(); i++) {
+          args[i] = String.valueOf(partition.get(i));
+        }
+
+        for (String fileColumn : new String[] {DATA, THUMBNAIL}) {
+          database.execSQL("INSERT OR IGNORE INTO " + DELETION_JOURNAL_TABLE_NAME + " (" + JOURNAL_FILE + ", " + JOURNAL_CLEARS_IMAGE_CACHE + ") " +
+                           "SELECT " + fileColumn + ", (" + CONTENT_TYPE + " LIKE 'image/%' OR " + THUMBNAIL + " IS NOT NULL) FROM " + TABLE_NAME +
+                           " WHERE " + where + " AND " + fileColumn + " IS NOT NULL AND " + fileColumn + " != ''", args);
+        }
+
+        database.delete(TABLE_NAME, where, args);
       }
+      database.setTransactionSuccessful();
     } finally {
-      if (cursor != null) {
-        cursor.close();
-      }
+      database.endTransaction();
     }
-    deleteAttachmentsOnDisk(attachmentInfos);
-    database.delete(TABLE_NAME, idsAsString, null);
+
     notifyAttachmentListeners();
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
-  void deleteAttachmentsForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
+  /**
+   * Deletes the files in the deletion journal, which are no longer referenced by any attachment.
+   */
+  public synchronized void deleteJournaledFiles() {
+    SQLiteDatabase database        = databaseHelper.getWritableDatabase();
+    List<String>   files           = new ArrayList<>();
+    boolean        clearImageCache = false;
+
+    try (Cursor cursor = database.query(DELETION_JOURNAL_TABLE_NAME, new String[] {JOURNAL_FILE, JOURNAL_CLEARS_IMAGE_CACHE}, null, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        files.add(cursor.getString(0));
+        clearImageCache |= cursor.getInt(1) != 0;
+      }
+    }
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " = ?",
-                              new String[] {mmsId+""}, null, null, null);
+    if (files.isEmpty()) return;
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
+    for (String file : files) {
+      File data = new File(file);
+      if (data.exists() && !data.delete()) {
+        Log.w(TAG, "Couldn't delete attachment file: " + data.getName());
       }
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
-    notifyAttachmentListeners();
+    for (List<String> partition : Util.partition(files, 900)) {
+      database.delete(DELETION_JOURNAL_TABLE_NAME,
+                      JOURNAL_FILE + " IN (" + Util.join(Collections.nCopies(partition.size(), "?"), ",") + ")",
+                      partition.toArray(new String[0]));
+    }
+
+    Log.i(TAG, "Deleted " + files.size() + " attachment files.");
+
+    if (clearImageCache) {
+      Glide.get(context).clearDiskCache();
+    }
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
-  void deleteAttachmentsForMessages(long[] mmsIds) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
-    String mmsIdString = StringUtils.join(mmsIds, ',');
+  /**
+   * Finishes deletions that were interrupted, and removes any part files that no attachment refers to, such as
+   * ones written for an attachment that was never saved. Only files last modified before {@code olderThan} are
+   * swept, so nothing that's still being written is touched.
+   */
+  public void deleteOrphanedFiles(long olderThan) {
+    deleteJournaledFiles();
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " IN (?)",
-              new String[] {mmsIdString}, null, null, null);
+    File[] files = context.getDir(DIRECTORY, Context.MODE_PRIVATE).listFiles();
+    if (files == null || files.length == 0) return;
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
+    Set<String> referenced = new HashSet<>();
+    String      query      = "SELECT " + DATA + " FROM " + TABLE_NAME + " WHERE " + DATA + " IS NOT NULL UNION " +
+                             "SELECT " + THUMBNAIL + " FROM " + TABLE_NAME + " WHERE " + THUMBNAIL + " IS NOT NULL";
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        referenced.add(new File(cursor.getString(0)).getName());
       }
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " IN (?)", new String[] {mmsIdString});
-    notifyAttachmentListeners();
+    int deleted = 0;
+    for (File file : files) {
+      if (file.isFile() && file.lastModified() < olderThan && !referenced.contains(file.getName()) && file.delete()) {
+        deleted++;
+      }
+    }
+
+    if (deleted > 0) {
+      Log.i(TAG, "Deleted " + deleted + " orphaned attachment files.");
+    }
   }
 
   public void deleteAttachment(@NonNull AttachmentId id) {
@@ -370,6 +414,7 @@ public class AttachmentDatabase extends Database {
   void deleteAllAttachments() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, null, null);
+    database.delete(DELETION_JOURNAL_TABLE_NAME, null, null);
 
     File   attachmentsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
     File[] attachments          = attachmentsDirectory.listFiles();
@@ -381,30 +426,6 @@ public class AttachmentDatabase extends Database {
     notifyAttachmentListeners();
   }
 
-  private void deleteAttachmentsOnDisk(List<MmsAttachmentInfo> mmsAttachmentInfos) {
-    for (MmsAttachmentInfo info : mmsAttachmentInfos) {
-      if (info.getDataFile() != null && !TextUtils.isEmpty(info.getDataFile())) {
-        File data = new File(info.getDataFile());
-        if (data.exists()) {
-          data.delete();
-        }
-      }
-      if (info.getThumbnailFile() != null && !TextUtils.isEmpty(info.getThumbnailFile())) {
-        File thumbnail = new File(info.getThumbnailFile());
-        if (thumbnail.exists()) {
-          thumbnail.delete();
-        }
-      }
-    }
-
-    boolean anyImageType = MmsAttachmentInfo.anyImages(mmsAttachmentInfos);
-    boolean anyThumbnail = MmsAttachmentInfo.anyThumbnailNonNull(mmsAttachmentInfos);
-
-    if (anyImageType || anyThumbnail) {
-      Glide.get(context).clearDiskCache();
-    }
-  }
-
   @SuppressWarnings("ResultOfMethodCallIgnored")
   private void deleteAttachmentOnDisk(@Nullable String data, @Nullable String thumbnail, @Nullable String contentType) {
     if (!TextUtils.isEmpty(data)) {
@@ -975,12 +996,22 @@ public class AttachmentDatabase extends Database {
 
       EncryptedMediaDataSource dataSource = new EncryptedMediaDataSource(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
       MediaMetadataRetriever   retriever  = new MediaMetadataRetriever();
-      retriever.setDataSource(dataSource);
 
-      Bitmap bitmap = retriever.getFrameAtTime(1000);
+      try {
+        retriever.setDataSource(dataSource);
+
+        Bitmap bitmap = retriever.getFrameAtTime(1000);
 
-      Log.i(TAG, "Generated video thumbnail...");
-      return new ThumbnailData(bitmap);
+        Log.i(TAG, "Generated video thumbnail...");
+        return new ThumbnailData(bitmap);
+      } finally {
+        try {
+          retriever.release();
+          dataSource.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close video data source", e);
+        }
+      }
     }
   }
 
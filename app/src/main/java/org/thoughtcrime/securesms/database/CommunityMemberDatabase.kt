@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import org.session.libsession.messaging.open_groups.CommunityMember
+import org.session.libsession.utilities.GroupUtil
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.util.asSequence
+
+/**
+ * Everyone who has been seen posting in each community, with their latest display name, so they can all be
+ * offered for mentions (see [org.thoughtcrime.securesms.conversation.v2.mention.MemberIndex]).
+ */
+class CommunityMemberDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
+
+    companion object {
+        const val TABLE_NAME = "community_member"
+        const val THREAD_ID = "thread_id"
+        const val ACCOUNT_ID = "account_id"
+        const val DISPLAY_NAME = "display_name"
+        const val LAST_SEEN = "last_seen"
+
+        @JvmField
+        val CREATE_COMMUNITY_MEMBER_TABLE_COMMAND = """
+      CREATE TABLE $TABLE_NAME (
+        $THREAD_ID INTEGER NOT NULL,
+        $ACCOUNT_ID TEXT NOT NULL,
+        $DISPLAY_NAME TEXT,
+        $LAST_SEEN INTEGER NOT NULL DEFAULT 0,
+        PRIMARY KEY ($THREAD_ID, $ACCOUNT_ID)
+      )
+    """.trimIndent()
+
+        /**
+         * Indexes the senders of the messages already stored for each community, named after their contact.
+         * Outgoing messages are addressed to the community itself, so they're left out.
+         */
+        @JvmField
+        val BACKFILL_COMMUNITY_MEMBERS_COMMAND = """
+      INSERT OR IGNORE INTO $TABLE_NAME ($THREAD_ID, $ACCOUNT_ID, $DISPLAY_NAME, $LAST_SEEN)
+      SELECT message.${MmsSmsColumns.THREAD_ID}, message.${MmsSmsColumns.ADDRESS}, contact.${SessionContactDatabase.name}, MAX(message.${MmsSmsColumns.NORMALIZED_DATE_SENT})
+      FROM (
+        SELECT ${MmsSmsColumns.THREAD_ID}, ${MmsSmsColumns.ADDRESS}, ${MmsSmsColumns.NORMALIZED_DATE_SENT} FROM ${MmsDatabase.TABLE_NAME}
+        UNION ALL
+        SELECT ${MmsSmsColumns.THREAD_ID}, ${MmsSmsColumns.ADDRESS}, ${MmsSmsColumns.NORMALIZED_DATE_SENT} FROM ${SmsDatabase.TABLE_NAME}
+      ) AS message
+      INNER JOIN ${ThreadDatabase.TABLE_NAME} AS thread ON thread.${ThreadDatabase.ID} = message.${MmsSmsColumns.THREAD_ID}
+      LEFT OUTER JOIN ${SessionContactDatabase.sessionContactTable} AS contact ON contact.${SessionContactDatabase.accountID} = message.${MmsSmsColumns.ADDRESS}
+      WHERE thread.${ThreadDatabase.ADDRESS} LIKE '${GroupUtil.COMMUNITY_PREFIX}%'
+        AND message.${MmsSmsColumns.ADDRESS} != thread.${ThreadDatabase.ADDRESS}
+      GROUP BY message.${MmsSmsColumns.THREAD_ID}, message.${MmsSmsColumns.ADDRESS}
+    """.trimIndent()
+
+        // A name is only replaced by one from a newer message, and isn't forgotten by a message without a profile
+        private val UPSERT_MEMBER_COMMAND = """
+      INSERT INTO $TABLE_NAME ($THREAD_ID, $ACCOUNT_ID, $DISPLAY_NAME, $LAST_SEEN) VALUES (?, ?, ?, ?)
+      ON CONFLICT ($THREAD_ID, $ACCOUNT_ID) DO UPDATE SET
+        $DISPLAY_NAME = CASE
+          WHEN excluded.$LAST_SEEN >= $LAST_SEEN THEN COALESCE(excluded.$DISPLAY_NAME, $DISPLAY_NAME)
+          ELSE COALESCE($DISPLAY_NAME, excluded.$DISPLAY_NAME)
+        END,
+        $LAST_SEEN = MAX($LAST_SEEN, excluded.$LAST_SEEN)
+    """.trimIndent()
+    }
+
+    fun getMembers(threadId: Long): List<CommunityMember> {
+        val sql = "SELECT $ACCOUNT_ID, $DISPLAY_NAME, $LAST_SEEN FROM $TABLE_NAME WHERE $THREAD_ID = ?"
+
+        return readableDatabase.rawQuery(sql, threadId).use { cursor ->
+            cursor.asSequence()
+                .map { CommunityMember(accountId = it.getString(0), displayName = it.getString(1), lastSeen = it.getLong(2)) }
+                .toList()
+        }
+    }
+
+    fun updateMembers(threadId: Long, members: Collection<CommunityMember>) {
+        if (members.isEmpty()) return
+
+        writableDatabase.beginTransaction()
+        try {
+            writableDatabase.compileStatement(UPSERT_MEMBER_COMMAND).use { statement ->
+                for (member in members) {
+                    statement.clearBindings()
+                    statement.bindLong(1, threadId)
+                    statement.bindString(2, member.accountId)
+                    member.displayName?.let { statement.bindString(3, it) } ?: statement.bindNull(3)
+                    statement.bindLong(4, member.lastSeen)
+                    statement.executeInsert()
+                }
+            }
+            writableDatabase.setTransactionSuccessful()
+        } finally {
+            writableDatabase.endTransaction()
+        }
+    }
+
+    fun deleteMembers(threadId: Long) {
+        writableDatabase.delete(TABLE_NAME, "$THREAD_ID = ?", arrayOf(threadId.toString()))
+    }
+}
@@ -0,0 +1,74 @@
+package org.thoughtcrime.securesms.database
+
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * Records which threads changed between [DatabaseContentProviders.ConversationList] notifications.
+ *
+ * A content notification can't carry a payload, so each observer holds a [Subscription] that collects
+ * the affected thread IDs until it is drained. Changes that can't be pinned to specific threads (such as
+ * recipient or group updates) invalidate the whole list.
+ */
+object ConversationListChanges {
+
+    private val subscriptions = CopyOnWriteArraySet<Subscription>()
+
+    @JvmStatic
+    fun threadChanged(threadId: Long) {
+        subscriptions.forEach { it.add(threadId) }
+    }
+
+    @JvmStatic
+    fun threadsChanged(threadIds: Collection<Long>) {
+        subscriptions.forEach { it.addAll(threadIds) }
+    }
+
+    @JvmStatic
+    fun everythingChanged() {
+        subscriptions.forEach { it.invalidate() }
+    }
+
+    /**
+     * Start tracking changes. The first [Subscription.drain] always asks for a full load.
+     */
+    fun subscribe(): Subscription = Subscription().also { subscriptions += it }
+
+    class Subscription internal constructor() : AutoCloseable {
+        private var threadIds = HashSet<Long>()
+        private var everything = true
+
+        @Synchronized
+        internal fun add(threadId: Long) {
+            if (!everything) threadIds += threadId
+        }
+
+        @Synchronized
+        internal fun addAll(threadIds: Collection<Long>) {
+            if (!everything) this.threadIds += threadIds
+        }
+
+        @Synchronized
+        fun invalidate() {
+            everything = true
+            threadIds.clear()
+        }
+
+        /**
+         * @return The threads that changed since the last drain, or null if everything should be reloaded.
+         */
+        @Synchronized
+        fun drain(): Set<Long>? {
+            if (everything) {
+                everything = false
+                threadIds.clear()
+                return null
+            }
+
+            return threadIds.also { threadIds = HashSet() }
+        }
+
+        override fun close() {
+            subscriptions -= this
+        }
+    }
+}
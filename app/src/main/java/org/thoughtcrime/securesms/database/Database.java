@@ -62,6 +62,20 @@ public abstract class Database {
   }
 
   protected void notifyConversationListListeners() {
+    ConversationListChanges.everythingChanged();
+    conversationListNotificationDebouncer.publish(conversationListUpdater);
+  }
+
+  /**
+   * Like {@link #notifyConversationListListeners()}, but lets observers refresh just this thread.
+   */
+  protected void notifyConversationListListeners(long threadId) {
+    ConversationListChanges.threadChanged(threadId);
+    conversationListNotificationDebouncer.publish(conversationListUpdater);
+  }
+
+  protected void notifyConversationListListenersForThreads(Set<Long> threadIds) {
+    ConversationListChanges.threadsChanged(threadIds);
     conversationListNotificationDebouncer.publish(conversationListUpdater);
   }
 
@@ -4,6 +4,7 @@ import org.session.libsignal.utilities.Log;
 import org.session.libsession.utilities.Address;
 import org.thoughtcrime.securesms.util.LRUCache;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,6 +18,18 @@ public class EarlyReceiptCache {
     Log.i(TAG, this+"");
     Log.i(TAG, String.format("Early receipt: (%d, %s)", timestamp, origin.serialize()));
 
+    incrementLocked(timestamp, origin);
+  }
+
+  public synchronized void increment(Collection<Long> timestamps, Address origin) {
+    Log.i(TAG, String.format("Early receipts: (%d messages, %s)", timestamps.size(), origin.serialize()));
+
+    for (long timestamp : timestamps) {
+      incrementLocked(timestamp, origin);
+    }
+  }
+
+  private void incrementLocked(long timestamp, Address origin) {
     Map<Address, Long> receipts = cache.get(timestamp);
 
     if (receipts == null) {
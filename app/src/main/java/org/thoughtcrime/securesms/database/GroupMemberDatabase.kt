@@ -67,6 +67,14 @@ class GroupMemberDatabase(context: Context, helper: SQLCipherOpenHelper) : Datab
         }
     }
 
+    fun getGroupMembersRoles(groupId: String): Map<String, List<GroupMemberRole>> {
+        return readableDatabase.query(TABLE_NAME, allColumns, "$GROUP_ID = ?", arrayOf(groupId), null, null, null).use { cursor ->
+            cursor.asSequence()
+                .map { readGroupMember(it) }
+                .groupBy(keySelector = { it.profileId }, valueTransform = { it.role })
+        }
+    }
+
     fun setGroupMembers(members: List<GroupMember>) {
         writableDatabase.beginTransaction()
         try {
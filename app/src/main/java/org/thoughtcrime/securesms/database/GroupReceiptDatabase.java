@@ -8,10 +8,11 @@ import androidx.annotation.NonNull;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
-import org.apache.commons.lang3.StringUtils;
 import org.session.libsession.utilities.Address;
+import org.session.libsession.utilities.Util;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -92,27 +93,17 @@ public class GroupReceiptDatabase extends Database {
     return results;
   }
 
-  void deleteRowsForMessages(String[] mmsIds) {
-    StringBuilder queryBuilder = new StringBuilder();
-    for (int i = 0; i < mmsIds.length; i++) {
-      queryBuilder.append(MMS_ID+" = ").append(mmsIds[i]);
-      if (i+1 < mmsIds.length) {
-        queryBuilder.append(" OR ");
-      }
-    }
-    String idsAsString = queryBuilder.toString();
+  void deleteRowsForMessages(@NonNull List<Long> mmsIds) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.delete(TABLE_NAME, idsAsString, null);
-  }
 
-  void deleteRowsForMessage(long mmsId) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {String.valueOf(mmsId)});
-  }
+    for (List<Long> partition : Util.partition(mmsIds, 900)) {
+      String[] args = new String[partition.size()];
+      for (int i = 0; i < partition.size(); i++) {
+        args[i] = String.valueOf(partition.get(i));
+      }
 
-  void deleteRowsForMessages(long[] mmsIds) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.delete(TABLE_NAME, MMS_ID + " IN (?)", new String[] {StringUtils.join(mmsIds, ',')});
+      db.delete(TABLE_NAME, MMS_ID + " IN (" + Util.join(Collections.nCopies(args.length, "?"), ",") + ")", args);
+    }
   }
 
   void deleteAllRows() {
@@ -76,6 +76,20 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
   }
 
   void updateReactionsUnread(SQLiteDatabase db, long messageId, boolean hasReactions, boolean isRemoval, boolean notifyUnread) {
+    long threadId = updateReactionsUnreadWithoutNotifying(db, messageId, hasReactions, isRemoval, notifyUnread);
+
+    if (threadId >= 0) {
+      notifyConversationListeners(threadId);
+    }
+  }
+
+  /**
+   * Same as {@link #updateReactionsUnread(SQLiteDatabase, long, boolean, boolean, boolean)}, leaving the caller
+   * to notify the message's thread.
+   *
+   * @return the message's thread ID, or -1 if there's no such message.
+   */
+  long updateReactionsUnreadWithoutNotifying(SQLiteDatabase db, long messageId, boolean hasReactions, boolean isRemoval, boolean notifyUnread) {
     try {
       MessageRecord message    = getMessageRecord(messageId);
       ContentValues values     = new ContentValues();
@@ -97,9 +111,10 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
       if (values.size() > 0) {
         db.update(getTableName(), values, ID_WHERE, SqlUtil.buildArgs(messageId));
       }
-      notifyConversationListeners(message.getThreadId());
+      return message.getThreadId();
     } catch (NoSuchMessageException e) {
       Log.w(TAG, "Failed to find message " + messageId);
+      return -1;
     }
   }
 
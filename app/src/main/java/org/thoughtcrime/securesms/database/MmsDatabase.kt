@@ -21,7 +21,6 @@ import android.content.Context
 import android.database.Cursor
 import com.annimon.stream.Stream
 import com.google.android.mms.pdu_alt.PduHeaders
-import org.apache.commons.lang3.StringUtils
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
@@ -106,76 +105,62 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
                 .any { MmsSmsColumns.Types.isOutgoingMessageType(it) }
         }
 
-    fun incrementReceiptCount(
-        messageId: SyncMessageId,
+    /**
+     * Counts a receipt from [address] against each of its outgoing messages sent at [sentTimestamps], along with
+     * the group receipts for group messages. Receipts for messages that aren't in this table yet are held until
+     * they're inserted. The caller is expected to hold a transaction and to update and notify the affected threads.
+     *
+     * @return The IDs of the threads that were changed.
+     */
+    fun incrementReceiptCounts(
+        address: Address,
+        sentTimestamps: Collection<Long>,
         timestamp: Long,
         deliveryReceipt: Boolean,
         readReceipt: Boolean
-    ) {
+    ): Set<Long> {
         val database = databaseHelper.writableDatabase
-        var cursor: Cursor? = null
-        var found = false
-        try {
-            cursor = database.query(
+        val columnName = if (deliveryReceipt) DELIVERY_RECEIPT_COUNT else READ_RECEIPT_COUNT
+        val status = if (deliveryReceipt) GroupReceiptDatabase.STATUS_DELIVERED else GroupReceiptDatabase.STATUS_READ
+        val threadIds = mutableSetOf<Long>()
+        val unmatched = sentTimestamps.toMutableSet()
+
+        unmatched.chunked(900).forEach { partition ->
+            database.query(
                 TABLE_NAME,
-                arrayOf(ID, THREAD_ID, MESSAGE_BOX, ADDRESS),
-                "$DATE_SENT = ?",
-                arrayOf(messageId.timetamp.toString()),
+                arrayOf(ID, THREAD_ID, MESSAGE_BOX, ADDRESS, DATE_SENT),
+                "$DATE_SENT IN (${partition.joinToString(",") { "?" }})",
+                partition.map { it.toString() }.toTypedArray(),
                 null,
                 null,
                 null,
                 null
-            )
-            while (cursor.moveToNext()) {
-                if (MmsSmsColumns.Types.isOutgoingMessageType(
-                        cursor.getLong(
-                            cursor.getColumnIndexOrThrow(
-                                MESSAGE_BOX
-                            )
-                        )
-                    )
-                ) {
-                    val theirAddress = fromSerialized(
-                        cursor.getString(
-                            cursor.getColumnIndexOrThrow(
-                                ADDRESS
-                            )
-                        )
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    if (!MmsSmsColumns.Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) continue
+
+                    val theirAddress = fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)))
+                    if (address != theirAddress && !theirAddress.isGroup) continue
+
+                    val id = cursor.getLong(cursor.getColumnIndexOrThrow(ID))
+                    database.execSQL(
+                        "UPDATE $TABLE_NAME SET $columnName = $columnName + 1 WHERE $ID = ?",
+                        arrayOf(id.toString())
                     )
-                    val ourAddress = messageId.address
-                    val columnName =
-                        if (deliveryReceipt) DELIVERY_RECEIPT_COUNT else READ_RECEIPT_COUNT
-                    if (ourAddress.equals(theirAddress) || theirAddress.isGroup) {
-                        val id = cursor.getLong(cursor.getColumnIndexOrThrow(ID))
-                        val threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID))
-                        val status =
-                            if (deliveryReceipt) GroupReceiptDatabase.STATUS_DELIVERED else GroupReceiptDatabase.STATUS_READ
-                        found = true
-                        database.execSQL(
-                            "UPDATE " + TABLE_NAME + " SET " +
-                                    columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
-                            arrayOf(id.toString())
-                        )
-                        get(context).groupReceiptDatabase()
-                            .update(ourAddress, id, status, timestamp)
-                        get(context).threadDatabase().update(threadId, false, true)
-                        notifyConversationListeners(threadId)
-                    }
+                    get(context).groupReceiptDatabase().update(address, id, status, timestamp)
+
+                    threadIds += cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID))
+                    unmatched -= cursor.getLong(cursor.getColumnIndexOrThrow(DATE_SENT))
                 }
             }
-            if (!found) {
-                if (deliveryReceipt) earlyDeliveryReceiptCache.increment(
-                    messageId.timetamp,
-                    messageId.address
-                )
-                if (readReceipt) earlyReadReceiptCache.increment(
-                    messageId.timetamp,
-                    messageId.address
-                )
-            }
-        } finally {
-            cursor?.close()
         }
+
+        if (unmatched.isNotEmpty()) {
+            if (deliveryReceipt) earlyDeliveryReceiptCache.increment(unmatched, address)
+            if (readReceipt) earlyReadReceiptCache.increment(unmatched, address)
+        }
+
+        return threadIds
     }
 
     fun updateSentTimestamp(messageId: Long, newTimestamp: Long, threadId: Long) {
@@ -185,7 +170,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             arrayOf(newTimestamp.toString(), messageId.toString())
         )
         notifyConversationListeners(threadId)
-        notifyConversationListListeners()
+        notifyConversationListListeners(threadId)
     }
 
     fun getThreadIdForMessage(id: Long): Long {
@@ -217,21 +202,6 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         return cursor
     }
 
-    fun getRecentChatMemberIDs(threadID: Long, limit: Int): List<String> {
-        val sql = """
-            SELECT DISTINCT $ADDRESS FROM $TABLE_NAME
-            WHERE $THREAD_ID = ?
-            ORDER BY $DATE_SENT DESC
-            LIMIT $limit
-        """.trimIndent()
-
-        return databaseHelper.readableDatabase.rawQuery(sql, threadID).use { cursor ->
-            cursor.asSequence()
-                .map { it.getString(0) }
-                .toList()
-        }
-    }
-
     val expireStartedMessages: Reader
         get() {
             val where = "$EXPIRE_STARTED > 0"
@@ -311,8 +281,8 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         contentValues.put(BODY, "")
         contentValues.put(HAS_MENTION, 0)
         database.update(TABLE_NAME, contentValues, ID_WHERE, arrayOf(messageId.toString()))
-        val attachmentDatabase = get(context).attachmentDatabase()
-        queue(Runnable { attachmentDatabase.deleteAttachmentsForMessage(messageId) })
+        get(context).attachmentDatabase().deleteAttachmentsForMessages(listOf(messageId))
+        deleteJournaledAttachmentFiles()
         val threadId = getThreadIdForMessage(messageId)
 
         markAs(messageId, MmsSmsColumns.Types.BASE_DELETED_TYPE, threadId)
@@ -869,47 +839,38 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
     }
 
     /**
-     * Delete all the messages in single queries where possible
-     * @param messageIds a String array representation of regularly Long types representing message IDs
+     * Deletes the messages along with their attachments and group receipts in one transaction, binding their IDs
+     * a chunk at a time. The attachments' files are removed once it has committed.
      */
-    private fun deleteMessages(messageIds: Array<String?>) {
-        if (messageIds.isEmpty()) {
-            Log.w(TAG, "No message Ids provided to MmsDatabase.deleteMessages - aborting delete operation!")
-            return
-        }
+    private fun deleteMessagesWithAttachments(messageIds: List<Long>) {
+        if (messageIds.isEmpty()) return
 
-        // don't need thread IDs
-        val queryBuilder = StringBuilder()
-        for (i in messageIds.indices) {
-            queryBuilder.append("$TABLE_NAME.$ID").append(" = ").append(
-                messageIds[i]
-            )
-            if (i + 1 < messageIds.size) {
-                queryBuilder.append(" OR ")
+        val db = databaseHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            get(context).attachmentDatabase().deleteAttachmentsForMessages(messageIds)
+            get(context).groupReceiptDatabase().deleteRowsForMessages(messageIds)
+            for (chunk in messageIds.chunked(MAX_BOUND_IDS)) {
+                db.delete(TABLE_NAME, "$ID IN (${chunk.joinToString(",") { "?" }})", chunk.map { it.toString() }.toTypedArray())
             }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
         }
-        val idsAsString = queryBuilder.toString()
+        deleteJournaledAttachmentFiles()
+    }
+
+    // The journal is only read from the queue's thread, so it only ever sees deletions that have committed
+    private fun deleteJournaledAttachmentFiles() {
         val attachmentDatabase = get(context).attachmentDatabase()
-        queue(Runnable { attachmentDatabase.deleteAttachmentsForMessages(messageIds) })
-        val groupReceiptDatabase = get(context).groupReceiptDatabase()
-        groupReceiptDatabase.deleteRowsForMessages(messageIds)
-        val database = databaseHelper.writableDatabase
-        database.delete(TABLE_NAME, idsAsString, null)
-        notifyConversationListListeners()
-        notifyStickerListeners()
-        notifyStickerPackListeners()
+        queue(Runnable { attachmentDatabase.deleteJournaledFiles() })
     }
 
     // Caution: The bool returned from `deleteMessage` is NOT "Was the message successfully deleted?"
     // - it is "Was the thread deleted because removing that message resulted in an empty thread"!
     override fun deleteMessage(messageId: Long): Boolean {
         val threadId = getThreadIdForMessage(messageId)
-        val attachmentDatabase = get(context).attachmentDatabase()
-        queue(Runnable { attachmentDatabase.deleteAttachmentsForMessage(messageId) })
-        val groupReceiptDatabase = get(context).groupReceiptDatabase()
-        groupReceiptDatabase.deleteRowsForMessage(messageId)
-        val database = databaseHelper.writableDatabase
-        database!!.delete(TABLE_NAME, ID_WHERE, arrayOf(messageId.toString()))
+        deleteMessagesWithAttachments(listOf(messageId))
         val threadDeleted = get(context).threadDatabase().update(threadId, false, true)
         notifyConversationListeners(threadId)
         notifyStickerListeners()
@@ -918,15 +879,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
     }
 
     override fun deleteMessages(messageIds: LongArray, threadId: Long): Boolean {
-        val argsArray = messageIds.map { "?" }
-        val argValues = messageIds.map { it.toString() }.toTypedArray()
-
-        val db = databaseHelper.writableDatabase
-        db.delete(
-            TABLE_NAME,
-            ID + " IN (" + StringUtils.join(argsArray, ',') + ")",
-            argValues
-        )
+        deleteMessagesWithAttachments(messageIds.toList())
 
         val threadDeleted = get(context).threadDatabase().update(threadId, false, true)
         notifyConversationListeners(threadId)
@@ -942,7 +895,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         val db = databaseHelper.writableDatabase
         db.update(SmsDatabase.TABLE_NAME, contentValues, "$THREAD_ID = ?", arrayOf("$fromId"))
         notifyConversationListeners(toId)
-        notifyConversationListListeners()
+        notifyConversationListListenersForThreads(setOf(fromId, toId))
     }
 
     @Throws(NoSuchMessageException::class)
@@ -1102,63 +1055,51 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
     /*package*/
     private fun deleteThreads(threadIds: Set<Long>) {
         val db = databaseHelper.writableDatabase
-        val where = StringBuilder()
-        var cursor: Cursor? = null
-        for (threadId in threadIds) {
-            where.append(THREAD_ID).append(" = '").append(threadId).append("' OR ")
-        }
-        val whereString = where.substring(0, where.length - 4)
-        try {
-            cursor = db!!.query(TABLE_NAME, arrayOf<String?>(ID), whereString, null, null, null, null)
-            val toDeleteStringMessageIds = mutableListOf<String>()
-            while (cursor.moveToNext()) {
-                toDeleteStringMessageIds += cursor.getLong(0).toString()
-            }
-            // TODO: this can probably be optimized out,
-            //  currently attachmentDB uses MmsID not threadID which makes it difficult to delete
-            //  and clean up on threadID alone
-            toDeleteStringMessageIds.toList().chunked(50).forEach { sublist ->
-                deleteMessages(sublist.toTypedArray())
-            }
-        } finally {
-            cursor?.close()
+        val messageIds = threadIds.chunked(MAX_BOUND_IDS).flatMap { chunk ->
+            db.query(
+                TABLE_NAME,
+                arrayOf(ID),
+                "$THREAD_ID IN (${chunk.joinToString(",") { "?" }})",
+                chunk.map { it.toString() }.toTypedArray(),
+                null, null, null
+            ).use { cursor -> cursor.asSequence().map { it.getLong(0) }.toList() }
         }
+        deleteMessagesWithAttachments(messageIds)
+
         val threadDb = get(context).threadDatabase()
         for (threadId in threadIds) {
-            val threadDeleted = threadDb.update(threadId, false, true)
+            threadDb.update(threadId, false, true)
             notifyConversationListeners(threadId)
         }
+        notifyConversationListListeners()
         notifyStickerListeners()
         notifyStickerPackListeners()
     }
 
+    /**
+     * Deletes up to [limit] of the thread's messages from before [date], along with their attachments and group
+     * receipts. Reactions go with them by trigger.
+     *
+     * @return The number of messages deleted, which is less than [limit] once there are none left.
+     */
     /*package*/
-    fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long) {
-        var cursor: Cursor? = null
-        try {
-            val db = databaseHelper.readableDatabase
-            var where =
-                THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + MmsSmsColumns.Types.BASE_TYPE_MASK + ") "
-            for (outgoingType in MmsSmsColumns.Types.OUTGOING_MESSAGE_TYPES) {
-                where += " WHEN $outgoingType THEN $DATE_SENT < $date"
-            }
-            where += " ELSE $DATE_RECEIVED < $date END)"
-            cursor = db!!.query(
-                TABLE_NAME,
-                arrayOf<String?>(ID),
-                where,
-                arrayOf<String?>(threadId.toString() + ""),
-                null,
-                null,
-                null
-            )
-            while (cursor != null && cursor.moveToNext()) {
-                Log.i("MmsDatabase", "Trimming: " + cursor.getLong(0))
-                deleteMessage(cursor.getLong(0))
-            }
-        } finally {
-            cursor?.close()
+    fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long, limit: Int): Int {
+        val db = databaseHelper.writableDatabase
+        var where =
+            THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + MmsSmsColumns.Types.BASE_TYPE_MASK + ") "
+        for (outgoingType in MmsSmsColumns.Types.OUTGOING_MESSAGE_TYPES) {
+            where += " WHEN $outgoingType THEN $DATE_SENT < $date"
+        }
+        where += " ELSE $DATE_RECEIVED < $date END)"
+
+        val messageIds = db.query(TABLE_NAME, arrayOf(ID), where, arrayOf(threadId.toString()), null, null, null, limit.toString()).use { cursor ->
+            cursor.asSequence().map { it.getLong(0) }.toList()
         }
+        if (messageIds.isEmpty()) return 0
+
+        Log.i(TAG, "Trimming ${messageIds.size} messages from thread $threadId")
+        deleteMessagesWithAttachments(messageIds)
+        return messageIds.size
     }
 
     fun readerFor(cursor: Cursor?, getQuote: Boolean = true) = Reader(cursor, getQuote)
@@ -1512,6 +1453,9 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
 
         private const val TEMP_TABLE_NAME = "TEMP_TABLE_NAME"
 
+        // Below SQLite's limit on the number of arguments to a statement
+        private const val MAX_BOUND_IDS = 900
+
         const val COMMA_SEPARATED_COLUMNS = "$ID, $THREAD_ID, $DATE_SENT, $DATE_RECEIVED, $MESSAGE_BOX, $READ, m_id, sub, sub_cs, $BODY, $PART_COUNT, ct_t, $CONTENT_LOCATION, $ADDRESS, $ADDRESS_DEVICE_ID, $EXPIRY, m_cls, $MESSAGE_TYPE, v, $MESSAGE_SIZE, pri, rr,rpt_a, resp_st, $STATUS, $TRANSACTION_ID, retr_st, retr_txt, retr_txt_cs, read_status, ct_cls, resp_txt, d_tm, $DELIVERY_RECEIPT_COUNT, $MISMATCHED_IDENTITIES, $NETWORK_FAILURE, d_rpt, $SUBSCRIPTION_ID, $EXPIRES_IN, $EXPIRE_STARTED, $NOTIFIED, $READ_RECEIPT_COUNT, $QUOTE_ID, $QUOTE_AUTHOR, $QUOTE_BODY, $QUOTE_ATTACHMENT, $QUOTE_MISSING, $SHARED_CONTACTS, $UNIDENTIFIED, $LINK_PREVIEWS, $MESSAGE_REQUEST_RESPONSE, $REACTIONS_UNREAD, $REACTIONS_LAST_SEEN, $HAS_MENTION"
 
         @JvmField
@@ -31,12 +31,12 @@ import org.jetbrains.annotations.NotNull;
 import org.session.libsession.utilities.Address;
 import org.session.libsession.utilities.Util;
 import org.session.libsignal.utilities.Log;
-import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -229,6 +229,29 @@ public class MmsSmsDatabase extends Database {
     return hasNext;
   }
 
+  /**
+   * Finds the received date of the message at {@code position} in the thread, counting from the newest at 0.
+   * Each table is read newest first along its thread and date index, and only {@code position} rows deep.
+   *
+   * @return The received date, or -1 if the thread doesn't have that many messages.
+   */
+  public long getDateReceivedAtPosition(long threadId, int position) {
+    String query = "SELECT " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM (" +
+        "SELECT * FROM (SELECT " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED +
+        " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ?" +
+        " ORDER BY " + MmsDatabase.DATE_RECEIVED + " DESC LIMIT " + (position + 1) + ")" +
+        " UNION ALL " +
+        "SELECT * FROM (SELECT " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED +
+        " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ?" +
+        " ORDER BY " + SmsDatabase.DATE_RECEIVED + " DESC LIMIT " + (position + 1) + ")" +
+        ") ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC LIMIT 1 OFFSET " + position;
+
+    String[] args = new String[] { String.valueOf(threadId), String.valueOf(threadId) };
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, args)) {
+      return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+    }
+  }
+
   public Cursor getConversation(long threadId, boolean reverse, long offset, long limit) {
     String order     = MmsSmsColumns.NORMALIZED_DATE_SENT + (reverse ? " DESC" : " ASC");
     String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
@@ -359,14 +382,38 @@ public class MmsSmsDatabase extends Database {
     return count;
   }
 
-  public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseComponent.get(context).smsDatabase().incrementReceiptCount(syncMessageId, true, false);
-    DatabaseComponent.get(context).mmsDatabase().incrementReceiptCount(syncMessageId, timestamp, true, false);
+  public void incrementDeliveryReceiptCounts(Address address, Collection<Long> sentTimestamps, long timestamp) {
+    incrementReceiptCounts(address, sentTimestamps, timestamp, true);
   }
 
-  public void incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseComponent.get(context).smsDatabase().incrementReceiptCount(syncMessageId, false, true);
-    DatabaseComponent.get(context).mmsDatabase().incrementReceiptCount(syncMessageId, timestamp, false, true);
+  public void incrementReadReceiptCounts(Address address, Collection<Long> sentTimestamps, long timestamp) {
+    incrementReceiptCounts(address, sentTimestamps, timestamp, false);
+  }
+
+  /**
+   * Applies a batch of receipts in one transaction, then updates and notifies each affected thread once.
+   */
+  private void incrementReceiptCounts(Address address, Collection<Long> sentTimestamps, long timestamp, boolean deliveryReceipt) {
+    if (sentTimestamps.isEmpty()) return;
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    db.beginTransaction();
+    try {
+      threadIds.addAll(DatabaseComponent.get(context).smsDatabase().incrementReceiptCounts(address, sentTimestamps, deliveryReceipt, !deliveryReceipt));
+      threadIds.addAll(DatabaseComponent.get(context).mmsDatabase().incrementReceiptCounts(address, sentTimestamps, timestamp, deliveryReceipt, !deliveryReceipt));
+
+      for (long threadId : threadIds) {
+        DatabaseComponent.get(context).threadDatabase().update(threadId, false, true);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (!threadIds.isEmpty()) notifyConversationListeners(threadIds);
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull Address address) {
@@ -10,6 +10,7 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.database.model.ReactionRecord
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.session.libsession.utilities.Util
 import org.thoughtcrime.securesms.util.CursorUtil
 
 /**
@@ -85,6 +86,28 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
         dateReceived = CursorUtil.requireLong(cursor, DATE_RECEIVED)
       )
     }
+
+    /**
+     * Works out which of a message's [stored] reactions have to be deleted and which of its [reactions] have to
+     * be written so that it has exactly [reactions]. Reactions are matched by emoji and author, which are unique
+     * per message, and a stored reaction that's the same apart from its row ID isn't written again.
+     */
+    @JvmStatic
+    fun diffReactions(stored: List<ReactionRecord>, reactions: List<ReactionRecord>): ReactionChanges {
+      val storedByKey = stored.associateBy { it.emoji to it.author }
+      val keys = reactions.mapTo(HashSet()) { it.emoji to it.author }
+
+      return ReactionChanges(
+        deleted = stored.filter { (it.emoji to it.author) !in keys },
+        upserted = reactions.filter { reaction ->
+          storedByKey[reaction.emoji to reaction.author]?.copy(id = reaction.id) != reaction
+        }
+      )
+    }
+  }
+
+  class ReactionChanges(val deleted: List<ReactionRecord>, val upserted: List<ReactionRecord>) {
+    fun isEmpty() = deleted.isEmpty() && upserted.isEmpty()
   }
 
   fun getReactions(messageId: MessageId): List<ReactionRecord> {
@@ -102,23 +125,81 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
     return reactions
   }
 
-  fun addReaction(messageId: MessageId, reaction: ReactionRecord, notifyUnread: Boolean) {
+  /**
+   * @return the stored reactions of each of [messageIds] that has any.
+   */
+  private fun getReactions(messageIds: Collection<MessageId>): Map<MessageId, List<ReactionRecord>> {
+    val reactions = mutableMapOf<MessageId, MutableList<ReactionRecord>>()
+
+    for (partition in Util.partition(messageIds.map { it.id }.distinct(), 900)) {
+      val query = "$MESSAGE_ID IN (${partition.joinToString(",")})"
+
+      readableDatabase.query(TABLE_NAME, null, query, null, null, null, null).use { cursor ->
+        while (cursor.moveToNext()) {
+          val reaction = readReaction(cursor).copy(id = CursorUtil.requireLong(cursor, ROW_ID))
+          reactions.getOrPut(MessageId(reaction.messageId, reaction.isMms)) { mutableListOf() } += reaction
+        }
+      }
+    }
+
+    return reactions
+  }
+
+  /**
+   * Replaces the reactions of each message in [reactions], in a single transaction. Reactions that are already
+   * stored as they are aren't written again, and each thread with changed reactions is notified once.
+   */
+  fun setReactions(reactions: Map<MessageId, List<ReactionRecord>>) {
+    if (reactions.isEmpty()) return
+
+    val threadIds = mutableSetOf<Long>()
 
     writableDatabase.beginTransaction()
     try {
-      val values = ContentValues().apply {
-        put(MESSAGE_ID, messageId.id)
-        put(IS_MMS, if (messageId.mms) 1 else 0)
-        put(EMOJI, reaction.emoji)
-        put(AUTHOR_ID, reaction.author)
-        put(SERVER_ID, reaction.serverId)
-        put(COUNT, reaction.count)
-        put(SORT_ID, reaction.sortId)
-        put(DATE_SENT, reaction.dateSent)
-        put(DATE_RECEIVED, reaction.dateReceived)
+      val storedReactions = getReactions(reactions.keys)
+
+      for ((messageId, messageReactions) in reactions) {
+        val changes = diffReactions(storedReactions[messageId].orEmpty(), messageReactions)
+        if (changes.isEmpty()) continue
+
+        if (changes.deleted.isNotEmpty()) {
+          writableDatabase.delete(TABLE_NAME, "$ROW_ID IN (${changes.deleted.joinToString(",") { "${it.id}" }})", null)
+        }
+        for (reaction in changes.upserted) {
+          // Replaces the stored reaction of the same author and emoji, if there is one
+          writableDatabase.insert(TABLE_NAME, null, reaction.toContentValues(messageId))
+        }
+
+        val database = if (messageId.mms) DatabaseComponent.get(context).mmsDatabase() else DatabaseComponent.get(context).smsDatabase()
+        val threadId = database.updateReactionsUnreadWithoutNotifying(writableDatabase, messageId.id, messageReactions.isNotEmpty(), changes.upserted.isEmpty(), false)
+        if (threadId >= 0) threadIds += threadId
       }
 
-      writableDatabase.insert(TABLE_NAME, null, values)
+      writableDatabase.setTransactionSuccessful()
+    } finally {
+      writableDatabase.endTransaction()
+    }
+
+    notifyConversationListeners(threadIds)
+  }
+
+  private fun ReactionRecord.toContentValues(messageId: MessageId) = ContentValues().apply {
+    put(MESSAGE_ID, messageId.id)
+    put(IS_MMS, if (messageId.mms) 1 else 0)
+    put(EMOJI, emoji)
+    put(AUTHOR_ID, author)
+    put(SERVER_ID, serverId)
+    put(COUNT, count)
+    put(SORT_ID, sortId)
+    put(DATE_SENT, dateSent)
+    put(DATE_RECEIVED, dateReceived)
+  }
+
+  fun addReaction(messageId: MessageId, reaction: ReactionRecord, notifyUnread: Boolean) {
+
+    writableDatabase.beginTransaction()
+    try {
+      writableDatabase.insert(TABLE_NAME, null, reaction.toContentValues(messageId))
 
       if (messageId.mms) {
         DatabaseComponent.get(context).mmsDatabase().updateReactionsUnread(writableDatabase, messageId.id, hasReactions(messageId), false, notifyUnread)
@@ -10,11 +10,12 @@ import org.session.libsession.messaging.utilities.AccountId
 import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.IdPrefix
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import java.util.concurrent.CopyOnWriteArrayList
 
 class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
 
     companion object {
-        private const val sessionContactTable = "session_contact_database"
+        const val sessionContactTable = "session_contact_database"
         const val accountID = "session_id"
         const val name = "name"
         const val nickname = "nickname"
@@ -35,6 +36,19 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
                 "$isTrusted INTEGER DEFAULT 0);"
     }
 
+    private val contactChangeListeners = CopyOnWriteArrayList<(accountID: String) -> Unit>()
+
+    /**
+     * Adds a listener that's called with the account ID of each contact that's written.
+     */
+    fun addContactChangeListener(listener: (accountID: String) -> Unit) {
+        contactChangeListeners += listener
+    }
+
+    private fun notifyContactChanged(accountID: String) {
+        contactChangeListeners.forEach { it(accountID) }
+    }
+
     fun getContactWithAccountID(accountID: String): Contact? {
         val database = databaseHelper.readableDatabase
         return database.get(sessionContactTable, "${Companion.accountID} = ?", arrayOf( accountID )) { cursor ->
@@ -65,6 +79,7 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
         val contentValues = ContentValues(1)
         contentValues.put(Companion.isTrusted, if (isTrusted) 1 else 0)
         database.update(sessionContactTable, contentValues, "$accountID = ?", arrayOf( contact.accountID ))
+        notifyContactChanged(contact.accountID)
         if (threadID >= 0) {
             notifyConversationListeners(threadID)
         }
@@ -85,6 +100,7 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
         contentValues.put(threadID, contact.threadID)
         contentValues.put(isTrusted, if (contact.isTrusted) 1 else 0)
         database.insertOrUpdate(sessionContactTable, contentValues, "$accountID = ?", arrayOf( contact.accountID ))
+        notifyContactChanged(contact.accountID)
         notifyConversationListListeners()
     }
 
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.database
 import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
+import net.zetetic.database.sqlcipher.SQLiteDatabase
 import org.json.JSONArray
 import org.session.libsession.messaging.jobs.AttachmentDownloadJob
 import org.session.libsession.messaging.jobs.AttachmentUploadJob
@@ -16,6 +17,7 @@ import org.session.libsession.messaging.jobs.SessionJobManagerFactories
 import org.session.libsession.messaging.utilities.Data
 import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer
 import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer
 
 class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
@@ -26,11 +28,43 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
         const val jobType = "job_type"
         const val failureCount = "failure_count"
         const val serializedData = "serialized_data"
+        const val serializedBlob = "serialized_blob"
         @JvmStatic val createSessionJobTableCommand
             = "CREATE TABLE $sessionJobTable ($jobID INTEGER PRIMARY KEY, $jobType STRING, $failureCount INTEGER DEFAULT 0, $serializedData TEXT);"
+        @JvmStatic val addSerializedBlobCommand
+            = "ALTER TABLE $sessionJobTable ADD COLUMN $serializedBlob BLOB DEFAULT NULL;"
 
         const val dropAttachmentDownloadJobs =
                 "DELETE FROM $sessionJobTable WHERE $jobType = '${AttachmentDownloadJob.KEY}';"
+
+        /**
+         * Re-encodes jobs persisted as JSON into [serializedBlob]. Rows that can't be converted keep their
+         * JSON, which is still read as a fallback.
+         */
+        @JvmStatic
+        fun migrateToBinaryData(database: SQLiteDatabase) {
+            val jobIDs = mutableListOf<String>()
+            database.rawQuery("SELECT $jobID FROM $sessionJobTable WHERE $serializedBlob IS NULL AND $serializedData IS NOT NULL", arrayOf<Any>()).use { cursor ->
+                while (cursor.moveToNext()) { jobIDs.add(cursor.getString(0)) }
+            }
+            val jsonSerializer = JsonDataSerializer()
+            val binarySerializer = BinaryDataSerializer()
+            var migrated = 0
+            jobIDs.forEach { id ->
+                try {
+                    val json = database.get(sessionJobTable, "$jobID = ?", arrayOf( id )) { it.getString(serializedData) } ?: return@forEach
+                    val contentValues = ContentValues(2)
+                    contentValues.put(serializedBlob, binarySerializer.serialize(jsonSerializer.deserialize(json)))
+                    contentValues.putNull(serializedData)
+                    database.update(sessionJobTable, contentValues, "$jobID = ?", arrayOf( id ))
+                    migrated++
+                } catch (e: Throwable) {
+                    // JsonDataSerializer reports a malformed row as an AssertionError
+                    Log.w("Loki", "Couldn't migrate job $id to binary data.", e)
+                }
+            }
+            Log.i("Loki", "Migrated $migrated of ${jobIDs.size} job(s) to binary data.")
+        }
     }
 
     fun persistJob(job: Job) {
@@ -39,7 +73,8 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
         contentValues.put(jobID, job.id!!)
         contentValues.put(jobType, job.getFactoryKey())
         contentValues.put(failureCount, job.failureCount)
-        contentValues.put(serializedData, SessionJobHelper.dataSerializer.serialize(job.serialize()))
+        contentValues.put(serializedBlob, SessionJobHelper.binaryDataSerializer.serialize(job.serialize()))
+        contentValues.putNull(serializedData)
         database.insertOrUpdate(sessionJobTable, contentValues, "$jobID = ?", arrayOf( job.id!! ))
     }
 
@@ -144,7 +179,13 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
 
     private fun jobFromCursor(cursor: Cursor): Job? {
         val type = cursor.getString(jobType)
-        val data = SessionJobHelper.dataSerializer.deserialize(cursor.getString(serializedData))
+        val blobIndex = cursor.getColumnIndexOrThrow(serializedBlob)
+        val data = if (!cursor.isNull(blobIndex)) {
+            SessionJobHelper.binaryDataSerializer.deserialize(cursor.getBlob(blobIndex))
+        } else {
+            // Persisted before the switch to binary data and not converted by the migration
+            SessionJobHelper.dataSerializer.deserialize(cursor.getString(serializedData))
+        }
         val job = SessionJobHelper.sessionJobInstantiator.instantiate(type, data) ?: return null
         job.id = cursor.getString(jobID)
         job.failureCount = cursor.getInt(failureCount)
@@ -161,5 +202,6 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
 
 object SessionJobHelper {
     val dataSerializer: Data.Serializer = JsonDataSerializer()
+    val binaryDataSerializer: Data.BinarySerializer = BinaryDataSerializer()
     val sessionJobInstantiator: SessionJobInstantiator = SessionJobInstantiator(SessionJobManagerFactories.getSessionJobFactories())
 }
\ No newline at end of file
@@ -51,8 +51,11 @@ import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -296,46 +299,51 @@ public class SmsDatabase extends MessagingDatabase {
     return isOutgoing;
   }
 
-  public void incrementReceiptCount(SyncMessageId messageId, boolean deliveryReceipt, boolean readReceipt) {
-    SQLiteDatabase database     = databaseHelper.getWritableDatabase();
-    Cursor         cursor       = null;
-    boolean        foundMessage = false;
+  /**
+   * Counts a receipt from {@code address} against each of its outgoing messages sent at {@code sentTimestamps}.
+   * Receipts for messages that aren't in this table yet are held until they're inserted. The caller is expected
+   * to hold a transaction and to update and notify the affected threads.
+   *
+   * @return The IDs of the threads that were changed.
+   */
+  public Set<Long> incrementReceiptCounts(Address address, Collection<Long> sentTimestamps, boolean deliveryReceipt, boolean readReceipt) {
+    SQLiteDatabase database   = databaseHelper.getWritableDatabase();
+    String         columnName = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
+    Set<Long>      threadIds  = new HashSet<>();
+    Set<Long>      unmatched  = new HashSet<>(sentTimestamps);
+
+    for (List<Long> partition : Util.partition(new ArrayList<>(unmatched), 900)) {
+      String   where = DATE_SENT + " IN (" + Util.join(Collections.nCopies(partition.size(), "?"), ",") + ")";
+      String[] args  = new String[partition.size()];
+
+      for (int i = 0; i < partition.size(); i++) {
+        args[i] = String.valueOf(partition.get(i));
+      }
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, ADDRESS, TYPE},
-                              DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())},
-                              null, null, null, null);
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, ADDRESS, TYPE, DATE_SENT}, where, args, null, null, null, null)) {
+        while (cursor.moveToNext()) {
+          if (!Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(TYPE)))) continue;
 
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(TYPE)))) {
-          Address theirAddress = messageId.getAddress();
-          Address ourAddress   = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
-          String  columnName   = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
-
-          if (ourAddress.equals(theirAddress)) {
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
-
-            database.execSQL("UPDATE " + TABLE_NAME +
-                             " SET " + columnName + " = " + columnName + " + 1 WHERE " +
-                             ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
-
-            DatabaseComponent.get(context).threadDatabase().update(threadId, false, true);
-            notifyConversationListeners(threadId);
-            foundMessage = true;
-          }
-        }
-      }
+          Address ourAddress = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
+          if (!ourAddress.equals(address)) continue;
 
-      if (!foundMessage) {
-        if (deliveryReceipt) earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getAddress());
-        if (readReceipt)     earlyReadReceiptCache.increment(messageId.getTimetamp(), messageId.getAddress());
+          database.execSQL("UPDATE " + TABLE_NAME +
+                           " SET " + columnName + " = " + columnName + " + 1 WHERE " +
+                           ID + " = ?",
+                           new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+
+          threadIds.add(cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID)));
+          unmatched.remove(cursor.getLong(cursor.getColumnIndexOrThrow(DATE_SENT)));
+        }
       }
+    }
 
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    if (!unmatched.isEmpty()) {
+      if (deliveryReceipt) earlyDeliveryReceiptCache.increment(unmatched, address);
+      if (readReceipt)     earlyReadReceiptCache.increment(unmatched, address);
     }
+
+    return threadIds;
   }
 
   public List<MarkedMessageInfo> setMessagesRead(long threadId, long beforeTime) {
@@ -386,7 +394,7 @@ public class SmsDatabase extends MessagingDatabase {
                     "WHERE " + ID + " = ?",
             new String[] {newTimestamp + "", messageId + ""});
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public Pair<Long, Long> updateBundleMessageBody(long messageId, String body) {
@@ -405,7 +413,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     DatabaseComponent.get(context).threadDatabase().update(threadId, true, true);
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
 
     return new Pair<>(messageId, threadId);
   }
@@ -663,7 +671,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, THREAD_ID + " = ?", new String[] {fromId + ""});
     notifyConversationListeners(toId);
-    notifyConversationListListeners();
+    notifyConversationListListenersForThreads(new HashSet<>(Arrays.asList(fromId, toId)));
   }
 
   @Override
@@ -697,7 +705,12 @@ public class SmsDatabase extends MessagingDatabase {
     }
   }
 
-  void deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  /**
+   * Deletes up to {@code limit} of the thread's messages from before {@code date}.
+   *
+   * @return The number of messages deleted, which is less than {@code limit} once there are none left.
+   */
+  int deleteMessagesInThreadBeforeDate(long threadId, long date, int limit) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     String where      = THREAD_ID + " = ? AND (CASE " + TYPE;
 
@@ -707,7 +720,8 @@ public class SmsDatabase extends MessagingDatabase {
 
     where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
 
-    db.delete(TABLE_NAME, where, new String[] {threadId + ""});
+    // SQLite only takes a LIMIT on DELETE when built to, so the chunk is picked out by ID
+    return db.delete(TABLE_NAME, ID + " IN (SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + where + " LIMIT " + limit + ")", new String[] {threadId + ""});
   }
 
   void deleteThread(long threadId) {
@@ -49,6 +49,7 @@ import org.session.libsession.messaging.messages.visible.Attachment
 import org.session.libsession.messaging.messages.visible.Profile
 import org.session.libsession.messaging.messages.visible.Reaction
 import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsession.messaging.open_groups.CommunityMember
 import org.session.libsession.messaging.open_groups.GroupMember
 import org.session.libsession.messaging.open_groups.OpenGroup
 import org.session.libsession.messaging.open_groups.OpenGroupApi
@@ -720,6 +721,10 @@ open class Storage(
         DatabaseComponent.get(context).groupMemberDatabase().setGroupMembers(members)
     }
 
+    override fun updateCommunityMembers(threadId: Long, members: Collection<CommunityMember>) {
+        DatabaseComponent.get(context).communityMemberDatabase().updateMembers(threadId, members)
+    }
+
     override fun isDuplicateMessage(timestamp: Long): Boolean {
         return getReceivedMessageTimestamps().contains(timestamp)
     }
@@ -1728,6 +1733,26 @@ open class Storage(
         DatabaseComponent.get(context).reactionDatabase().deleteMessageReactions(MessageId(messageId, mms))
     }
 
+    override fun setReactions(reactions: Map<Pair<Long, Boolean>, List<Reaction>>) {
+        val records = reactions.entries.associate { (key, messageReactions) ->
+            val (messageId, isMms) = key
+            MessageId(messageId, isMms) to messageReactions.map { reaction ->
+                ReactionRecord(
+                    messageId = messageId,
+                    isMms = isMms,
+                    author = reaction.publicKey!!,
+                    emoji = reaction.emoji!!,
+                    serverId = reaction.serverId!!,
+                    count = reaction.count!!,
+                    sortId = reaction.index!!,
+                    dateSent = reaction.dateSent!!,
+                    dateReceived = reaction.dateReceived!!
+                )
+            }
+        }
+        DatabaseComponent.get(context).reactionDatabase().setReactions(records)
+    }
+
     override fun setBlocked(recipients: Iterable<Recipient>, isBlocked: Boolean, fromConfigUpdate: Boolean) {
         val recipientDb = DatabaseComponent.get(context).recipientDatabase()
         recipientDb.setBlocked(recipients, isBlocked)
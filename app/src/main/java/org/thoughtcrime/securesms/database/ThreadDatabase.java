@@ -58,6 +58,8 @@ import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.notifications.MarkReadReceiver;
 import org.thoughtcrime.securesms.util.SessionMetaProtocol;
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -74,6 +76,9 @@ public class ThreadDatabase extends Database {
 
   private static final String TAG = ThreadDatabase.class.getSimpleName();
 
+  /** The most messages deleted from each table in one go while trimming. */
+  private static final int TRIM_CHUNK_SIZE = 200;
+
   private final Map<Long, Address> addressCache = new HashMap<>();
 
   public  static final String TABLE_NAME             = "thread";
@@ -115,6 +120,16 @@ public class ThreadDatabase extends Database {
     "CREATE INDEX IF NOT EXISTS archived_count_index ON " + TABLE_NAME + " (" + ARCHIVED + ", " + MESSAGE_COUNT + ");",
   };
 
+  private static final String APPROVED_WHERE =
+      "((" + HAS_SENT + " = 1 OR " + RecipientDatabase.APPROVED + " = 1 OR "+ GroupDatabase.TABLE_NAME +"."+GROUP_ID+" LIKE '"+CLOSED_GROUP_PREFIX+"%') OR " + GroupDatabase.TABLE_NAME + "." + GROUP_ID + " LIKE '" + COMMUNITY_PREFIX + "%') " +
+      "AND " + ARCHIVED + " = 0 ";
+
+  private static final String UNAPPROVED_WHERE =
+      MESSAGE_COUNT + " != 0 AND " + ARCHIVED + " = 0 AND " + HAS_SENT + " = 0 AND " +
+      RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.APPROVED + " = 0 AND " +
+      RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.BLOCK + " = 0 AND " +
+      GroupDatabase.TABLE_NAME + "." + GROUP_ID + " IS NULL";
+
   private static final String[] THREAD_PROJECTION = {
       ID, THREAD_CREATION_DATE, MESSAGE_COUNT, ADDRESS, SNIPPET, SNIPPET_CHARSET, READ, UNREAD_COUNT, UNREAD_MENTION_COUNT, DISTRIBUTION_TYPE, ERROR, SNIPPET_TYPE,
       SNIPPET_URI, ARCHIVED, STATUS, DELIVERY_RECEIPT_COUNT, EXPIRES_IN, LAST_SEEN, READ_RECEIPT_COUNT, IS_PINNED
@@ -185,7 +200,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
@@ -204,7 +219,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   private void deleteThread(long threadId) {
@@ -212,7 +227,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     int numberRemoved = db.delete(TABLE_NAME, ID_WHERE, new String[] {threadId + ""});
     addressCache.remove(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
     if (updateListener != null && numberRemoved > 0 && recipient != null) {
       updateListener.threadDeleted(recipient.getAddress(), threadId);
     }
@@ -230,7 +245,7 @@ public class ThreadDatabase extends Database {
     for (long threadId: threadIds) {
       addressCache.remove(threadId);
     }
-    notifyConversationListListeners();
+    notifyConversationListListenersForThreads(threadIds);
   }
 
   private void deleteAllThreads() {
@@ -240,62 +255,39 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
-  public void trimAllThreads(int length, ProgressListener listener) {
-    Cursor cursor   = null;
-    int threadCount = 0;
-    int complete    = 0;
-
-    try {
-      cursor = this.getConversationList();
-
-      if (cursor != null)
-        threadCount = cursor.getCount();
-
-      while (cursor != null && cursor.moveToNext()) {
-        long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-        trimThread(threadId, length);
-
-        listener.onProgress(++complete, threadCount);
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
-  }
-
   public void trimThread(long threadId, int length) {
-    Log.i("ThreadDatabase", "Trimming thread: " + threadId + " to: " + length);
-    Cursor cursor = null;
-
-    try {
-      cursor = DatabaseComponent.get(context).mmsSmsDatabase().getConversation(threadId, true);
-
-      if (cursor != null && length > 0 && cursor.getCount() > length) {
-        Log.w("ThreadDatabase", "Cursor count is greater than length!");
-        cursor.moveToPosition(length - 1);
-
-        long lastTweetDate = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED));
+    if (length <= 0) return;
 
-        Log.i("ThreadDatabase", "Cut off tweet date: " + lastTweetDate);
+    long cutoffDate = DatabaseComponent.get(context).mmsSmsDatabase().getDateReceivedAtPosition(threadId, length - 1);
+    if (cutoffDate < 0) return;
 
-        DatabaseComponent.get(context).smsDatabase().deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
-        DatabaseComponent.get(context).mmsDatabase().deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
-
-        update(threadId, false, true);
-        notifyConversationListeners(threadId);
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+    Log.i("ThreadDatabase", "Trimming thread: " + threadId + " to: " + length + ", cut off date: " + cutoffDate);
+    trimThreadBefore(threadId, cutoffDate);
   }
 
+  /**
+   * Deletes the thread's messages from before {@code timestamp} a chunk at a time, so nothing waiting on the
+   * database is held up for long. Stopping part way leaves only older messages to delete on the next run.
+   */
   public void trimThreadBefore(long threadId, long timestamp) {
     Log.i("ThreadDatabase", "Trimming thread: " + threadId + " before :"+timestamp);
-    DatabaseComponent.get(context).smsDatabase().deleteMessagesInThreadBeforeDate(threadId, timestamp);
-    DatabaseComponent.get(context).mmsDatabase().deleteMessagesInThreadBeforeDate(threadId, timestamp);
-    update(threadId, false, true);
-    notifyConversationListeners(threadId);
+    SmsDatabase smsDatabase = DatabaseComponent.get(context).smsDatabase();
+    MmsDatabase mmsDatabase = DatabaseComponent.get(context).mmsDatabase();
+    int deleted = 0;
+    int smsDeleted;
+    int mmsDeleted;
+
+    do {
+      smsDeleted = smsDatabase.deleteMessagesInThreadBeforeDate(threadId, timestamp, TRIM_CHUNK_SIZE);
+      mmsDeleted = mmsDatabase.deleteMessagesInThreadBeforeDate(threadId, timestamp, TRIM_CHUNK_SIZE);
+      deleted += smsDeleted + mmsDeleted;
+    } while (smsDeleted == TRIM_CHUNK_SIZE || mmsDeleted == TRIM_CHUNK_SIZE);
+
+    if (deleted > 0) {
+      Log.i("ThreadDatabase", "Trimmed " + deleted + " messages from thread: " + threadId);
+      update(threadId, false, true);
+      notifyConversationListeners(threadId);
+    }
   }
 
   public List<MarkedMessageInfo> setRead(long threadId, long lastReadTime) {
@@ -314,7 +306,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId+""});
 
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
 
     return new LinkedList<MarkedMessageInfo>() {{
       addAll(smsRecords);
@@ -338,7 +330,7 @@ public class ThreadDatabase extends Database {
     final List<MarkedMessageInfo> smsRecords = DatabaseComponent.get(context).smsDatabase().setMessagesRead(threadId);
     final List<MarkedMessageInfo> mmsRecords = DatabaseComponent.get(context).mmsDatabase().setMessagesRead(threadId);
 
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
 
     return new LinkedList<MarkedMessageInfo>() {{
       addAll(smsRecords);
@@ -352,7 +344,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void setDate(long threadId, long date) {
@@ -360,7 +352,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(THREAD_CREATION_DATE, date);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     int updated = db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId+""});
-    if (updated > 0) notifyConversationListListeners();
+    if (updated > 0) notifyConversationListListeners(threadId);
   }
 
   public int getDistributionType(long threadId) {
@@ -428,56 +420,25 @@ public class ThreadDatabase extends Database {
     return db.rawQuery(query, null);
   }
 
-  public int getUnapprovedConversationCount() {
-    SQLiteDatabase db = databaseHelper.getReadableDatabase();
-    Cursor cursor     = null;
-
-    try {
-      String query    = "SELECT COUNT (*) FROM " + TABLE_NAME +
-              " LEFT OUTER JOIN " + RecipientDatabase.TABLE_NAME +
-              " ON " + TABLE_NAME + "." + ADDRESS + " = " + RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.ADDRESS +
-              " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
-              " ON " + TABLE_NAME + "." + ADDRESS + " = " + GroupDatabase.TABLE_NAME + "." + GROUP_ID +
-              " WHERE " + MESSAGE_COUNT + " != 0 AND " + ARCHIVED + " = 0 AND " + HAS_SENT + " = 0 AND " +
-              RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.APPROVED + " = 0 AND " +
-              RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.BLOCK + " = 0 AND " +
-              GroupDatabase.TABLE_NAME + "." + GROUP_ID + " IS NULL";
-      cursor          = db.rawQuery(query, null);
-
-      if (cursor != null && cursor.moveToFirst())
-        return cursor.getInt(0);
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
-
-    return 0;
-  }
-
-  public long getLatestUnapprovedConversationTimestamp() {
+  /**
+   * The number of message requests and the date of the latest one, in a single query.
+   */
+  public @NonNull UnapprovedSummary getUnapprovedConversationSummary() {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
-    Cursor cursor     = null;
-
-    try {
-      String where    = "SELECT " + THREAD_CREATION_DATE + " FROM " + TABLE_NAME +
-              " LEFT OUTER JOIN " + RecipientDatabase.TABLE_NAME +
-              " ON " + TABLE_NAME + "." + ADDRESS + " = " + RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.ADDRESS +
-              " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
-              " ON " + TABLE_NAME + "." + ADDRESS + " = " + GroupDatabase.TABLE_NAME + "." + GROUP_ID +
-              " WHERE " + MESSAGE_COUNT + " != 0 AND " + ARCHIVED + " = 0 AND " + HAS_SENT + " = 0 AND " +
-              RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.BLOCK + " = 0 AND " +
-              RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.APPROVED + " = 0 AND " +
-              GroupDatabase.TABLE_NAME + "." + GROUP_ID + " IS NULL ORDER BY " + THREAD_CREATION_DATE + " DESC LIMIT 1";
-      cursor          = db.rawQuery(where, null);
-
-      if (cursor != null && cursor.moveToFirst())
-        return cursor.getLong(0);
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    String query      = "SELECT COUNT(*), MAX(" + TABLE_NAME + "." + THREAD_CREATION_DATE + ") FROM " + TABLE_NAME +
+            " LEFT OUTER JOIN " + RecipientDatabase.TABLE_NAME +
+            " ON " + TABLE_NAME + "." + ADDRESS + " = " + RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.ADDRESS +
+            " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
+            " ON " + TABLE_NAME + "." + ADDRESS + " = " + GroupDatabase.TABLE_NAME + "." + GROUP_ID +
+            " WHERE " + UNAPPROVED_WHERE;
+
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new UnapprovedSummary(cursor.getInt(0), cursor.isNull(1) ? 0 : cursor.getLong(1));
+      }
     }
 
-    return 0;
+    return new UnapprovedSummary(0, 0);
   }
 
   public Cursor getConversationList() {
@@ -492,17 +453,57 @@ public class ThreadDatabase extends Database {
   }
 
   public Cursor getApprovedConversationList() {
-    String where  = "((" + HAS_SENT + " = 1 OR " + RecipientDatabase.APPROVED + " = 1 OR "+ GroupDatabase.TABLE_NAME +"."+GROUP_ID+" LIKE '"+CLOSED_GROUP_PREFIX+"%') OR " + GroupDatabase.TABLE_NAME + "." + GROUP_ID + " LIKE '" + COMMUNITY_PREFIX + "%') " +
-            "AND " + ARCHIVED + " = 0 ";
-    return getConversationList(where);
+    return getConversationList(APPROVED_WHERE);
+  }
+
+  /**
+   * A page of {@link #getApprovedConversationList()}, continuing from the row after {@code after}
+   * using the list's sort key rather than an offset.
+   */
+  public Cursor getApprovedConversationListPage(@Nullable ThreadRecord after, int limit) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    if (after == null) {
+      return db.rawQuery(createQuery(APPROVED_WHERE, limit), null);
+    }
+
+    String pinned = TABLE_NAME + "." + IS_PINNED;
+    String date   = TABLE_NAME + "." + THREAD_CREATION_DATE;
+    String id     = TABLE_NAME + "." + ID;
+    String where  = "(" + APPROVED_WHERE + ") AND (" + pinned + " < ? OR (" + pinned + " = ? AND (" +
+                    date + " < ? OR (" + date + " = ? AND " + id + " < ?))))";
+
+    String   isPinned = after.isPinned() ? "1" : "0";
+    String[] args     = new String[] { isPinned, isPinned, String.valueOf(after.getDate()), String.valueOf(after.getDate()), String.valueOf(after.getThreadId()) };
+
+    return db.rawQuery(createQuery(where, limit), args);
+  }
+
+  /**
+   * The rows of {@link #getApprovedConversationList()} for just these threads. Threads that are missing
+   * from the result have been deleted or no longer belong in the list.
+   */
+  public Cursor getApprovedConversationList(@NonNull Collection<Long> threadIds) {
+    SQLiteDatabase      db         = databaseHelper.getReadableDatabase();
+    List<List<Long>>    partitions = Util.partition(new ArrayList<>(threadIds), 900);
+    List<Cursor>        cursors    = new LinkedList<>();
+
+    for (List<Long> partition : partitions) {
+      String   where = "(" + APPROVED_WHERE + ") AND " + TABLE_NAME + "." + ID + " IN (" + Util.join(Collections.nCopies(partition.size(), "?"), ",") + ")";
+      String[] args  = new String[partition.size()];
+
+      for (int i = 0; i < partition.size(); i++) {
+        args[i] = String.valueOf(partition.get(i));
+      }
+
+      cursors.add(db.rawQuery(createQuery(where, 0), args));
+    }
+
+    return cursors.size() == 1 ? cursors.get(0) : new MergeCursor(cursors.toArray(new Cursor[0]));
   }
 
   public Cursor getUnapprovedConversationList() {
-    String where  = MESSAGE_COUNT + " != 0 AND " + ARCHIVED + " = 0 AND " + HAS_SENT + " = 0 AND " +
-            RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.APPROVED + " = 0 AND " +
-            RecipientDatabase.TABLE_NAME + "." + RecipientDatabase.BLOCK + " = 0 AND " +
-            GroupDatabase.TABLE_NAME + "." + GROUP_ID + " IS NULL";
-    return getConversationList(where);
+    return getConversationList(UNAPPROVED_WHERE);
   }
 
   private Cursor getConversationList(String where) {
@@ -556,7 +557,7 @@ public class ThreadDatabase extends Database {
     db.setTransactionSuccessful();
     db.endTransaction();
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
     return true;
   }
 
@@ -616,9 +617,10 @@ public class ThreadDatabase extends Database {
     DatabaseComponent.get(context).mmsDatabase().deleteThread(threadId);
     DatabaseComponent.get(context).draftDatabase().clearDrafts(threadId);
     DatabaseComponent.get(context).lokiMessageDatabase().deleteThread(threadId);
+    DatabaseComponent.get(context).communityMemberDatabase().deleteMembers(threadId);
     deleteThread(threadId);
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
     SessionMetaProtocol.clearReceivedMessages();
   }
 
@@ -656,7 +658,7 @@ public class ThreadDatabase extends Database {
     databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, ID_WHERE,
             new String[] {String.valueOf(threadId)});
 
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
     notifyConversationListeners(threadId);
   }
 
@@ -719,7 +721,7 @@ public class ThreadDatabase extends Database {
                                                 new String[] {String.valueOf(threadId)});
 
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public boolean update(long threadId, boolean unarchive, boolean shouldDeleteOnEmpty) {
@@ -730,7 +732,7 @@ public class ThreadDatabase extends Database {
 
     if (count == 0 && shouldDeleteEmptyThread) {
       deleteThread(threadId);
-      notifyConversationListListeners();
+      notifyConversationListListeners(threadId);
       return true;
     }
 
@@ -756,7 +758,7 @@ public class ThreadDatabase extends Database {
         return false;
       }
     } finally {
-      notifyConversationListListeners();
+      notifyConversationListListeners(threadId);
       notifyConversationListeners(threadId);
     }
   }
@@ -769,7 +771,7 @@ public class ThreadDatabase extends Database {
             new String[] {String.valueOf(threadId)});
 
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public boolean isPinned(long threadId) {
@@ -845,7 +847,7 @@ public class ThreadDatabase extends Database {
            " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
            " ON " + TABLE_NAME + "." + ADDRESS + " = " + GroupDatabase.TABLE_NAME + "." + GROUP_ID +
            " WHERE " + where +
-           " ORDER BY " + TABLE_NAME + "." + IS_PINNED + " DESC, " + TABLE_NAME + "." + THREAD_CREATION_DATE + " DESC";
+           " ORDER BY " + TABLE_NAME + "." + IS_PINNED + " DESC, " + TABLE_NAME + "." + THREAD_CREATION_DATE + " DESC, " + TABLE_NAME + "." + ID + " DESC";
 
     if (limit >  0) {
       query += " LIMIT " + limit;
@@ -865,8 +867,14 @@ public class ThreadDatabase extends Database {
     notifyConversationListeners(threadId);
   }
 
-  public interface ProgressListener {
-    void onProgress(int complete, int total);
+  public static final class UnapprovedSummary {
+    public final int  count;
+    public final long latestTimestamp;
+
+    UnapprovedSummary(int count, long latestTimestamp) {
+      this.count           = count;
+      this.latestTimestamp = latestTimestamp;
+    }
   }
 
   public Reader readerFor(Cursor cursor) {
@@ -20,9 +20,9 @@ import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.BlindedIdMappingDatabase;
+import org.thoughtcrime.securesms.database.CommunityMemberDatabase;
 import org.thoughtcrime.securesms.database.ConfigDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
-import org.thoughtcrime.securesms.database.EmojiSearchDatabase;
 import org.thoughtcrime.securesms.database.ExpirationConfigurationDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupMemberDatabase;
@@ -90,9 +90,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int lokiV44                          = 65;
   private static final int lokiV45                          = 66;
   private static final int lokiV46                          = 67;
+  private static final int lokiV47                          = 68;
+  private static final int lokiV48                          = 69;
+  private static final int lokiV49                          = 70;
+  private static final int lokiV50                          = 71;
 
   // Loki - onUpgrade(...) must be updated to use Loki version numbers if Signal makes any database changes
-  private static final int    DATABASE_VERSION         = lokiV46;
+  private static final int    DATABASE_VERSION         = lokiV50;
   private static final int    MIN_DATABASE_VERSION     = lokiV7;
   private static final String CIPHER3_DATABASE_NAME    = "signal.db";
   public static final String  DATABASE_NAME            = "signal_v4.db";
@@ -340,14 +344,16 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(LokiAPIDatabase.DROP_LEGACY_RECEIVED_HASHES);
     db.execSQL(BlindedIdMappingDatabase.CREATE_BLINDED_ID_MAPPING_TABLE_COMMAND);
     db.execSQL(GroupMemberDatabase.CREATE_GROUP_MEMBER_TABLE_COMMAND);
+    db.execSQL(CommunityMemberDatabase.CREATE_COMMUNITY_MEMBER_TABLE_COMMAND);
+    db.execSQL(AttachmentDatabase.CREATE_DELETION_JOURNAL_TABLE);
     db.execSQL(LokiAPIDatabase.RESET_SEQ_NO); // probably not needed but consistent with all migrations
-    db.execSQL(EmojiSearchDatabase.CREATE_EMOJI_SEARCH_TABLE_COMMAND);
     db.execSQL(ReactionDatabase.CREATE_REACTION_TABLE_COMMAND);
     db.execSQL(ThreadDatabase.getUnreadMentionCountCommand());
     db.execSQL(SmsDatabase.CREATE_HAS_MENTION_COMMAND);
     db.execSQL(MmsDatabase.CREATE_HAS_MENTION_COMMAND);
     db.execSQL(ConfigDatabase.CREATE_CONFIG_TABLE_COMMAND);
     db.execSQL(ExpirationConfigurationDatabase.CREATE_EXPIRATION_CONFIGURATION_TABLE_COMMAND);
+    db.execSQL(SessionJobDatabase.getAddSerializedBlobCommand());
 
     executeStatements(db, SmsDatabase.CREATE_INDEXS);
     executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -580,10 +586,6 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         executeStatements(db, ReactionDatabase.CREATE_REACTION_TRIGGERS);
       }
 
-      if (oldVersion < lokiV38) {
-        db.execSQL(EmojiSearchDatabase.CREATE_EMOJI_SEARCH_TABLE_COMMAND);
-      }
-
       if (oldVersion < lokiV39) {
         executeStatements(db, ReactionDatabase.CREATE_INDEXS);
       }
@@ -628,6 +630,25 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         db.execSQL(LokiAPIDatabase.CREATE_LAST_LEGACY_MESSAGE_TABLE);
       }
 
+      if (oldVersion < lokiV47) {
+        // Emoji search is served from a prebuilt index asset now
+        db.execSQL("DROP TABLE IF EXISTS emoji_search");
+      }
+
+      if (oldVersion < lokiV48) {
+        db.execSQL(SessionJobDatabase.getAddSerializedBlobCommand());
+        SessionJobDatabase.migrateToBinaryData(db);
+      }
+
+      if (oldVersion < lokiV49) {
+        db.execSQL(CommunityMemberDatabase.CREATE_COMMUNITY_MEMBER_TABLE_COMMAND);
+        db.execSQL(CommunityMemberDatabase.BACKFILL_COMMUNITY_MEMBERS_COMMAND);
+      }
+
+      if (oldVersion < lokiV50) {
+        db.execSQL(AttachmentDatabase.CREATE_DELETION_JOURNAL_TABLE);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -27,6 +27,7 @@ import network.loki.messenger.BuildConfig
 import network.loki.messenger.R
 import org.thoughtcrime.securesms.debugmenu.DebugMenuViewModel.Commands.ChangeEnvironment
 import org.thoughtcrime.securesms.debugmenu.DebugMenuViewModel.Commands.HideEnvironmentWarningDialog
+import org.thoughtcrime.securesms.debugmenu.DebugMenuViewModel.Commands.RefreshStats
 import org.thoughtcrime.securesms.debugmenu.DebugMenuViewModel.Commands.ShowEnvironmentWarningDialog
 import org.thoughtcrime.securesms.ui.AlertDialog
 import org.thoughtcrime.securesms.ui.Cell
@@ -134,6 +135,17 @@ fun DebugMenu(
                         }
                     )
                 }
+
+                // Blob storage, tap to refresh
+                DebugCell(
+                    modifier = Modifier.clickable { sendCommand(RefreshStats) },
+                    title = "Blob Storage"
+                ) {
+                    Text(
+                        text = uiState.blobStorage,
+                        style = LocalType.current.base
+                    )
+                }
             }
         }
     }
@@ -175,7 +187,8 @@ fun PreviewDebugMenu() {
                 environments = listOf("Development", "Production"),
                 snackMessage = null,
                 showEnvironmentWarningDialog = false,
-                showEnvironmentLoadingDialog = false
+                showEnvironmentLoadingDialog = false,
+                blobStorage = "In memory: 0 blob(s), 0 / 32768 KB"
             ),
             sendCommand = {},
             onClose = {}
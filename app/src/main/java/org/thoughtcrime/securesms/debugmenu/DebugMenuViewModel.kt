@@ -19,6 +19,7 @@ import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.ApplicationContext
 import org.session.libsession.utilities.Environment
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.providers.BlobProvider
 import org.thoughtcrime.securesms.util.ConfigurationMessageUtilities
 import javax.inject.Inject
 
@@ -35,7 +36,8 @@ class DebugMenuViewModel @Inject constructor(
             environments = Environment.entries.map { it.label },
             snackMessage = null,
             showEnvironmentWarningDialog = false,
-            showEnvironmentLoadingDialog = false
+            showEnvironmentLoadingDialog = false,
+            blobStorage = blobStorageSummary()
         )
     )
     val uiState: StateFlow<UIState>
@@ -52,9 +54,18 @@ class DebugMenuViewModel @Inject constructor(
 
             is Commands.ShowEnvironmentWarningDialog ->
                 showEnvironmentWarningDialog(command.environment)
+
+            is Commands.RefreshStats -> _uiState.value =
+                _uiState.value.copy(blobStorage = blobStorageSummary())
         }
     }
 
+    private fun blobStorageSummary(): String {
+        val blobs = BlobProvider.getInstance()
+        return "In memory: ${blobs.memoryBlobCount} blob(s), ${blobs.memoryUsage / 1024} / ${blobs.memoryBudget / 1024} KB\n" +
+                "Spilled to disk: ${blobs.spilledBlobCount} blob(s)"
+    }
+
     private fun showEnvironmentWarningDialog(environment: String) {
         if(environment == _uiState.value.currentEnvironment) return
         val env = Environment.entries.firstOrNull { it.label == environment } ?: return
@@ -104,12 +115,14 @@ class DebugMenuViewModel @Inject constructor(
         val environments: List<String>,
         val snackMessage: String?,
         val showEnvironmentWarningDialog: Boolean,
-        val showEnvironmentLoadingDialog: Boolean
+        val showEnvironmentLoadingDialog: Boolean,
+        val blobStorage: String
     )
 
     sealed class Commands {
         object ChangeEnvironment : Commands()
         data class ShowEnvironmentWarningDialog(val environment: String) : Commands()
         object HideEnvironmentWarningDialog : Commands()
+        object RefreshStats : Commands()
     }
 }
\ No newline at end of file
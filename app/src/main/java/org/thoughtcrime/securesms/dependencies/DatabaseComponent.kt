@@ -41,11 +41,11 @@ interface DatabaseComponent {
     fun sessionJobDatabase(): SessionJobDatabase
     fun sessionContactDatabase(): SessionContactDatabase
     fun reactionDatabase(): ReactionDatabase
-    fun emojiSearchDatabase(): EmojiSearchDatabase
     fun storage(): Storage
     fun attachmentProvider(): MessageDataProvider
     fun blindedIdMappingDatabase(): BlindedIdMappingDatabase
     fun groupMemberDatabase(): GroupMemberDatabase
+    fun communityMemberDatabase(): CommunityMemberDatabase
     fun expirationConfigurationDatabase(): ExpirationConfigurationDatabase
     fun configDatabase(): ConfigDatabase
 }
\ No newline at end of file
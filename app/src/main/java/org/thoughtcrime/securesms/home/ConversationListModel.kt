@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.home
+
+import org.thoughtcrime.securesms.database.model.ThreadRecord
+
+/**
+ * The home screen's conversation list, kept in the same order as
+ * [org.thoughtcrime.securesms.database.ThreadDatabase.getApprovedConversationList] so that a change to a
+ * handful of threads can be applied without reading the whole list again.
+ *
+ * Not thread safe; it is only touched from the flow that loads the list.
+ */
+class ConversationListModel {
+
+    private var threads: List<ThreadRecord> = emptyList()
+
+    val size: Int get() = threads.size
+
+    /**
+     * An immutable copy of the list, safe to hand to the UI.
+     */
+    fun snapshot(): List<ThreadRecord> = threads
+
+    fun replaceAll(records: List<ThreadRecord>) {
+        threads = records.toList()
+    }
+
+    /**
+     * Adds the next page of a full load. Pages arrive in list order so this is a plain append.
+     */
+    fun append(records: List<ThreadRecord>) {
+        if (records.isNotEmpty()) threads = threads + records
+    }
+
+    /**
+     * Replaces the rows for [changedThreadIds] with [updatedRecords]. Threads that changed but have no
+     * updated record have been deleted, archived, or otherwise left the list.
+     */
+    fun patch(changedThreadIds: Set<Long>, updatedRecords: List<ThreadRecord>) {
+        if (changedThreadIds.isEmpty()) return
+
+        val patched = ArrayList<ThreadRecord>(threads.size + updatedRecords.size)
+        threads.filterTo(patched) { it.threadId !in changedThreadIds }
+
+        updatedRecords.forEach { record ->
+            val index = patched.binarySearch(record, ORDER)
+            patched.add(if (index < 0) -(index + 1) else index, record)
+        }
+
+        threads = patched
+    }
+
+    companion object {
+        /** Pinned first, then newest first, with the thread ID as a tiebreak, as in the database query. */
+        val ORDER: Comparator<ThreadRecord> = compareByDescending<ThreadRecord> { it.isPinned }
+            .thenByDescending { it.date }
+            .thenByDescending { it.threadId }
+    }
+}
@@ -23,6 +23,13 @@ class HomeDiffUtil(
         val oldItem = old.threads[oldItemPosition]
         val newItem = new.threads[newItemPosition]
 
+        // A record that was carried over from the last load rather than re-read can only differ in state
+        // that lives outside of it
+        if (oldItem === newItem) {
+            return configFactory.convoVolatile?.getConversationUnread(newItem) != true &&
+                old.typingThreadIDs.contains(oldItem.threadId) == new.typingThreadIDs.contains(newItem.threadId)
+        }
+
         // return early to save getDisplayBody or expensive calls
         var isSameItem = true
 
@@ -2,8 +2,8 @@ package org.thoughtcrime.securesms.home
 
 import android.content.ContentResolver
 import android.content.Context
+import android.database.Cursor
 import androidx.lifecycle.ViewModel
-import androidx.lifecycle.asFlow
 import androidx.lifecycle.viewModelScope
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.Dispatchers
@@ -15,16 +15,17 @@ import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.debounce
-import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.onStart
 import kotlinx.coroutines.flow.stateIn
 import org.session.libsession.utilities.TextSecurePreferences
 import org.thoughtcrime.securesms.ApplicationContext
+import org.thoughtcrime.securesms.database.ConversationListChanges
 import org.thoughtcrime.securesms.database.DatabaseContentProviders
 import org.thoughtcrime.securesms.database.ThreadDatabase
 import org.thoughtcrime.securesms.database.model.ThreadRecord
@@ -56,9 +57,10 @@ class HomeViewModel @Inject constructor(
     val data: StateFlow<Data?> = combine(
         observeConversationList(),
         observeTypingStatus(),
-        messageRequests(),
-        ::Data
-    ).stateIn(viewModelScope, SharingStarted.Eagerly, null)
+        hasHiddenMessageRequests()
+    ) { conversations, typingThreadIDs, hidden ->
+        Data(conversations.threads, typingThreadIDs, createMessageRequests(conversations.unapproved, hidden))
+    }.stateIn(viewModelScope, SharingStarted.Eagerly, null)
 
     private fun hasHiddenMessageRequests() = TextSecurePreferences.events
         .filter { it == TextSecurePreferences.HAS_HIDDEN_MESSAGE_REQUESTS }
@@ -66,44 +68,68 @@ class HomeViewModel @Inject constructor(
         .onStart { emit(prefs.hasHiddenMessageRequests()) }
 
     private fun observeTypingStatus(): Flow<Set<Long>> =
-            ApplicationContext.getInstance(context).typingStatusRepository
-                    .typingThreads
-                    .asFlow()
-                    .onStart { emit(emptySet()) }
-                    .distinctUntilChanged()
-
-    private fun messageRequests() = combine(
-        unapprovedConversationCount(),
-        hasHiddenMessageRequests(),
-        latestUnapprovedConversationTimestamp(),
-        ::createMessageRequests
-    ).flowOn(Dispatchers.IO)
-
-    private fun unapprovedConversationCount() = reloadTriggersAndContentChanges()
-        .map { threadDb.unapprovedConversationCount }
-
-    private fun latestUnapprovedConversationTimestamp() = reloadTriggersAndContentChanges()
-        .map { threadDb.latestUnapprovedConversationTimestamp }
-
-    @Suppress("OPT_IN_USAGE")
-    private fun observeConversationList(): Flow<List<ThreadRecord>> = reloadTriggersAndContentChanges()
-        .mapLatest { _ ->
-            threadDb.approvedConversationList.use { openCursor ->
-                threadDb.readerFor(openCursor).run { generateSequence { next }.toList() }
-            }
-        }
-        .flowOn(Dispatchers.IO)
+            ApplicationContext.getInstance(context).typingStatusRepository.typingThreads
 
+    /**
+     * Loads the conversation list, then keeps it up to date. A change that [ConversationListChanges] can
+     * pin to specific threads only reloads those rows; anything else reloads the list a page at a time,
+     * emitting as soon as the first page is in so the top of the list shows up straight away.
+     */
     @OptIn(FlowPreview::class)
-    private fun reloadTriggersAndContentChanges() = merge(
-        manualReloadTrigger,
-        contentResolver.observeChanges(DatabaseContentProviders.ConversationList.CONTENT_URI)
-    )
-        .debounce(CHANGE_NOTIFICATION_DEBOUNCE_MILLS)
-        .onStart { emit(Unit) }
+    private fun observeConversationList(): Flow<ConversationList> = flow {
+        val subscription = ConversationListChanges.subscribe()
+        val model = ConversationListModel()
+
+        try {
+            merge(
+                manualReloadTrigger.onEach { subscription.invalidate() },
+                contentResolver.observeChanges(DatabaseContentProviders.ConversationList.CONTENT_URI)
+            )
+                .debounce(CHANGE_NOTIFICATION_DEBOUNCE_MILLS)
+                .onStart { emit(Unit) }
+                .collect {
+                    // Changes are drained one trigger at a time rather than cancelling a load in progress,
+                    // otherwise the threads drained for the cancelled load would never be applied
+                    val changedThreadIds = subscription.drain()
+                    val unapproved = threadDb.unapprovedConversationSummary
+
+                    if (changedThreadIds == null) {
+                        loadAll(model) { emit(ConversationList(model.snapshot(), unapproved)) }
+                    } else {
+                        model.patch(changedThreadIds, readThreads(threadDb.getApprovedConversationList(changedThreadIds)))
+                    }
+
+                    emit(ConversationList(model.snapshot(), unapproved))
+                }
+        } finally {
+            subscription.close()
+        }
+    }.flowOn(Dispatchers.IO)
+
+    private suspend fun loadAll(model: ConversationListModel, onFirstPage: suspend () -> Unit) {
+        var page = readThreads(threadDb.getApprovedConversationListPage(null, PAGE_SIZE))
+        model.replaceAll(page)
+
+        if (page.size < PAGE_SIZE) return
+        onFirstPage()
+
+        while (page.size == PAGE_SIZE) {
+            page = readThreads(threadDb.getApprovedConversationListPage(page.last(), PAGE_SIZE))
+            model.append(page)
+        }
+    }
+
+    private fun readThreads(cursor: Cursor): List<ThreadRecord> = cursor.use { openCursor ->
+        threadDb.readerFor(openCursor).run { generateSequence { next }.toList() }
+    }
 
     fun tryReload() = manualReloadTrigger.tryEmit(Unit)
 
+    private data class ConversationList(
+        val threads: List<ThreadRecord>,
+        val unapproved: ThreadDatabase.UnapprovedSummary
+    )
+
     data class Data(
         val threads: List<ThreadRecord> = emptyList(),
         val typingThreadIDs: Set<Long> = emptySet(),
@@ -111,17 +137,17 @@ class HomeViewModel @Inject constructor(
     )
 
     private fun createMessageRequests(
-        count: Int,
-        hidden: Boolean,
-        timestamp: Long
-    ) = if (count > 0 && !hidden) MessageRequests(
-        count.toString(),
-        DateUtils.getDisplayFormattedTimeSpanString(context, Locale.getDefault(), timestamp)
+        unapproved: ThreadDatabase.UnapprovedSummary,
+        hidden: Boolean
+    ) = if (unapproved.count > 0 && !hidden) MessageRequests(
+        unapproved.count.toString(),
+        DateUtils.getDisplayFormattedTimeSpanString(context, Locale.getDefault(), unapproved.latestTimestamp)
     ) else null
 
     data class MessageRequests(val count: String, val timestamp: String)
 
     companion object {
         private const val CHANGE_NOTIFICATION_DEBOUNCE_MILLS = 100L
+        private const val PAGE_SIZE = 100
     }
 }
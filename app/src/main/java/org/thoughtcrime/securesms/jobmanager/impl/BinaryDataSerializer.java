@@ -0,0 +1,353 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.messaging.utilities.Data;
+import org.session.libsignal.utilities.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serializes {@link Data} into a compact, length-prefixed binary form for the job table.
+ *
+ * The blob starts with a format version, followed by each of the value maps in a fixed order. Every map
+ * is a count followed by its entries, and every string or array is a length followed by its contents.
+ * Byte arrays, which hold the bulk of most job payloads, are stored as-is rather than Base64 encoded and
+ * aren't copied out of the blob until a job actually asks for them.
+ */
+public class BinaryDataSerializer implements Data.BinarySerializer {
+
+  private static final String TAG = Log.tag(BinaryDataSerializer.class);
+
+  private static final byte VERSION     = 1;
+  private static final int  NULL_LENGTH = -1;
+
+  @Override
+  public @NonNull byte[] serialize(@NonNull Data data) {
+    try {
+      ByteArrayOutputStream bytes  = new ByteArrayOutputStream(estimateSize(data));
+      DataOutputStream      output = new DataOutputStream(bytes);
+
+      output.writeByte(VERSION);
+
+      output.writeInt(data.strings().size());
+      for (Map.Entry<String, String> entry : data.strings().entrySet()) {
+        writeString(output, entry.getKey());
+        writeString(output, entry.getValue());
+      }
+
+      output.writeInt(data.stringArrays().size());
+      for (Map.Entry<String, String[]> entry : data.stringArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (String value : entry.getValue()) writeString(output, value);
+      }
+
+      output.writeInt(data.integers().size());
+      for (Map.Entry<String, Integer> entry : data.integers().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue());
+      }
+
+      output.writeInt(data.integerArrays().size());
+      for (Map.Entry<String, int[]> entry : data.integerArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (int value : entry.getValue()) output.writeInt(value);
+      }
+
+      output.writeInt(data.longs().size());
+      for (Map.Entry<String, Long> entry : data.longs().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeLong(entry.getValue());
+      }
+
+      output.writeInt(data.longArrays().size());
+      for (Map.Entry<String, long[]> entry : data.longArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (long value : entry.getValue()) output.writeLong(value);
+      }
+
+      output.writeInt(data.floats().size());
+      for (Map.Entry<String, Float> entry : data.floats().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeFloat(entry.getValue());
+      }
+
+      output.writeInt(data.floatArrays().size());
+      for (Map.Entry<String, float[]> entry : data.floatArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (float value : entry.getValue()) output.writeFloat(value);
+      }
+
+      output.writeInt(data.doubles().size());
+      for (Map.Entry<String, Double> entry : data.doubles().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeDouble(entry.getValue());
+      }
+
+      output.writeInt(data.doubleArrays().size());
+      for (Map.Entry<String, double[]> entry : data.doubleArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (double value : entry.getValue()) output.writeDouble(value);
+      }
+
+      output.writeInt(data.booleans().size());
+      for (Map.Entry<String, Boolean> entry : data.booleans().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeBoolean(entry.getValue());
+      }
+
+      output.writeInt(data.booleanArrays().size());
+      for (Map.Entry<String, boolean[]> entry : data.booleanArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        for (boolean value : entry.getValue()) output.writeBoolean(value);
+      }
+
+      output.writeInt(data.byteArrays().size());
+      for (Map.Entry<String, byte[]> entry : data.byteArrays().entrySet()) {
+        writeString(output, entry.getKey());
+        output.writeInt(entry.getValue().length);
+        output.write(entry.getValue());
+      }
+
+      output.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to serialize data.", e);
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public @NonNull Data deserialize(@NonNull byte[] serialized) {
+    try {
+      ByteBuffer input   = ByteBuffer.wrap(serialized);
+      byte       version = input.get();
+
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported data version: " + version);
+      }
+
+      Map<String, String> strings = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        strings.put(readString(input), readString(input));
+      }
+
+      Map<String, String[]> stringArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String   key   = readString(input);
+        String[] value = new String[readCount(input)];
+        for (int j = 0; j < value.length; j++) value[j] = readString(input);
+        stringArrays.put(key, value);
+      }
+
+      Map<String, Integer> integers = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        integers.put(readString(input), input.getInt());
+      }
+
+      Map<String, int[]> integerArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String key   = readString(input);
+        int[]  value = new int[readCount(input)];
+        input.asIntBuffer().get(value);
+        input.position(input.position() + value.length * 4);
+        integerArrays.put(key, value);
+      }
+
+      Map<String, Long> longs = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        longs.put(readString(input), input.getLong());
+      }
+
+      Map<String, long[]> longArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String key   = readString(input);
+        long[] value = new long[readCount(input)];
+        input.asLongBuffer().get(value);
+        input.position(input.position() + value.length * 8);
+        longArrays.put(key, value);
+      }
+
+      Map<String, Float> floats = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        floats.put(readString(input), input.getFloat());
+      }
+
+      Map<String, float[]> floatArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String  key   = readString(input);
+        float[] value = new float[readCount(input)];
+        input.asFloatBuffer().get(value);
+        input.position(input.position() + value.length * 4);
+        floatArrays.put(key, value);
+      }
+
+      Map<String, Double> doubles = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        doubles.put(readString(input), input.getDouble());
+      }
+
+      Map<String, double[]> doubleArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String   key   = readString(input);
+        double[] value = new double[readCount(input)];
+        input.asDoubleBuffer().get(value);
+        input.position(input.position() + value.length * 8);
+        doubleArrays.put(key, value);
+      }
+
+      Map<String, Boolean> booleans = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        booleans.put(readString(input), input.get() != 0);
+      }
+
+      Map<String, boolean[]> booleanArrays = new HashMap<>();
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String    key   = readString(input);
+        boolean[] value = new boolean[readCount(input)];
+        for (int j = 0; j < value.length; j++) value[j] = input.get() != 0;
+        booleanArrays.put(key, value);
+      }
+
+      LazyByteArrays byteArrays = new LazyByteArrays(serialized);
+      for (int i = 0, count = readCount(input); i < count; i++) {
+        String key    = readString(input);
+        int    length = readCount(input);
+        byteArrays.index(key, input.position(), length);
+        input.position(input.position() + length);
+      }
+
+      return new Data(strings, stringArrays, integers, integerArrays, longs, longArrays, floats, floatArrays, doubles, doubleArrays, booleans, booleanArrays, byteArrays);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      Log.e(TAG, "Failed to deserialize data.", e);
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void writeString(@NonNull DataOutputStream output, @Nullable String value) throws IOException {
+    if (value == null) {
+      output.writeInt(NULL_LENGTH);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+  }
+
+  private static @Nullable String readString(@NonNull ByteBuffer input) {
+    int length = input.getInt();
+
+    if (length == NULL_LENGTH) return null;
+    if (length < 0 || length > input.remaining()) throw new IllegalArgumentException("Bad string length: " + length);
+
+    String value = new String(input.array(), input.arrayOffset() + input.position(), length, StandardCharsets.UTF_8);
+    input.position(input.position() + length);
+    return value;
+  }
+
+  private static int readCount(@NonNull ByteBuffer input) {
+    int count = input.getInt();
+    if (count < 0 || count > input.remaining()) throw new IllegalArgumentException("Bad length: " + count);
+    return count;
+  }
+
+  private static int estimateSize(@NonNull Data data) {
+    int size = 256;
+    for (byte[] value : data.byteArrays().values()) size += value.length + 64;
+    return size;
+  }
+
+  /**
+   * The byte array values of a deserialized blob. Each value is only copied out of the blob the first time
+   * it's read.
+   */
+  private static final class LazyByteArrays extends AbstractMap<String, byte[]> {
+
+    private final byte[]               blob;
+    private final Map<String, int[]>   ranges = new LinkedHashMap<>();
+    private final Map<String, byte[]>  values = new HashMap<>();
+
+    LazyByteArrays(@NonNull byte[] blob) {
+      this.blob = blob;
+    }
+
+    void index(@NonNull String key, int offset, int length) {
+      ranges.put(key, new int[] { offset, length });
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+      return ranges.containsKey(key);
+    }
+
+    @Override
+    public @Nullable byte[] get(@Nullable Object key) {
+      int[] range = ranges.get(key);
+      if (range == null) return null;
+
+      synchronized (values) {
+        byte[] value = values.get(key);
+
+        if (value == null) {
+          value = Arrays.copyOfRange(blob, range[0], range[0] + range[1]);
+          values.put((String) key, value);
+        }
+
+        return value;
+      }
+    }
+
+    @Override
+    public int size() {
+      return ranges.size();
+    }
+
+    @Override
+    public @NonNull Set<Entry<String, byte[]>> entrySet() {
+      return new AbstractSet<Entry<String, byte[]>>() {
+        @Override
+        public @NonNull Iterator<Entry<String, byte[]>> iterator() {
+          Iterator<String> keys = ranges.keySet().iterator();
+
+          return new Iterator<Entry<String, byte[]>>() {
+            @Override
+            public boolean hasNext() {
+              return keys.hasNext();
+            }
+
+            @Override
+            public Entry<String, byte[]> next() {
+              String key = keys.next();
+              return new SimpleImmutableEntry<>(key, get(key));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return ranges.size();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package org.thoughtcrime.securesms.keyboard.emoji.search
+
+import android.content.Context
+import org.session.libsignal.utilities.Log
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import kotlin.math.roundToInt
+
+/**
+ * A prebuilt, read-only index of emoji search tags, shipped as [ASSET_PATH] and memory-mapped on first use.
+ *
+ * Every (label, emoji) pair is stored sorted by label, together with a suffix table over the label bytes,
+ * so a `LIKE '%query%'` style lookup is just two binary searches. Labels are lower-cased (ASCII only, to
+ * match SQLite's `LIKE`) and all strings are UTF-8.
+ *
+ * Layout, all ints big-endian:
+ *  - [MAGIC], [VERSION], emojiCount, labelCount, suffixCount
+ *  - emojiOffsets: `int[emojiCount + 1]`, relative to the emoji string block
+ *  - labelOffsets: `int[labelCount + 1]`, relative to the label string block
+ *  - labelEmoji: `int[labelCount]`, the emoji index of each label row
+ *  - suffixes: `int[suffixCount]`, each `labelIndex shl 8 or byteOffset`, sorted by the suffix bytes
+ *  - the emoji string block followed by the label string block
+ */
+class EmojiSearchIndex(private val buffer: ByteBuffer) {
+
+  private val emojiCount: Int
+  private val labelCount: Int
+  private val suffixCount: Int
+
+  private val emojiOffsetsStart: Int
+  private val labelOffsetsStart: Int
+  private val labelEmojiStart: Int
+  private val suffixesStart: Int
+  private val emojiBytesStart: Int
+  private val labelBytesStart: Int
+
+  init {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw IOException("Not an emoji search index")
+    }
+
+    emojiCount  = buffer.getInt(8)
+    labelCount  = buffer.getInt(12)
+    suffixCount = buffer.getInt(16)
+
+    emojiOffsetsStart = HEADER_SIZE
+    labelOffsetsStart = emojiOffsetsStart + (emojiCount + 1) * 4
+    labelEmojiStart   = labelOffsetsStart + (labelCount + 1) * 4
+    suffixesStart     = labelEmojiStart + labelCount * 4
+    emojiBytesStart   = suffixesStart + suffixCount * 4
+    labelBytesStart   = emojiBytesStart + buffer.getInt(emojiOffsetsStart + emojiCount * 4)
+  }
+
+  /**
+   * @param originalQuery A search query. Doesn't need any special formatting -- it'll be sanitized.
+   * @return A list of emoji that are related to the search term, ordered by relevance.
+   */
+  fun query(originalQuery: String, limit: Int): List<String> {
+    val query = originalQuery.trim().lowercaseAscii()
+
+    if (query.isEmpty()) {
+      return emptyList()
+    }
+
+    val needle = query.toByteArray(Charsets.UTF_8)
+    val from   = lowerBound(needle)
+    val to     = upperBound(needle, from)
+
+    if (from >= to) {
+      return emptyList()
+    }
+
+    val labels = IntArray(to - from) { buffer.getInt(suffixesStart + (from + it) * 4) ushr 8 }
+      .distinct()
+      .sorted()
+
+    return labels
+      .map { Entry(label = label(it), emoji = emoji(buffer.getInt(labelEmojiStart + it * 4))) }
+      .sortedBy { similarityScore(query, it.label) }
+      .distinctBy { it.emoji }
+      .take(limit)
+      .map { it.emoji }
+  }
+
+  /** The first suffix that is not less than [needle]. */
+  private fun lowerBound(needle: ByteArray): Int {
+    var low  = 0
+    var high = suffixCount
+
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (compareSuffix(mid, needle) < 0) low = mid + 1 else high = mid
+    }
+
+    return low
+  }
+
+  /** The first suffix at or after [from] that doesn't start with [needle]. */
+  private fun upperBound(needle: ByteArray, from: Int): Int {
+    var low  = from
+    var high = suffixCount
+
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (compareSuffix(mid, needle) <= 0) low = mid + 1 else high = mid
+    }
+
+    return low
+  }
+
+  /**
+   * Compares the suffix at [index] against [needle], only looking at the first `needle.size` bytes so
+   * that any suffix which starts with [needle] compares as equal.
+   */
+  private fun compareSuffix(index: Int, needle: ByteArray): Int {
+    val suffix = buffer.getInt(suffixesStart + index * 4)
+    val label  = suffix ushr 8
+    val start  = labelBytesStart + labelOffset(label) + (suffix and 0xFF)
+    val end    = labelBytesStart + labelOffset(label + 1)
+
+    for (i in needle.indices) {
+      if (start + i >= end) {
+        return -1
+      }
+
+      val diff = (buffer.get(start + i).toInt() and 0xFF) - (needle[i].toInt() and 0xFF)
+      if (diff != 0) {
+        return diff
+      }
+    }
+
+    return 0
+  }
+
+  private fun labelOffset(label: Int): Int = buffer.getInt(labelOffsetsStart + label * 4)
+
+  private fun label(label: Int): String {
+    val start = labelOffset(label)
+    return readString(labelBytesStart + start, labelOffset(label + 1) - start)
+  }
+
+  private fun emoji(emoji: Int): String {
+    val start = buffer.getInt(emojiOffsetsStart + emoji * 4)
+    return readString(emojiBytesStart + start, buffer.getInt(emojiOffsetsStart + (emoji + 1) * 4) - start)
+  }
+
+  private fun readString(position: Int, length: Int): String {
+    val bytes = ByteArray(length)
+    for (i in 0 until length) {
+      bytes[i] = buffer.get(position + i)
+    }
+    return String(bytes, Charsets.UTF_8)
+  }
+
+  private data class Entry(val label: String, val emoji: String)
+
+  companion object {
+    private val TAG = EmojiSearchIndex::class.java.simpleName
+
+    const val ASSET_PATH = "emoji/emoji_search_index.bin"
+
+    private const val MAGIC       = 0x45534958 // "ESIX"
+    private const val VERSION     = 1
+    private const val HEADER_SIZE = 20
+
+    @Volatile
+    private var instance: EmojiSearchIndex? = null
+
+    @JvmStatic
+    fun get(context: Context): EmojiSearchIndex {
+      return instance ?: synchronized(this) {
+        instance ?: load(context.applicationContext).also { instance = it }
+      }
+    }
+
+    private fun load(context: Context): EmojiSearchIndex {
+      val buffer = try {
+        context.assets.openFd(ASSET_PATH).let { fd ->
+          fd.createInputStream().use { it.channel.map(FileChannel.MapMode.READ_ONLY, fd.startOffset, fd.declaredLength) }
+        }
+      } catch (e: IOException) {
+        // Only uncompressed assets can be mapped, so fall back to reading the index onto the heap
+        Log.w(TAG, "Unable to map the emoji search index, reading it instead", e)
+        context.assets.open(ASSET_PATH).use { ByteBuffer.wrap(it.readBytes()) }
+      }
+
+      return EmojiSearchIndex(buffer)
+    }
+
+    /**
+     * Builds the index file from a list of (emoji, tags) pairs, in the format described on [EmojiSearchIndex].
+     * This is what generates [ASSET_PATH] from the source `emoji_search_index.json`.
+     */
+    @JvmStatic
+    fun write(searchData: List<Pair<String, List<String>>>, out: OutputStream) {
+      val emoji    = searchData.map { it.first }.distinct()
+      val emojiIds = emoji.withIndex().associate { it.value to it.index }
+
+      val rows = searchData
+        .flatMap { (emoji, tags) -> tags.map { it.lowercaseAscii() to emojiIds.getValue(emoji) } }
+        .distinct()
+        .map { (label, emojiId) -> label.toByteArray(Charsets.UTF_8) to emojiId }
+        .sortedWith { lhs, rhs -> compareBytes(lhs.first, 0, rhs.first, 0).takeIf { it != 0 } ?: lhs.second.compareTo(rhs.second) }
+
+      val suffixes = rows.withIndex()
+        .flatMap { (index, row) ->
+          val label = row.first
+          require(label.size <= 0xFF) { "Label is too long for the index" }
+          // Only start suffixes on UTF-8 character boundaries, a valid query can't match anywhere else
+          label.indices.filter { label[it].toInt() and 0xC0 != 0x80 }.map { (index shl 8) or it }
+        }
+        .sortedWith { lhs, rhs ->
+          compareBytes(rows[lhs ushr 8].first, lhs and 0xFF, rows[rhs ushr 8].first, rhs and 0xFF).takeIf { it != 0 } ?: lhs.compareTo(rhs)
+        }
+
+      val emojiBytes = emoji.map { it.toByteArray(Charsets.UTF_8) }
+
+      DataOutputStream(out).apply {
+        writeInt(MAGIC)
+        writeInt(VERSION)
+        writeInt(emojiBytes.size)
+        writeInt(rows.size)
+        writeInt(suffixes.size)
+
+        emojiBytes.runningFold(0) { offset, bytes -> offset + bytes.size }.forEach { writeInt(it) }
+        rows.runningFold(0) { offset, row -> offset + row.first.size }.forEach { writeInt(it) }
+        rows.forEach { writeInt(it.second) }
+        suffixes.forEach { writeInt(it) }
+        emojiBytes.forEach { write(it) }
+        rows.forEach { write(it.first) }
+        flush()
+      }
+    }
+
+    private fun compareBytes(lhs: ByteArray, lhsFrom: Int, rhs: ByteArray, rhsFrom: Int): Int {
+      var i = lhsFrom
+      var j = rhsFrom
+
+      while (i < lhs.size && j < rhs.size) {
+        val diff = (lhs[i].toInt() and 0xFF) - (rhs[j].toInt() and 0xFF)
+        if (diff != 0) {
+          return diff
+        }
+        i++
+        j++
+      }
+
+      return (lhs.size - i) - (rhs.size - j)
+    }
+
+    /** Mirrors SQLite's `LIKE`, which only folds the case of ASCII characters. */
+    private fun String.lowercaseAscii(): String {
+      return String(CharArray(length) { i -> this[i].let { if (it in 'A'..'Z') it + ('a' - 'A') else it } })
+    }
+
+    /**
+     * Ranks how "similar" a match is to the original search term.
+     * A lower score means more similar, with 0 being a perfect match.
+     *
+     * We know that the `searchTerm` must be a substring of the `match`.
+     * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
+     * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+     */
+    private fun similarityScore(searchTerm: String, match: String): Int {
+      if (searchTerm == match) {
+        return 0
+      }
+
+      val startIndex = match.indexOf(searchTerm)
+
+      val prefixCount = startIndex
+      val suffixCount = match.length - (startIndex + searchTerm.length)
+
+      val prefixRankWeight = 1.5f
+      val suffixRankWeight = 1f
+
+      return ((prefixCount * prefixRankWeight) + (suffixCount * suffixRankWeight)).roundToInt()
+    }
+  }
+}
@@ -9,8 +9,6 @@ import org.session.libsession.utilities.concurrent.SignalExecutors
 import org.thoughtcrime.securesms.components.emoji.Emoji
 import org.thoughtcrime.securesms.components.emoji.EmojiPageModel
 import org.thoughtcrime.securesms.components.emoji.RecentEmojiPageModel
-import org.thoughtcrime.securesms.database.EmojiSearchDatabase
-import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.emoji.EmojiSource
 import java.util.function.Consumer
 
@@ -22,11 +20,11 @@ private val NOT_PUNCTUATION = "[A-Za-z0-9 ]".toRegex()
 
 class EmojiSearchRepository(private val context: Context) {
 
-  private val emojiSearchDatabase: EmojiSearchDatabase = DatabaseComponent.get(context).emojiSearchDatabase()
+  private val emojiSearchIndex: EmojiSearchIndex by lazy { EmojiSearchIndex.get(context) }
 
   fun submitQuery(query: String, limit: Int = EMOJI_SEARCH_LIMIT): Single<List<String>> {
     val result = if (query.length >= MINIMUM_INLINE_QUERY_THRESHOLD && NOT_PUNCTUATION.matches(query.substring(query.lastIndex))) {
-      Single.fromCallable { emojiSearchDatabase.query(query, limit) }
+      Single.fromCallable { emojiSearchIndex.query(query, limit) }
     } else {
       Single.just(emptyList())
     }
@@ -36,7 +34,7 @@ class EmojiSearchRepository(private val context: Context) {
 
   fun submitQuery(query: String, limit: Int = EMOJI_SEARCH_LIMIT, consumer: Consumer<EmojiPageModel>) {
     SignalExecutors.SERIAL.execute {
-      val emoji: List<String> = emojiSearchDatabase.query(query, limit)
+      val emoji: List<String> = emojiSearchIndex.query(query, limit)
 
       val displayEmoji: List<Emoji> = emoji
         .mapNotNull { canonical -> EmojiSource.latest.canonicalToVariations[canonical] }
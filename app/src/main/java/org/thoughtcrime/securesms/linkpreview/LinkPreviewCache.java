@@ -0,0 +1,182 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.session.libsignal.utilities.Hex;
+import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the link previews that have been fetched on disk, encrypted with the attachment secret, so previewing the
+ * same link again doesn't go back to the network.
+ *
+ * Entries are named by a keyed hash of their URL, so the cache doesn't give away which links were previewed.
+ */
+final class LinkPreviewCache {
+
+  private static final String TAG = LinkPreviewCache.class.getSimpleName();
+
+  private static final String DIRECTORY   = "link_previews";
+  private static final int    VERSION     = 1;
+  static final         int    MAX_ENTRIES = 200;
+  static final         long   MAX_AGE     = TimeUnit.DAYS.toMillis(7);
+
+  private final File                       directory;
+  private final Supplier<AttachmentSecret> attachmentSecret;
+
+  LinkPreviewCache(@NonNull Context context) {
+    this(new File(context.getCacheDir(), DIRECTORY), AttachmentSecretProvider.getInstance(context)::getOrCreateAttachmentSecret);
+  }
+
+  @VisibleForTesting
+  LinkPreviewCache(@NonNull File directory, @NonNull Supplier<AttachmentSecret> attachmentSecret) {
+    this.directory        = directory;
+    this.attachmentSecret = attachmentSecret;
+  }
+
+  @WorkerThread
+  @Nullable Entry get(@NonNull String url) {
+    File file = getFile(url);
+
+    if (!file.exists()) {
+      return null;
+    } else if (System.currentTimeMillis() - file.lastModified() > MAX_AGE) {
+      file.delete();
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(ModernDecryptingPartInputStream.createFor(getAttachmentSecret(), file, 0))) {
+      if (in.readInt() != VERSION || !url.equals(in.readUTF())) {
+        return null;
+      }
+
+      String title           = in.readUTF();
+      int    thumbnailLength = in.readInt();
+
+      if (thumbnailLength < 0) {
+        return new Entry(title, null);
+      }
+
+      int    width     = in.readInt();
+      int    height    = in.readInt();
+      byte[] thumbnail = new byte[thumbnailLength];
+      in.readFully(thumbnail);
+
+      return new Entry(title, new Thumbnail(thumbnail, width, height));
+    } catch (IOException e) {
+      Log.w(TAG, "Couldn't read a cached link preview.", e);
+      file.delete();
+      return null;
+    }
+  }
+
+  @WorkerThread
+  synchronized void put(@NonNull String url, @NonNull Entry entry) {
+    File file      = getFile(url);
+    File temporary = new File(file.getPath() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(ModernEncryptingPartOutputStream.createFor(getAttachmentSecret(), temporary, true).second)) {
+      out.writeInt(VERSION);
+      out.writeUTF(url);
+      out.writeUTF(entry.title);
+
+      if (entry.thumbnail == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(entry.thumbnail.data.length);
+        out.writeInt(entry.thumbnail.width);
+        out.writeInt(entry.thumbnail.height);
+        out.write(entry.thumbnail.data);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Couldn't cache a link preview.", e);
+      temporary.delete();
+      return;
+    }
+
+    if (!temporary.renameTo(file)) {
+      temporary.delete();
+      return;
+    }
+
+    trim();
+  }
+
+  private void trim() {
+    File[] files = getDirectory().listFiles();
+    if (files == null || files.length <= MAX_ENTRIES) return;
+
+    Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+
+    for (int i = MAX_ENTRIES; i < files.length; i++) {
+      files[i].delete();
+    }
+  }
+
+  private @NonNull File getFile(@NonNull String url) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(getAttachmentSecret().getModernKey(), "HmacSHA256"));
+
+      return new File(getDirectory(), Hex.toStringCondensed(mac.doFinal(url.getBytes(StandardCharsets.UTF_8))));
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private @NonNull File getDirectory() {
+    if (!directory.exists()) {
+      directory.mkdir();
+    }
+
+    return directory;
+  }
+
+  private @NonNull AttachmentSecret getAttachmentSecret() {
+    return attachmentSecret.get();
+  }
+
+  static final class Entry {
+    final @NonNull  String    title;
+    final @Nullable Thumbnail thumbnail;
+
+    Entry(@NonNull String title, @Nullable Thumbnail thumbnail) {
+      this.title     = title;
+      this.thumbnail = thumbnail;
+    }
+  }
+
+  static final class Thumbnail {
+    final @NonNull byte[] data;
+    final          int    width;
+    final          int    height;
+
+    Thumbnail(@NonNull byte[] data, int width, int height) {
+      this.data   = data;
+      this.width  = width;
+      this.height = height;
+    }
+  }
+}
@@ -1,7 +1,5 @@
 package org.thoughtcrime.securesms.linkpreview;
 
-import static org.session.libsession.utilities.Util.readFully;
-
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -10,7 +8,6 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.session.libsession.messaging.sending_receiving.attachments.Attachment;
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress;
 import org.session.libsession.messaging.sending_receiving.attachments.UriAttachment;
 import org.session.libsession.messaging.sending_receiving.link_preview.LinkPreview;
@@ -18,22 +15,29 @@ import org.session.libsession.utilities.MediaTypes;
 import org.session.libsession.utilities.concurrent.SignalExecutors;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache.Entry;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache.Thumbnail;
 import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil.OpenGraph;
 import org.thoughtcrime.securesms.net.CallRequestController;
 import org.thoughtcrime.securesms.net.CompositeRequestController;
 import org.thoughtcrime.securesms.net.ContentProxySafetyInterceptor;
 import org.thoughtcrime.securesms.net.RequestController;
 import org.thoughtcrime.securesms.providers.BlobProvider;
+import org.thoughtcrime.securesms.util.LimitedInputStream;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import okhttp3.CacheControl;
 import okhttp3.Call;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class LinkPreviewRepository {
 
@@ -41,13 +45,20 @@ public class LinkPreviewRepository {
 
   private static final CacheControl NO_CACHE = new CacheControl.Builder().noCache().build();
 
-  private final OkHttpClient client;
+  private static final int MAX_IMAGE_BYTES         = 10 * 1024 * 1024;
+  // Enough for any image's header to be read twice, once for its size and once to decode it
+  private static final int MAX_IMAGE_HEADER_BYTES  = 1024 * 1024;
+  private static final int MAX_THUMBNAIL_DIMENSION = 1024;
+
+  private final OkHttpClient     client;
+  private final LinkPreviewCache cache;
 
-  public LinkPreviewRepository() {
+  public LinkPreviewRepository(@NonNull Context context) {
     this.client = new OkHttpClient.Builder()
                                   .addNetworkInterceptor(new ContentProxySafetyInterceptor())
                                   .cache(null)
                                   .build();
+    this.cache  = new LinkPreviewCache(context);
   }
 
   RequestController getLinkPreview(@NonNull Context context, @NonNull String url, @NonNull Callback<Optional<LinkPreview>> callback) {
@@ -59,34 +70,49 @@ public class LinkPreviewRepository {
       return compositeController;
     }
 
-    RequestController metadataController;
+    SignalExecutors.BOUNDED.execute(() -> {
+      Entry cached = cache.get(url);
 
-    metadataController = fetchMetadata(url, metadata -> {
-      if (metadata.isEmpty()) {
-        callback.onComplete(Optional.absent());
+      if (compositeController.isCanceled()) {
         return;
-      }
-
-      if (!metadata.getImageUrl().isPresent()) {
-        callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().get(), Optional.absent())));
+      } else if (cached != null) {
+        callback.onComplete(Optional.of(toLinkPreview(url, cached)));
         return;
       }
 
-      RequestController imageController = fetchThumbnail(context, metadata.getImageUrl().get(), attachment -> {
-        if (!metadata.getTitle().isPresent() && !attachment.isPresent()) {
+      RequestController metadataController = fetchMetadata(url, metadata -> {
+        if (metadata.isEmpty()) {
           callback.onComplete(Optional.absent());
-        } else {
-          callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().or(""), attachment)));
+          return;
+        }
+
+        if (!metadata.getImageUrl().isPresent()) {
+          onFetched(url, new Entry(metadata.getTitle().get(), null), callback);
+          return;
         }
+
+        RequestController imageController = fetchThumbnail(metadata.getImageUrl().get(), thumbnail -> {
+          if (!metadata.getTitle().isPresent() && !thumbnail.isPresent()) {
+            callback.onComplete(Optional.absent());
+          } else {
+            onFetched(url, new Entry(metadata.getTitle().or(""), thumbnail.orNull()), callback);
+          }
+        });
+
+        compositeController.addController(imageController);
       });
 
-      compositeController.addController(imageController);
+      compositeController.addController(metadataController);
     });
 
-    compositeController.addController(metadataController);
     return compositeController;
   }
 
+  private void onFetched(@NonNull String url, @NonNull Entry entry, @NonNull Callback<Optional<LinkPreview>> callback) {
+    callback.onComplete(Optional.of(toLinkPreview(url, entry)));
+    cache.put(url, entry);
+  }
+
   private @NonNull RequestController fetchMetadata(@NonNull String url, Callback<Metadata> callback) {
     Call call = client.newCall(new Request.Builder().url(url).removeHeader("User-Agent").addHeader("User-Agent",
         "WhatsApp").cacheControl(NO_CACHE).build());
@@ -100,20 +126,28 @@ public class LinkPreviewRepository {
 
       @Override
       public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+        ResponseBody body = response.body();
+
         if (!response.isSuccessful()) {
           Log.w(TAG, "Non-successful response. Code: " + response.code());
+          response.close();
           callback.onComplete(Metadata.empty());
           return;
-        } else if (response.body() == null) {
+        } else if (body == null) {
           Log.w(TAG, "No response body.");
           callback.onComplete(Metadata.empty());
           return;
         }
 
-        String            body     = response.body().string();
-        OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(body);
-        Optional<String> title       = openGraph.getTitle();
-        Optional<String> imageUrl    = openGraph.getImageUrl();
+        OpenGraph openGraph;
+
+        try (ResponseBody ignored = body) {
+          MediaType contentType = body.contentType();
+          openGraph = LinkPreviewUtil.parseOpenGraphFields(body.byteStream(), contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8);
+        }
+
+        Optional<String> title    = openGraph.getTitle();
+        Optional<String> imageUrl = openGraph.getImageUrl();
 
         if (imageUrl.isPresent() && !LinkPreviewUtil.isValidMediaUrl(imageUrl.get())) {
           Log.i(TAG, "Image URL was invalid or for a non-whitelisted domain. Skipping.");
@@ -132,25 +166,30 @@ public class LinkPreviewRepository {
     return new CallRequestController(call);
   }
 
-  private @NonNull RequestController fetchThumbnail(@NonNull Context context, @NonNull String imageUrl, @NonNull Callback<Optional<Attachment>> callback) {
+  private @NonNull RequestController fetchThumbnail(@NonNull String imageUrl, @NonNull Callback<Optional<Thumbnail>> callback) {
     Call                  call       = client.newCall(new Request.Builder().url(imageUrl).build());
     CallRequestController controller = new CallRequestController(call);
 
     SignalExecutors.UNBOUNDED.execute(() -> {
-      try {
-        Response response = call.execute();
-        if (!response.isSuccessful() || response.body() == null) {
+      try (Response response = call.execute()) {
+        ResponseBody body = response.body();
+
+        if (!response.isSuccessful() || body == null) {
+          controller.cancel();
+          callback.onComplete(Optional.absent());
+          return;
+        } else if (body.contentLength() > MAX_IMAGE_BYTES) {
+          Log.w(TAG, "Link preview image is too large: " + body.contentLength());
           controller.cancel();
           callback.onComplete(Optional.absent());
           return;
         }
 
-        InputStream bodyStream = response.body().byteStream();
+        InputStream bodyStream = body.byteStream();
         controller.setStream(bodyStream);
 
-        byte[]               data      = readFully(bodyStream);
-        Bitmap               bitmap    = BitmapFactory.decodeByteArray(data, 0, data.length);
-        Optional<Attachment> thumbnail = bitmapToAttachment(bitmap, Bitmap.CompressFormat.JPEG, MediaTypes.IMAGE_JPEG);
+        Bitmap              bitmap    = decodeThumbnail(new LimitedInputStream(bodyStream, MAX_IMAGE_BYTES));
+        Optional<Thumbnail> thumbnail = compressThumbnail(bitmap);
 
         if (bitmap != null) bitmap.recycle();
 
@@ -165,34 +204,75 @@ public class LinkPreviewRepository {
     return controller;
   }
 
-  private static Optional<Attachment> bitmapToAttachment(@Nullable Bitmap bitmap,
-                                                         @NonNull Bitmap.CompressFormat format,
-                                                         @NonNull String contentType)
-  {
+  /**
+   * Decodes an image straight from the network, reading its size first so it's never held at more than twice
+   * {@link #MAX_THUMBNAIL_DIMENSION} across.
+   */
+  private static @Nullable Bitmap decodeThumbnail(@NonNull InputStream in) throws IOException {
+    BufferedInputStream   stream  = new BufferedInputStream(in);
+    BitmapFactory.Options options = new BitmapFactory.Options();
+
+    stream.mark(MAX_IMAGE_HEADER_BYTES);
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(stream, null, options);
+    stream.reset();
+
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize       = getSampleSize(options.outWidth, options.outHeight, MAX_THUMBNAIL_DIMENSION);
+
+    return BitmapFactory.decodeStream(stream, null, options);
+  }
+
+  /**
+   * @return The largest power of two that an image can be scaled down by and still be at least
+   * {@code maxDimension} across.
+   */
+  static int getSampleSize(int width, int height, int maxDimension) {
+    int largest    = Math.max(width, height);
+    int sampleSize = 1;
+
+    while (largest / (sampleSize * 2) >= maxDimension) {
+      sampleSize *= 2;
+    }
+
+    return sampleSize;
+  }
+
+  private static Optional<Thumbnail> compressThumbnail(@Nullable Bitmap bitmap) {
     if (bitmap == null) {
       return Optional.absent();
     }
 
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
-    bitmap.compress(format, 80, baos);
+    bitmap.compress(Bitmap.CompressFormat.JPEG, 80, baos);
 
-    byte[] bytes = baos.toByteArray();
-    Uri    uri   = BlobProvider.getInstance().forData(bytes).createForSingleSessionInMemory();
+    return Optional.of(new Thumbnail(baos.toByteArray(), bitmap.getWidth(), bitmap.getHeight()));
+  }
 
-    return Optional.of(new UriAttachment(uri,
+  private static @NonNull LinkPreview toLinkPreview(@NonNull String url, @NonNull Entry entry) {
+    if (entry.thumbnail == null) {
+      return new LinkPreview(url, entry.title, Optional.absent());
+    }
+
+    Uri uri = BlobProvider.getInstance().forData(entry.thumbnail.data).createForSingleSessionInMemory();
+
+    return new LinkPreview(url, entry.title, Optional.of(new UriAttachment(uri,
            uri,
-           contentType,
+           MediaTypes.IMAGE_JPEG,
            AttachmentTransferProgress.TRANSFER_PROGRESS_STARTED,
-           bytes.length,
-           bitmap.getWidth(),
-           bitmap.getHeight(),
+           entry.thumbnail.data.length,
+           entry.thumbnail.width,
+           entry.thumbnail.height,
            null,
            null,
            false,
            false,
-           null));
-
+           null)));
   }
 
 
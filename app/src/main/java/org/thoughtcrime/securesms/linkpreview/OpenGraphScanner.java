@@ -0,0 +1,259 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil.HtmlDecoder;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil.OpenGraph;
+import org.thoughtcrime.securesms.util.LimitedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads the Open Graph tags, title and favicon from the {@code <head>} of a page as it's downloaded.
+ *
+ * Reading stops at the end of the head, or the start of the body, or after {@link #MAX_HEAD_BYTES}, so the rest of
+ * the page is never fetched. Tags are tokenized in a single pass that never looks back, so the time taken only
+ * grows with the size of the head, however the page is written.
+ */
+final class OpenGraphScanner {
+
+  static final int MAX_HEAD_BYTES = 256 * 1024;
+
+  private static final int MAX_TITLE_LENGTH = 1024;
+
+  private static final String OPEN_GRAPH_PREFIX = "og:";
+  private static final String ARTICLE_PREFIX    = "article:";
+
+  private OpenGraphScanner() {}
+
+  static @NonNull OpenGraph scan(@NonNull InputStream in, @NonNull Charset charset, @NonNull HtmlDecoder htmlDecoder) throws IOException {
+    return scan(readHead(in, charset, MAX_HEAD_BYTES), htmlDecoder);
+  }
+
+  /**
+   * @return The document up to where its head ends, having read no more than {@code maxBytes} of it.
+   */
+  static @NonNull String readHead(@NonNull InputStream in, @NonNull Charset charset, int maxBytes) throws IOException {
+    Reader        reader = new InputStreamReader(new LimitedInputStream(in, maxBytes), charset);
+    StringBuilder head   = new StringBuilder();
+    char[]        buffer = new char[4096];
+    int           read;
+
+    while ((read = reader.read(buffer)) != -1) {
+      // The end of the head may straddle two reads
+      int from = Math.max(0, head.length() - "</head".length());
+      head.append(buffer, 0, read);
+
+      int end = indexOfHeadEnd(head, from);
+      if (end >= 0) {
+        head.setLength(end);
+        break;
+      }
+    }
+
+    return head.toString();
+  }
+
+  static @NonNull OpenGraph scan(@NonNull String html, @NonNull HtmlDecoder htmlDecoder) {
+    Map<String, String> openGraphTags = new HashMap<>();
+    Map<String, String> articleTags   = new HashMap<>();
+    String              htmlTitle     = "";
+    String              faviconUrl    = "";
+
+    int length   = html.length();
+    int position = html.indexOf('<');
+
+    while (position >= 0) {
+      if (html.startsWith("<!--", position)) {
+        position = skipPast(html, "-->", position + 4);
+        position = position < length ? html.indexOf('<', position) : -1;
+        continue;
+      }
+
+      int nameStart = position + 1;
+      int nameEnd   = nameStart;
+
+      while (nameEnd < length && isNameCharacter(html.charAt(nameEnd))) {
+        nameEnd++;
+      }
+
+      String              name       = html.substring(nameStart, nameEnd).toLowerCase(Locale.US);
+      Map<String, String> attributes = new HashMap<>();
+      int                 tagEnd     = nameEnd > nameStart ? readAttributes(html, nameEnd, attributes) : nameStart;
+
+      switch (name) {
+        case "meta":
+          String property = attributes.get("property");
+          String content  = attributes.get("content");
+
+          if (property != null && content != null) {
+            String key = property.trim().toLowerCase(Locale.US);
+
+            if (key.startsWith(OPEN_GRAPH_PREFIX)) {
+              putTag(openGraphTags, key.substring(OPEN_GRAPH_PREFIX.length()), htmlDecoder.fromEncoded(content));
+            } else if (key.startsWith(ARTICLE_PREFIX)) {
+              putTag(articleTags, key.substring(ARTICLE_PREFIX.length()), htmlDecoder.fromEncoded(content));
+            }
+          }
+          break;
+        case "link":
+          String rel  = attributes.get("rel");
+          String href = attributes.get("href");
+
+          if (faviconUrl.isEmpty() && rel != null && href != null && rel.toLowerCase(Locale.US).contains("icon")) {
+            faviconUrl = href;
+          }
+          break;
+        case "title":
+          int titleEnd = indexOfIgnoreCase(html, "</title", tagEnd);
+          if (titleEnd < 0) titleEnd = length;
+
+          if (htmlTitle.isEmpty()) {
+            htmlTitle = htmlDecoder.fromEncoded(html.substring(tagEnd, Math.min(titleEnd, tagEnd + MAX_TITLE_LENGTH)));
+          }
+          tagEnd = titleEnd;
+          break;
+        case "script":
+        case "style":
+          tagEnd = skipPast(html, "</" + name, tagEnd);
+          break;
+      }
+
+      position = tagEnd < length ? html.indexOf('<', tagEnd) : -1;
+    }
+
+    // Article tags have always taken precedence over the Open Graph tags of the same name
+    openGraphTags.putAll(articleTags);
+
+    return new OpenGraph(openGraphTags, htmlTitle, faviconUrl);
+  }
+
+  /**
+   * Stores a tag's value, capping a title at the same length as the page's own {@code <title>}.
+   */
+  private static void putTag(@NonNull Map<String, String> tags, @NonNull String name, @NonNull String value) {
+    if (name.equals("title") && value.length() > MAX_TITLE_LENGTH) {
+      value = value.substring(0, MAX_TITLE_LENGTH);
+    }
+    tags.put(name, value);
+  }
+
+  /**
+   * Reads the attributes of a tag, keeping the first value of each.
+   *
+   * @return Where the tag ends, just past its {@code >}.
+   */
+  private static int readAttributes(@NonNull String html, int position, @NonNull Map<String, String> attributes) {
+    int length = html.length();
+
+    while (position < length) {
+      char c = html.charAt(position);
+
+      if (c == '>') {
+        return position + 1;
+      } else if (c == '/' || Character.isWhitespace(c)) {
+        position++;
+        continue;
+      }
+
+      int nameStart = position;
+      while (position < length && isAttributeNameCharacter(html.charAt(position))) {
+        position++;
+      }
+
+      if (position == nameStart) {
+        // A stray quote or equals sign, which can't start a name, so it's skipped rather than read forever
+        position++;
+        continue;
+      }
+
+      String name  = html.substring(nameStart, position).toLowerCase(Locale.US);
+      String value = "";
+
+      position = skipWhitespace(html, position);
+
+      if (position < length && html.charAt(position) == '=') {
+        position = skipWhitespace(html, position + 1);
+
+        if (position < length && (html.charAt(position) == '"' || html.charAt(position) == '\'')) {
+          int valueEnd = html.indexOf(html.charAt(position), position + 1);
+          if (valueEnd < 0) valueEnd = length;
+
+          value    = html.substring(position + 1, valueEnd);
+          position = Math.min(valueEnd + 1, length);
+        } else {
+          int valueStart = position;
+          while (position < length && html.charAt(position) != '>' && !Character.isWhitespace(html.charAt(position))) {
+            position++;
+          }
+          value = html.substring(valueStart, position);
+        }
+      }
+
+      if (!attributes.containsKey(name)) {
+        attributes.put(name, value);
+      }
+    }
+
+    return length;
+  }
+
+  private static int indexOfHeadEnd(@NonNull CharSequence html, int from) {
+    for (int i = from; i < html.length(); i++) {
+      if (html.charAt(i) == '<' && (regionMatches(html, i, "</head") || regionMatches(html, i, "<body"))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOfIgnoreCase(@NonNull String html, @NonNull String target, int from) {
+    for (int i = html.indexOf('<', from); i >= 0; i = html.indexOf('<', i + 1)) {
+      if (regionMatches(html, i, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The position just past the next {@code target}, or the end of the document if there isn't one.
+   */
+  private static int skipPast(@NonNull String html, @NonNull String target, int from) {
+    int index = target.charAt(0) == '<' ? indexOfIgnoreCase(html, target, from) : html.indexOf(target, from);
+    return index < 0 ? html.length() : index + target.length();
+  }
+
+  private static boolean regionMatches(@NonNull CharSequence html, int offset, @NonNull String target) {
+    if (offset + target.length() > html.length()) return false;
+
+    for (int i = 0; i < target.length(); i++) {
+      if (Character.toLowerCase(html.charAt(offset + i)) != target.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int skipWhitespace(@NonNull String html, int position) {
+    while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static boolean isNameCharacter(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == ':';
+  }
+
+  private static boolean isAttributeNameCharacter(char c) {
+    return c != '=' && c != '>' && c != '/' && c != '"' && c != '\'' && !Character.isWhitespace(c);
+  }
+}
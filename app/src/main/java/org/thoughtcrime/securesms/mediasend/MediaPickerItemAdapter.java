@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.mediasend;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,17 +27,28 @@ public class MediaPickerItemAdapter extends RecyclerView.Adapter<MediaPickerItem
 
   private final RequestManager glideRequests;
   private final EventListener            eventListener;
-  private final List<Media>              media;
   private final List<Media>              selected;
   private final int                      maxSelection;
   private final StableIdGenerator<Media> stableIdGenerator;
 
-  private boolean forcedMultiSelect;
+  private final PagedMediaList.Listener mediaListener = new PagedMediaList.Listener() {
+    @Override
+    public void onChanged() {
+      notifyDataSetChanged();
+    }
+
+    @Override
+    public void onItemsLoaded(int position, int count) {
+      notifyItemRangeChanged(position, count);
+    }
+  };
+
+  private PagedMediaList media;
+  private boolean        forcedMultiSelect;
 
   public MediaPickerItemAdapter(@NonNull RequestManager glideRequests, @NonNull EventListener eventListener, int maxSelection) {
     this.glideRequests     = glideRequests;
     this.eventListener     = eventListener;
-    this.media             = new ArrayList<>();
     this.maxSelection      = maxSelection;
     this.stableIdGenerator = new StableIdGenerator<>();
     this.selected          = new LinkedList<>();
@@ -51,7 +63,10 @@ public class MediaPickerItemAdapter extends RecyclerView.Adapter<MediaPickerItem
 
   @Override
   public void onBindViewHolder(@NonNull ItemViewHolder holder, int i) {
-    holder.bind(media.get(i), forcedMultiSelect, selected, maxSelection, glideRequests, eventListener);
+    Media item = media.get(i);
+
+    if (item != null) holder.bind(item, forcedMultiSelect, selected, maxSelection, glideRequests, eventListener);
+    else              holder.bindPlaceholder(glideRequests);
   }
 
   @Override
@@ -61,17 +76,29 @@ public class MediaPickerItemAdapter extends RecyclerView.Adapter<MediaPickerItem
 
   @Override
   public int getItemCount() {
-    return media.size();
+    return media != null ? media.size() : 0;
   }
 
   @Override
   public long getItemId(int position) {
-    return stableIdGenerator.getId(media.get(position));
+    Media item = media.peek(position);
+
+    // Placeholders get IDs of their own, as the items that replace them can't be known until they've loaded
+    if (item != null) return stableIdGenerator.getId(item);
+    else              return -1 - position;
   }
 
-  void setMedia(@NonNull List<Media> media) {
-    this.media.clear();
-    this.media.addAll(media);
+  void setMedia(@Nullable PagedMediaList media) {
+    if (this.media != null) {
+      this.media.setListener(null);
+    }
+
+    this.media = media;
+
+    if (media != null) {
+      media.setListener(mediaListener);
+    }
+
     notifyDataSetChanged();
   }
 
@@ -157,11 +184,20 @@ public class MediaPickerItemAdapter extends RecyclerView.Adapter<MediaPickerItem
       }
     }
 
-    void recycle() {
+    void bindPlaceholder(@NonNull RequestManager glideRequests) {
+      glideRequests.clear(thumbnail);
+
+      playOverlay.setVisibility(View.GONE);
+      selectOn.setVisibility(View.GONE);
+      selectOff.setVisibility(View.GONE);
+      selectOverlay.setVisibility(View.GONE);
       itemView.setOnClickListener(null);
+      itemView.setOnLongClickListener(null);
     }
 
-
+    void recycle() {
+      itemView.setOnClickListener(null);
+    }
   }
 
   interface EventListener {
@@ -110,6 +110,12 @@ public class MediaPickerItemFragment extends Fragment implements MediaPickerItem
     initMediaObserver(viewModel);
   }
 
+  @Override
+  public void onDestroyView() {
+    super.onDestroyView();
+    adapter.setMedia(null);
+  }
+
   @Override
   public void onResume() {
     super.onResume();
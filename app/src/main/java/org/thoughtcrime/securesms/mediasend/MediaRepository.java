@@ -1,32 +1,38 @@
 package org.thoughtcrime.securesms.mediasend;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Files.FileColumns;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
 import android.provider.OpenableColumns;
 import android.util.Pair;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
 
-import org.session.libsession.utilities.Util;
+import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -34,146 +40,140 @@ import network.loki.messenger.R;
 
 /**
  * Handles the retrieval of media present on the user's device.
+ *
+ * Media is read out of {@link MediaStore} a page at a time rather than all at once, so that the picker can show the
+ * first folders and items without waiting for the whole library, however big it is.
  */
 class MediaRepository {
 
+  private static final String TAG = MediaRepository.class.getSimpleName();
+
+  static final int FOLDER_SCAN_PAGE_SIZE = 5000;
+
+  private static final Uri    FILES_URI       = MediaStore.Files.getContentUri("external");
+  private static final String MEDIA_SELECTION = FileColumns.MEDIA_TYPE + " IN (" + FileColumns.MEDIA_TYPE_IMAGE + ", " + FileColumns.MEDIA_TYPE_VIDEO + ") AND " + FileColumns.DATA + " NOT NULL";
+  private static final String SORT_ORDER      = Images.Media.DATE_TAKEN + " DESC, " + FileColumns._ID + " DESC";
+
+  private static final FolderCache FOLDER_CACHE = new FolderCache();
+
   /**
    * Retrieves a list of folders that contain media.
+   *
+   * Unless the folders are cached, the callback is called each time another page of media has been scanned, with the
+   * folders found so far, and the last call has all of them.
    */
   void getFolders(@NonNull Context context, @NonNull Callback<List<MediaFolder>> callback) {
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getFolders(context)));
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> scanFolders(context, callback));
   }
 
   /**
-   * Retrieves a list of media items (images and videos) that are present int he specified bucket.
+   * Retrieves the media items (images and videos) that are present in the specified bucket, which are loaded as
+   * they're scrolled to. The list must be closed once it's no longer needed.
    */
-  void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getMediaInBucket(context, bucketId)));
+  @MainThread
+  @NonNull PagedMediaList getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
+    PagedMediaList media = new PagedMediaList(context.getApplicationContext(), this, bucketId, AsyncTask.THREAD_POOL_EXECUTOR);
+    media.open();
+    return media;
   }
 
   /**
-   * Given an existing list of {@link Media}, this will ensure that the media is populate with as
+   * Given an existing list of {@link Media}, this will ensure that the media is populated with as
    * much data as we have, like width/height.
+   *
+   * Calls back on a background thread, even if the media is already populated, so the callback can do I/O.
    */
   void getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media, @NonNull Callback<List<Media>> callback) {
-    if (Stream.of(media).allMatch(this::isPopulated)) {
-      callback.onComplete(media);
-      return;
-    }
-
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getPopulatedMedia(context, media)));
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+      if (Stream.of(media).allMatch(MediaRepository::isPopulated)) callback.onComplete(media);
+      else                                                           callback.onComplete(getPopulatedMedia(context, media));
+    });
   }
 
+  /**
+   * @param onProgress Called with the folders found so far each time a page of media has been scanned.
+   * @return All of the folders.
+   */
   @WorkerThread
-  private @NonNull List<MediaFolder> getFolders(@NonNull Context context) {
-    FolderResult imageFolders       = getFolders(context, Images.Media.EXTERNAL_CONTENT_URI);
-    FolderResult videoFolders       = getFolders(context, Video.Media.EXTERNAL_CONTENT_URI);
-    Map<String, FolderData> folders = new HashMap<>(imageFolders.getFolderData());
-
-    for (Map.Entry<String, FolderData> entry : videoFolders.getFolderData().entrySet()) {
-      if (folders.containsKey(entry.getKey())) {
-        folders.get(entry.getKey()).incrementCount(entry.getValue().getCount());
-      } else {
-        folders.put(entry.getKey(), entry.getValue());
-      }
+  @NonNull List<MediaFolder> scanFolders(@NonNull Context context, @NonNull Callback<List<MediaFolder>> onProgress) {
+    List<MediaFolder> cached = FOLDER_CACHE.get(context.getContentResolver());
+
+    if (cached != null) {
+      onProgress.onComplete(cached);
+      return cached;
     }
 
-    Comparator<MediaFolder> folderNameSorter = (Comparator<MediaFolder>) (first, second) -> {
-      if (first == null || first.getTitle() == null) return 1;
-      if (second == null || second.getTitle() == null) return -1;
-      return first.getTitle().toLowerCase().compareTo(second.getTitle().toLowerCase());
-    };
+    int                     generation        = FOLDER_CACHE.getGeneration();
+    Map<String, FolderData> folders           = new HashMap<>();
+    Uri                     allMediaThumbnail = null;
+    int                     allMediaCount     = 0;
+    List<MediaFolder>       mediaFolders      = Collections.emptyList();
 
-    List<MediaFolder> mediaFolders = Stream.of(folders.values()).map(folder -> new MediaFolder(folder.getThumbnail(),
-            folder.getTitle(),
-            folder.getCount(),
-            folder.getBucketId()))
-            .sorted(folderNameSorter)
-            .toList();
+    String[] projection = new String[] { FileColumns._ID, FileColumns.MEDIA_TYPE, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME };
 
-    Uri allMediaThumbnail = imageFolders.getThumbnailTimestamp() > videoFolders.getThumbnailTimestamp() ? imageFolders.getThumbnail() : videoFolders.getThumbnail();
-    if (allMediaThumbnail != null) {
-      int allMediaCount = Stream.of(mediaFolders).reduce(0, (count, folder) -> count + folder.getItemCount());
-      mediaFolders.add(0, new MediaFolder(allMediaThumbnail, context.getString(R.string.conversationsSettingsAllMedia), allMediaCount, Media.ALL_MEDIA_BUCKET_ID));
-    }
+    for (int offset = 0; ; offset += FOLDER_SCAN_PAGE_SIZE) {
+      int rows = 0;
 
-    return mediaFolders;
-  }
+      // Newest first, so the first item seen in each folder is its thumbnail
+      try (Cursor cursor = queryPage(context, projection, MEDIA_SELECTION, null, offset, FOLDER_SCAN_PAGE_SIZE)) {
+        while (cursor != null && cursor.moveToNext()) {
+          Uri    thumbnail = getContentUri(cursor);
+          String bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
+          String title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[3]));
 
-  @WorkerThread
-  private @NonNull FolderResult getFolders(@NonNull Context context, @NonNull Uri contentUri) {
-    Uri                     globalThumbnail    = null;
-    long                    thumbnailTimestamp = 0;
-    Map<String, FolderData> folders            = new HashMap<>();
+          FolderData folder = folders.get(bucketId);
 
-    String[] projection = new String[] { Images.Media.DATA, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_TAKEN };
-    String   selection  = Images.Media.DATA + " NOT NULL";
-    String   sortBy     = Images.Media.BUCKET_DISPLAY_NAME + " COLLATE NOCASE ASC, " + Images.Media.DATE_TAKEN + " DESC";
+          if (folder == null) {
+            folder = new FolderData(thumbnail, title, bucketId);
+            folders.put(bucketId, folder);
+          }
 
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
-        String     path      = cursor.getString(cursor.getColumnIndexOrThrow(projection[0]));
-        Uri        thumbnail = Uri.fromFile(new File(path));
-        String     bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[1]));
-        String     title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
-        long       timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(projection[3]));
-        FolderData folder    = Util.getOrDefault(folders, bucketId, new FolderData(thumbnail, title, bucketId));
-
-        folder.incrementCount();
-        folders.put(bucketId, folder);
-
-        if (timestamp > thumbnailTimestamp) {
-          globalThumbnail    = thumbnail;
-          thumbnailTimestamp = timestamp;
+          if (allMediaThumbnail == null) {
+            allMediaThumbnail = thumbnail;
+          }
+
+          folder.incrementCount();
+          allMediaCount++;
+          rows++;
         }
       }
-    }
 
-    return new FolderResult(globalThumbnail, thumbnailTimestamp, folders);
-  }
+      mediaFolders = toMediaFolders(context, folders.values(), allMediaThumbnail, allMediaCount);
+      onProgress.onComplete(mediaFolders);
 
-  @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true);
-    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false);
-    List<Media> media  = new ArrayList<>(images.size() + videos.size());
+      if (rows < FOLDER_SCAN_PAGE_SIZE) break;
+    }
 
-    media.addAll(images);
-    media.addAll(videos);
-    Collections.sort(media, (o1, o2) -> Long.compare(o2.getDate(), o1.getDate()));
+    FOLDER_CACHE.put(generation, mediaFolders);
 
-    return media;
+    return mediaFolders;
   }
 
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean hasOrientation) {
-    List<Media> media         = new LinkedList<>();
-    String      selection     = Images.Media.BUCKET_ID + " = ? AND " + Images.Media.DATA + " NOT NULL";
-    String[]    selectionArgs = new String[] { bucketId };
-    String      sortBy        = Images.Media.DATE_TAKEN + " DESC";
-
-    String[] projection;
-
-    if (hasOrientation) {
-      projection = new String[]{Images.Media._ID, Images.Media.MIME_TYPE, Images.Media.DATE_TAKEN, Images.Media.ORIENTATION, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE};
-    } else {
-      projection = new String[]{Images.Media._ID, Images.Media.MIME_TYPE, Images.Media.DATE_TAKEN, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE};
+  int getMediaCount(@NonNull Context context, @NonNull String bucketId) {
+    try (Cursor cursor = context.getContentResolver().query(FILES_URI, new String[] { FileColumns._ID }, getBucketSelection(bucketId), getBucketSelectionArgs(bucketId), null)) {
+      return cursor != null ? cursor.getCount() : 0;
     }
+  }
 
-    if (Media.ALL_MEDIA_BUCKET_ID.equals(bucketId)) {
-      selection     = Images.Media.DATA + " NOT NULL";
-      selectionArgs = null;
-    }
+  /**
+   * Reads one page of the media in a bucket, newest first.
+   */
+  @WorkerThread
+  @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, int offset, int limit) {
+    List<Media> media = new ArrayList<>(limit);
+
+    String[] projection = new String[] { FileColumns._ID, FileColumns.MEDIA_TYPE, FileColumns.MIME_TYPE, Images.Media.DATE_TAKEN, Images.Media.ORIENTATION, FileColumns.WIDTH, FileColumns.HEIGHT, FileColumns.SIZE };
 
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy)) {
+    try (Cursor cursor = queryPage(context, projection, getBucketSelection(bucketId), getBucketSelectionArgs(bucketId), offset, limit)) {
       while (cursor != null && cursor.moveToNext()) {
-        Uri    uri         = Uri.withAppendedPath(contentUri, cursor.getString(cursor.getColumnIndexOrThrow(Images.Media._ID)));
-        String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE));
+        Uri    uri         = getContentUri(cursor);
+        String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(FileColumns.MIME_TYPE));
         long   dateTaken   = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.DATE_TAKEN));
-        int    orientation = hasOrientation ? cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION)) : 0;
+        int    orientation = cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION));
         int    width       = cursor.getInt(cursor.getColumnIndexOrThrow(getWidthColumn(orientation)));
         int    height      = cursor.getInt(cursor.getColumnIndexOrThrow(getHeightColumn(orientation)));
-        long   size        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
+        long   size        = cursor.getLong(cursor.getColumnIndexOrThrow(FileColumns.SIZE));
 
         media.add(new Media(uri, mimetype, dateTaken, width, height, size, Optional.of(bucketId), Optional.absent()));
       }
@@ -182,21 +182,97 @@ class MediaRepository {
     return media;
   }
 
+  /**
+   * Fills in what {@link MediaStore} didn't know about an item, like its width/height, by reading the item itself.
+   */
   @WorkerThread
-  private List<Media> getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
-    return Stream.of(media).map(m -> {
-      try {
-        if (isPopulated(m)) {
-          return m;
-        } else if (PartAuthority.isLocalUri(m.getUri())) {
-          return getLocallyPopulatedMedia(context, m);
-        } else {
-          return getContentResolverPopulatedMedia(context, m);
-        }
-      } catch (IOException e) {
-        return m;
+  @NonNull Media getPopulatedMedia(@NonNull Context context, @NonNull Media media) {
+    try {
+      if (isPopulated(media)) {
+        return media;
+      } else if (PartAuthority.isLocalUri(media.getUri())) {
+        return getLocallyPopulatedMedia(context, media);
+      } else {
+        return getContentResolverPopulatedMedia(context, media);
       }
-    }).toList();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to populate media", e);
+      return media;
+    }
+  }
+
+  /**
+   * Queries one page of media, so that only the rows being shown are read out of {@link MediaStore}.
+   */
+  @WorkerThread
+  private @Nullable Cursor queryPage(@NonNull Context context,
+                                     @NonNull String[] projection,
+                                     @NonNull String selection,
+                                     @Nullable String[] selectionArgs,
+                                     int offset,
+                                     int limit)
+  {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      Bundle queryArgs = new Bundle();
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+      queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+      queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+      queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+
+      return context.getContentResolver().query(FILES_URI, projection, queryArgs, null);
+    } else {
+      // Older versions of MediaStore ignore the limit arguments, but hand the sort order to SQLite as it is
+      return context.getContentResolver().query(FILES_URI, projection, selection, selectionArgs, SORT_ORDER + " LIMIT " + limit + " OFFSET " + offset);
+    }
+  }
+
+  private @NonNull List<MediaFolder> toMediaFolders(@NonNull Context context,
+                                                    @NonNull Collection<FolderData> folders,
+                                                    @Nullable Uri allMediaThumbnail,
+                                                    int allMediaCount)
+  {
+    Comparator<MediaFolder> folderNameSorter = (Comparator<MediaFolder>) (first, second) -> {
+      if (first == null || first.getTitle() == null) return 1;
+      if (second == null || second.getTitle() == null) return -1;
+      return first.getTitle().toLowerCase().compareTo(second.getTitle().toLowerCase());
+    };
+
+    List<MediaFolder> mediaFolders = Stream.of(folders).map(folder -> new MediaFolder(folder.getThumbnail(),
+            folder.getTitle(),
+            folder.getCount(),
+            folder.getBucketId()))
+            .sorted(folderNameSorter)
+            .toList();
+
+    if (allMediaThumbnail != null) {
+      mediaFolders.add(0, new MediaFolder(allMediaThumbnail, context.getString(R.string.conversationsSettingsAllMedia), allMediaCount, Media.ALL_MEDIA_BUCKET_ID));
+    }
+
+    return mediaFolders;
+  }
+
+  private static @NonNull Uri getContentUri(@NonNull Cursor cursor) {
+    String id        = cursor.getString(cursor.getColumnIndexOrThrow(FileColumns._ID));
+    int    mediaType = cursor.getInt(cursor.getColumnIndexOrThrow(FileColumns.MEDIA_TYPE));
+
+    if (mediaType == FileColumns.MEDIA_TYPE_VIDEO) return Uri.withAppendedPath(Video.Media.EXTERNAL_CONTENT_URI, id);
+    else                                           return Uri.withAppendedPath(Images.Media.EXTERNAL_CONTENT_URI, id);
+  }
+
+  private static @NonNull String getBucketSelection(@NonNull String bucketId) {
+    if (Media.ALL_MEDIA_BUCKET_ID.equals(bucketId)) return MEDIA_SELECTION;
+    else                                            return MEDIA_SELECTION + " AND " + Images.Media.BUCKET_ID + " = ?";
+  }
+
+  private static @Nullable String[] getBucketSelectionArgs(@NonNull String bucketId) {
+    if (Media.ALL_MEDIA_BUCKET_ID.equals(bucketId)) return null;
+    else                                            return new String[] { bucketId };
+  }
+
+  @WorkerThread
+  private List<Media> getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
+    return Stream.of(media).map(m -> getPopulatedMedia(context, m)).toList();
   }
 
   @SuppressWarnings("SuspiciousNameCombination")
@@ -211,7 +287,7 @@ class MediaRepository {
     else                                        return Images.Media.WIDTH;
   }
 
-  private boolean isPopulated(@NonNull Media media) {
+  static boolean isPopulated(@NonNull Media media) {
     return media.getWidth() > 0 && media.getHeight() > 0 && media.getSize() > 0;
   }
 
@@ -264,33 +340,6 @@ class MediaRepository {
     return new Media(media.getUri(), media.getMimeType(), media.getDate(), width, height, size, media.getBucketId(), media.getCaption());
   }
 
-  private static class FolderResult {
-    private final Uri                     thumbnail;
-    private final long                    thumbnailTimestamp;
-    private final Map<String, FolderData> folderData;
-
-    private FolderResult(@Nullable Uri thumbnail,
-                         long thumbnailTimestamp,
-                         @NonNull Map<String, FolderData> folderData)
-    {
-      this.thumbnail          = thumbnail;
-      this.thumbnailTimestamp = thumbnailTimestamp;
-      this.folderData         = folderData;
-    }
-
-    @Nullable Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    long getThumbnailTimestamp() {
-      return thumbnailTimestamp;
-    }
-
-    @NonNull Map<String, FolderData> getFolderData() {
-      return folderData;
-    }
-  }
-
   private static class FolderData {
     private final Uri    thumbnail;
     private final String title;
@@ -321,11 +370,56 @@ class MediaRepository {
     }
 
     void incrementCount() {
-      incrementCount(1);
+      count++;
     }
+  }
+
+  /**
+   * The folders found by the last full scan, kept until {@link MediaStore} says that its images or videos have changed.
+   */
+  private static class FolderCache extends ContentObserver {
+
+    private ContentResolver   resolver;
+    private List<MediaFolder> folders;
+    private int               generation;
 
-    void incrementCount(int amount) {
-      count += amount;
+    FolderCache() {
+      super(null);
+    }
+
+    @Override
+    public synchronized void onChange(boolean selfChange) {
+      folders = null;
+      generation++;
+    }
+
+    synchronized @Nullable List<MediaFolder> get(@NonNull ContentResolver resolver) {
+      if (this.resolver != resolver) {
+        if (this.resolver != null) {
+          this.resolver.unregisterContentObserver(this);
+        }
+
+        resolver.registerContentObserver(Images.Media.EXTERNAL_CONTENT_URI, true, this);
+        resolver.registerContentObserver(Video.Media.EXTERNAL_CONTENT_URI, true, this);
+
+        this.resolver = resolver;
+        onChange(false);
+      }
+
+      return folders;
+    }
+
+    synchronized int getGeneration() {
+      return generation;
+    }
+
+    /**
+     * Caches the folders from a scan, unless something changed after the scan started.
+     */
+    synchronized void put(int generation, @NonNull List<MediaFolder> folders) {
+      if (this.generation == generation) {
+        this.folders = Collections.unmodifiableList(new ArrayList<>(folders));
+      }
     }
   }
 
@@ -56,7 +56,6 @@ import org.session.libsession.utilities.Stub;
 import org.session.libsignal.utilities.ListenableFuture;
 import org.session.libsignal.utilities.SettableFuture;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -448,16 +447,16 @@ public class MediaSendFragment extends Fragment implements ViewTreeObserver.OnGl
         for (Media media : mediaList) {
           if (futures.containsKey(media)) {
             try {
-              Bitmap                 bitmap   = futures.get(media).get();
-              ByteArrayOutputStream  baos     = new ByteArrayOutputStream();
-              bitmap.compress(Bitmap.CompressFormat.JPEG, 80, baos);
+              Bitmap                        bitmap = futures.get(media).get();
+              BlobProvider.BlobOutputStream output = BlobProvider.getInstance().forOutput(context, MediaTypes.IMAGE_JPEG, null);
 
-              Uri uri = BlobProvider.getInstance()
-                                    .forData(baos.toByteArray())
-                                    .withMimeType(MediaTypes.IMAGE_JPEG)
-                                    .createForSingleSessionOnDisk(context, e -> Log.w(TAG, "Failed to write to disk.", e));
+              try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 80, output);
+              } finally {
+                output.close();
+              }
 
-              Media updated = new Media(uri, MediaTypes.IMAGE_JPEG, media.getDate(), bitmap.getWidth(), bitmap.getHeight(), baos.size(), media.getBucketId(), media.getCaption());
+              Media updated = new Media(output.getUri(), MediaTypes.IMAGE_JPEG, media.getDate(), bitmap.getWidth(), bitmap.getHeight(), output.getSize(), media.getBucketId(), media.getCaption());
 
               updatedMedia.add(updated);
               renderTimer.split("item");
@@ -7,6 +7,7 @@ import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 import android.content.Context;
 import android.net.Uri;
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import android.text.TextUtils;
 
@@ -38,7 +39,7 @@ class MediaSendViewModel extends ViewModel {
   private final Application                        application;
   private final MediaRepository                    repository;
   private final MutableLiveData<List<Media>>       selectedMedia;
-  private final MutableLiveData<List<Media>>       bucketMedia;
+  private final MutableLiveData<PagedMediaList>    bucketMedia;
   private final MutableLiveData<Integer>           position;
   private final MutableLiveData<String>            bucketId;
   private final MutableLiveData<List<MediaFolder>> folders;
@@ -77,43 +78,47 @@ class MediaSendViewModel extends ViewModel {
 
   void onSelectedMediaChanged(@NonNull Context context, @NonNull List<Media> newMedia) {
     repository.getPopulatedMedia(context, newMedia, populatedMedia -> {
-      Util.runOnMain(() -> {
+      // Filtered before going to the main thread, as it may need to read how long videos are
+      List<Media> filteredMedia = getFilteredMedia(context, populatedMedia, mediaConstraints);
 
-        List<Media> filteredMedia = getFilteredMedia(context, populatedMedia, mediaConstraints);
+      Util.runOnMain(() -> onSelectedMediaFiltered(newMedia, filteredMedia));
+    });
+  }
 
-        if (filteredMedia.size() != newMedia.size()) {
-          error.setValue(Error.ITEM_TOO_LARGE);
-        } else if (filteredMedia.size() > MAX_SELECTION) {
-          filteredMedia = filteredMedia.subList(0, MAX_SELECTION);
-          error.setValue(Error.TOO_MANY_ITEMS);
-        }
+  @MainThread
+  private void onSelectedMediaFiltered(@NonNull List<Media> newMedia, @NonNull List<Media> filteredMedia) {
+    if (filteredMedia.size() != newMedia.size()) {
+      error.setValue(Error.ITEM_TOO_LARGE);
+    } else if (filteredMedia.size() > MAX_SELECTION) {
+      filteredMedia = filteredMedia.subList(0, MAX_SELECTION);
+      error.setValue(Error.TOO_MANY_ITEMS);
+    }
 
-        if (filteredMedia.size() > 0) {
-          String computedId = Stream.of(filteredMedia)
-                                    .skip(1)
-                                    .reduce(filteredMedia.get(0).getBucketId().or(Media.ALL_MEDIA_BUCKET_ID), (id, m) -> {
-                                      if (Util.equals(id, m.getBucketId().or(Media.ALL_MEDIA_BUCKET_ID))) {
-                                        return id;
-                                      } else {
-                                        return Media.ALL_MEDIA_BUCKET_ID;
-                                      }
-                                    });
-          bucketId.setValue(computedId);
-        } else {
-          bucketId.setValue(Media.ALL_MEDIA_BUCKET_ID);
-          countButtonVisibility = CountButtonState.Visibility.CONDITIONAL;
-        }
+    if (filteredMedia.size() > 0) {
+      String computedId = Stream.of(filteredMedia)
+                                .skip(1)
+                                .reduce(filteredMedia.get(0).getBucketId().or(Media.ALL_MEDIA_BUCKET_ID), (id, m) -> {
+                                  if (Util.equals(id, m.getBucketId().or(Media.ALL_MEDIA_BUCKET_ID))) {
+                                    return id;
+                                  } else {
+                                    return Media.ALL_MEDIA_BUCKET_ID;
+                                  }
+                                });
+      bucketId.setValue(computedId);
+    } else {
+      bucketId.setValue(Media.ALL_MEDIA_BUCKET_ID);
+      countButtonVisibility = CountButtonState.Visibility.CONDITIONAL;
+    }
 
-        selectedMedia.setValue(filteredMedia);
-        countButtonState.setValue(new CountButtonState(filteredMedia.size(), countButtonVisibility));
-      });
-    });
+    selectedMedia.setValue(filteredMedia);
+    countButtonState.setValue(new CountButtonState(filteredMedia.size(), countButtonVisibility));
   }
 
   void onSingleMediaSelected(@NonNull Context context, @NonNull Media media) {
     repository.getPopulatedMedia(context, Collections.singletonList(media), populatedMedia -> {
+      List<Media> filteredMedia = getFilteredMedia(context, populatedMedia, mediaConstraints);
+
       Util.runOnMain(() -> {
-        List<Media> filteredMedia = getFilteredMedia(context, populatedMedia, mediaConstraints);
 
         if (filteredMedia.isEmpty()) {
           error.setValue(Error.ITEM_TOO_LARGE);
@@ -165,7 +170,7 @@ class MediaSendViewModel extends ViewModel {
 
   void onFolderSelected(@NonNull String bucketId) {
     this.bucketId.setValue(bucketId);
-    bucketMedia.setValue(Collections.emptyList());
+    closeBucketMedia();
   }
 
   void onPageChanged(int position) {
@@ -255,8 +260,17 @@ class MediaSendViewModel extends ViewModel {
     return selectedMedia;
   }
 
-  @NonNull LiveData<List<Media>> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    repository.getMediaInBucket(context, bucketId, bucketMedia::postValue);
+  /**
+   * The list is kept while the same bucket is shown again, as it reloads itself when media is added or removed.
+   */
+  @NonNull LiveData<PagedMediaList> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
+    PagedMediaList current = bucketMedia.getValue();
+
+    if (current == null || !current.getBucketId().equals(bucketId)) {
+      closeBucketMedia();
+      bucketMedia.setValue(repository.getMediaInBucket(context, bucketId));
+    }
+
     return bucketMedia;
   }
 
@@ -293,6 +307,15 @@ class MediaSendViewModel extends ViewModel {
     return MAX_SELECTION;
   }
 
+  private void closeBucketMedia() {
+    PagedMediaList current = bucketMedia.getValue();
+
+    if (current != null) {
+      current.close();
+      bucketMedia.setValue(null);
+    }
+  }
+
   private @NonNull List<Media> getSelectedMediaOrDefault() {
     return selectedMedia.getValue() == null ? Collections.emptyList()
                                             : selectedMedia.getValue();
@@ -305,13 +328,15 @@ class MediaSendViewModel extends ViewModel {
                            .filter(m -> {
                              return (MediaUtil.isImageType(m.getMimeType()) && !MediaUtil.isGif(m.getMimeType()))               ||
                                     (MediaUtil.isGif(m.getMimeType()) && m.getSize() < mediaConstraints.getGifMaxSize(context)) ||
-                                    (MediaUtil.isVideoType(m.getMimeType()) && m.getSize() < mediaConstraints.getVideoMaxSize(context));
+                                    (MediaUtil.isVideoType(m.getMimeType()) && mediaConstraints.canSendVideo(context, m.getUri(), m.getSize()));
                            }).toList();
 
   }
 
   @Override
   protected void onCleared() {
+    closeBucketMedia();
+
     if (!sentMedia) {
       Stream.of(getSelectedMediaOrDefault())
             .map(Media::getUri)
@@ -0,0 +1,210 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Video;
+import android.util.LruCache;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.utilities.Util;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The media in a bucket, read out of {@link android.provider.MediaStore} a page at a time as it's scrolled to, so
+ * that a library of any size takes the same time to open and only the pages near what's on screen are kept around.
+ *
+ * Items whose width/height {@link android.provider.MediaStore} doesn't know are only read once they're shown, rather
+ * than for the whole bucket up front or for the whole selection when it's sent. The list reloads itself whenever
+ * media is added or removed.
+ *
+ * Everything but the queries happens on the main thread.
+ */
+@MainThread
+class PagedMediaList {
+
+  static final int PAGE_SIZE = 120;
+
+  // Roughly a few screens either side of what's visible, even on a tablet
+  static final int MAX_CACHED_PAGES = 16;
+
+  // How close to the end of a page an item can be shown before the next page is loaded
+  private static final int PREFETCH_DISTANCE = PAGE_SIZE / 4;
+
+  private final Context                    context;
+  private final MediaRepository            repository;
+  private final String                     bucketId;
+  private final Executor                   executor;
+  private final LruCache<Integer, Media[]> pages;
+  private final Set<Integer>               loadingPages;
+  private final Set<Uri>                   populating;
+  private final ContentObserver            observer;
+
+  private @Nullable Listener listener;
+  private int                size;
+  private int                generation;
+  private boolean            closed;
+
+  PagedMediaList(@NonNull Context context, @NonNull MediaRepository repository, @NonNull String bucketId, @NonNull Executor executor) {
+    this.context      = context;
+    this.repository   = repository;
+    this.bucketId     = bucketId;
+    this.executor     = executor;
+    this.pages        = new LruCache<>(MAX_CACHED_PAGES);
+    this.loadingPages = new HashSet<>();
+    this.populating   = new HashSet<>();
+    this.observer     = new ContentObserver(new Handler(Looper.getMainLooper())) {
+      @Override
+      public void onChange(boolean selfChange) {
+        reload();
+      }
+    };
+  }
+
+  /**
+   * Starts loading the list and watching for changes to it.
+   */
+  void open() {
+    context.getContentResolver().registerContentObserver(Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+    context.getContentResolver().registerContentObserver(Video.Media.EXTERNAL_CONTENT_URI, true, observer);
+    reload();
+  }
+
+  /**
+   * Stops watching for changes, and drops any pages that are still loading.
+   */
+  void close() {
+    if (closed) return;
+
+    closed   = true;
+    listener = null;
+    context.getContentResolver().unregisterContentObserver(observer);
+    pages.evictAll();
+  }
+
+  void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  @NonNull String getBucketId() {
+    return bucketId;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return The item at {@code position}, or null if its page is still loading, in which case
+   *         {@link Listener#onItemsLoaded(int, int)} is called once it's there.
+   */
+  @Nullable Media get(int position) {
+    int   page  = position / PAGE_SIZE;
+    int   index = position % PAGE_SIZE;
+    Media media = peek(position);
+
+    if      (index < PREFETCH_DISTANCE)             loadPage(page - 1);
+    else if (index >= PAGE_SIZE - PREFETCH_DISTANCE) loadPage(page + 1);
+
+    if (media == null) {
+      loadPage(page);
+    } else if (!MediaRepository.isPopulated(media)) {
+      populate(position, media);
+    }
+
+    return media;
+  }
+
+  /**
+   * @return The item at {@code position} if its page is loaded, without loading anything.
+   */
+  @Nullable Media peek(int position) {
+    Media[] page  = pages.get(position / PAGE_SIZE);
+    int     index = position % PAGE_SIZE;
+
+    return page != null && index < page.length ? page[index] : null;
+  }
+
+  private void reload() {
+    if (closed) return;
+
+    int generation = ++this.generation;
+
+    loadingPages.clear();
+    populating.clear();
+
+    executor.execute(() -> {
+      int size = repository.getMediaCount(context, bucketId);
+
+      Util.runOnMain(() -> {
+        if (closed || generation != this.generation) return;
+
+        this.size = size;
+        pages.evictAll();
+
+        if (listener != null) listener.onChanged();
+      });
+    });
+  }
+
+  private void loadPage(int page) {
+    if (closed || page < 0 || page * PAGE_SIZE >= size || pages.get(page) != null || !loadingPages.add(page)) return;
+
+    int generation = this.generation;
+
+    executor.execute(() -> {
+      List<Media> media = repository.getMediaInBucket(context, bucketId, page * PAGE_SIZE, PAGE_SIZE);
+
+      Util.runOnMain(() -> {
+        if (closed || generation != this.generation) return;
+
+        loadingPages.remove(page);
+        pages.put(page, media.toArray(new Media[0]));
+
+        if (listener != null && media.size() > 0) listener.onItemsLoaded(page * PAGE_SIZE, media.size());
+      });
+    });
+  }
+
+  private void populate(int position, @NonNull Media media) {
+    if (!populating.add(media.getUri())) return;
+
+    int generation = this.generation;
+
+    executor.execute(() -> {
+      Media populated = repository.getPopulatedMedia(context, media);
+
+      Util.runOnMain(() -> {
+        if (closed || generation != this.generation || populated == media) return;
+
+        Media[] page  = pages.get(position / PAGE_SIZE);
+        int     index = position % PAGE_SIZE;
+
+        // Stays in the populating set either way, so items that can't be read aren't tried again each time they're shown
+        if (page != null && index < page.length && page[index].equals(media)) {
+          page[index] = populated;
+          if (listener != null) listener.onItemsLoaded(position, 1);
+        }
+      });
+    });
+  }
+
+  interface Listener {
+    /**
+     * The whole list may have changed, including its size.
+     */
+    void onChanged();
+
+    void onItemsLoaded(int position, int count);
+  }
+}
@@ -1,9 +1,11 @@
 package org.thoughtcrime.securesms.mms;
 
 import android.content.Context;
+import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import org.session.libsession.utilities.MediaTypes;
 import org.session.libsignal.utilities.Log;
@@ -14,6 +16,7 @@ import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.MediaUtil;
+import org.thoughtcrime.securesms.video.VideoTranscoder;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -59,6 +62,36 @@ public abstract class MediaConstraints {
     }
   }
 
+  /**
+   * Videos that are too big are transcoded to fit before they're sent, so the limit is on how long they are.
+   *
+   * @return Whether the video at {@code uri} can be sent, either as it is or once it's been transcoded.
+   */
+  @WorkerThread
+  public boolean canSendVideo(@NonNull Context context, @NonNull Uri uri, long size) {
+    return size <= getVideoMaxSize(context) || VideoTranscoder.canFit(getVideoDurationMs(context, uri), getVideoMaxSize(context));
+  }
+
+  private static long getVideoDurationMs(@NonNull Context context, @NonNull Uri uri) {
+    MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+    try {
+      retriever.setDataSource(context, uri);
+
+      String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+      return duration != null ? Long.parseLong(duration) : 0;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Couldn't read the length of a video.", e);
+      return 0;
+    } finally {
+      try {
+        retriever.release();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+  }
+
   public boolean canResize(@Nullable Attachment attachment) {
     return attachment != null && MediaUtil.isImage(attachment) && !MediaUtil.isGif(attachment);
   }
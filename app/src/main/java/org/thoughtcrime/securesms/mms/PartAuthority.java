@@ -58,6 +58,38 @@ public class PartAuthority {
     }
   }
 
+  /**
+   * Opens the attachment positioned at {@code offset}. Parts can seek straight there through their
+   * cipher, anything else is skipped forward from the start.
+   */
+  public static InputStream getAttachmentStream(@NonNull Context context, @NonNull Uri uri, long offset)
+      throws IOException
+  {
+    if (offset > 0 && uriMatcher.match(uri) == PART_ROW) {
+      try {
+        return DatabaseComponent.get(context).attachmentDatabase().getAttachmentStream(new PartUriParser(uri).getPartId(), offset);
+      } catch (SecurityException se) {
+        throw new IOException(se);
+      }
+    }
+
+    InputStream stream    = getAttachmentStream(context, uri);
+    long        remaining = offset;
+
+    while (remaining > 0) {
+      long skipped = stream.skip(remaining);
+
+      if (skipped <= 0) {
+        stream.close();
+        throw new IOException("Unable to skip to " + offset + " in " + uri);
+      }
+
+      remaining -= skipped;
+    }
+
+    return stream;
+  }
+
   public static @Nullable String getAttachmentFileName(@NonNull Context context, @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
 
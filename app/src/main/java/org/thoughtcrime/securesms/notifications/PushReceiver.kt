@@ -42,8 +42,9 @@ class PushReceiver @Inject constructor(@ApplicationContext val context: Context)
 
         try {
             val envelopeAsData = MessageWrapper.unwrap(data).toByteArray()
+            // The message can still be fetched from the swarm, so there's no need to persist it before processing
             val job = BatchMessageReceiveJob(listOf(MessageReceiveParameters(envelopeAsData)), null)
-            JobQueue.shared.add(job)
+            JobQueue.shared.addEphemeral(job)
         } catch (e: Exception) {
             Log.d(TAG, "Failed to unwrap data for message due to error.", e)
         }
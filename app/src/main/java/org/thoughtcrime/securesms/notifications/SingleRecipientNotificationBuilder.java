@@ -57,8 +57,6 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
   private CharSequence contentTitle;
   private CharSequence contentText;
 
-  private static final Integer ICON_SIZE = 128;
-
   public SingleRecipientNotificationBuilder(@NonNull Context context, @NonNull NotificationPrivacyPreference privacy)
   {
     super(context, privacy);
@@ -103,7 +101,7 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
 
     } else {
       setContentTitle(context.getString(R.string.app_name));
-      setLargeIcon(AvatarPlaceholderGenerator.generate(context, ICON_SIZE, "", "Unknown"));
+      setLargeIcon(AvatarPlaceholderGenerator.createDrawable(context, "", "Unknown"));
     }
   }
 
@@ -323,7 +321,7 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
   private static Drawable getPlaceholderDrawable(Context context, Recipient recipient) {
     String publicKey = recipient.getAddress().serialize();
     String displayName = recipient.getName();
-    return AvatarPlaceholderGenerator.generate(context, ICON_SIZE, publicKey, displayName);
+    return AvatarPlaceholderGenerator.createDrawable(context, publicKey, displayName);
   }
 
   /**
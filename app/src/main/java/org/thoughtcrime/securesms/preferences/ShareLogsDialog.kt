@@ -29,6 +29,7 @@ import network.loki.messenger.BuildConfig
 import network.loki.messenger.R
 import org.session.libsession.utilities.StringSubstitutionConstants.APP_NAME_KEY
 import org.session.libsignal.utilities.ExternalStorageUtil
+import org.session.libsignal.utilities.HTTP
 import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.ApplicationContext
 import org.thoughtcrime.securesms.createSessionDialog
@@ -67,6 +68,8 @@ class ShareLogsDialog(private val updateCallback: (Boolean)->Unit): DialogFragme
             val persistentLogger = ApplicationContext.getInstance(context).persistentLogger
             try {
                 Log.d(TAG, "Starting share logs job...")
+                // Logged here rather than as they change, so that the exported logs show how connections were reused
+                HTTP.getConnectionStats().forEach { Log.d(TAG, "Connection stats: $it") }
 
                 val context = requireContext()
                 val outputUri: Uri = ExternalStorageUtil.getDownloadUri()
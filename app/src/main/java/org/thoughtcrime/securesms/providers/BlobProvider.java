@@ -19,15 +19,21 @@ import org.session.libsession.utilities.concurrent.SignalExecutors;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows for the creation and retrieval of blobs.
+ *
+ * In-memory blobs share a fixed memory budget. Once it is exceeded (or for any single blob over
+ * {@link #SPILL_THRESHOLD}), blobs are spilled to encrypted single-session files in the background
+ * while keeping their in-memory Uri, so callers never notice where the data actually lives.
  */
 public class BlobProvider {
 
@@ -51,9 +57,17 @@ public class BlobProvider {
     addURI(AUTHORITY, PATH, MATCH);
   }};
 
+  private static final long MEMORY_BUDGET   = Math.min(32 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+  private static final long SPILL_THRESHOLD = 8 * 1024 * 1024;
+
   private static final BlobProvider INSTANCE = new BlobProvider();
 
-  private final Map<Uri, byte[]> memoryBlobs = new HashMap<>();
+  private final Map<Uri, byte[]> memoryBlobs  = new ConcurrentHashMap<>();
+  private final Map<Uri, File>   spilledBlobs = new ConcurrentHashMap<>();
+  private final AtomicLong       memoryUsage  = new AtomicLong();
+
+  /** Only set once the session has started, as spilling before then would race the cleanup. */
+  private volatile Context spillContext;
 
 
   public static BlobProvider getInstance() {
@@ -74,25 +88,47 @@ public class BlobProvider {
     return new BlobBuilder(data, fileSize);
   }
 
+  /**
+   * Begin writing a single-session blob straight to disk, for data that's produced as a stream and
+   * shouldn't have to be held in memory first. The blob's Uri is available from
+   * {@link BlobOutputStream#getUri()} once the stream has been closed.
+   */
+  @WorkerThread
+  public BlobOutputStream forOutput(@NonNull Context context, @NonNull String mimeType, @Nullable String fileName) throws IOException {
+    AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+    String           id               = UUID.randomUUID().toString();
+    File             outputFile       = new File(getOrCreateCacheDirectory(context, SINGLE_SESSION_DIRECTORY), buildFileName(id));
+    OutputStream     outputStream     = ModernEncryptingPartOutputStream.createFor(attachmentSecret, outputFile, true).second;
+
+    return new BlobOutputStream(outputStream, id, mimeType, fileName);
+  }
+
   /**
    * Retrieve a stream for the content with the specified URI.
    * @throws IOException If the stream fails to open or the spec of the URI doesn't match.
    */
-  public synchronized @NonNull InputStream getStream(@NonNull Context context, @NonNull Uri uri) throws IOException {
+  public @NonNull InputStream getStream(@NonNull Context context, @NonNull Uri uri) throws IOException {
     if (isAuthority(uri)) {
       StorageType storageType = StorageType.decode(uri.getPathSegments().get(STORAGE_TYPE_PATH_SEGMENT));
 
       if (storageType.isMemory()) {
-        byte[] data = memoryBlobs.get(uri);
+        boolean singleUse = storageType == StorageType.SINGLE_USE_MEMORY;
+        byte[]  data      = singleUse ? removeMemoryBlob(uri) : memoryBlobs.get(uri);
 
         if (data != null) {
-          if (storageType == StorageType.SINGLE_USE_MEMORY) {
-            memoryBlobs.remove(uri);
-          }
           return new ByteArrayInputStream(data);
-        } else {
-          throw new IOException("Failed to find in-memory blob for: " + uri);
         }
+
+        // Spilling records the file before dropping the memory copy, so one of the two is always there
+        File spilled = singleUse ? spilledBlobs.remove(uri) : spilledBlobs.get(uri);
+
+        if (spilled != null) {
+          InputStream stream = ModernDecryptingPartInputStream.createFor(AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(), spilled, 0);
+          if (singleUse) spilled.delete();
+          return stream;
+        }
+
+        throw new IOException("Failed to find in-memory blob for: " + uri);
       } else {
         String id        = uri.getPathSegments().get(ID_PATH_SEGMENT);
         String directory = getDirectory(storageType);
@@ -108,7 +144,7 @@ public class BlobProvider {
   /**
    * Delete the content with the specified URI.
    */
-  public synchronized void delete(@NonNull Context context, @NonNull Uri uri) {
+  public void delete(@NonNull Context context, @NonNull Uri uri) {
     if (!isAuthority(uri)) {
       Log.d(TAG, "Can't delete. Not the authority for uri: " + uri);
       return;
@@ -118,7 +154,10 @@ public class BlobProvider {
       StorageType storageType = StorageType.decode(uri.getPathSegments().get(STORAGE_TYPE_PATH_SEGMENT));
 
       if (storageType.isMemory()) {
-        memoryBlobs.remove(uri);
+        removeMemoryBlob(uri);
+
+        File spilled = spilledBlobs.remove(uri);
+        if (spilled != null) spilled.delete();
       } else {
         String id        = uri.getPathSegments().get(ID_PATH_SEGMENT);
         String directory = getDirectory(storageType);
@@ -141,6 +180,30 @@ public class BlobProvider {
     for (File file : directory.listFiles()) {
       file.delete();
     }
+
+    spillContext = context.getApplicationContext();
+  }
+
+  /**
+   * The number of bytes currently held by in-memory blobs.
+   */
+  public long getMemoryUsage() {
+    return memoryUsage.get();
+  }
+
+  public long getMemoryBudget() {
+    return MEMORY_BUDGET;
+  }
+
+  public int getMemoryBlobCount() {
+    return memoryBlobs.size();
+  }
+
+  /**
+   * The number of in-memory blobs that have been moved to disk to stay within the memory budget.
+   */
+  public int getSpilledBlobCount() {
+    return spilledBlobs.size();
   }
 
   public static @Nullable String getMimeType(@NonNull Uri uri) {
@@ -173,7 +236,7 @@ public class BlobProvider {
   }
 
   @WorkerThread
-  private synchronized @NonNull Uri writeBlobSpecToDisk(@NonNull Context context, @NonNull BlobSpec blobSpec, @Nullable ErrorListener errorListener) throws IOException {
+  private @NonNull Uri writeBlobSpecToDisk(@NonNull Context context, @NonNull BlobSpec blobSpec, @Nullable ErrorListener errorListener) throws IOException {
     AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
     String           directory        = getDirectory(blobSpec.getStorageType());
     File             outputFile       = new File(getOrCreateCacheDirectory(context, directory), buildFileName(blobSpec.id));
@@ -192,12 +255,57 @@ public class BlobProvider {
     return buildUri(blobSpec);
   }
 
-  private synchronized @NonNull Uri writeBlobSpecToMemory(@NonNull BlobSpec blobSpec, @NonNull byte[] data) {
-    Uri uri = buildUri(blobSpec);
+  private @NonNull Uri writeBlobSpecToMemory(@NonNull BlobSpec blobSpec, @NonNull byte[] data) {
+    Uri     uri     = buildUri(blobSpec);
+    Context context = spillContext;
+
     memoryBlobs.put(uri, data);
+    long usage = memoryUsage.addAndGet(data.length);
+
+    if (context != null && (usage > MEMORY_BUDGET || data.length >= SPILL_THRESHOLD)) {
+      spillToDisk(context, uri, data);
+    }
+
     return uri;
   }
 
+  private void spillToDisk(@NonNull Context context, @NonNull Uri uri, @NonNull byte[] data) {
+    SignalExecutors.UNBOUNDED.execute(() -> {
+      File file = new File(getOrCreateCacheDirectory(context, SINGLE_SESSION_DIRECTORY), buildFileName(UUID.randomUUID().toString()));
+
+      try {
+        AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+
+        try (OutputStream outputStream = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, true).second) {
+          outputStream.write(data);
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to spill blob to disk, keeping it in memory.", e);
+        file.delete();
+        return;
+      }
+
+      spilledBlobs.put(uri, file);
+
+      if (memoryBlobs.remove(uri, data)) {
+        memoryUsage.addAndGet(-data.length);
+      } else if (spilledBlobs.remove(uri, file)) {
+        // The blob was deleted or consumed while we were writing it out
+        file.delete();
+      }
+    });
+  }
+
+  private @Nullable byte[] removeMemoryBlob(@NonNull Uri uri) {
+    byte[] data = memoryBlobs.remove(uri);
+
+    if (data != null) {
+      memoryUsage.addAndGet(-data.length);
+    }
+
+    return data;
+  }
+
   private static @NonNull String buildFileName(@NonNull String id) {
     return id + ".blob";
   }
@@ -207,12 +315,21 @@ public class BlobProvider {
   }
 
   private static @NonNull Uri buildUri(@NonNull BlobSpec blobSpec) {
+    return buildUri(blobSpec.getStorageType(), blobSpec.getMimeType(), blobSpec.getFileName(), blobSpec.getFileSize(), blobSpec.getId());
+  }
+
+  private static @NonNull Uri buildUri(@NonNull StorageType storageType,
+                                       @NonNull String mimeType,
+                                       @Nullable String fileName,
+                                       long fileSize,
+                                       @NonNull String id)
+  {
     return CONTENT_URI.buildUpon()
-                      .appendPath(blobSpec.getStorageType().encode())
-                      .appendPath(blobSpec.getMimeType())
-                      .appendPath(blobSpec.getFileName())
-                      .appendEncodedPath(String.valueOf(blobSpec.getFileSize()))
-                      .appendPath(blobSpec.getId())
+                      .appendPath(storageType.encode())
+                      .appendPath(mimeType)
+                      .appendPath(fileName)
+                      .appendEncodedPath(String.valueOf(fileSize))
+                      .appendPath(id)
                       .build();
   }
 
@@ -311,6 +428,59 @@ public class BlobProvider {
     }
   }
 
+  /**
+   * Encrypts a single-session blob to disk as it is written, counting its size for the Uri.
+   */
+  public static class BlobOutputStream extends FilterOutputStream {
+
+    private final String id;
+    private final String mimeType;
+    private final String fileName;
+
+    private long    size;
+    private boolean closed;
+
+    private BlobOutputStream(@NonNull OutputStream out, @NonNull String id, @NonNull String mimeType, @Nullable String fileName) {
+      super(out);
+      this.id       = id;
+      this.mimeType = mimeType;
+      this.fileName = fileName;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      size++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      size += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * @throws IllegalStateException If the stream hasn't been closed yet.
+     */
+    public @NonNull Uri getUri() {
+      if (!closed) {
+        throw new IllegalStateException("The blob isn't complete until the stream is closed.");
+      }
+
+      return buildUri(StorageType.SINGLE_SESSION_DISK, mimeType, fileName, size, id);
+    }
+  }
+
   public interface ErrorListener {
     @WorkerThread
     void onError(IOException e);
@@ -5,7 +5,6 @@ import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.SSKEnvironment
 import org.session.libsession.utilities.TextSecurePreferences
 import org.session.libsignal.utilities.Log
-import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 
 class ReadReceiptManager: SSKEnvironment.ReadReceiptManagerProtocol {
@@ -14,11 +13,9 @@ class ReadReceiptManager: SSKEnvironment.ReadReceiptManagerProtocol {
         if (TextSecurePreferences.isReadReceiptsEnabled(context)) {
 
             // Redirect message to master device conversation
-            var address = Address.fromSerialized(fromRecipientId)
-            for (timestamp in sentTimestamps) {
-                Log.i("Loki", "Received encrypted read receipt: (XXXXX, $timestamp)")
-                DatabaseComponent.get(context).mmsSmsDatabase().incrementReadReceiptCount(SyncMessageId(address, timestamp), readTimestamp)
-            }
+            val address = Address.fromSerialized(fromRecipientId)
+            Log.i("Loki", "Received encrypted read receipts for ${sentTimestamps.size} messages.")
+            DatabaseComponent.get(context).mmsSmsDatabase().incrementReadReceiptCounts(address, sentTimestamps, readTimestamp)
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package org.thoughtcrime.securesms.sskenvironment
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import org.session.libsession.utilities.Address
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Who's typing in each thread, kept without locks so typing messages from busy groups never wait on one another.
+ *
+ * Each thread's typists are a [StateFlow] updated by compare-and-set, which only emits when who's typing actually
+ * changes. The set of threads anyone's typing in is kept up to date as threads gain their first typist or lose their
+ * last, rather than being rebuilt on every change.
+ */
+class TypingStateStore {
+
+    data class Typist(val address: Address, val device: Int)
+
+    data class ThreadTypists(val typists: List<Typist>, val replacedByIncomingMessage: Boolean) {
+        companion object {
+            val EMPTY = ThreadTypists(emptyList(), false)
+        }
+    }
+
+    private val threads = ConcurrentHashMap<Long, MutableStateFlow<ThreadTypists>>()
+    private val tokens = ConcurrentHashMap<Pair<Long, Typist>, Long>()
+    private val nextToken = AtomicLong()
+    private val mutableActiveThreads = MutableStateFlow<Set<Long>>(emptySet())
+
+    /**
+     * The threads that someone's typing in.
+     */
+    val activeThreads: StateFlow<Set<Long>> = mutableActiveThreads.asStateFlow()
+
+    fun getTypists(threadId: Long): StateFlow<ThreadTypists> = getState(threadId).asStateFlow()
+
+    /**
+     * @return A token for this start, so that [expire] only stops the typist if they haven't started again since.
+     */
+    fun start(threadId: Long, typist: Typist): Long {
+        val token = nextToken.incrementAndGet()
+        tokens[threadId to typist] = token
+
+        update(getState(threadId), threadId) { state ->
+            if (typist in state.typists) state else ThreadTypists(state.typists + typist, false)
+        }
+
+        return token
+    }
+
+    fun stop(threadId: Long, typist: Typist, replacedByIncomingMessage: Boolean) {
+        tokens.remove(threadId to typist)
+        remove(threadId, typist, replacedByIncomingMessage)
+    }
+
+    /**
+     * Stops a typist who hasn't been heard from since [start] gave out [token].
+     */
+    fun expire(threadId: Long, typist: Typist, token: Long) {
+        if (tokens.remove(threadId to typist, token)) {
+            remove(threadId, typist, false)
+        }
+    }
+
+    fun clear() {
+        tokens.clear()
+        threads.values.forEach { it.value = ThreadTypists.EMPTY }
+        mutableActiveThreads.value = emptySet()
+    }
+
+    private fun remove(threadId: Long, typist: Typist, replacedByIncomingMessage: Boolean) {
+        val state = threads[threadId] ?: return
+
+        update(state, threadId) {
+            if (typist in it.typists) ThreadTypists(it.typists - typist, replacedByIncomingMessage) else it
+        }
+    }
+
+    private fun getState(threadId: Long): MutableStateFlow<ThreadTypists> =
+        threads.getOrPut(threadId) { MutableStateFlow(ThreadTypists.EMPTY) }
+
+    private inline fun update(state: MutableStateFlow<ThreadTypists>, threadId: Long, transform: (ThreadTypists) -> ThreadTypists) {
+        var wasActive = false
+        var isActive = false
+
+        state.update { old ->
+            transform(old).also {
+                wasActive = old.typists.isNotEmpty()
+                isActive = it.typists.isNotEmpty()
+            }
+        }
+
+        if (wasActive != isActive) updateActiveThreads(state, threadId)
+    }
+
+    private fun updateActiveThreads(state: MutableStateFlow<ThreadTypists>, threadId: Long) {
+        while (true) {
+            val isActive = state.value.typists.isNotEmpty()
+            mutableActiveThreads.update { active -> if (isActive) active + threadId else active - threadId }
+
+            // Another update to the same thread can land between reading its state and setting the active threads,
+            // and this one may then have overwritten what that one set. Every update that changes whether the thread
+            // is active gets here, so whichever checks last sees the final state and leaves it matching.
+            if (state.value.typists.isNotEmpty() == isActive) return
+        }
+    }
+}
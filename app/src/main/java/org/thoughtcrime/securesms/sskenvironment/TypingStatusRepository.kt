@@ -0,0 +1,84 @@
+package org.thoughtcrime.securesms.sskenvironment
+
+import android.content.Context
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.SSKEnvironment
+import org.session.libsession.utilities.TextSecurePreferences
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.sskenvironment.TypingStateStore.Typist
+import org.thoughtcrime.securesms.util.throttleLatest
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tracks who's typing from the typing messages they send, for the conversation and home screens to show.
+ *
+ * Typing messages update a [TypingStateStore] on whatever thread they arrive on. Each thread's typists reach the UI
+ * at most every [UI_UPDATE_INTERVAL_MS], coalescing bursts from busy groups, and are only resolved into recipients
+ * once they're about to be shown.
+ */
+class TypingStatusRepository : SSKEnvironment.TypingIndicatorsProtocol {
+
+    companion object {
+        private val RECIPIENT_TYPING_TIMEOUT = TimeUnit.SECONDS.toMillis(15)
+        private const val UI_UPDATE_INTERVAL_MS = 250L
+    }
+
+    private val store = TypingStateStore()
+    private val timeoutScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    /**
+     * The threads that someone's typing in.
+     */
+    val typingThreads: StateFlow<Set<Long>> get() = store.activeThreads
+
+    override fun didReceiveTypingStartedMessage(context: Context, threadId: Long, author: Address, device: Int) {
+        if (author.serialize() == TextSecurePreferences.getLocalNumber(context)) return
+        if (Recipient.from(context, author, false).isBlocked) return
+
+        val typist = Typist(author, device)
+        val token = store.start(threadId, typist)
+
+        // Stops them if they go quiet without saying so, unless they start again first
+        timeoutScope.launch {
+            delay(RECIPIENT_TYPING_TIMEOUT)
+            store.expire(threadId, typist, token)
+        }
+    }
+
+    override fun didReceiveTypingStoppedMessage(context: Context, threadId: Long, author: Address, device: Int, isReplacedByIncomingMessage: Boolean) {
+        if (author.serialize() == TextSecurePreferences.getLocalNumber(context)) return
+
+        store.stop(threadId, Typist(author, device), isReplacedByIncomingMessage)
+    }
+
+    override fun didReceiveIncomingMessage(context: Context, threadId: Long, author: Address, device: Int) {
+        didReceiveTypingStoppedMessage(context, threadId, author, device, true)
+    }
+
+    fun getTypists(context: Context, threadId: Long): Flow<TypingState> {
+        val applicationContext = context.applicationContext
+
+        return store.getTypists(threadId)
+            .throttleLatest(UI_UPDATE_INTERVAL_MS)
+            .map { state -> state.typists.map { it.address }.distinct() to state.replacedByIncomingMessage }
+            .distinctUntilChanged()
+            .map { (addresses, replaced) -> TypingState(addresses.map { Recipient.from(applicationContext, it, false) }, replaced) }
+            .flowOn(Dispatchers.Default)
+    }
+
+    fun clear() {
+        store.clear()
+    }
+
+    class TypingState(val typists: List<Recipient>, val isReplacedByIncomingMessage: Boolean)
+}
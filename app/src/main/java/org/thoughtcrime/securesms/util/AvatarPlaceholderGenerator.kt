@@ -1,38 +1,45 @@
 package org.thoughtcrime.securesms.util
 
 import android.content.Context
-import android.graphics.Bitmap
-import android.graphics.Canvas
-import android.graphics.Color
-import android.graphics.Paint
-import android.graphics.Rect
-import android.graphics.RectF
-import android.graphics.Typeface
-import android.graphics.drawable.BitmapDrawable
-import android.text.TextPaint
+import android.graphics.drawable.Drawable
 import android.text.TextUtils
+import android.util.LruCache
 import network.loki.messenger.R
 import org.session.libsignal.utilities.IdPrefix
-import java.math.BigInteger
 import java.security.MessageDigest
 import java.util.Locale
 
 object AvatarPlaceholderGenerator {
 
     private const val EMPTY_LABEL = "0"
+    private const val CACHE_SIZE = 256
 
+    private val HEX = Regex("^[0-9A-Fa-f]+\$")
+    private val NON_WORD = Regex("\\W")
+
+    /** The hash and label for each (hash string, display name), which are the same every time. */
+    private val placeholders = LruCache<String, Placeholder>(CACHE_SIZE)
+
+    private class Placeholder(val hash: Long, val label: String)
+
+    /**
+     * A circle with the initials of [displayName] (or of [hashString] if there's no name), drawn at whatever
+     * size it's given rather than into a bitmap.
+     */
     @JvmStatic
-    fun generate(context: Context, pixelSize: Int, hashString: String, displayName: String?): BitmapDrawable {
-        val hash: Long
-        if (hashString.length >= 12 && hashString.matches(Regex("^[0-9A-Fa-f]+\$"))) {
-            hash = getSha512(hashString).substring(0 until 12).toLong(16)
-        } else {
-            hash = 0
-        }
+    fun createDrawable(context: Context, hashString: String, displayName: String?): Drawable {
+        val key = "$hashString\u0000$displayName"
+        val placeholder = placeholders.get(key) ?: createPlaceholder(hashString, displayName).also { placeholders.put(key, it) }
 
         // Do not cache color array, it may be different depends on the current theme.
         val colorArray = context.resources.getIntArray(R.array.profile_picture_placeholder_colors)
-        val colorPrimary = colorArray[(hash % colorArray.size).toInt()]
+        val colorPrimary = colorArray[(placeholder.hash % colorArray.size).toInt()]
+
+        return PlaceholderAvatarDrawable(colorPrimary, placeholder.label)
+    }
+
+    private fun createPlaceholder(hashString: String, displayName: String?): Placeholder {
+        val hash = if (hashString.length >= 12 && hashString.matches(HEX)) getHash(hashString) else 0
 
         val labelText = when {
             !TextUtils.isEmpty(displayName) -> extractLabel(displayName!!.capitalize(Locale.ROOT))
@@ -40,28 +47,7 @@ object AvatarPlaceholderGenerator {
             else -> EMPTY_LABEL
         }
 
-        val bitmap = Bitmap.createBitmap(pixelSize, pixelSize, Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(bitmap)
-
-        // Draw background/frame
-        val paint = Paint(Paint.ANTI_ALIAS_FLAG)
-        paint.color = colorPrimary
-        canvas.drawCircle(pixelSize.toFloat() / 2, pixelSize.toFloat() / 2, pixelSize.toFloat() / 2, paint)
-
-        // Draw text
-        val textPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
-        textPaint.typeface = Typeface.create(Typeface.DEFAULT, Typeface.NORMAL)
-        textPaint.textSize = pixelSize * 0.5f
-        textPaint.color = Color.WHITE
-        val areaRect = Rect(0, 0, pixelSize, pixelSize)
-        val textBounds = RectF(areaRect)
-        textBounds.right = textPaint.measureText(labelText)
-        textBounds.bottom = textPaint.descent() - textPaint.ascent()
-        textBounds.left += (areaRect.width() - textBounds.right) * 0.5f
-        textBounds.top += (areaRect.height() - textBounds.bottom) * 0.5f
-        canvas.drawText(labelText, textBounds.left, textBounds.top - textPaint.ascent(), textPaint)
-
-        return BitmapDrawable(context.resources, bitmap)
+        return Placeholder(hash, labelText)
     }
 
     fun extractLabel(content: String): String {
@@ -70,7 +56,7 @@ object AvatarPlaceholderGenerator {
         return if (trimmedContent.length > 2 && IdPrefix.fromValue(trimmedContent) != null) {
             trimmedContent[2].toString()
         } else {
-            val splitWords = trimmedContent.split(Regex("\\W"))
+            val splitWords = trimmedContent.split(NON_WORD)
             if (splitWords.size < 2) {
                 trimmedContent.take(2)
             } else {
@@ -79,24 +65,14 @@ object AvatarPlaceholderGenerator {
         }.uppercase()
     }
 
-    private fun getSha512(input: String): String {
-        val messageDigest = MessageDigest.getInstance("SHA-512").digest(input.toByteArray())
-
-        // Convert byte array into signum representation
-        val no = BigInteger(1, messageDigest)
-
-        // Convert message digest into hex value
-        var hashText: String = no.toString(16)
-
-        // Add preceding 0s to make it 32 bytes
-        if (hashText.length < 128) {
-            val sb = StringBuilder()
-            for (i in 0 until 128 - hashText.length) {
-                sb.append('0')
-            }
-            hashText = sb.append(hashText).toString()
-        }
-
-        return hashText
+    /**
+     * The first 48 bits of the SHA-512 of [input]; the same value as the first 12 characters of the digest's hex
+     * string.
+     */
+    private fun getHash(input: String): Long {
+        val digest = MessageDigest.getInstance("SHA-512").digest(input.toByteArray())
+        var hash = 0L
+        for (i in 0 until 6) hash = (hash shl 8) or (digest[i].toLong() and 0xFF)
+        return hash
     }
-}
\ No newline at end of file
+}
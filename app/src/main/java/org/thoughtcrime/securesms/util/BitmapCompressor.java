@@ -0,0 +1,250 @@
+package org.thoughtcrime.securesms.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.session.libsignal.utilities.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+/**
+ * Encodes an already decoded {@link Bitmap} so that it fits within a byte limit.
+ *
+ * A small probe encode predicts the quality that will fit, and the quality is then binary searched
+ * starting from that guess. If even {@link #MIN_QUALITY} doesn't fit, the bitmap is halved from the
+ * pixels we already have rather than decoding the source again. Every attempt for an image shares the
+ * same two growable buffers.
+ */
+public final class BitmapCompressor {
+
+  private static final String TAG = BitmapCompressor.class.getSimpleName();
+
+  @VisibleForTesting static final int MAX_QUALITY       = 95;
+  @VisibleForTesting static final int MIN_QUALITY       = 45;
+  @VisibleForTesting static final int QUALITY_TOLERANCE = 5;
+
+  private static final int MAX_QUALITY_ATTEMPTS = 6;
+  private static final int MAX_HALF_SCALES      = 3;
+  private static final int PROBE_SCALE          = 4;
+  private static final int MIN_PROBE_DIMENSION  = 64;
+
+  private final CompressFormat format;
+  private final int            maxSize;
+
+  private ByteArrayOutputStream current = new ByteArrayOutputStream();
+  private ByteArrayOutputStream best    = new ByteArrayOutputStream();
+
+  public BitmapCompressor(@NonNull CompressFormat format, int maxSize) {
+    this.format  = format;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Encodes the bitmap, taking ownership of it: it (and any downscaled copies) will be recycled.
+   *
+   * @return The encoded result, or null if the image can't be made to fit.
+   */
+  @WorkerThread
+  public @Nullable Result compress(@NonNull Bitmap bitmap) {
+    long   startTime    = System.currentTimeMillis();
+    int    attempts     = 0;
+    int    sizeAttempts = 0;
+    Bitmap scaled       = bitmap;
+
+    try {
+      while (true) {
+        sizeAttempts++;
+
+        Search search = format == CompressFormat.PNG ? encodeLossless(scaled) : searchQuality(scaled);
+        attempts += search.attempts;
+
+        if (search.quality >= 0) {
+          long elapsed = System.currentTimeMillis() - startTime;
+          Log.i(TAG, String.format(Locale.US, "Encoded %dx%d at quality %d into %d bytes. %d attempt(s) over %d size(s) in %d ms.",
+                                   scaled.getWidth(), scaled.getHeight(), search.quality, best.size(), attempts, sizeAttempts, elapsed));
+
+          return new Result(best.toByteArray(), scaled.getWidth(), scaled.getHeight(), search.quality, attempts, sizeAttempts, elapsed);
+        }
+
+        if (sizeAttempts > MAX_HALF_SCALES || scaled.getWidth() < 2 || scaled.getHeight() < 2) {
+          Log.w(TAG, "Unable to scale image below " + maxSize + " bytes after " + attempts + " attempt(s).");
+          return null;
+        }
+
+        Log.i(TAG, "Halving dimensions and retrying.");
+        Bitmap halved = Bitmap.createScaledBitmap(scaled, scaled.getWidth() / 2, scaled.getHeight() / 2, true);
+        if (halved != scaled) scaled.recycle();
+        scaled = halved;
+      }
+    } finally {
+      scaled.recycle();
+    }
+  }
+
+  private @NonNull Search encodeLossless(@NonNull Bitmap bitmap) {
+    return encode(bitmap, MAX_QUALITY) ? new Search(MAX_QUALITY, 1) : new Search(-1, 1);
+  }
+
+  private @NonNull Search searchQuality(@NonNull Bitmap bitmap) {
+    return searchQuality(predictQuality(bitmap), quality -> encode(bitmap, quality));
+  }
+
+  /**
+   * Estimates the quality that fits by encoding a much smaller copy of the bitmap at
+   * {@link #MAX_QUALITY} and scaling the result up by the pixel count.
+   */
+  private int predictQuality(@NonNull Bitmap bitmap) {
+    int probeWidth  = bitmap.getWidth() / PROBE_SCALE;
+    int probeHeight = bitmap.getHeight() / PROBE_SCALE;
+
+    if (probeWidth < MIN_PROBE_DIMENSION || probeHeight < MIN_PROBE_DIMENSION) {
+      return MAX_QUALITY;
+    }
+
+    Bitmap probe = Bitmap.createScaledBitmap(bitmap, probeWidth, probeHeight, true);
+
+    try {
+      current.reset();
+      probe.compress(format, MAX_QUALITY, current);
+
+      double pixelRatio    = ((double) bitmap.getWidth() * bitmap.getHeight()) / ((double) probeWidth * probeHeight);
+      double estimatedSize = current.size() * pixelRatio;
+
+      return predictQuality(estimatedSize, maxSize);
+    } finally {
+      probe.recycle();
+    }
+  }
+
+  /** Whether the bitmap fits at this quality. If it does, the output is kept in {@link #best}. */
+  private boolean encode(@NonNull Bitmap bitmap, int quality) {
+    current.reset();
+    bitmap.compress(format, quality, current);
+
+    Log.d(TAG, "iteration with quality " + quality + " size " + current.size() + " bytes.");
+
+    if (current.size() > 0 && current.size() <= maxSize) {
+      ByteArrayOutputStream swap = best;
+      best    = current;
+      current = swap;
+      return true;
+    }
+
+    return false;
+  }
+
+  @VisibleForTesting
+  static int predictQuality(double estimatedSize, int maxSize) {
+    if (estimatedSize <= 0) return MAX_QUALITY;
+
+    int quality = (int) Math.floor(MAX_QUALITY * Math.sqrt(maxSize / estimatedSize));
+    return Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+  }
+
+  /**
+   * Finds the highest quality within {@link #QUALITY_TOLERANCE} of the best possible that still fits,
+   * trying the predicted quality first.
+   */
+  @VisibleForTesting
+  static @NonNull Search searchQuality(int predictedQuality, @NonNull QualityEncoder encoder) {
+    int low      = MIN_QUALITY;
+    int high     = MAX_QUALITY;
+    int quality  = predictedQuality;
+    int found    = -1;
+    int attempts = 0;
+
+    while (low <= high && attempts < MAX_QUALITY_ATTEMPTS) {
+      attempts++;
+
+      if (encoder.fits(quality)) {
+        found = quality;
+        low   = quality + 1;
+      } else {
+        high  = quality - 1;
+      }
+
+      if (found >= 0 && high - found < QUALITY_TOLERANCE) break;
+
+      quality = (low + high) >>> 1;
+    }
+
+    if (found < 0 && high >= MIN_QUALITY) {
+      // Ran out of attempts before trying the lowest quality, which is the last chance at this size
+      attempts++;
+      if (encoder.fits(MIN_QUALITY)) found = MIN_QUALITY;
+    }
+
+    return new Search(found, attempts);
+  }
+
+  @VisibleForTesting
+  interface QualityEncoder {
+    boolean fits(int quality);
+  }
+
+  @VisibleForTesting
+  static final class Search {
+    final int quality;
+    final int attempts;
+
+    Search(int quality, int attempts) {
+      this.quality  = quality;
+      this.attempts = attempts;
+    }
+  }
+
+  public static final class Result {
+    private final byte[] bytes;
+    private final int    width;
+    private final int    height;
+    private final int    quality;
+    private final int    attempts;
+    private final int    sizeAttempts;
+    private final long   elapsedMs;
+
+    Result(byte[] bytes, int width, int height, int quality, int attempts, int sizeAttempts, long elapsedMs) {
+      this.bytes        = bytes;
+      this.width        = width;
+      this.height       = height;
+      this.quality      = quality;
+      this.attempts     = attempts;
+      this.sizeAttempts = sizeAttempts;
+      this.elapsedMs    = elapsedMs;
+    }
+
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getQuality() {
+      return quality;
+    }
+
+    /** The total number of encodes, across every size tried. */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    public int getSizeAttempts() {
+      return sizeAttempts;
+    }
+
+    public long getElapsedMs() {
+      return elapsedMs;
+    }
+  }
+}
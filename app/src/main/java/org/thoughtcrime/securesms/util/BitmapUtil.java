@@ -43,12 +43,6 @@ public class BitmapUtil {
 
   private static final String TAG = BitmapUtil.class.getSimpleName();
 
-  private static final int MAX_COMPRESSION_QUALITY          = 95;
-  private static final int MIN_COMPRESSION_QUALITY          = 45;
-  private static final int MAX_COMPRESSION_ATTEMPTS         = 5;
-  private static final int MIN_COMPRESSION_QUALITY_DECREASE = 5;
-  private static final int MAX_IMAGE_HALF_SCALES            = 3;
-
   @WorkerThread
   public static <T> ScaleResult createScaledBytes(@NonNull Context context, @NonNull T model, @NonNull MediaConstraints constraints)
       throws BitmapDecodingException
@@ -78,26 +72,11 @@ public class BitmapUtil {
                                                   int maxImageSize,
                                                   @NonNull CompressFormat format)
       throws BitmapDecodingException
-  {
-    return createScaledBytes(context, model, maxImageWidth, maxImageHeight, maxImageSize, format, 1, 0);
-  }
-
-  @WorkerThread
-  private static <T> ScaleResult createScaledBytes(@NonNull Context context,
-                                                   @NonNull T model,
-                                                   final int maxImageWidth,
-                                                   final int maxImageHeight,
-                                                   final int maxImageSize,
-                                                   @NonNull CompressFormat format,
-                                                   final int sizeAttempt,
-                                                   int totalAttempts)
-      throws BitmapDecodingException
   {
     try {
-      int    quality  = MAX_COMPRESSION_QUALITY;
-      int    attempts = 0;
-      byte[] bytes;
+      long decodeStart = System.currentTimeMillis();
 
+      // Decode once, any further downscaling is done by the compressor from these pixels
       Bitmap scaledBitmap = Glide.with(context.getApplicationContext())
                                     .asBitmap()
                                     .load(model)
@@ -111,49 +90,20 @@ public class BitmapUtil {
         throw new BitmapDecodingException("Unable to decode image");
       }
 
-      Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
-      Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
+      long decodeTime = System.currentTimeMillis() - decodeStart;
 
-      try {
-        do {
-          totalAttempts++;
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          scaledBitmap.compress(format, quality, baos);
-          bytes = baos.toByteArray();
-
-          Log.d(TAG, "iteration with quality " + quality + " size " + bytes.length + " bytes.");
-          if (quality == MIN_COMPRESSION_QUALITY) break;
-
-          int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / bytes.length));
-          if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
-            nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
-          }
-          quality = Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
-        }
-        while (bytes.length > maxImageSize && attempts++ < MAX_COMPRESSION_ATTEMPTS);
-
-        if (bytes.length > maxImageSize) {
-          if (sizeAttempt <= MAX_IMAGE_HALF_SCALES) {
-            scaledBitmap.recycle();
-            scaledBitmap = null;
+      Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes, decoded in %d ms.", scaledBitmap.getByteCount(), decodeTime));
+      Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
 
-            Log.i(TAG, "Halving dimensions and retrying.");
-            return createScaledBytes(context, model, maxImageWidth / 2, maxImageHeight / 2, maxImageSize, format, sizeAttempt + 1, totalAttempts);
-          } else {
-            throw new BitmapDecodingException("Unable to scale image below " + bytes.length + " bytes.");
-          }
-        }
+      BitmapCompressor.Result result = new BitmapCompressor(format, maxImageSize).compress(scaledBitmap);
 
-        if (bytes.length <= 0) {
-          throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + bytes.length + " bytes.");
-        }
+      if (result == null) {
+        throw new BitmapDecodingException("Unable to scale image below " + maxImageSize + " bytes.");
+      }
 
-        Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes.", model.getClass().getName(), quality, totalAttempts, sizeAttempt));
+      Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes.", model.getClass().getName(), result.getQuality(), result.getAttempts(), result.getSizeAttempts()));
 
-        return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
-      } finally {
-        if (scaledBitmap != null) scaledBitmap.recycle();
-      }
+      return new ScaleResult(result.getBytes(), result.getWidth(), result.getHeight(), result.getAttempts(), decodeTime, result.getElapsedMs());
     } catch (InterruptedException | ExecutionException e) {
       throw new BitmapDecodingException(e);
     }
@@ -430,12 +380,22 @@ public class BitmapUtil {
     private final int    width;
     private final int    height;
 
+    private final int    attempts;
+    private final long   decodeTimeMs;
+    private final long   encodeTimeMs;
+
     public ScaleResult(byte[] bitmap, int width, int height) {
-      this.bitmap = bitmap;
-      this.width  = width;
-      this.height = height;
+      this(bitmap, width, height, 0, 0, 0);
     }
 
+    public ScaleResult(byte[] bitmap, int width, int height, int attempts, long decodeTimeMs, long encodeTimeMs) {
+      this.bitmap       = bitmap;
+      this.width        = width;
+      this.height       = height;
+      this.attempts     = attempts;
+      this.decodeTimeMs = decodeTimeMs;
+      this.encodeTimeMs = encodeTimeMs;
+    }
 
     public byte[] getBitmap() {
       return bitmap;
@@ -448,5 +408,18 @@ public class BitmapUtil {
     public int getHeight() {
       return height;
     }
+
+    /** How many times the image was encoded before it fit. */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    public long getDecodeTimeMs() {
+      return decodeTimeMs;
+    }
+
+    public long getEncodeTimeMs() {
+      return encodeTimeMs;
+    }
   }
 }
@@ -6,7 +6,9 @@ import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.asFlow
 import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.conflate
 import kotlinx.coroutines.flow.flatMapConcat
+import kotlinx.coroutines.flow.transform
 
 /**
  * Buffers items from the flow and emits them in batches. The batch will have size [maxItems] and
@@ -40,5 +42,14 @@ fun <T> Flow<T>.timedBuffer(timeoutMillis: Long, maxItems: Int): Flow<List<T>> {
     }
 }
 
+/**
+ * Emits the first item straight away, then at most one item every [intervalMillis], always the latest one. Unlike
+ * debouncing, a flow that never stops changing still gets through, just coalesced.
+ */
+fun <T> Flow<T>.throttleLatest(intervalMillis: Long): Flow<T> = conflate().transform {
+    emit(it)
+    delay(intervalMillis)
+}
+
 @OptIn(ExperimentalCoroutinesApi::class)
 fun <T> Flow<Iterable<T>>.flatten(): Flow<T> = flatMapConcat { it.asFlow() }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package org.thoughtcrime.securesms.util
+
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.ColorFilter
+import android.graphics.Paint
+import android.graphics.PixelFormat
+import android.graphics.Rect
+import android.graphics.Typeface
+import android.graphics.drawable.Drawable
+import android.text.TextPaint
+import androidx.annotation.ColorInt
+
+/**
+ * A filled circle with a short label centered in it, sized to its bounds. See [AvatarPlaceholderGenerator].
+ */
+class PlaceholderAvatarDrawable(@ColorInt color: Int, private val label: String) : Drawable() {
+
+    private val circlePaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        this.color = color
+    }
+
+    private val textPaint = TextPaint(Paint.ANTI_ALIAS_FLAG).apply {
+        typeface = Typeface.create(Typeface.DEFAULT, Typeface.NORMAL)
+        textAlign = Paint.Align.CENTER
+        this.color = Color.WHITE
+    }
+
+    override fun onBoundsChange(bounds: Rect) {
+        textPaint.textSize = minOf(bounds.width(), bounds.height()) * 0.5f
+    }
+
+    override fun draw(canvas: Canvas) {
+        val centerX = bounds.exactCenterX()
+        val centerY = bounds.exactCenterY()
+
+        canvas.drawCircle(centerX, centerY, minOf(bounds.width(), bounds.height()) / 2f, circlePaint)
+        canvas.drawText(label, centerX, centerY - (textPaint.descent() + textPaint.ascent()) / 2, textPaint)
+    }
+
+    override fun setAlpha(alpha: Int) {
+        circlePaint.alpha = alpha
+        textPaint.alpha = alpha
+        invalidateSelf()
+    }
+
+    override fun setColorFilter(colorFilter: ColorFilter?) {
+        circlePaint.colorFilter = colorFilter
+        textPaint.colorFilter = colorFilter
+        invalidateSelf()
+    }
+
+    override fun getOpacity(): Int = PixelFormat.TRANSLUCENT
+}
@@ -1,63 +1,30 @@
 package org.thoughtcrime.securesms.util;
 
-import android.app.ProgressDialog;
 import android.content.Context;
-import android.os.AsyncTask;
-import android.widget.Toast;
+import android.database.Cursor;
 
+import org.session.libsession.messaging.jobs.JobQueue;
+import org.session.libsession.messaging.jobs.TrimThreadJob;
+import org.session.libsignal.utilities.ThreadUtils;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 
-import network.loki.messenger.R;
-
 public class Trimmer {
 
+  /**
+   * Queues a job to trim each conversation to its most recent {@code threadLengthLimit} messages. The jobs are
+   * persisted, so trimming carries on in the background and after a restart.
+   */
   public static void trimAllThreads(Context context, int threadLengthLimit) {
-    new TrimmingProgressTask(context).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, threadLengthLimit);
-  }
-
-  private static class TrimmingProgressTask extends AsyncTask<Integer, Integer, Void> implements ThreadDatabase.ProgressListener {
-    private ProgressDialog progressDialog;
-    private Context context;
-
-    public TrimmingProgressTask(Context context) {
-      this.context = context;
-    }
-
-    @Override
-    protected void onPreExecute() {
-      progressDialog = new ProgressDialog(context);
-      progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-      progressDialog.setCancelable(false);
-      progressDialog.setIndeterminate(false);
-      progressDialog.setTitle(R.string.deleting);
-      progressDialog.setMessage(context.getString(R.string.deleting));
-      progressDialog.setMax(100);
-      progressDialog.show();
-    }
-
-    @Override
-    protected Void doInBackground(Integer... params) {
-      DatabaseComponent.get(context).threadDatabase().trimAllThreads(params[0], this);
-      return null;
-    }
-
-    @Override
-    protected void onProgressUpdate(Integer... progress) {
-      double count = progress[1];
-      double index = progress[0];
-
-      progressDialog.setProgress((int)Math.round((index / count) * 100.0));
-    }
-
-    @Override
-    protected void onPostExecute(Void result) {
-      progressDialog.dismiss();
-    }
-
-    @Override
-    public void onProgress(int complete, int total) {
-      this.publishProgress(complete, total);
-    }
+    ThreadUtils.queue(() -> {
+      ThreadDatabase threadDatabase = DatabaseComponent.get(context).threadDatabase();
+
+      try (Cursor cursor = threadDatabase.getConversationList()) {
+        while (cursor != null && cursor.moveToNext()) {
+          long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID));
+          JobQueue.getShared().add(new TrimThreadJob(threadId, null, threadLengthLimit));
+        }
+      }
+    });
   }
 }
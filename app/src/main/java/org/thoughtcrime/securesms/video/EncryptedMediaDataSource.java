@@ -6,14 +6,11 @@ import android.media.MediaDataSource;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.session.libsession.utilities.Util;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
-import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
-import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.DecryptingPartChannel;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
 public class EncryptedMediaDataSource extends MediaDataSource {
 
@@ -22,6 +19,8 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   private final byte[]           random;
   private final long             length;
 
+  private DecryptingPartChannel channel;
+
   public EncryptedMediaDataSource(@NonNull AttachmentSecret attachmentSecret, @NonNull File mediaFile, @Nullable byte[] random, long length) {
     this.attachmentSecret = attachmentSecret;
     this.mediaFile        = mediaFile;
@@ -30,38 +29,18 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   }
 
   @Override
-  public int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
-    if (random == null) return readAtClassic(position, bytes, offset, length);
-    else                return readAtModern(position, bytes, offset, length);
+  public synchronized int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
+    return getChannel().read(position, bytes, offset, length);
   }
 
-  private int readAtClassic(long position, byte[] bytes, int offset, int length) throws IOException {
-    InputStream inputStream     = ClassicDecryptingPartInputStream.createFor(attachmentSecret, mediaFile);
-    byte[]      buffer          = new byte[4096];
-    long        headerRemaining = position;
-
-    while (headerRemaining > 0) {
-      int read = inputStream.read(buffer, 0, Util.toIntExact(Math.min((long)buffer.length, headerRemaining)));
-
-      if (read == -1) return -1;
-
-      headerRemaining -= read;
+  // Opened on the first read and kept for the rest, as players make a great many small ones
+  private @NonNull DecryptingPartChannel getChannel() throws IOException {
+    if (channel == null) {
+      if (random == null) channel = DecryptingPartChannel.forClassic(attachmentSecret, mediaFile);
+      else                channel = DecryptingPartChannel.forModern(attachmentSecret, random, mediaFile);
     }
 
-    int returnValue = inputStream.read(bytes, offset, length);
-    inputStream.close();
-    return returnValue;
-  }
-
-  private int readAtModern(long position, byte[] bytes, int offset, int length) throws IOException {
-    assert(random != null);
-
-    InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, mediaFile, position);
-    int         returnValue = inputStream.read(bytes, offset, length);
-
-    inputStream.close();
-
-    return returnValue;
+    return channel;
   }
 
   @Override
@@ -70,7 +49,10 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   }
 
   @Override
-  public void close() throws IOException {
-
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
   }
 }
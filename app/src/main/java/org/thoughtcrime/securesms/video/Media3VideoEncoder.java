@@ -0,0 +1,220 @@
+package org.thoughtcrime.securesms.video;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.effect.Presentation;
+import androidx.media3.transformer.Composition;
+import androidx.media3.transformer.DefaultEncoderFactory;
+import androidx.media3.transformer.EditedMediaItem;
+import androidx.media3.transformer.Effects;
+import androidx.media3.transformer.ExportException;
+import androidx.media3.transformer.ExportResult;
+import androidx.media3.transformer.ProgressHolder;
+import androidx.media3.transformer.Transformer;
+import androidx.media3.transformer.VideoEncoderSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a video to H.264 and AAC with the device's codecs, through Media3's {@link Transformer}.
+ *
+ * The source is read from a URI that Media3 can open, such as an {@link org.thoughtcrime.securesms.attachments.AttachmentServer}'s.
+ */
+@SuppressLint("UnsafeOptInUsageError")
+public class Media3VideoEncoder implements VideoEncoder {
+
+  private static final String OUTPUT_DIRECTORY     = "video_transcodes";
+  private static final long   PROGRESS_INTERVAL_MS = 250;
+
+  private final Context context;
+  private final Uri     source;
+  private final long    size;
+
+  /**
+   * @param size The size of the source, in bytes.
+   */
+  public Media3VideoEncoder(@NonNull Context context, @NonNull Uri source, long size) {
+    this.context = context.getApplicationContext();
+    this.source  = source;
+    this.size    = size;
+  }
+
+  /**
+   * Media3 can only write plaintext, so encoded videos go in a directory of their own, where any that outlive
+   * sending them can be found and deleted.
+   */
+  public static @NonNull File createOutputFile(@NonNull Context context) throws IOException {
+    File directory = new File(context.getCacheDir(), OUTPUT_DIRECTORY);
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Couldn't create " + directory);
+    }
+
+    return File.createTempFile("video", ".mp4", directory);
+  }
+
+  /**
+   * Deletes encoded videos left behind by a process that stopped while it was sending them.
+   */
+  public static void deleteOutputFiles(@NonNull Context context, long olderThan) {
+    File[] files = new File(context.getCacheDir(), OUTPUT_DIRECTORY).listFiles();
+    if (files == null) return;
+
+    for (File file : files) {
+      if (file.lastModified() < olderThan) {
+        file.delete();
+      }
+    }
+  }
+
+  @Override
+  public @NonNull VideoTranscoder.Metadata getSourceMetadata() throws IOException {
+    MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+    try {
+      retriever.setDataSource(source.toString(), new HashMap<>());
+
+      int width    = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+      int height   = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+      int rotation = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+
+      if (width <= 0 || height <= 0) {
+        throw new IOException("Couldn't read the video's dimensions");
+      }
+
+      if (rotation == 90 || rotation == 270) {
+        int rotatedWidth = height;
+        height = width;
+        width  = rotatedWidth;
+      }
+
+      return new VideoTranscoder.Metadata(width,
+                                          height,
+                                          parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+                                          size,
+                                          "yes".equals(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO)));
+    } catch (RuntimeException e) {
+      throw new IOException(e);
+    } finally {
+      try {
+        retriever.release();
+      } catch (IOException ignored) {}
+    }
+  }
+
+  @Override
+  public void encode(@NonNull VideoTranscoder.Target target, @NonNull File output, @NonNull Progress progress) throws IOException {
+    HandlerThread  thread      = new HandlerThread("video-encoder");
+    CountDownLatch done        = new CountDownLatch(1);
+    Transformer[]  transformer = new Transformer[1];
+    Exception[]    error       = new Exception[1];
+
+    thread.start();
+
+    // A transformer has to be used on the thread it was built for
+    Handler handler = new Handler(thread.getLooper());
+
+    handler.post(() -> {
+      try {
+        transformer[0] = buildTransformer(thread, target, new Transformer.Listener() {
+          @Override
+          public void onCompleted(@NonNull Composition composition, @NonNull ExportResult exportResult) {
+            done.countDown();
+          }
+
+          @Override
+          public void onError(@NonNull Composition composition, @NonNull ExportResult exportResult, @NonNull ExportException exportException) {
+            error[0] = exportException;
+            done.countDown();
+          }
+        });
+
+        transformer[0].start(buildMediaItem(target), output.getAbsolutePath());
+      } catch (RuntimeException e) {
+        error[0] = e;
+        done.countDown();
+      }
+    });
+
+    ProgressHolder progressHolder = new ProgressHolder();
+    // Posts run after the one above, but there won't be a transformer if building it threw
+    Runnable       cancel         = () -> {
+      if (transformer[0] != null) transformer[0].cancel();
+    };
+
+    try {
+      while (!done.await(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+        if (progress.isCancelled()) {
+          handler.post(cancel);
+          throw new CancellationException();
+        }
+
+        handler.post(() -> {
+          if (transformer[0] != null && transformer[0].getProgress(progressHolder) == Transformer.PROGRESS_STATE_AVAILABLE) {
+            progress.onProgress(progressHolder.progress / 100f);
+          }
+        });
+      }
+    } catch (InterruptedException e) {
+      handler.post(cancel);
+      throw new InterruptedIOException("Interrupted while encoding");
+    } finally {
+      // Lets a cancel that's been posted run before the thread goes
+      thread.quitSafely();
+    }
+
+    if (error[0] != null) {
+      throw new IOException(error[0]);
+    }
+
+    progress.onProgress(1);
+  }
+
+  private @NonNull Transformer buildTransformer(@NonNull HandlerThread thread, @NonNull VideoTranscoder.Target target, @NonNull Transformer.Listener listener) {
+    VideoEncoderSettings videoSettings = new VideoEncoderSettings.Builder()
+                                                                 .setBitrate(target.getVideoBitrate())
+                                                                 .build();
+
+    return new Transformer.Builder(context)
+                          .setLooper(thread.getLooper())
+                          .setVideoMimeType(MimeTypes.VIDEO_H264)
+                          .setAudioMimeType(MimeTypes.AUDIO_AAC)
+                          .setEncoderFactory(new DefaultEncoderFactory.Builder(context)
+                                                                      .setRequestedVideoEncoderSettings(videoSettings)
+                                                                      .build())
+                          .addListener(listener)
+                          .build();
+  }
+
+  private @NonNull EditedMediaItem buildMediaItem(@NonNull VideoTranscoder.Target target) {
+    Presentation presentation = Presentation.createForWidthAndHeight(target.getWidth(), target.getHeight(), Presentation.LAYOUT_SCALE_TO_FIT);
+
+    return new EditedMediaItem.Builder(MediaItem.fromUri(source))
+                              .setEffects(new Effects(Collections.emptyList(), Collections.singletonList(presentation)))
+                              .build();
+  }
+
+  private static int parseInt(@Nullable String value) {
+    try {
+      return value != null ? Integer.parseInt(value) : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
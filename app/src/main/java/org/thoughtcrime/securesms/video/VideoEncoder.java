@@ -0,0 +1,35 @@
+package org.thoughtcrime.securesms.video;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Re-encodes one video for {@link VideoTranscoder}, which decides what to encode it to and when.
+ *
+ * Both methods are called on the transcoder's thread and may block. An encoder reports how far through it is as it
+ * goes, and once {@link Progress#isCancelled()} it stops as soon as it can and throws a
+ * {@link java.util.concurrent.CancellationException}.
+ */
+public interface VideoEncoder {
+
+  /**
+   * @return What the video being encoded is like, for the transcoder to plan with.
+   */
+  @NonNull VideoTranscoder.Metadata getSourceMetadata() throws IOException;
+
+  /**
+   * Encodes the video to {@code target}, writing an MP4 to {@code output}.
+   */
+  void encode(@NonNull VideoTranscoder.Target target, @NonNull File output, @NonNull Progress progress) throws IOException;
+
+  interface Progress {
+    /**
+     * @param fraction How much of the video has been encoded, from 0 to 1.
+     */
+    void onProgress(float fraction);
+
+    boolean isCancelled();
+  }
+}
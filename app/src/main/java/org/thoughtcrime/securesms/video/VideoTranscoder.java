@@ -0,0 +1,323 @@
+package org.thoughtcrime.securesms.video;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.utilities.concurrent.SignalExecutors;
+import org.session.libsignal.utilities.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Shrinks videos before they're sent, so they fit the attachment limit and don't go out at the bitrate the camera
+ * recorded them at.
+ *
+ * Each video gets a {@link Target} planned from its length and size: the biggest resolution on a ladder that the
+ * limit leaves enough bitrate for, and never more bitrate than that resolution needs or the video already has.
+ * Videos that are already within the limit and near their target are sent as they are. If an encoder overshoots the
+ * bitrate it was asked for, the video is encoded again at a proportionally lower one.
+ *
+ * Videos are transcoded one at a time, as encoders are memory hungry and devices only have a few hardware codecs.
+ */
+public final class VideoTranscoder {
+
+  private static final String TAG = VideoTranscoder.class.getSimpleName();
+
+  // Attachments are padded by up to 5% before they're uploaded, and the padding has to fit the limit too
+  private static final double PADDING_OVERHEAD = 1.05;
+
+  // Leaves room for the container, and for encoders that go a little over the bitrate they're asked for
+  private static final double BITRATE_MARGIN = 0.9;
+
+  // A video this close to its target bitrate isn't worth encoding again
+  private static final double PASSTHROUGH_TOLERANCE = 1.25;
+
+  // Audio is usually carried over as it is, so this is what it's assumed to take up rather than a target
+  static final int AUDIO_BITRATE     = 128_000;
+  static final int MIN_VIDEO_BITRATE = 200_000;
+  static final int MAX_ATTEMPTS      = 3;
+
+  // The shortest side of a resolution, and the bitrate that's plenty for it
+  private static final int[][] LADDER = {
+      { 1080, 5_000_000 },
+      {  720, 2_500_000 },
+      {  480, 1_200_000 },
+      {  360,   700_000 },
+      {  240,   400_000 }
+  };
+
+  private static VideoTranscoder instance;
+
+  private final Executor executor;
+
+  public static synchronized @NonNull VideoTranscoder getInstance() {
+    if (instance == null) {
+      instance = new VideoTranscoder(SignalExecutors.newCachedSingleThreadExecutor("signal-video-transcoder"));
+    }
+
+    return instance;
+  }
+
+  /**
+   * @param executor Runs one job at a time.
+   */
+  VideoTranscoder(@NonNull Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Queues a video to be transcoded to fit {@code maxSize}, once the videos queued before it are done.
+   *
+   * @param output Where the transcoded video is written, unless it can be sent as it is.
+   */
+  public @NonNull Job transcode(@NonNull VideoEncoder encoder, @NonNull File output, long maxSize, @Nullable Listener listener) {
+    Job job = new Job(listener);
+    executor.execute(() -> job.run(encoder, output, maxSize));
+    return job;
+  }
+
+  /**
+   * @return Whether a video this long can be transcoded to fit {@code maxSize}.
+   */
+  public static boolean canFit(long durationMs, long maxSize) {
+    return durationMs > 0 && getAvailableVideoBitrate(durationMs, true, maxSize) >= MIN_VIDEO_BITRATE;
+  }
+
+  /**
+   * @return What to transcode {@code source} to so it fits {@code maxSize}, or null if it can be sent as it is.
+   */
+  static @Nullable Target plan(@NonNull Metadata source, long maxSize) throws TooLargeException {
+    long maxOutputSize = getMaxOutputSize(maxSize);
+
+    if (source.getDurationMs() <= 0) {
+      if (source.getSize() <= maxOutputSize) return null;
+      else                                   throw new TooLargeException("Can't fit a video of unknown length: " + source.getSize());
+    }
+
+    int  audioBitrate     = source.hasAudio() ? AUDIO_BITRATE : 0;
+    long availableBitrate = getAvailableVideoBitrate(source.getDurationMs(), source.hasAudio(), maxSize);
+
+    if (availableBitrate < MIN_VIDEO_BITRATE) {
+      throw new TooLargeException("Can't fit " + source.getDurationMs() + "ms of video into " + maxSize + " bytes");
+    }
+
+    int shortSide = Math.min(source.getWidth(), source.getHeight());
+    int rung      = 0;
+
+    while (rung < LADDER.length - 1 && (LADDER[rung][1] > availableBitrate || LADDER[rung][0] > shortSide)) {
+      rung++;
+    }
+
+    long sourceBitrate   = source.getSize() * 8 * 1000 / source.getDurationMs();
+    int  targetShortSide = Math.min(LADDER[rung][0], shortSide);
+    int  videoBitrate    = (int) Math.min(Math.min(availableBitrate, LADDER[rung][1]), Math.max(sourceBitrate - audioBitrate, MIN_VIDEO_BITRATE));
+
+    if (source.getSize() <= maxOutputSize && shortSide <= targetShortSide && sourceBitrate <= (videoBitrate + audioBitrate) * PASSTHROUGH_TOLERANCE) {
+      return null;
+    }
+
+    double scale = (double) targetShortSide / shortSide;
+
+    return new Target(toEven(source.getWidth() * scale), toEven(source.getHeight() * scale), videoBitrate, audioBitrate);
+  }
+
+  /**
+   * @return The biggest a transcoded video can be and still fit {@code maxSize} once it's been padded.
+   */
+  static long getMaxOutputSize(long maxSize) {
+    return (long) (maxSize / PADDING_OVERHEAD);
+  }
+
+  private static long getAvailableVideoBitrate(long durationMs, boolean hasAudio, long maxSize) {
+    long totalBitrate = (long) (getMaxOutputSize(maxSize) * BITRATE_MARGIN * 8 * 1000 / durationMs);
+    return totalBitrate - (hasAudio ? AUDIO_BITRATE : 0);
+  }
+
+  // Encoders want even dimensions
+  private static int toEven(double dimension) {
+    return Math.max(2, (int) Math.round(dimension / 2) * 2);
+  }
+
+  public interface Listener {
+    /**
+     * Called on whichever thread the encoder reports progress from.
+     *
+     * @param fraction How much of the current attempt has been encoded, from 0 to 1.
+     */
+    void onProgress(@NonNull Job job, float fraction);
+  }
+
+  public static final class Job implements VideoEncoder.Progress {
+
+    private final @Nullable Listener       listener;
+    private final           CountDownLatch done = new CountDownLatch(1);
+
+    private volatile boolean cancelled;
+
+    private @Nullable Target    result;
+    private @Nullable Exception error;
+
+    private Job(@Nullable Listener listener) {
+      this.listener = listener;
+    }
+
+    /**
+     * Stops the job, without it ever starting if it's still queued.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public void onProgress(float fraction) {
+      if (listener != null) {
+        listener.onProgress(this, Math.max(0, Math.min(1, fraction)));
+      }
+    }
+
+    /**
+     * Waits for the job to finish.
+     *
+     * @return What the video was transcoded to, or null if it can be sent as it is.
+     * @throws TooLargeException If the video can't be made to fit.
+     * @throws CancellationException If the job was cancelled.
+     */
+    public @Nullable Target await() throws IOException, InterruptedException {
+      done.await();
+
+      if      (error == null)                          return result;
+      else if (error instanceof IOException)           throw (IOException) error;
+      else if (error instanceof CancellationException) throw (CancellationException) error;
+      else                                             throw new IOException(error);
+    }
+
+    private void run(@NonNull VideoEncoder encoder, @NonNull File output, long maxSize) {
+      try {
+        if (cancelled) throw new CancellationException();
+
+        Metadata source        = encoder.getSourceMetadata();
+        Target   target        = plan(source, maxSize);
+        long     maxOutputSize = getMaxOutputSize(maxSize);
+
+        for (int attempt = 1; target != null; attempt++) {
+          encoder.encode(target, output, this);
+
+          if (cancelled) throw new CancellationException();
+          if (output.length() <= maxOutputSize) break;
+
+          int videoBitrate = (int) (target.getVideoBitrate() * BITRATE_MARGIN * maxOutputSize / output.length());
+
+          if (attempt == MAX_ATTEMPTS || videoBitrate < MIN_VIDEO_BITRATE) {
+            throw new TooLargeException("Still " + output.length() + " bytes after " + attempt + " attempts");
+          }
+
+          Log.w(TAG, "Encoded to " + output.length() + " bytes at " + target.getVideoBitrate() + "bps, trying " + videoBitrate + "bps");
+          target = target.withVideoBitrate(videoBitrate);
+        }
+
+        result = target;
+      } catch (IOException | RuntimeException e) {
+        error = e;
+        output.delete();
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  public static final class Metadata {
+
+    private final int     width;
+    private final int     height;
+    private final long    durationMs;
+    private final long    size;
+    private final boolean hasAudio;
+
+    /**
+     * @param width The width of the video as it's displayed, after any rotation.
+     * @param height The height of the video as it's displayed, after any rotation.
+     */
+    public Metadata(int width, int height, long durationMs, long size, boolean hasAudio) {
+      this.width      = width;
+      this.height     = height;
+      this.durationMs = durationMs;
+      this.size       = size;
+      this.hasAudio   = hasAudio;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public long getDurationMs() {
+      return durationMs;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public boolean hasAudio() {
+      return hasAudio;
+    }
+  }
+
+  public static final class Target {
+
+    private final int width;
+    private final int height;
+    private final int videoBitrate;
+    private final int audioBitrate;
+
+    Target(int width, int height, int videoBitrate, int audioBitrate) {
+      this.width        = width;
+      this.height       = height;
+      this.videoBitrate = videoBitrate;
+      this.audioBitrate = audioBitrate;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getVideoBitrate() {
+      return videoBitrate;
+    }
+
+    public int getAudioBitrate() {
+      return audioBitrate;
+    }
+
+    @NonNull Target withVideoBitrate(int videoBitrate) {
+      return new Target(width, height, videoBitrate, audioBitrate);
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return width + "x" + height + " at " + videoBitrate + "bps";
+    }
+  }
+
+  public static class TooLargeException extends IOException {
+    TooLargeException(String message) {
+      super(message);
+    }
+  }
+}
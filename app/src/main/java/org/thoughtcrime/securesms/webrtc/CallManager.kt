@@ -2,6 +2,7 @@ package org.thoughtcrime.securesms.webrtc
 
 import android.content.Context
 import android.content.pm.PackageManager
+import android.os.SystemClock
 import android.telephony.TelephonyManager
 import androidx.core.content.ContextCompat
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -22,6 +23,7 @@ import org.session.libsession.messaging.calls.CallMessageType
 import org.session.libsession.messaging.messages.applyExpiryMode
 import org.session.libsession.messaging.messages.control.CallMessage
 import org.session.libsession.messaging.sending_receiving.MessageSender
+import org.session.libsession.messaging.sending_receiving.pollers.CallSignalingPoller
 import org.session.libsession.snode.SnodeAPI
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.Debouncer
@@ -120,7 +122,10 @@ class CallManager(
     )
     val videoState = _videoState.asStateFlow()
 
-    private val stateProcessor = StateProcessor(CallState.Idle)
+    private val stateProcessor = StateProcessor(CallState.Idle, ::onTransition)
+
+    private val signalingPoller by lazy { storage.getUserPublicKey()?.let(::CallSignalingPoller) }
+    private var offerTime = -1L
 
     private val _callStateEvents = MutableStateFlow(CallViewModel.State.CALL_PENDING)
     val callStateEvents = _callStateEvents.asSharedFlow()
@@ -185,6 +190,27 @@ class CallManager(
         signalAudioManager.handleCommand(AudioManagerCommand.SilenceIncomingRinger)
     }
 
+    /**
+     * Polls for call messages at a short interval until the call connects, and logs how long that took.
+     */
+    private fun onTransition(event: Event) {
+        val state = event.outputState
+        if (state in CallState.PENDING_CONNECTION_STATES || state == CallState.Reconnecting) {
+            signalingPoller?.start()
+        } else {
+            signalingPoller?.stop()
+        }
+
+        when (event) {
+            Event.SendOffer, Event.ReceiveOffer -> offerTime = SystemClock.elapsedRealtime()
+            Event.Connect -> if (offerTime >= 0) {
+                Log.i(TAG, "Call connected ${SystemClock.elapsedRealtime() - offerTime}ms after the offer.")
+                offerTime = -1L
+            }
+            else -> if (state !in CallState.PENDING_CONNECTION_STATES) offerTime = -1L
+        }
+    }
+
     fun postConnectionEvent(transition: Event, onSuccess: ()->Unit): Boolean {
         return stateProcessor.processEvent(transition, onSuccess)
     }
@@ -89,7 +89,7 @@ sealed class Event(vararg val expectedStates: State, val outputState: State) {
     object Cleanup : Event(State.Disconnected, outputState = State.Idle)
 }
 
-open class StateProcessor(initialState: State) {
+open class StateProcessor(initialState: State, private val onTransition: (Event) -> Unit = {}) {
     private var _currentState: State = initialState
     val currentState get() = _currentState
 
@@ -100,6 +100,7 @@ open class StateProcessor(initialState: State) {
                 "succeeded transitioning from ${currentState::class.simpleName} to ${event.outputState::class.simpleName} with ${event::class.simpleName}"
             )
             _currentState = event.outputState
+            onTransition(event)
             sideEffect()
             return true
         }
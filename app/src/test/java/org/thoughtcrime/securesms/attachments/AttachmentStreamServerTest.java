@@ -0,0 +1,64 @@
+package org.thoughtcrime.securesms.attachments;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentStreamServerTest {
+
+  @Test public void testParsesOpenEndedRange() {
+    AttachmentStreamServer.Range range = AttachmentStreamServer.Range.parse("bytes=100-", 1000);
+
+    assertEquals(100, range.start);
+    assertEquals(999, range.end);
+  }
+
+  @Test public void testClampsRangeEndToSize() {
+    AttachmentStreamServer.Range range = AttachmentStreamServer.Range.parse("bytes=10-5000", 1000);
+
+    assertEquals(10, range.start);
+    assertEquals(999, range.end);
+  }
+
+  @Test public void testParsesSuffixRange() {
+    AttachmentStreamServer.Range range = AttachmentStreamServer.Range.parse("bytes=-200", 1000);
+
+    assertEquals(800, range.start);
+    assertEquals(999, range.end);
+  }
+
+  @Test public void testRangePastEndIsUnsatisfiable() {
+    assertSame(AttachmentStreamServer.Range.UNSATISFIABLE, AttachmentStreamServer.Range.parse("bytes=1000-", 1000));
+  }
+
+  @Test public void testMissingOrMultipleRangesServeEverything() {
+    assertNull(AttachmentStreamServer.Range.parse(null, 1000));
+    assertNull(AttachmentStreamServer.Range.parse("bytes=0-10,20-30", 1000));
+  }
+
+  @Test public void testReadsPipelinedRequests() throws IOException {
+    InputStream input = new ByteArrayInputStream(("GET /abc HTTP/1.1\r\nRange: bytes=5-\r\n\r\n" +
+                                                  "GET /abc?x=1 HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+    AttachmentStreamServer.Request first = AttachmentStreamServer.Request.read(input);
+    assertEquals("GET", first.method);
+    assertEquals("/abc", first.path);
+    assertEquals("bytes=5-", first.headers.get("range"));
+    assertTrue(first.keepAlive);
+
+    AttachmentStreamServer.Request second = AttachmentStreamServer.Request.read(input);
+    assertEquals("/abc", second.path);
+    assertFalse(second.keepAlive);
+
+    assertNull(AttachmentStreamServer.Request.read(input));
+  }
+}
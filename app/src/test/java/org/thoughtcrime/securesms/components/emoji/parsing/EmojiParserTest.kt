@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.thoughtcrime.securesms.emoji.EmojiPage
+import java.util.Random
+
+class EmojiParserTest {
+
+    private val page = mock<EmojiPage>()
+    private val tree = EmojiTree().apply {
+        EMOJI.forEachIndexed { index, emoji -> add(emoji, EmojiDrawInfo(page, index, emoji, null, null)) }
+        // An emoji that's only in the tree with its variation selector, as added for obsolete emoji
+        add(HEART + "\uFE0F", EmojiDrawInfo(page, EMOJI.size, HEART, null, null))
+    }
+
+    @Test
+    fun `it should find emoji, modifiers and sequences`() {
+        val text = "hi $GRIN there $THUMBS_UP$DARK_SKIN $FAMILY$HEART!"
+
+        val candidates = EmojiParser(tree).findCandidates(text)
+
+        assertEquals(
+            listOf(GRIN, THUMBS_UP + DARK_SKIN, FAMILY, HEART),
+            candidates.map { text.substring(it.startIndex, it.endIndex) }
+        )
+        assertFalse(candidates.allEmojis)
+    }
+
+    @Test
+    fun `it should flag text made only of emoji`() {
+        assertTrue(EmojiParser(tree).findCandidates("$GRIN$HEART\uFE0F$FAMILY").allEmojis)
+        assertFalse(EmojiParser(tree).findCandidates("").allEmojis)
+    }
+
+    @Test
+    fun `it should reuse the results for the same text`() {
+        val parser = EmojiParser(tree)
+        val text = "hey $GRIN"
+
+        assertSame(parser.findCandidates(text), parser.findCandidates(text))
+        assertEquals(1, parser.findCandidates(StringBuilder(text)).size())
+    }
+
+    @Test
+    fun `it should match the parser it replaces`() {
+        createCorpus().forEach { text ->
+            val expected = findCandidatesByPrefix(text)
+            val actual = EmojiParser(tree).findCandidates(text)
+
+            assertEquals(text, expected.map { Triple(it.startIndex, it.endIndex, it.drawInfo) }, actual.map { Triple(it.startIndex, it.endIndex, it.drawInfo) })
+            assertEquals(text, expected.allEmojis, actual.allEmojis)
+        }
+    }
+
+    /**
+     * The previous parser: checks every prefix from each position against the tree from the root.
+     */
+    private fun findCandidatesByPrefix(text: CharSequence): EmojiParser.CandidateList {
+        val results = mutableListOf<EmojiParser.Candidate>()
+        var allEmojis = text.isNotEmpty()
+        var i = 0
+        while (i < text.length) {
+            var end = -1
+            for (j in i + 1..text.length) {
+                val status = tree.isEmoji(text, i, j)
+                if (status.exactMatch()) end = j else if (status.impossibleMatch()) break
+            }
+
+            if (end != -1) {
+                val drawInfo = tree.getEmoji(text, i, end)
+                if (end + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, end) != null) end += 2
+                results.add(EmojiParser.Candidate(i, end, drawInfo))
+                i = end
+            } else {
+                allEmojis = false
+                i++
+            }
+        }
+        return EmojiParser.CandidateList(results, allEmojis)
+    }
+
+    private fun createCorpus(): List<String> {
+        val random = Random(42)
+        val words = listOf("hey", "are", "you", "coming", "tonight", "lol", "ok", "see", "you", "there", "thanks", "https://getsession.org", "ça", "va", "日本語", "привет")
+        val emoji = EMOJI + listOf(HEART + "\uFE0F", THUMBS_UP + DARK_SKIN)
+
+        return (0 until MESSAGE_COUNT).map {
+            val builder = StringBuilder()
+            val hasEmoji = random.nextInt(4) == 0
+            repeat(1 + random.nextInt(20)) {
+                if (builder.isNotEmpty()) builder.append(' ')
+                if (hasEmoji && random.nextInt(5) == 0) builder.append(emoji[random.nextInt(emoji.size)])
+                else builder.append(words[random.nextInt(words.size)])
+            }
+            builder.toString()
+        }
+    }
+
+    private companion object {
+        const val GRIN = "😀"
+        const val THUMBS_UP = "👍"
+        const val DARK_SKIN = "🏿"
+        const val HEART = "❤"
+        const val FAMILY = "👨‍👩‍👧"
+        val EMOJI = listOf(GRIN, THUMBS_UP, "👨", "👩", FAMILY, "🇦🇺", "#\uFE0F\u20E3")
+
+        const val MESSAGE_COUNT = 5000
+    }
+}
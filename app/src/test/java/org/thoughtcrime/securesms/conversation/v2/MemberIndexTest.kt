@@ -0,0 +1,110 @@
+package org.thoughtcrime.securesms.conversation.v2
+
+import android.text.Spanned
+import android.text.style.StyleSpan
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.thoughtcrime.securesms.conversation.v2.mention.MemberIndex
+import org.thoughtcrime.securesms.conversation.v2.mention.MentionViewModel
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+class MemberIndexTest {
+
+    @Test
+    fun `should rank prefix matches first and then by recency`() {
+        val index = MemberIndex(listOf(
+            entry("Mallory", lastSeen = 1),
+            entry("Alice", lastSeen = 2),
+            entry("alison", lastSeen = 3),
+            entry("Bob", lastSeen = 4),
+            entry("Valerie", lastSeen = 5),
+        ))
+
+        val candidates = index.search("AL", limit = 10)
+
+        assertThat(candidates.map { it.member.name }).containsExactly("alison", "Alice", "Valerie", "Mallory").inOrder()
+        assertThat(candidates.map { it.matchScore }).containsExactly(0, 0, 1, 1).inOrder()
+
+        val highlighted = candidates[2].nameHighlighted as Spanned
+        val span = highlighted.getSpans(0, highlighted.length, StyleSpan::class.java).single()
+        assertThat(highlighted.getSpanStart(span)).isEqualTo(1)
+        assertThat(highlighted.getSpanEnd(span)).isEqualTo(3)
+    }
+
+    @Test
+    fun `should offer the most recent members for an empty query`() {
+        val index = MemberIndex(listOf(entry("Alice", lastSeen = 1), entry("Bob", lastSeen = 3), entry("Carol", lastSeen = 2)))
+
+        assertThat(index.search("", limit = 2).map { it.member.name }).containsExactly("Bob", "Carol").inOrder()
+    }
+
+    @Test
+    fun `should not match across names`() {
+        val index = MemberIndex(listOf(entry("Ann", lastSeen = 2), entry("Abe", lastSeen = 1)))
+
+        assertThat(index.search("nab", limit = 10)).isEmpty()
+        assertThat(index.search("n\u0000a", limit = 10)).isEmpty()
+    }
+
+    @Test
+    fun `should rank members seen at the same time by name`() {
+        val index = MemberIndex(listOf(entry("Carol", lastSeen = 1), entry("Alice", lastSeen = 1), entry("Bob", lastSeen = 2)))
+
+        assertThat(index.search("", limit = 10).map { it.member.name }).containsExactly("Bob", "Alice", "Carol").inOrder()
+    }
+
+    @Test
+    fun `should match only the first occurrence in each name`() {
+        val index = MemberIndex(listOf(entry("Anna Annabel", lastSeen = 1)))
+
+        val candidates = index.search("ann", limit = 10)
+
+        assertThat(candidates).hasSize(1)
+        assertThat(candidates.single().matchScore).isEqualTo(0)
+    }
+
+    @Test
+    fun `should return at most the limit, keeping the best matches`() {
+        val index = MemberIndex(List(10) { i -> entry(if (i % 2 == 0) "Dan $i" else "Jordan $i", lastSeen = i.toLong()) })
+
+        val candidates = index.search("dan", limit = 3)
+
+        // Every prefix match beats every later match, however recently the later ones were seen
+        assertThat(candidates.map { it.member.name }).containsExactly("Dan 8", "Dan 6", "Dan 4").inOrder()
+        assertThat(index.search("dan", limit = 0)).isEmpty()
+        assertThat(index.search("", limit = 3).map { it.member.name }).containsExactly("Jordan 9", "Dan 8", "Jordan 7").inOrder()
+    }
+
+    @Test
+    fun `should match a 50k member room the way checking every name does`() {
+        val random = Random(42)
+        val entries = List(MEMBER_COUNT) { i ->
+            val name = (0 until 1 + random.nextInt(3)).joinToString(" ") { WORDS[random.nextInt(WORDS.size)] } + " $i"
+            entry(name, lastSeen = random.nextInt(1_000_000).toLong(), publicKey = "05%064x".format(i))
+        }
+        val index = MemberIndex(entries)
+
+        val ranked = entries.sortedWith(compareByDescending<MemberIndex.Entry> { it.lastSeen }.thenBy { it.member.name })
+        for (query in QUERIES) {
+            val expected = ranked
+                .mapNotNull { entry -> entry.member.name.indexOf(query, ignoreCase = true).takeIf { it >= 0 }?.let { it to entry.member } }
+                .sortedBy { it.first }
+                .take(LIMIT)
+            assertThat(index.search(query, LIMIT).map { it.matchScore to it.member }).isEqualTo(expected)
+        }
+    }
+
+    private fun entry(name: String, lastSeen: Long, publicKey: String = name) =
+        MemberIndex.Entry(MentionViewModel.Member(publicKey, name, isModerator = false), lastSeen)
+
+    private companion object {
+        const val MEMBER_COUNT = 50_000
+        const val LIMIT = 100
+
+        val WORDS = listOf("Alice", "Bob", "Carol", "Dave", "Eve", "Mallory", "Trent", "Peggy", "Victor", "Walter", "Élodie", "Łukasz", "Søren", "李云海", "Анна")
+        val QUERIES = listOf("a", "al", "ali", "alice", "ce m", "łuk", "ANNA", "云", "4999", "zzz")
+    }
+}
@@ -13,13 +13,14 @@ import org.junit.runner.RunWith
 import org.mockito.kotlin.any
 import org.mockito.kotlin.doAnswer
 import org.mockito.kotlin.doReturn
-import org.mockito.kotlin.eq
 import org.mockito.kotlin.mock
 import org.robolectric.RobolectricTestRunner
 import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.open_groups.CommunityMember
 import org.session.libsession.messaging.open_groups.GroupMemberRole
 import org.session.libsession.messaging.open_groups.OpenGroup
 import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsession.utilities.truncateIdForDisplay
 import org.thoughtcrime.securesms.MainCoroutineRule
 import org.thoughtcrime.securesms.conversation.v2.mention.MentionViewModel
 
@@ -67,8 +68,17 @@ class MentionViewModelTest {
 
     @Before
     fun setUp() {
+        mentionViewModel = createViewModel(
+            communityMembers = threadMembers.mapIndexed { index, m ->
+                CommunityMember(m.pubKey, m.name, lastSeen = (threadMembers.size - index).toLong())
+            },
+            contacts = memberContacts
+        )
+    }
+
+    private fun createViewModel(communityMembers: List<CommunityMember>, contacts: List<Contact>): MentionViewModel {
         @Suppress("UNCHECKED_CAST")
-        mentionViewModel = MentionViewModel(
+        return MentionViewModel(
             threadID,
             contentResolver = mock { },
             threadDatabase = mock {
@@ -82,25 +92,17 @@ class MentionViewModelTest {
             },
             groupDatabase = mock {
             },
-            mmsDatabase = mock {
-                on { getRecentChatMemberIDs(eq(threadID), any()) } doAnswer {
-                    val limit = it.arguments[1] as Int
-                    threadMembers.take(limit).map { m -> m.pubKey }
-                }
+            communityMemberDatabase = mock {
+                on { getMembers(threadID) } doReturn communityMembers
             },
             contactDatabase = mock {
                 on { getContacts(any()) } doAnswer {
                     val ids = it.arguments[0] as Collection<String>
-                    memberContacts.filter { it.accountID in ids }
+                    contacts.filter { it.accountID in ids }
                 }
             },
             memberDatabase = mock {
-                on { getGroupMembersRoles(eq(openGroup.id), any()) } doAnswer {
-                    val memberIDs = it.arguments[1] as Collection<String>
-                    memberIDs.associateWith { id ->
-                        threadMembers.first { it.pubKey == id }.roles
-                    }
-                }
+                on { getGroupMembersRoles(openGroup.id) } doReturn threadMembers.associate { it.pubKey to it.roles }
             },
             storage = mock {
                 on { getOpenGroup(threadID) } doReturn openGroup
@@ -158,6 +160,39 @@ class MentionViewModelTest {
         }
     }
 
+    @Test
+    fun `community members should be named by their nickname or a truncated ID when they have one`() = runTest {
+        val nicknamed = "05" + "1".repeat(64)
+        val unnamed = "05" + "2".repeat(64)
+        mentionViewModel = createViewModel(
+            communityMembers = listOf(
+                CommunityMember(nicknamed, "Frank", lastSeen = 2),
+                CommunityMember(unnamed, null, lastSeen = 1)
+            ),
+            contacts = listOf(Contact(nicknamed).also { it.name = "Frank"; it.nickname = "Mum" })
+        )
+
+        mentionViewModel.autoCompleteState.test {
+            assertThat(awaitItem())
+                .isEqualTo(MentionViewModel.AutoCompleteState.Idle)
+
+            val editable = mentionViewModel.editableFactory.newEditable("")
+            editable.append("Hi @")
+            Selection.setSelection(editable, editable.length)
+
+            assertThat(awaitItem())
+                .isEqualTo(MentionViewModel.AutoCompleteState.Loading)
+
+            awaitItem().let { result ->
+                result as MentionViewModel.AutoCompleteState.Result
+
+                assertThat(result.members.map { it.member.name })
+                    .containsExactly("Mum", truncateIdForDisplay(unnamed))
+                    .inOrder()
+            }
+        }
+    }
+
     @Test
     fun `should have normalised message with candidates selected`() = runTest {
         mentionViewModel.autoCompleteState.test {
@@ -0,0 +1,180 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.util.Pair;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DecryptingPartChannelTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AttachmentSecret attachmentSecret = new AttachmentSecret(randomBytes(16), randomBytes(20), randomBytes(32));
+
+  @Test public void testClassicReadsMatchTheStream() throws Exception {
+    // Lengths either side of a block and a window, including ones padded with a whole block
+    for (long length : new long[] { 1, 15, 16, 17, 64 * 1024 - 1, 64 * 1024, 64 * 1024 + 1, 200_000 }) {
+      File file = writeClassic(length);
+
+      try (DecryptingPartChannel channel = DecryptingPartChannel.forClassic(attachmentSecret, file)) {
+        assertEquals(length, channel.size());
+        assertReadsMatch(channel, readAll(ClassicDecryptingPartInputStream.createFor(attachmentSecret, file)));
+      }
+    }
+  }
+
+  @Test public void testModernReadsMatchTheStream() throws Exception {
+    for (long length : new long[] { 1, 15, 16, 17, 64 * 1024 - 1, 64 * 1024, 64 * 1024 + 1, 200_000 }) {
+      File   file   = folder.newFile();
+      byte[] random = writeModern(file, length);
+
+      try (DecryptingPartChannel channel = DecryptingPartChannel.forModern(attachmentSecret, random, file)) {
+        assertEquals(length, channel.size());
+        assertReadsMatch(channel, readAll(ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, 0)));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testClassicRejectsATamperedFile() throws Exception {
+    File file = writeClassic(1000);
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(100);
+      raf.write(raf.read() ^ 1);
+    }
+
+    DecryptingPartChannel.forClassic(attachmentSecret, file).close();
+  }
+
+  private static void assertReadsMatch(DecryptingPartChannel channel, byte[] expected) throws IOException {
+    Random random = new Random(7);
+
+    // Sequential reads of odd sizes, crossing blocks and windows
+    byte[] sequential = new byte[expected.length];
+    int    position   = 0;
+    while (position < expected.length) {
+      int read = channel.read(position, sequential, position, 1 + random.nextInt(5000));
+      assertTrue(read > 0);
+      position += read;
+    }
+    assertArrayEquals(expected, sequential);
+
+    // Random reads, backwards and forwards
+    for (int i = 0; i < 200; i++) {
+      int    start  = random.nextInt(expected.length);
+      int    length = 1 + random.nextInt(100_000);
+      byte[] bytes  = new byte[length];
+      int    read   = channel.read(start, bytes, 0, length);
+
+      assertEquals(Math.min(length, expected.length - start), read);
+      assertArrayEquals(Arrays.copyOfRange(expected, start, start + read), Arrays.copyOf(bytes, read));
+    }
+
+    assertEquals(-1, channel.read(expected.length, new byte[1], 0, 1));
+  }
+
+  /**
+   * Writes a file in the classic format: an IV, AES-CBC ciphertext, and an HMAC-SHA1 of both.
+   */
+  private File writeClassic(long length) throws IOException, GeneralSecurityException {
+    File   file   = folder.newFile();
+    byte[] iv     = randomBytes(16);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    Mac    mac    = Mac.getInstance("HmacSHA1");
+
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES"), new IvParameterSpec(iv));
+    mac.init(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
+
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024)) {
+      out.write(iv);
+      mac.update(iv);
+
+      byte[] plaintext = new byte[1024 * 1024];
+      for (long position = 0; position < length; position += plaintext.length) {
+        int count = (int) Math.min(plaintext.length, length - position);
+        fillPlaintext(plaintext, position, count);
+
+        byte[] ciphertext = cipher.update(plaintext, 0, count);
+        if (ciphertext != null) {
+          out.write(ciphertext);
+          mac.update(ciphertext);
+        }
+      }
+
+      byte[] ciphertext = cipher.doFinal();
+      out.write(ciphertext);
+      mac.update(ciphertext);
+      out.write(mac.doFinal());
+    }
+
+    return file;
+  }
+
+  private byte[] writeModern(File file, long length) throws IOException {
+    Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false);
+
+    try (OutputStream out = output.second) {
+      byte[] plaintext = new byte[(int) length];
+      fillPlaintext(plaintext, 0, plaintext.length);
+      out.write(plaintext);
+    }
+
+    return output.first;
+  }
+
+  private static void fillPlaintext(byte[] buffer, long position, int count) {
+    for (int i = 0; i < count; i++) {
+      buffer[i] = plaintextAt(position + i);
+    }
+  }
+
+  private static byte plaintextAt(long position) {
+    return (byte) ((position * 0x9E3779B97F4A7C15L) >>> 56);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      ByteArrayOutputStream out    = new ByteArrayOutputStream();
+      byte[]                buffer = new byte[8192];
+      int                   read;
+
+      while ((read = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+
+      return out.toByteArray();
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,59 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+
+class ReactionDatabaseTest {
+
+    private val stored = listOf(
+        reaction(id = 1, author = "alice", emoji = "👍", count = 3),
+        reaction(id = 2, author = "bob", emoji = "👍"),
+        reaction(id = 3, author = "carol", emoji = "❤️", count = 1)
+    )
+
+    @Test
+    fun `re-applying unchanged reactions should write nothing`() {
+        // As built from a poll: no row IDs, in whatever order the server returned them
+        val polled = stored.reversed().map { it.copy(id = 0) }
+
+        val changes = ReactionDatabase.diffReactions(stored, polled)
+
+        assertTrue(changes.isEmpty())
+        assertEquals(0, changes.deleted.size + changes.upserted.size)
+    }
+
+    @Test
+    fun `it should only write reactions that changed`() {
+        val polled = listOf(
+            reaction(author = "alice", emoji = "👍", count = 4),
+            reaction(author = "bob", emoji = "👍"),
+            reaction(author = "dave", emoji = "😂", count = 1)
+        )
+
+        val changes = ReactionDatabase.diffReactions(stored, polled)
+
+        assertEquals(listOf("carol"), changes.deleted.map { it.author })
+        assertEquals(listOf("alice", "dave"), changes.upserted.map { it.author })
+    }
+
+    @Test
+    fun `it should delete every stored reaction when there are none left`() {
+        val changes = ReactionDatabase.diffReactions(stored, emptyList())
+
+        assertEquals(listOf(1L, 2L, 3L), changes.deleted.map { it.id })
+        assertTrue(changes.upserted.isEmpty())
+    }
+
+    private fun reaction(id: Long = 0, author: String, emoji: String, count: Long = 0) = ReactionRecord(
+        id = id,
+        messageId = 42,
+        isMms = true,
+        author = author,
+        emoji = emoji,
+        serverId = "1234",
+        count = count,
+        sortId = 0
+    )
+}
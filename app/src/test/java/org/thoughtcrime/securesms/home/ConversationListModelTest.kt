@@ -0,0 +1,106 @@
+package org.thoughtcrime.securesms.home
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.model.ThreadRecord
+
+class ConversationListModelTest {
+
+    private val recipient = mock<Recipient>()
+    private val model = ConversationListModel()
+
+    @Test
+    fun `pages are appended in the order they were loaded`() {
+        model.replaceAll(listOf(thread(1, date = 300, pinned = true), thread(2, date = 500)))
+        model.append(listOf(thread(3, date = 400), thread(4, date = 100)))
+        model.append(emptyList())
+
+        assertEquals(listOf(1L, 2L, 3L, 4L), threadIds())
+    }
+
+    @Test
+    fun `a thread with a new message moves to the top of the unpinned threads`() {
+        model.replaceAll(listOf(thread(1, date = 50, pinned = true), thread(2, date = 300), thread(3, date = 200), thread(4, date = 100)))
+
+        model.patch(setOf(4), listOf(thread(4, date = 400)))
+
+        assertEquals(listOf(1L, 4L, 2L, 3L), threadIds())
+    }
+
+    @Test
+    fun `pinning a thread moves it above newer unpinned threads`() {
+        model.replaceAll(listOf(thread(1, date = 300), thread(2, date = 200), thread(3, date = 100)))
+
+        model.patch(setOf(3), listOf(thread(3, date = 100, pinned = true)))
+
+        assertEquals(listOf(3L, 1L, 2L), threadIds())
+    }
+
+    @Test
+    fun `threads that changed without a record have left the list`() {
+        model.replaceAll(listOf(thread(1, date = 300), thread(2, date = 200), thread(3, date = 100)))
+
+        // Deleted, archived, or no longer approved: the row isn't read back
+        model.patch(setOf(1, 3), emptyList())
+
+        assertEquals(listOf(2L), threadIds())
+    }
+
+    @Test
+    fun `new threads are inserted where the query would have put them`() {
+        model.replaceAll(listOf(thread(1, date = 300, pinned = true), thread(2, date = 300), thread(3, date = 100)))
+
+        model.patch(setOf(5, 6, 7), listOf(thread(7, date = 300), thread(6, date = 500, pinned = true), thread(5, date = 200)))
+
+        assertEquals(listOf(6L, 1L, 7L, 2L, 5L, 3L), threadIds())
+    }
+
+    @Test
+    fun `threads with the same date are ordered newest ID first`() {
+        model.replaceAll(listOf(thread(9, date = 100), thread(3, date = 100)))
+
+        model.patch(setOf(5), listOf(thread(5, date = 100)))
+
+        assertEquals(listOf(9L, 5L, 3L), threadIds())
+    }
+
+    @Test
+    fun `patching a paged list keeps it sorted across the page boundary`() {
+        model.replaceAll((10L downTo 6L).map { thread(it, date = it * 100) })
+        model.append((5L downTo 1L).map { thread(it, date = it * 100) })
+
+        model.patch(setOf(2, 9), listOf(thread(2, date = 750), thread(9, date = 50)))
+
+        assertEquals(listOf(10L, 8L, 2L, 7L, 6L, 5L, 4L, 3L, 1L, 9L), threadIds())
+    }
+
+    @Test
+    fun `patching leaves earlier snapshots alone`() {
+        model.replaceAll(listOf(thread(1, date = 200), thread(2, date = 100)))
+        val before = model.snapshot()
+
+        model.patch(setOf(2), listOf(thread(2, date = 300)))
+
+        assertEquals(listOf(1L, 2L), before.map { it.threadId })
+        assertEquals(listOf(2L, 1L), threadIds())
+    }
+
+    @Test
+    fun `an empty patch does nothing`() {
+        model.replaceAll(listOf(thread(1, date = 200)))
+        val before = model.snapshot()
+
+        model.patch(emptySet(), listOf(thread(2, date = 300)))
+
+        assertSame(before, model.snapshot())
+    }
+
+    private fun threadIds() = model.snapshot().map { it.threadId }
+
+    private fun thread(id: Long, date: Long, pinned: Boolean = false) = ThreadRecord(
+        "", null, null, recipient, date, 1, 0, 0, id, 0, 0, 0, 0, false, 0, 0, 0, pinned
+    )
+}
@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.session.libsession.messaging.utilities.Data;
+import org.session.libsession.utilities.Util;
+import org.session.libsignal.protos.UtilProtos;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class BinaryDataSerializerTest {
+
+  private static final float FloatDelta = 0.00001f;
+
+  private static final int BATCH_SIZE    = 512;
+  private static final int ENVELOPE_SIZE = 720;
+
+  @Test
+  public void roundTrip_jsonFixture_dataMatchesExpected() throws IOException {
+    Data json = new JsonDataSerializer().deserialize(Util.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+    Data data = roundTrip(json);
+
+    assertEquals("s1 value", data.getString("s1"));
+    assertEquals("s2 value", data.getString("s2"));
+    assertArrayEquals(new String[]{ "a", "b", "c" }, data.getStringArray("s_array_1"));
+
+    assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+    assertEquals(Integer.MIN_VALUE, data.getInt("min"));
+    assertArrayEquals(new int[]{ 1, 2, 3, Integer.MAX_VALUE, Integer.MIN_VALUE }, data.getIntegerArray("i_array_1"));
+
+    assertEquals(Long.MAX_VALUE, data.getLong("max"));
+    assertEquals(Long.MIN_VALUE, data.getLong("min"));
+    assertArrayEquals(new long[]{ 1, 2, 3, Long.MAX_VALUE, Long.MIN_VALUE }, data.getLongArray("l_array_1"));
+
+    assertEquals(3.4f, data.getFloat("f2"), FloatDelta);
+    assertArrayEquals(new float[]{ 5.6f, 7.8f }, data.getFloatArray("f_array_1"), FloatDelta);
+
+    assertEquals(30.4, data.getDouble("d2"), FloatDelta);
+    assertArrayEquals(new double[]{ 50.6, 70.8 }, data.getDoubleArray("d_array_1"), FloatDelta);
+
+    assertTrue(data.getBoolean("b1"));
+    assertFalse(data.getBoolean("b2"));
+    assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+  }
+
+  @Test
+  public void roundTrip_nullsAndByteArrays() {
+    Data data = roundTrip(new Data.Builder()
+                                  .putString("null", null)
+                                  .putString("unicode", "héllo 😀")
+                                  .putStringArray("with_null", new String[]{ "a", null, "" })
+                                  .putByteArray("empty", new byte[0])
+                                  .putByteArray("bytes", new byte[]{ 1, 2, 3, -1 })
+                                  .build());
+
+    assertTrue(data.hasString("null"));
+    assertNull(data.getString("null"));
+    assertEquals("héllo 😀", data.getString("unicode"));
+    assertArrayEquals(new String[]{ "a", null, "" }, data.getStringArray("with_null"));
+    assertArrayEquals(new byte[0], data.getByteArray("empty"));
+    assertArrayEquals(new byte[]{ 1, 2, 3, -1 }, data.getByteArray("bytes"));
+    assertFalse(data.hasByteArray("missing"));
+  }
+
+  @Test(expected = AssertionError.class)
+  public void deserialize_unknownVersion_throws() {
+    new BinaryDataSerializer().deserialize(new byte[]{ 99 });
+  }
+
+  @Test(expected = AssertionError.class)
+  public void deserialize_truncated_throws() {
+    byte[] serialized = new BinaryDataSerializer().serialize(new Data.Builder().putByteArray("bytes", new byte[64]).build());
+    byte[] truncated  = new byte[serialized.length - 8];
+    System.arraycopy(serialized, 0, truncated, 0, truncated.length);
+
+    new BinaryDataSerializer().deserialize(truncated);
+  }
+
+  @Test
+  public void roundTrip_fullReceiveBatch_matchesJsonAndIsSmaller() {
+    Data                 batch  = createReceiveBatch();
+    JsonDataSerializer   json   = new JsonDataSerializer();
+    BinaryDataSerializer binary = new BinaryDataSerializer();
+
+    String jsonSerialized   = json.serialize(batch);
+    byte[] binarySerialized = binary.serialize(batch);
+    Data   fromJson         = json.deserialize(jsonSerialized);
+    Data   fromBinary       = binary.deserialize(binarySerialized);
+
+    assertEquals(BATCH_SIZE, fromBinary.getInt("number_of_messages"));
+    assertArrayEquals(fromJson.getByteArray("data"), fromBinary.getByteArray("data"));
+    assertArrayEquals(fromJson.getLongArray("open_group_message_server_id"), fromBinary.getLongArray("open_group_message_server_id"));
+    assertArrayEquals(fromJson.getStringArray("server_hash"), fromBinary.getStringArray("server_hash"));
+    assertNull(fromBinary.getString("open_group_id"));
+    assertTrue(binarySerialized.length < jsonSerialized.length());
+  }
+
+  private static Data roundTrip(Data data) {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    return serializer.deserialize(serializer.serialize(data));
+  }
+
+  private static Data createReceiveBatch() {
+    Random                           random       = new Random(42);
+    UtilProtos.ByteArrayList.Builder envelopes    = UtilProtos.ByteArrayList.newBuilder();
+    String[]                         serverHashes = new String[BATCH_SIZE];
+    long[]                           serverIds    = new long[BATCH_SIZE];
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      byte[] envelope = new byte[ENVELOPE_SIZE];
+      random.nextBytes(envelope);
+      envelopes.addContent(ByteString.copyFrom(envelope));
+      serverHashes[i] = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+      serverIds[i]    = -1L;
+    }
+
+    return new Data.Builder()
+        .putInt("number_of_messages", BATCH_SIZE)
+        .putByteArray("data", envelopes.build().toByteArray())
+        .putString("open_group_id", null)
+        .putLongArray("open_group_message_server_id", serverIds)
+        .putStringArray("server_hash", serverHashes)
+        .build();
+  }
+}
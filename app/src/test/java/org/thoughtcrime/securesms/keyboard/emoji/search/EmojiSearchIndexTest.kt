@@ -0,0 +1,64 @@
+package org.thoughtcrime.securesms.keyboard.emoji.search
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+
+class EmojiSearchIndexTest {
+
+    private fun buildIndex(vararg searchData: Pair<String, List<String>>): EmojiSearchIndex {
+        val out = ByteArrayOutputStream()
+        EmojiSearchIndex.write(searchData.toList(), out)
+        return EmojiSearchIndex(ByteBuffer.wrap(out.toByteArray()))
+    }
+
+    @Test
+    fun `it matches labels anywhere, ranking the closest matches first`() {
+        val index = buildIndex(
+            "😀" to listOf("grinning face"),
+            "🙂" to listOf("face"),
+            "🐱" to listOf("cat"),
+            "🤖" to listOf("robot face")
+        )
+
+        assertEquals(listOf("🙂", "🤖", "😀"), index.query("face", 10))
+        assertEquals(listOf("🐱"), index.query("  CAT ", 10))
+        assertEquals(listOf("🙂"), index.query("face", 1))
+        assertEquals(emptyList<String>(), index.query("dog", 10))
+        assertEquals(emptyList<String>(), index.query(" ", 10))
+    }
+
+    @Test
+    fun `it returns each emoji once`() {
+        val index = buildIndex("🍍" to listOf("pineapple", "piña colada", "Pine"))
+
+        assertEquals(listOf("🍍"), index.query("pin", 10))
+        assertEquals(listOf("🍍"), index.query("ña", 10))
+    }
+
+    /**
+     * The shipped asset is generated from the JSON source with [EmojiSearchIndex.write]. Run with
+     * `-DregenerateEmojiSearchIndex=true` after changing the JSON to rewrite it.
+     */
+    @Test
+    fun `the shipped index is up to date with its source`() {
+        val source = javaClass.classLoader!!.getResourceAsStream("emoji/emoji_search_index.json").use {
+            ObjectMapper().readTree(it).map { entry -> entry["emoji"].asText() to entry["tags"].map { tag -> tag.asText() } }
+        }
+
+        val generated = ByteArrayOutputStream().also { EmojiSearchIndex.write(source, it) }.toByteArray()
+        val asset     = File("src/main/assets/${EmojiSearchIndex.ASSET_PATH}")
+
+        if (System.getProperty("regenerateEmojiSearchIndex").toBoolean()) {
+            asset.writeBytes(generated)
+        }
+
+        assertArrayEquals(generated, asset.readBytes())
+        assertTrue(EmojiSearchIndex(ByteBuffer.wrap(generated)).query("face", 1).isNotEmpty())
+    }
+}
@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache.Entry;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache.Thumbnail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LinkPreviewCacheTest {
+
+  private static final String URL = "https://example.com/article";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AttachmentSecret attachmentSecret = new AttachmentSecret(randomBytes(16), randomBytes(20), randomBytes(32));
+
+  private File             directory;
+  private LinkPreviewCache cache;
+
+  @Before
+  public void setUp() {
+    directory = new File(folder.getRoot(), "link_previews");
+    cache     = new LinkPreviewCache(directory, () -> attachmentSecret);
+  }
+
+  @Test
+  public void testEntriesRoundTrip() {
+    byte[] thumbnail = randomBytes(1000);
+
+    cache.put(URL, new Entry("Title", new Thumbnail(thumbnail, 640, 480)));
+    cache.put(URL + "/2", new Entry("Without a thumbnail", null));
+
+    Entry entry = cache.get(URL);
+    assertNotNull(entry);
+    assertEquals("Title", entry.title);
+    assertNotNull(entry.thumbnail);
+    assertArrayEquals(thumbnail, entry.thumbnail.data);
+    assertEquals(640, entry.thumbnail.width);
+    assertEquals(480, entry.thumbnail.height);
+
+    Entry withoutThumbnail = cache.get(URL + "/2");
+    assertNotNull(withoutThumbnail);
+    assertEquals("Without a thumbnail", withoutThumbnail.title);
+    assertNull(withoutThumbnail.thumbnail);
+
+    assertNull(cache.get(URL + "/3"));
+  }
+
+  @Test
+  public void testEntriesAreEncryptedAndNamedWithoutTheirUrl() throws IOException {
+    cache.put(URL, new Entry("Title", null));
+
+    File file = onlyFile();
+    assertFalse(file.getName().contains("example"));
+    assertFalse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1).contains("example.com"));
+  }
+
+  @Test
+  public void testExpiredEntriesAreDeleted() {
+    cache.put(URL, new Entry("Title", null));
+
+    File file = onlyFile();
+    assertTrue(file.setLastModified(System.currentTimeMillis() - LinkPreviewCache.MAX_AGE - TimeUnit.MINUTES.toMillis(1)));
+
+    assertNull(cache.get(URL));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testOldestEntriesAreTrimmed() {
+    cache.put(URL, new Entry("Oldest", null));
+    assertTrue(onlyFile().setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+
+    for (int i = 0; i < LinkPreviewCache.MAX_ENTRIES; i++) {
+      cache.put(URL + "/" + i, new Entry("Title " + i, null));
+    }
+
+    assertEquals(LinkPreviewCache.MAX_ENTRIES, directory.listFiles().length);
+    assertNull(cache.get(URL));
+    assertNotNull(cache.get(URL + "/" + (LinkPreviewCache.MAX_ENTRIES - 1)));
+  }
+
+  private File onlyFile() {
+    File[] files = directory.listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+    return files[0];
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random().nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,23 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkPreviewRepositoryTest {
+
+  @Test
+  public void testSampleSizeKeepsImagesAtLeastTheMaximumAcross() {
+    assertEquals(1, LinkPreviewRepository.getSampleSize(100, 100, 1024));
+    assertEquals(1, LinkPreviewRepository.getSampleSize(2047, 1000, 1024));
+    assertEquals(2, LinkPreviewRepository.getSampleSize(2048, 1000, 1024));
+    assertEquals(4, LinkPreviewRepository.getSampleSize(4096, 1000, 1024));
+    assertEquals(4, LinkPreviewRepository.getSampleSize(8191, 1000, 1024));
+  }
+
+  @Test
+  public void testSampleSizeFollowsTheLongerSide() {
+    assertEquals(8, LinkPreviewRepository.getSampleSize(10, 8192, 1024));
+    assertEquals(LinkPreviewRepository.getSampleSize(8192, 10, 1024), LinkPreviewRepository.getSampleSize(10, 8192, 1024));
+  }
+}
@@ -0,0 +1,210 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil.OpenGraph;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenGraphScannerTest {
+
+  // Allows for what the reader and OkHttp buffer beyond what's been scanned
+  private static final long READ_AHEAD = 64 * 1024;
+
+  @Test
+  public void testReadsTagsFromTheHead() throws IOException {
+    Page page = new Page("<!DOCTYPE html><html><head>\n" +
+                         "<!-- <meta property=\"og:title\" content=\"Commented out\"> -->\n" +
+                         "<title>Page &amp; title</title>\n" +
+                         "<META PROPERTY='og:title' CONTENT='Open Graph title'>\n" +
+                         "<meta property=og:image content=https://example.com/image.png />\n" +
+                         "<script>document.write('<meta property=\"og:title\" content=\"Scripted\">')</script>\n" +
+                         "<link rel=\"shortcut icon\" href=\"https://example.com/favicon.ico\">\n" +
+                         "</head><body><meta property=\"og:title\" content=\"In the body\"></body></html>", "");
+
+    OpenGraph openGraph = fetch(page);
+
+    assertEquals("Open Graph title", openGraph.getTitle().get());
+    assertEquals("https://example.com/image.png", openGraph.getImageUrl().get());
+  }
+
+  @Test
+  public void testFallsBackToTheTitleAndFavicon() throws IOException {
+    Page page = new Page("<html><head><title>Page &amp; title</title><link href=\"/favicon.png\" rel=\"icon\"></head>", "");
+
+    OpenGraph openGraph = fetch(page);
+
+    assertEquals("Page &amp; title", openGraph.getTitle().get());
+    assertEquals("/favicon.png", openGraph.getImageUrl().get());
+  }
+
+  @Test(timeout = 10_000)
+  public void testStopsReadingAtTheEndOfTheHead() throws IOException {
+    Page page = new Page("<html><head><meta property=\"og:title\" content=\"Title\"></head><body>", "<p>Never ending</p>");
+
+    OpenGraph openGraph = fetch(page);
+
+    assertEquals("Title", openGraph.getTitle().get());
+    assertTrue("Read " + page.bytesRead.get() + " bytes", page.bytesRead.get() < READ_AHEAD);
+  }
+
+  @Test(timeout = 10_000)
+  public void testStopsReadingAfterTheByteLimit() throws IOException {
+    Page page = new Page("<html><head><meta property=\"og:title\" content=\"Title\">", "<meta name=\"filler\" content=\"filler\">");
+
+    OpenGraph openGraph = fetch(page);
+
+    assertEquals("Title", openGraph.getTitle().get());
+    assertTrue("Read " + page.bytesRead.get() + " bytes", page.bytesRead.get() < OpenGraphScanner.MAX_HEAD_BYTES + READ_AHEAD);
+  }
+
+  @Test(timeout = 10_000)
+  public void testUnclosedTagsAreScannedInLinearTime() throws IOException {
+    // Each of these made the old patterns backtrack over the rest of the page from every tag
+    for (String filler : new String[] { "<meta property=\"og:", "<meta content=\"", "<title>", "<link rel=\"icon", "< meta" }) {
+      Page page = new Page("<html><head>", filler);
+
+      OpenGraph openGraph = fetch(page);
+
+      assertTrue(openGraph.getTitle().or("").length() <= 1024);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testStrayQuotesBetweenAttributesAreSkipped() throws IOException {
+    Page quoted   = new Page("<html><head><meta property=\"og:title\" content=\"ok\"\"x\"></head>", "");
+    Page unquoted = new Page("<html><head><title>Title</title><link rel=icon 'x' href=\"/favicon.png\"></head>", "");
+
+    assertEquals("ok", fetch(quoted).getTitle().get());
+    assertEquals("/favicon.png", fetch(unquoted).getImageUrl().get());
+  }
+
+  @Test
+  public void testCapsOpenGraphTitlesLikePageTitles() throws IOException {
+    // Long enough that it couldn't be cached as a modified UTF-8 string
+    String longTitle = new String(new char[70_000]).replace('\0', 'x');
+    Page   page      = new Page("<html><head><meta property=\"og:title\" content=\"" + longTitle + "\"></head>", "");
+
+    assertEquals(longTitle.substring(0, 1024), fetch(page).getTitle().get());
+  }
+
+  @Test
+  public void testDecodesUsingTheDeclaredCharset() throws IOException {
+    Page page = new Page("<html><head><title>Café</title></head>", "", "text/html; charset=ISO-8859-1", StandardCharsets.ISO_8859_1.name());
+
+    assertEquals("Café", fetch(page).getTitle().get());
+  }
+
+  private static @NonNull OpenGraph fetch(@NonNull Page page) throws IOException {
+    // Stands in for the site, serving the page without going over the network
+    OkHttpClient client = new OkHttpClient.Builder()
+                                          .addInterceptor(chain -> new Response.Builder()
+                                                                               .request(chain.request())
+                                                                               .protocol(Protocol.HTTP_1_1)
+                                                                               .code(200)
+                                                                               .message("OK")
+                                                                               .body(page)
+                                                                               .build())
+                                          .build();
+
+    try (Response response = client.newCall(new Request.Builder().url("https://example.com/").build()).execute()) {
+      ResponseBody body    = response.body();
+      MediaType    type    = body.contentType();
+
+      return OpenGraphScanner.scan(body.byteStream(), type.charset(StandardCharsets.UTF_8), text -> text);
+    }
+  }
+
+  /**
+   * A page that starts with {@code prefix} and then repeats {@code filler} forever, if there is any.
+   */
+  private static final class Page extends ResponseBody {
+
+    private final byte[]     prefix;
+    private final byte[]     filler;
+    private final String     contentType;
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    Page(@NonNull String prefix, @NonNull String filler) {
+      this(prefix, filler, "text/html", StandardCharsets.UTF_8.name());
+    }
+
+    Page(@NonNull String prefix, @NonNull String filler, @NonNull String contentType, @NonNull String charset) {
+      try {
+        this.prefix      = prefix.getBytes(charset);
+        this.filler      = filler.getBytes(charset);
+        this.contentType = contentType;
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public MediaType contentType() {
+      return MediaType.get(contentType);
+    }
+
+    @Override
+    public long contentLength() {
+      return -1;
+    }
+
+    @Override
+    public @NonNull BufferedSource source() {
+      return Okio.buffer(new Source() {
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) {
+          long position = bytesRead.get();
+
+          if (position < prefix.length) {
+            int count = (int) Math.min(byteCount, prefix.length - position);
+            sink.write(prefix, (int) position, count);
+            bytesRead.addAndGet(count);
+            return count;
+          } else if (filler.length == 0) {
+            return -1;
+          }
+
+          long count = 0;
+          while (count + filler.length <= byteCount) {
+            sink.write(filler);
+            count += filler.length;
+          }
+          if (count == 0) {
+            sink.write(filler, 0, (int) byteCount);
+            count = byteCount;
+          }
+
+          bytesRead.addAndGet(count);
+          return count;
+        }
+
+        @Override
+        public @NonNull Timeout timeout() {
+          return Timeout.NONE;
+        }
+
+        @Override
+        public void close() {}
+      });
+    }
+  }
+}
@@ -0,0 +1,391 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Files.FileColumns;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Video;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class MediaRepositoryTest {
+
+  private static final int ITEM_COUNT   = 100_000;
+  private static final int BUCKET_COUNT = 37;
+
+  private final Context         context    = ApplicationProvider.getApplicationContext();
+  private final MediaRepository repository = new MediaRepository();
+
+  private FakeMediaProvider provider;
+  private PagedMediaList    media;
+
+  @Before
+  public void setUp() {
+    provider = Robolectric.setupContentProvider(FakeMediaProvider.class, MediaStore.AUTHORITY);
+    provider.addItems(ITEM_COUNT);
+  }
+
+  @After
+  public void tearDown() {
+    if (media != null) media.close();
+  }
+
+  @Test
+  public void testFoldersAreAggregatedAPageAtATime() {
+    List<List<MediaFolder>> progress = new ArrayList<>();
+    List<MediaFolder>       folders  = repository.scanFolders(context, progress::add);
+
+    assertTrue(progress.size() >= ITEM_COUNT / MediaRepository.FOLDER_SCAN_PAGE_SIZE);
+    assertEquals(MediaRepository.FOLDER_SCAN_PAGE_SIZE, progress.get(0).get(0).getItemCount());
+    assertSame(folders, progress.get(progress.size() - 1));
+    assertTrue(provider.getMaxRowsPerQuery() <= MediaRepository.FOLDER_SCAN_PAGE_SIZE);
+
+    MediaFolder allMedia = folders.get(0);
+
+    assertEquals(Media.ALL_MEDIA_BUCKET_ID, allMedia.getBucketId());
+    assertEquals(ITEM_COUNT, allMedia.getItemCount());
+    assertEquals(FakeMediaProvider.getUri(ITEM_COUNT), allMedia.getThumbnailUri());
+    assertEquals(BUCKET_COUNT + 1, folders.size());
+
+    for (MediaFolder folder : folders.subList(1, folders.size())) {
+      int bucket = Integer.parseInt(folder.getBucketId().substring("bucket".length()));
+      int newest = ITEM_COUNT - Math.floorMod(ITEM_COUNT - bucket, BUCKET_COUNT);
+
+      assertEquals(countInBucket(bucket), folder.getItemCount());
+      assertEquals(FakeMediaProvider.getUri(newest), folder.getThumbnailUri());
+    }
+
+    for (int i = 2; i < folders.size(); i++) {
+      assertTrue(folders.get(i - 1).getTitle().compareToIgnoreCase(folders.get(i).getTitle()) <= 0);
+    }
+  }
+
+  @Test
+  public void testFoldersAreCachedUntilMediaChanges() {
+    List<MediaFolder> first   = repository.scanFolders(context, folders -> {});
+    int               queries = provider.getQueryCount();
+
+    assertSame(first, repository.scanFolders(context, folders -> {}));
+    assertEquals(queries, provider.getQueryCount());
+
+    provider.removeNewest(10);
+    context.getContentResolver().notifyChange(Uri.withAppendedPath(Images.Media.EXTERNAL_CONTENT_URI, "1"), null);
+
+    List<MediaFolder> changed = repository.scanFolders(context, folders -> {});
+
+    assertTrue(provider.getQueryCount() > queries);
+    assertEquals(ITEM_COUNT - 10, changed.get(0).getItemCount());
+  }
+
+  @Test
+  public void testOpeningABucketOnlyCountsIt() {
+    RecordingListener listener = openBucket(Media.ALL_MEDIA_BUCKET_ID);
+
+    assertEquals(ITEM_COUNT, media.size());
+    assertEquals(1, listener.changes);
+    assertEquals(0, provider.getMediaRowsRead());
+    assertNull(media.peek(0));
+  }
+
+  @Test
+  public void testItemsAreLoadedAPageAtATimeNewestFirst() {
+    RecordingListener listener = openBucket(Media.ALL_MEDIA_BUCKET_ID);
+
+    assertNull(media.get(0));
+    assertNotNull(media.peek(0));
+    assertEquals(Collections.singletonList(0), listener.loaded);
+    assertEquals(PagedMediaList.PAGE_SIZE, provider.getMediaRowsRead());
+
+    for (int position = 0; position < PagedMediaList.PAGE_SIZE; position++) {
+      assertEquals(FakeMediaProvider.getUri(ITEM_COUNT - position), media.get(position).getUri());
+    }
+
+    // Nearing the end of the page loads the next one
+    assertEquals(2 * PagedMediaList.PAGE_SIZE, provider.getMediaRowsRead());
+
+    media.get(ITEM_COUNT - 1);
+
+    Media oldest = media.peek(ITEM_COUNT - 1);
+
+    assertNotNull(oldest);
+    assertEquals(FakeMediaProvider.getUri(1), oldest.getUri());
+    assertEquals(FakeMediaProvider.getDate(1), oldest.getDate());
+    assertTrue(provider.getMediaRowsRead() <= 5 * PagedMediaList.PAGE_SIZE);
+    assertTrue(provider.getMaxRowsPerQuery() <= PagedMediaList.PAGE_SIZE);
+  }
+
+  @Test
+  public void testOnlyRecentPagesAreKept() {
+    openBucket(Media.ALL_MEDIA_BUCKET_ID);
+
+    int pages = PagedMediaList.MAX_CACHED_PAGES * 3;
+
+    for (int position = 0; position < pages * PagedMediaList.PAGE_SIZE; position++) {
+      media.get(position);
+    }
+
+    assertNull(media.peek(0));
+    assertNotNull(media.peek(pages * PagedMediaList.PAGE_SIZE - 1));
+
+    // Each page was only read once on the way through
+    assertTrue(provider.getMediaRowsRead() <= (pages + 1) * PagedMediaList.PAGE_SIZE);
+  }
+
+  @Test
+  public void testBucketsOnlyHaveTheirOwnItems() {
+    openBucket("bucket5");
+
+    assertEquals(countInBucket(5), media.size());
+
+    long lastDate = Long.MAX_VALUE;
+
+    for (int position = 0; position < media.size(); position++) {
+      media.get(position);
+
+      Media item = media.peek(position);
+
+      assertNotNull(item);
+      assertEquals(5, Integer.parseInt(item.getUri().getLastPathSegment()) % BUCKET_COUNT);
+      assertTrue(item.getDate() < lastDate);
+
+      lastDate = item.getDate();
+    }
+  }
+
+  @Test
+  public void testBucketReloadsWhenMediaChanges() {
+    RecordingListener listener = openBucket(Media.ALL_MEDIA_BUCKET_ID);
+
+    media.get(0);
+    provider.removeNewest(10);
+    context.getContentResolver().notifyChange(Uri.withAppendedPath(Video.Media.EXTERNAL_CONTENT_URI, "10"), null);
+    shadowOf(getMainLooper()).idle();
+
+    assertEquals(2, listener.changes);
+    assertEquals(ITEM_COUNT - 10, media.size());
+    assertNull(media.peek(0));
+
+    media.get(0);
+
+    assertEquals(FakeMediaProvider.getUri(ITEM_COUNT - 10), media.peek(0).getUri());
+  }
+
+  @Test
+  public void testClosedBucketsStopListening() {
+    RecordingListener listener = openBucket(Media.ALL_MEDIA_BUCKET_ID);
+
+    media.close();
+    context.getContentResolver().notifyChange(Images.Media.EXTERNAL_CONTENT_URI, null);
+    shadowOf(getMainLooper()).idle();
+
+    assertEquals(1, listener.changes);
+    assertNull(media.get(0));
+    assertEquals(0, provider.getMediaRowsRead());
+  }
+
+  private @NonNull RecordingListener openBucket(@NonNull String bucketId) {
+    RecordingListener listener = new RecordingListener();
+
+    media = new PagedMediaList(context, repository, bucketId, Runnable::run);
+    media.setListener(listener);
+    media.open();
+
+    return listener;
+  }
+
+  private static int countInBucket(int bucket) {
+    int count = 0;
+
+    for (int id = 1; id <= ITEM_COUNT; id++) {
+      if (id % BUCKET_COUNT == bucket) count++;
+    }
+
+    return count;
+  }
+
+  private static class RecordingListener implements PagedMediaList.Listener {
+
+    final List<Integer> loaded = new ArrayList<>();
+
+    int changes;
+
+    @Override
+    public void onChanged() {
+      changes++;
+    }
+
+    @Override
+    public void onItemsLoaded(int position, int count) {
+      loaded.add(position);
+    }
+  }
+
+  /**
+   * Stands in for {@link MediaStore}, with a newer item for each ID, every tenth of them a video, spread across
+   * {@link #BUCKET_COUNT} buckets.
+   */
+  public static class FakeMediaProvider extends ContentProvider {
+
+    private final List<Integer> ids = new ArrayList<>();
+
+    private int queryCount;
+    private int mediaRowsRead;
+    private int maxRowsPerQuery;
+
+    static @NonNull Uri getUri(int id) {
+      Uri contentUri = id % 10 == 0 ? Video.Media.EXTERNAL_CONTENT_URI : Images.Media.EXTERNAL_CONTENT_URI;
+      return Uri.withAppendedPath(contentUri, String.valueOf(id));
+    }
+
+    static long getDate(int id) {
+      return 1_500_000_000_000L + id * 1000L;
+    }
+
+    void addItems(int count) {
+      // Newest first, as MediaRepository sorts them
+      for (int id = count; id > 0; id--) {
+        ids.add(id);
+      }
+    }
+
+    void removeNewest(int count) {
+      ids.subList(0, count).clear();
+    }
+
+    int getQueryCount() {
+      return queryCount;
+    }
+
+    /**
+     * @return How many rows have been read with more than just their IDs.
+     */
+    int getMediaRowsRead() {
+      return mediaRowsRead;
+    }
+
+    int getMaxRowsPerQuery() {
+      return maxRowsPerQuery;
+    }
+
+    @Override
+    public boolean onCreate() {
+      return true;
+    }
+
+    @Override
+    public @Nullable Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable Bundle queryArgs, @Nullable CancellationSignal cancellationSignal) {
+      assertEquals(MediaStore.Files.getContentUri("external"), uri);
+      assertNotNull(projection);
+
+      String[] selectionArgs = queryArgs != null ? queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS) : null;
+      String   bucketId      = selectionArgs != null ? selectionArgs[0] : null;
+      int      offset        = queryArgs != null ? queryArgs.getInt(ContentResolver.QUERY_ARG_OFFSET, 0) : 0;
+      int      limit         = queryArgs != null ? queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+
+      MatrixCursor cursor  = new MatrixCursor(projection);
+      int          matched = 0;
+
+      for (int id : ids) {
+        if (bucketId != null && !bucketId.equals(getBucketId(id))) continue;
+        if (matched++ < offset) continue;
+        if (cursor.getCount() >= limit) break;
+
+        cursor.addRow(getRow(id, projection));
+      }
+
+      queryCount++;
+      maxRowsPerQuery = Math.max(maxRowsPerQuery, projection.length > 1 ? cursor.getCount() : 0);
+
+      if (projection.length > 1) {
+        mediaRowsRead += cursor.getCount();
+      }
+
+      return cursor;
+    }
+
+    @Override
+    public @Nullable Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+      Bundle queryArgs = new Bundle();
+      queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+      return query(uri, projection, queryArgs, null);
+    }
+
+    private static @NonNull String getBucketId(int id) {
+      return "bucket" + id % BUCKET_COUNT;
+    }
+
+    private static @NonNull Object[] getRow(int id, @NonNull String[] projection) {
+      Map<String, Object> values = new HashMap<>();
+      values.put(FileColumns._ID, id);
+      values.put(FileColumns.MEDIA_TYPE, id % 10 == 0 ? FileColumns.MEDIA_TYPE_VIDEO : FileColumns.MEDIA_TYPE_IMAGE);
+      values.put(FileColumns.MIME_TYPE, id % 10 == 0 ? "video/mp4" : "image/jpeg");
+      values.put(Images.Media.BUCKET_ID, getBucketId(id));
+      values.put(Images.Media.BUCKET_DISPLAY_NAME, "Folder " + id % BUCKET_COUNT);
+      values.put(Images.Media.DATE_TAKEN, getDate(id));
+      values.put(Images.Media.ORIENTATION, 0);
+      values.put(FileColumns.WIDTH, 1920);
+      values.put(FileColumns.HEIGHT, 1080);
+      values.put(FileColumns.SIZE, 1_000_000);
+
+      Object[] row = new Object[projection.length];
+
+      for (int i = 0; i < projection.length; i++) {
+        row[i] = values.get(projection[i]);
+      }
+
+      return row;
+    }
+
+    @Override
+    public @Nullable String getType(@NonNull Uri uri) {
+      return null;
+    }
+
+    @Override
+    public @Nullable Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
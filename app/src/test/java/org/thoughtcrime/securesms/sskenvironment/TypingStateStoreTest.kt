@@ -0,0 +1,143 @@
+package org.thoughtcrime.securesms.sskenvironment
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.session.libsession.utilities.Address
+import org.thoughtcrime.securesms.sskenvironment.TypingStateStore.Typist
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TypingStateStoreTest {
+
+    private val store = TypingStateStore()
+    private val alice = Typist(Address.fromSerialized("05alice"), 1)
+    private val bob = Typist(Address.fromSerialized("05bob"), 1)
+
+    @Test
+    fun `typists are kept in the order they started`() {
+        store.start(1, alice)
+        store.start(1, bob)
+        store.start(1, alice)
+
+        assertEquals(listOf(alice, bob), store.getTypists(1).value.typists)
+        assertEquals(setOf(1L), store.activeThreads.value)
+    }
+
+    @Test
+    fun `typing again doesn't change the state`() {
+        store.start(1, alice)
+        val state = store.getTypists(1).value
+
+        store.start(1, alice)
+
+        assertTrue(state === store.getTypists(1).value)
+    }
+
+    @Test
+    fun `threads stay active until their last typist stops`() {
+        store.start(1, alice)
+        store.start(1, bob)
+        store.start(2, bob)
+
+        store.stop(1, alice, false)
+        assertEquals(setOf(1L, 2L), store.activeThreads.value)
+
+        store.stop(1, bob, true)
+        assertEquals(setOf(2L), store.activeThreads.value)
+        assertTrue(store.getTypists(1).value.replacedByIncomingMessage)
+    }
+
+    @Test
+    fun `expiring only stops typists who haven't started again`() {
+        val first = store.start(1, alice)
+        val second = store.start(1, alice)
+
+        store.expire(1, alice, first)
+        assertEquals(listOf(alice), store.getTypists(1).value.typists)
+
+        store.expire(1, alice, second)
+        assertTrue(store.getTypists(1).value.typists.isEmpty())
+        assertTrue(store.activeThreads.value.isEmpty())
+    }
+
+    @Test
+    fun `stopping someone who isn't typing does nothing`() {
+        store.stop(1, alice, true)
+
+        assertFalse(store.getTypists(1).value.replacedByIncomingMessage)
+        assertTrue(store.activeThreads.value.isEmpty())
+    }
+
+    @Test
+    fun `clearing stops everyone`() {
+        store.start(1, alice)
+        store.start(2, bob)
+
+        store.clear()
+
+        assertTrue(store.getTypists(1).value.typists.isEmpty())
+        assertTrue(store.getTypists(2).value.typists.isEmpty())
+        assertTrue(store.activeThreads.value.isEmpty())
+    }
+
+    @Test(timeout = 30_000)
+    fun `concurrent typing leaves the active threads matching the typists`() {
+        val executor = Executors.newFixedThreadPool(8)
+        val done = CountDownLatch(8)
+        val typists = (0 until 20).map { Typist(Address.fromSerialized("05typist$it"), 1) }
+
+        repeat(8) { worker ->
+            executor.execute {
+                try {
+                    repeat(20_000) { i ->
+                        val threadId = (i % 5).toLong()
+                        val typist = typists[(i * 7 + worker) % typists.size]
+
+                        if ((i + worker) % 3 == 0) store.stop(threadId, typist, false)
+                        else store.start(threadId, typist)
+                    }
+                } finally {
+                    done.countDown()
+                }
+            }
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS))
+        executor.shutdown()
+
+        val expected = (0L until 5L).filter { store.getTypists(it).value.typists.isNotEmpty() }.toSet()
+        assertEquals(expected, store.activeThreads.value)
+    }
+
+    @Test(timeout = 30_000)
+    fun `threads that everyone stopped typing in concurrently should not stay active`() {
+        val executor = Executors.newFixedThreadPool(8)
+        val done = CountDownLatch(8)
+
+        // Each thread keeps going between one typist and none, which is when the active threads change
+        repeat(8) { worker ->
+            executor.execute {
+                try {
+                    val typist = Typist(Address.fromSerialized("05typist$worker"), 1)
+                    repeat(20_000) { i ->
+                        val threadId = (i % 2).toLong()
+                        store.start(threadId, typist)
+                        store.stop(threadId, typist, false)
+                    }
+                } finally {
+                    done.countDown()
+                }
+            }
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS))
+        executor.shutdown()
+
+        assertTrue(store.getTypists(0).value.typists.isEmpty())
+        assertTrue(store.getTypists(1).value.typists.isEmpty())
+        assertEquals(emptySet<Long>(), store.activeThreads.value)
+    }
+}
@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapCompressorTest {
+
+  /** Pretends every quality point costs 1000 bytes. */
+  private static BitmapCompressor.QualityEncoder linearEncoder(int maxSize, List<Integer> tried) {
+    return quality -> {
+      tried.add(quality);
+      return quality * 1000 <= maxSize;
+    };
+  }
+
+  @Test public void testAcceptsPredictedMaxQualityInOneAttempt() {
+    List<Integer> tried = new ArrayList<>();
+
+    BitmapCompressor.Search search = BitmapCompressor.searchQuality(BitmapCompressor.MAX_QUALITY, linearEncoder(1_000_000, tried));
+
+    assertEquals(BitmapCompressor.MAX_QUALITY, search.quality);
+    assertEquals(1, search.attempts);
+  }
+
+  @Test public void testFindsQualityWithinTolerance() {
+    for (int target = BitmapCompressor.MIN_QUALITY; target <= BitmapCompressor.MAX_QUALITY; target++) {
+      for (int predicted = BitmapCompressor.MIN_QUALITY; predicted <= BitmapCompressor.MAX_QUALITY; predicted += 10) {
+        List<Integer>           tried  = new ArrayList<>();
+        BitmapCompressor.Search search = BitmapCompressor.searchQuality(predicted, linearEncoder(target * 1000, tried));
+
+        assertTrue(search.quality <= target);
+        assertTrue(target - search.quality < BitmapCompressor.QUALITY_TOLERANCE);
+        assertEquals(tried.size(), search.attempts);
+        assertTrue(search.attempts <= 7);
+      }
+    }
+  }
+
+  @Test public void testGivesUpWhenLowestQualityDoesNotFit() {
+    List<Integer> tried = new ArrayList<>();
+
+    BitmapCompressor.Search search = BitmapCompressor.searchQuality(70, linearEncoder(1000, tried));
+
+    assertEquals(-1, search.quality);
+    assertTrue(tried.contains(BitmapCompressor.MIN_QUALITY));
+  }
+
+  @Test public void testPredictQualityIsClamped() {
+    assertEquals(BitmapCompressor.MAX_QUALITY, BitmapCompressor.predictQuality(100, 1000));
+    assertEquals(BitmapCompressor.MIN_QUALITY, BitmapCompressor.predictQuality(1_000_000, 1000));
+    assertEquals(BitmapCompressor.MAX_QUALITY / 2, BitmapCompressor.predictQuality(4000, 1000));
+  }
+}
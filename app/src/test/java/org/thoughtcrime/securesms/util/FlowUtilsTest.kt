@@ -49,4 +49,24 @@ class FlowUtilsTest {
         assertEquals(listOf(1, 2, 3), result[0])
         assertEquals(listOf(4), result[1])
     }
-}
\ No newline at end of file
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun `throttleLatest should emit the first and latest items of a burst`() = runTest {
+        // Given
+        val flow = flow {
+            emit(1)
+            testScheduler.advanceTimeBy(10L)
+            emit(2)
+            emit(3)
+            testScheduler.advanceTimeBy(200L)
+            emit(4)
+        }
+
+        // When
+        val result = flow.throttleLatest(100L).toList()
+
+        // Then
+        assertEquals(listOf(1, 3, 4), result)
+    }
+}
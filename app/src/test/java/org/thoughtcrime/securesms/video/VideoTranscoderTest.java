@@ -0,0 +1,292 @@
+package org.thoughtcrime.securesms.video;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thoughtcrime.securesms.video.VideoTranscoder.Metadata;
+import org.thoughtcrime.securesms.video.VideoTranscoder.Target;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VideoTranscoderTest {
+
+  private static final long MAX_SIZE = 10_000_000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ExecutorService executor   = Executors.newSingleThreadExecutor();
+  private final VideoTranscoder transcoder = new VideoTranscoder(executor);
+  private final AtomicInteger   running    = new AtomicInteger();
+  private final AtomicInteger   maxRunning = new AtomicInteger();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 10_000)
+  public void testSmallVideosAreSentAsTheyAre() throws Exception {
+    // 10 seconds of 1080p at 2.4Mbps
+    FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, 10_000, 3_000_000, true));
+
+    assertNull(transcoder.transcode(encoder, folder.newFile(), MAX_SIZE, null).await());
+    assertTrue(encoder.targets.isEmpty());
+  }
+
+  @Test(timeout = 10_000)
+  public void testHighResolutionVideosAreScaledDownEvenWhenTheyFit() throws Exception {
+    // 10 seconds of portrait 4K, which fits but is more than recipients need
+    FakeEncoder encoder = new FakeEncoder(new Metadata(2160, 3840, 10_000, 9_000_000, true));
+    File        output  = folder.newFile();
+
+    Target target = transcoder.transcode(encoder, output, MAX_SIZE, null).await();
+
+    assertNotNull(target);
+    assertEquals(1080, target.getWidth());
+    assertEquals(1920, target.getHeight());
+    assertTrue(target.getVideoBitrate() <= 5_000_000);
+    assertTrue(output.length() <= VideoTranscoder.getMaxOutputSize(MAX_SIZE));
+  }
+
+  @Test(timeout = 10_000)
+  public void testVideosThatAreTooBigAreShrunkToFit() throws Exception {
+    // 1080p at camera bitrates, for between 30 seconds and 3 minutes
+    for (long durationMs : new long[] { 30_000, 60_000, 90_000, 180_000 }) {
+      FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, durationMs, durationMs * 2_000, true));
+      File        output  = folder.newFile();
+
+      Target target = transcoder.transcode(encoder, output, MAX_SIZE, null).await();
+
+      assertNotNull(target);
+      assertEquals(1, encoder.targets.size());
+      assertTrue(target.getVideoBitrate() >= VideoTranscoder.MIN_VIDEO_BITRATE);
+      assertTrue(output.length() <= VideoTranscoder.getMaxOutputSize(MAX_SIZE));
+      assertEquals((double) 1920 / 1080, (double) target.getWidth() / target.getHeight(), 0.01);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testLongerVideosGetLowerResolutions() throws Exception {
+    int lastHeight = Integer.MAX_VALUE;
+
+    for (long durationMs : new long[] { 15_000, 30_000, 60_000, 120_000, 180_000 }) {
+      Target target = VideoTranscoder.plan(new Metadata(1920, 1080, durationMs, durationMs * 2_000, true), MAX_SIZE);
+
+      assertNotNull(target);
+      assertTrue(target.getHeight() <= lastHeight);
+      lastHeight = target.getHeight();
+    }
+
+    assertEquals(240, lastHeight);
+  }
+
+  @Test(timeout = 10_000)
+  public void testVideosTooLongToFitAreRejectedWithoutEncoding() throws Exception {
+    FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, 600_000, 1_200_000_000, true));
+
+    try {
+      transcoder.transcode(encoder, folder.newFile(), MAX_SIZE, null).await();
+      fail();
+    } catch (VideoTranscoder.TooLargeException e) {
+      assertTrue(encoder.targets.isEmpty());
+    }
+
+    assertTrue(VideoTranscoder.canFit(180_000, MAX_SIZE));
+    assertFalse(VideoTranscoder.canFit(600_000, MAX_SIZE));
+    assertFalse(VideoTranscoder.canFit(0, MAX_SIZE));
+  }
+
+  @Test(timeout = 10_000)
+  public void testOvershootingTheLimitRetriesAtALowerBitrate() throws Exception {
+    FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true), 2.0, 1.0);
+    File        output  = folder.newFile();
+
+    Target target = transcoder.transcode(encoder, output, MAX_SIZE, null).await();
+
+    assertEquals(2, encoder.targets.size());
+    assertTrue(encoder.targets.get(1).getVideoBitrate() < encoder.targets.get(0).getVideoBitrate());
+    assertEquals(encoder.targets.get(1).getVideoBitrate(), target.getVideoBitrate());
+    assertTrue(output.length() <= VideoTranscoder.getMaxOutputSize(MAX_SIZE));
+  }
+
+  @Test(timeout = 10_000)
+  public void testGivesUpIfTheEncoderKeepsOvershooting() throws Exception {
+    FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, 30_000, 60_000_000, true), 10.0);
+    File        output  = folder.newFile();
+
+    try {
+      transcoder.transcode(encoder, output, MAX_SIZE, null).await();
+      fail();
+    } catch (VideoTranscoder.TooLargeException e) {
+      assertTrue(encoder.targets.size() > 1);
+      assertTrue(encoder.targets.size() <= VideoTranscoder.MAX_ATTEMPTS);
+      assertFalse(output.exists());
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testVideosAreTranscodedOneAtATimeInOrder() throws Exception {
+    List<Integer>             order = Collections.synchronizedList(new ArrayList<>());
+    List<VideoTranscoder.Job> jobs  = new ArrayList<>();
+
+    for (int i = 0; i < 4; i++) {
+      int         index   = i;
+      FakeEncoder encoder = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true)) {
+        @Override
+        public void encode(@NonNull Target target, @NonNull File output, @NonNull Progress progress) throws IOException {
+          order.add(index);
+          super.encode(target, output, progress);
+        }
+      };
+
+      jobs.add(transcoder.transcode(encoder, folder.newFile(), MAX_SIZE, null));
+    }
+
+    for (VideoTranscoder.Job job : jobs) {
+      assertNotNull(job.await());
+    }
+
+    assertEquals(1, maxRunning.get());
+    assertEquals(Arrays.asList(0, 1, 2, 3), order);
+  }
+
+  @Test(timeout = 10_000)
+  public void testCancellingAQueuedJobMeansItNeverStarts() throws Exception {
+    CountDownLatch gate   = new CountDownLatch(1);
+    FakeEncoder    first  = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true)).blockUntil(gate);
+    FakeEncoder    second = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true));
+
+    VideoTranscoder.Job firstJob  = transcoder.transcode(first, folder.newFile(), MAX_SIZE, null);
+    VideoTranscoder.Job secondJob = transcoder.transcode(second, folder.newFile(), MAX_SIZE, null);
+
+    secondJob.cancel();
+    gate.countDown();
+
+    assertNotNull(firstJob.await());
+
+    try {
+      secondJob.await();
+      fail();
+    } catch (CancellationException e) {
+      assertEquals(0, second.metadataReads.get());
+      assertTrue(second.targets.isEmpty());
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testCancellingARunningJobStopsTheEncoder() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    FakeEncoder    encoder = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true)).blockUntil(new CountDownLatch(1));
+    File           output  = folder.newFile();
+
+    VideoTranscoder.Job job = transcoder.transcode(encoder, output, MAX_SIZE, (j, fraction) -> started.countDown());
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    job.cancel();
+
+    try {
+      job.await();
+      fail();
+    } catch (CancellationException e) {
+      assertFalse(output.exists());
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testProgressIsReportedUpToTheEnd() throws Exception {
+    List<Float> fractions = Collections.synchronizedList(new ArrayList<>());
+    FakeEncoder encoder   = new FakeEncoder(new Metadata(1920, 1080, 60_000, 120_000_000, true));
+
+    transcoder.transcode(encoder, folder.newFile(), MAX_SIZE, (job, fraction) -> fractions.add(fraction)).await();
+
+    assertFalse(fractions.isEmpty());
+    for (int i = 1; i < fractions.size(); i++) {
+      assertTrue(fractions.get(i) >= fractions.get(i - 1));
+    }
+    assertEquals(1f, fractions.get(fractions.size() - 1), 0);
+  }
+
+  /**
+   * Stands in for a device's codecs, writing a file the size that an encoder with the given bitrate would, times how
+   * far it overshoots on each attempt.
+   */
+  private class FakeEncoder implements VideoEncoder {
+
+    private static final int STEPS = 10;
+
+    final List<Target>  targets       = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger metadataReads = new AtomicInteger();
+
+    private final Metadata       source;
+    private final double[]       overshoots;
+    private       CountDownLatch gate;
+
+    FakeEncoder(@NonNull Metadata source, double... overshoots) {
+      this.source     = source;
+      this.overshoots = overshoots.length > 0 ? overshoots : new double[] { 1.0 };
+    }
+
+    @NonNull FakeEncoder blockUntil(@NonNull CountDownLatch gate) {
+      this.gate = gate;
+      return this;
+    }
+
+    @Override
+    public @NonNull Metadata getSourceMetadata() {
+      metadataReads.incrementAndGet();
+      return source;
+    }
+
+    @Override
+    public void encode(@NonNull Target target, @NonNull File output, @NonNull Progress progress) throws IOException {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+      try {
+        double overshoot = overshoots[Math.min(targets.size(), overshoots.length - 1)];
+        long   length    = (long) ((target.getVideoBitrate() + target.getAudioBitrate()) * overshoot * source.getDurationMs() / 8000);
+
+        targets.add(target);
+
+        for (int step = 1; step <= STEPS; step++) {
+          progress.onProgress((float) step / STEPS);
+
+          while (gate != null && !gate.await(10, TimeUnit.MILLISECONDS)) {
+            if (progress.isCancelled()) throw new CancellationException();
+          }
+
+          if (progress.isCancelled()) throw new CancellationException();
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+          file.setLength(length);
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package org.session.libsession.avatars
+
+import android.content.Context
+import org.session.libsession.utilities.DownloadUtilities
+import org.session.libsignal.streams.ProfileCipherInputStream
+import org.session.libsignal.utilities.Hex
+import org.session.libsignal.utilities.Log
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.Semaphore
+
+/**
+ * Downloads and decrypts profile avatars into an on-disk cache keyed by the avatar URL and profile key.
+ *
+ * A burst of messages from the same sender queues an avatar job per message; concurrent requests for the same
+ * avatar share a single download, and once it is cached an unchanged avatar is never fetched again. Only a few
+ * downloads run at once so they don't starve attachment downloads.
+ */
+object ProfileAvatarCache {
+
+    private const val TAG = "ProfileAvatarCache"
+    private const val DIRECTORY = "profile_avatars"
+    private const val MAX_CONCURRENT_DOWNLOADS = 2
+    private const val MAX_ATTEMPTS = 2
+    private const val MAX_CACHE_SIZE = 32L * 1024 * 1024
+
+    private val inFlight = ConcurrentHashMap<String, FutureTask<File>>()
+    private val downloadPermits = Semaphore(MAX_CONCURRENT_DOWNLOADS)
+
+    /**
+     * The decrypted avatar, downloading it first if it isn't cached. Blocks the calling thread.
+     */
+    @JvmStatic
+    @Throws(Exception::class)
+    fun get(context: Context, url: String, profileKey: ByteArray): File {
+        val key = cacheKey(url, profileKey)
+        val cached = File(getDirectory(context), key)
+        if (cached.exists()) {
+            cached.setLastModified(System.currentTimeMillis())
+            return cached
+        }
+
+        val task = FutureTask { download(url, profileKey, cached) }
+        val existing = inFlight.putIfAbsent(key, task)
+        if (existing != null) {
+            Log.d(TAG, "Waiting for in-flight download of $key.")
+            return await(existing)
+        }
+
+        try {
+            task.run()
+        } finally {
+            inFlight.remove(key, task)
+        }
+        return await(task)
+    }
+
+    private fun download(url: String, profileKey: ByteArray, destination: File): File {
+        // A download for the same key may have finished between the cache check and claiming the key
+        if (destination.exists()) return destination
+
+        downloadPermits.acquire()
+        try {
+            val encrypted = downloadWithRetry(url)
+            // Written outside of the cache directory so a concurrent trim can't see it half written
+            val temp = File.createTempFile("avatar", ".tmp", destination.parentFile!!.parentFile)
+            try {
+                ProfileCipherInputStream(ByteArrayInputStream(encrypted), profileKey).use { input ->
+                    FileOutputStream(temp).use { input.copyTo(it) }
+                }
+                if (!temp.renameTo(destination)) throw IOException("Couldn't move avatar into the cache.")
+            } finally {
+                temp.delete()
+            }
+        } finally {
+            downloadPermits.release()
+        }
+
+        trim(destination.parentFile!!, destination)
+        return destination
+    }
+
+    private fun downloadWithRetry(url: String): ByteArray {
+        var attempt = 1
+        while (true) {
+            try {
+                return DownloadUtilities.download(url)
+            } catch (e: Exception) {
+                if (attempt++ >= MAX_ATTEMPTS) throw e
+            }
+        }
+    }
+
+    private fun await(task: FutureTask<File>): File = try {
+        task.get()
+    } catch (e: ExecutionException) {
+        throw e.cause as? Exception ?: e
+    }
+
+    /**
+     * Evicts the least recently used avatars once the cache grows past [MAX_CACHE_SIZE].
+     */
+    private fun trim(directory: File, keep: File) {
+        val files = directory.listFiles()?.sortedBy { it.lastModified() } ?: return
+        var size = files.sumOf { it.length() }
+        for (file in files) {
+            if (size <= MAX_CACHE_SIZE) break
+            if (file == keep || inFlight.containsKey(file.name)) continue
+            size -= file.length()
+            file.delete()
+        }
+    }
+
+    private fun getDirectory(context: Context): File =
+        File(context.cacheDir, DIRECTORY).apply { mkdirs() }
+
+    private fun cacheKey(url: String, profileKey: ByteArray): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(url.toByteArray())
+        digest.update(0.toByte())
+        digest.update(profileKey)
+        return Hex.toStringCondensed(digest.digest())
+    }
+}
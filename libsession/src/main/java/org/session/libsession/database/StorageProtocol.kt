@@ -18,6 +18,7 @@ import org.session.libsession.messaging.messages.visible.Attachment
 import org.session.libsession.messaging.messages.visible.Profile
 import org.session.libsession.messaging.messages.visible.Reaction
 import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsession.messaging.open_groups.CommunityMember
 import org.session.libsession.messaging.open_groups.GroupMember
 import org.session.libsession.messaging.open_groups.OpenGroup
 import org.session.libsession.messaging.open_groups.OpenGroupApi
@@ -82,6 +83,7 @@ interface StorageProtocol {
     fun setOpenGroupServerMessageID(messageID: Long, serverID: Long, threadID: Long, isSms: Boolean)
     fun getOpenGroup(room: String, server: String): OpenGroup?
     fun setGroupMemberRoles(members: List<GroupMember>)
+    fun updateCommunityMembers(threadId: Long, members: Collection<CommunityMember>)
 
     // Open Group Public Keys
     fun getOpenGroupPublicKey(server: String): String?
@@ -225,6 +227,11 @@ interface StorageProtocol {
     fun removeReaction(emoji: String, messageTimestamp: Long, author: String, notifyUnread: Boolean)
     fun updateReactionIfNeeded(message: Message, sender: String, openGroupSentTimestamp: Long)
     fun deleteReactions(messageId: Long, mms: Boolean)
+    /**
+     * Replaces the reactions of each message, keyed by its ID and whether it's an MMS, writing only the
+     * reactions that changed.
+     */
+    fun setReactions(reactions: Map<Pair<Long, Boolean>, List<Reaction>>)
     fun setBlocked(recipients: Iterable<Recipient>, isBlocked: Boolean, fromConfigUpdate: Boolean = false)
     fun setRecipientHash(recipient: Recipient, recipientHash: String?)
     fun blockedContacts(): List<Recipient>
@@ -11,9 +11,8 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment
 import org.session.libsession.messaging.utilities.Data
 import org.session.libsession.snode.OnionRequestAPI
-import org.session.libsession.utilities.DecodedAudio
+import org.session.libsession.utilities.AudioExtrasProcessor
 import org.session.libsession.utilities.DownloadUtilities
-import org.session.libsession.utilities.InputStreamMediaDataSource
 import org.session.libsignal.streams.AttachmentCipherInputStream
 import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.Log
@@ -154,19 +153,8 @@ class AttachmentDownloadJob(val attachmentID: Long, val databaseMessageID: Long)
             Log.d("AttachmentDownloadJob", "inserting attachment")
             messageDataProvider.insertAttachment(databaseMessageID, attachment.attachmentId, inputStream)
             if (attachment.contentType.startsWith("audio/")) {
-                // process the duration
-                    try {
-                        InputStreamMediaDataSource(getInputStream(tempFile, attachment)).use { mediaDataSource ->
-                            val durationMs = (DecodedAudio.create(mediaDataSource).totalDuration / 1000.0).toLong()
-                            messageDataProvider.updateAudioAttachmentDuration(
-                                attachment.attachmentId,
-                                durationMs,
-                                threadID
-                            )
-                        }
-                    } catch (e: Exception) {
-                        Log.e("Loki", "Couldn't process audio attachment", e)
-                    }
+                // process the duration and waveform
+                AudioExtrasProcessor.process(attachment.attachmentId, threadID)
             }
             Log.d("AttachmentDownloadJob", "deleting tempfile")
             tempFile.delete()
@@ -54,6 +54,18 @@ class BatchMessageReceiveJob(
     override val maxFailureCount: Int = 1 // handled in JobQueue onJobFailed
     // Failure Exceptions must be retryable if they're a  MessageReceiver.Error
     val failures = mutableListOf<MessageReceiveParameters>()
+    // Messages that were already parsed before the job was created, so they aren't decrypted again. Only kept in
+    // memory; a job that's resumed from the database parses its messages as usual.
+    internal var parsedMessages = emptyMap<MessageReceiveParameters, ParsedMessage>()
+        private set
+
+    /**
+     * Creates a job that reuses [parsedMessages] rather than parsing those of [messages] again. They're still
+     * checked for being duplicates when the job runs.
+     */
+    internal constructor(messages: List<MessageReceiveParameters>, parsedMessages: List<ParsedMessage>) : this(messages) {
+        this.parsedMessages = parsedMessages.associateBy(ParsedMessage::parameters)
+    }
 
     companion object {
         const val TAG = "BatchMessageReceiveJob"
@@ -109,7 +121,10 @@ class BatchMessageReceiveJob(
             messages.forEach { messageParameters ->
                 val (data, serverHash, openGroupMessageServerID) = messageParameters
                 try {
-                    val (message, proto) = MessageReceiver.parse(data, openGroupMessageServerID, openGroupPublicKey = serverPublicKey, currentClosedGroups = currentClosedGroups)
+                    val (message, proto) = parsedMessages[messageParameters]
+                        ?.also { MessageReceiver.recordReceived(it.message, it.message.sentTimestamp!!) }
+                        ?.let { it.message to it.proto }
+                        ?: MessageReceiver.parse(data, openGroupMessageServerID, openGroupPublicKey = serverPublicKey, currentClosedGroups = currentClosedGroups)
                     message.serverHash = serverHash
                     val parsedParams = ParsedMessage(messageParameters, message, proto)
                     val threadID = Message.getThreadId(message, openGroupID, storage, shouldCreateThread(parsedParams)) ?: NO_THREAD_MAPPING
@@ -146,6 +161,7 @@ class BatchMessageReceiveJob(
                 fun processMessages(threadId: Long, messages: List<ParsedMessage>) = async {
                     // The LinkedHashMap should preserve insertion order
                     val messageIds = linkedMapOf<Long, Pair<Boolean, Boolean>>()
+                    val reactions = mutableMapOf<Long, Map<String, OpenGroupApi.Reaction>?>()
                     val myLastSeen = storage.getLastSeen(threadId)
                     var newLastSeen = myLastSeen.takeUnless { it == -1L } ?: 0
                     messages.forEach { (parameters, message, proto) ->
@@ -179,11 +195,7 @@ class BatchMessageReceiveJob(
                                         )
                                     }
                                     parameters.openGroupMessageServerID?.let {
-                                        MessageReceiver.handleOpenGroupReactions(
-                                            threadId,
-                                            it,
-                                            parameters.reactions
-                                        )
+                                        reactions[it] = parameters.reactions
                                     }
                                 }
 
@@ -209,6 +221,11 @@ class BatchMessageReceiveJob(
                             }
                         }
                     }
+                    try {
+                        MessageReceiver.handleOpenGroupReactions(threadId, reactions)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Couldn't process reactions (id: $id)", e)
+                    }
                     // increment unreads, notify, and update thread
                     // last seen will be the current last seen if not changed (re-computes the read counts for thread record)
                     // might have been updated from a different thread at this point
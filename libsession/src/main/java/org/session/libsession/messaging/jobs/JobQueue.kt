@@ -31,6 +31,7 @@ class JobQueue : JobDelegate {
     private val scope = CoroutineScope(Dispatchers.Default) + SupervisorJob()
     private val queue = Channel<Job>(UNLIMITED)
     private val pendingJobIds = mutableSetOf<String>()
+    private val ephemeralJobs = mutableMapOf<String, EphemeralJob>()
 
     private val openGroupChannels = mutableMapOf<String, Channel<Job>>()
 
@@ -168,15 +169,60 @@ class JobQueue : JobDelegate {
         queue.trySend(job) // offer always called on unlimited capacity
     }
 
+    /**
+     * Runs a job without persisting it first, for work that can be recovered some other way if the process dies
+     * before it finishes (e.g. received messages, which can be fetched again until the poll cursor moves).
+     *
+     * The job is only written to the database if it fails and needs a retry, or if [persistEphemeralJobs] is
+     * called while it is still running. [onDone] is called once the job has either finished or been persisted,
+     * which is the point at which whatever it was fetched from no longer needs to be kept around. It's passed
+     * false if the job failed permanently without handing its work to a persisted job, in which case whatever it
+     * was fetched from has to be kept so that it can be fetched again.
+     */
+    fun addEphemeral(job: Job, onDone: (handled: Boolean) -> Unit = {}) {
+        job.id = nextJobId()
+        synchronized(ephemeralJobs) { ephemeralJobs[job.id!!] = EphemeralJob(job, onDone) }
+        queue.trySend(job) // offer always called on unlimited capacity
+    }
+
+    /**
+     * Persists every ephemeral job that is still running, e.g. because the process might be killed soon.
+     */
+    fun persistEphemeralJobs() {
+        val storage = MessagingModuleConfiguration.shared.storage
+        val persisted = synchronized(ephemeralJobs) {
+            ephemeralJobs.values.toList().also { jobs ->
+                ephemeralJobs.clear()
+                jobs.forEach { storage.persistJob(it.job) }
+            }
+        }
+        if (persisted.isNotEmpty()) {
+            Log.i("Loki", "Persisted ${persisted.size} in-flight ephemeral job(s).")
+        }
+        persisted.forEach { it.onDone(true) }
+    }
+
     private fun addWithoutExecuting(job: Job) {
+        job.id = nextJobId()
+        MessagingModuleConfiguration.shared.storage.persistJob(job)
+    }
+
+    private fun nextJobId(): String {
         // When adding multiple jobs in rapid succession, timestamps might not be good enough as a unique ID. To
         // deal with this we keep track of the number of jobs with a given timestamp and add that to the end of the
         // timestamp to make it a unique ID. We can't use a random number because we do still want to keep track
         // of the order in which the jobs were added.
         val currentTime = System.currentTimeMillis()
         jobTimestampMap.putIfAbsent(currentTime, AtomicInteger())
-        job.id = currentTime.toString() + jobTimestampMap[currentTime]!!.getAndIncrement().toString()
-        MessagingModuleConfiguration.shared.storage.persistJob(job)
+        return currentTime.toString() + jobTimestampMap[currentTime]!!.getAndIncrement().toString()
+    }
+
+    /**
+     * Claims the job if it is still ephemeral, i.e. has never been written to the database.
+     */
+    private fun takeEphemeral(job: Job): EphemeralJob? {
+        val jobId = job.id ?: return null
+        return synchronized(ephemeralJobs) { ephemeralJobs.remove(jobId) }
     }
 
     fun resumePendingSendMessage(job: Job) {
@@ -227,6 +273,7 @@ class JobQueue : JobDelegate {
             OpenGroupDeleteJob.KEY,
             RetrieveProfileAvatarJob.KEY,
             ConfigurationSyncJob.KEY,
+            TrimThreadJob.KEY,
         )
         allJobTypes.forEach { type ->
             resumePendingJobs(type)
@@ -235,29 +282,52 @@ class JobQueue : JobDelegate {
 
     override fun handleJobSucceeded(job: Job, dispatcherName: String) {
         val jobId = job.id ?: return
+        takeEphemeral(job)?.let {
+            // Never written, so there's nothing to delete
+            it.onDone(true)
+            return
+        }
         MessagingModuleConfiguration.shared.storage.markJobAsSucceeded(jobId)
         pendingJobIds.remove(jobId)
     }
 
     override fun handleJobFailed(job: Job, dispatcherName: String, error: Exception) {
+        // An ephemeral job has no row yet, so it can't have been canceled by deleting it. It gets written below
+        // if it's going to be retried.
+        val ephemeral = takeEphemeral(job)
+        var handled = false
+        try {
+            handled = handleJobFailed(job, dispatcherName, error, ephemeral != null)
+        } finally {
+            ephemeral?.onDone?.invoke(handled)
+        }
+    }
+
+    /**
+     * @return Whether the job's work was persisted, either as the job itself or as a replacement for it.
+     */
+    private fun handleJobFailed(job: Job, dispatcherName: String, error: Exception, isEphemeral: Boolean): Boolean {
         // Canceled
         val storage = MessagingModuleConfiguration.shared.storage
-        if (storage.isJobCanceled(job)) {
-            return Log.i("Loki", "${job::class.simpleName} canceled (id: ${job.id}).")
+        if (!isEphemeral && storage.isJobCanceled(job)) {
+            Log.i("Loki", "${job::class.simpleName} canceled (id: ${job.id}).")
+            return false
         }
         // Message send jobs waiting for the attachment to upload
         if (job is MessageSendJob && error is MessageSendJob.AwaitingAttachmentUploadException) {
             Log.i("Loki", "Message send job waiting for attachment upload to finish (id: ${job.id}).")
-            return
+            return true
         }
 
         // Batch message receive job, re-queue non-permanently failed jobs
+        var isReplaced = false
         if (job is BatchMessageReceiveJob && job.failureCount <= 0) {
             val replacementParameters = job.failures.toList()
             if (replacementParameters.isNotEmpty()) {
                 val newJob = BatchMessageReceiveJob(replacementParameters, job.openGroupID)
                 newJob.failureCount = job.failureCount + 1
                 add(newJob)
+                isReplaced = true
             }
         }
 
@@ -265,7 +335,12 @@ class JobQueue : JobDelegate {
         job.failureCount += 1
 
         if (job.failureCount >= job.maxFailureCount) {
-            handleJobFailedPermanently(job, dispatcherName, error)
+            if (isEphemeral) {
+                Log.d(dispatcherName, "permanentlyFailedJob: ${job::class.simpleName} (id: ${job.id})")
+            } else {
+                handleJobFailedPermanently(job, dispatcherName, error)
+            }
+            return isReplaced
         } else {
             storage.persistJob(job)
             val retryInterval = getRetryInterval(job)
@@ -274,6 +349,7 @@ class JobQueue : JobDelegate {
                 Log.i("Loki", "Retrying ${job::class.simpleName} (id: ${job.id}).")
                 queue.trySend(job)
             }
+            return true
         }
     }
 
@@ -302,4 +378,6 @@ class JobQueue : JobDelegate {
 
     private fun Job.isSend() = this is MessageSendJob || this is AttachmentUploadJob
 
+    private class EphemeralJob(val job: Job, val onDone: (handled: Boolean) -> Unit)
+
 }
\ No newline at end of file
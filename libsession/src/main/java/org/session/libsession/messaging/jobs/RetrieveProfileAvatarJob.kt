@@ -1,22 +1,17 @@
 package org.session.libsession.messaging.jobs
 
 import org.session.libsession.avatars.AvatarHelper
+import org.session.libsession.avatars.ProfileAvatarCache
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.utilities.Data
 import org.session.libsession.utilities.Address
-import org.session.libsession.utilities.DownloadUtilities.downloadFile
 import org.session.libsession.utilities.TextSecurePreferences.Companion.setProfileAvatarId
 import org.session.libsession.utilities.TextSecurePreferences.Companion.setProfilePictureURL
-import org.session.libsession.utilities.Util.copy
 import org.session.libsession.utilities.Util.equals
 import org.session.libsession.utilities.recipients.Recipient
-import org.session.libsignal.streams.ProfileCipherInputStream
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.Util.SECURE_RANDOM
 import java.io.File
-import java.io.FileInputStream
-import java.io.FileOutputStream
-import java.io.InputStream
 import java.util.concurrent.ConcurrentSkipListSet
 
 class RetrieveProfileAvatarJob(private val profileAvatar: String?, val recipientAddress: Address): Job {
@@ -73,14 +68,12 @@ class RetrieveProfileAvatarJob(private val profileAvatar: String?, val recipient
             return
         }
 
-        val downloadDestination = File.createTempFile("avatar", ".jpg", context.cacheDir)
-
         try {
-            downloadFile(downloadDestination, profileAvatar)
-            val avatarStream: InputStream = ProfileCipherInputStream(FileInputStream(downloadDestination), profileKey)
-            val decryptDestination = File.createTempFile("avatar", ".jpg", context.cacheDir)
-            copy(avatarStream, FileOutputStream(decryptDestination))
-            decryptDestination.renameTo(AvatarHelper.getAvatarFile(context, recipient.address))
+            // Shares the download with any other job for the same avatar, and skips it if it's already cached
+            val avatar = ProfileAvatarCache.get(context, profileAvatar, profileKey)
+            val destination = File.createTempFile("avatar", ".jpg", context.cacheDir)
+            avatar.copyTo(destination, overwrite = true)
+            destination.renameTo(AvatarHelper.getAvatarFile(context, recipient.address))
 
             if (recipient.isLocalNumber) {
                 setProfileAvatarId(context, SECURE_RANDOM.nextInt())
@@ -94,8 +87,6 @@ class RetrieveProfileAvatarJob(private val profileAvatar: String?, val recipient
                 errorUrls += profileAvatar
             }
             return delegate.handleJobFailed(this, dispatcherName, e)
-        } finally {
-            downloadDestination.delete()
         }
         return delegate.handleJobSucceeded(this, dispatcherName)
     }
@@ -3,8 +3,16 @@ package org.session.libsession.messaging.jobs
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.utilities.Data
 import org.session.libsession.utilities.TextSecurePreferences
+import java.util.concurrent.ConcurrentHashMap
 
-class TrimThreadJob(val threadId: Long, val openGroupId: String?) : Job {
+/**
+ * Trims a thread, either to its most recent [threadLimit] messages, or for a long community to the messages
+ * from the last [TRIM_TIME_LIMIT].
+ *
+ * Messages are deleted in chunks, and the job is persisted until it finishes, so trimming that gets interrupted
+ * picks up where it stopped when pending jobs are resumed.
+ */
+class TrimThreadJob(val threadId: Long, val openGroupId: String?, val threadLimit: Int = 0) : Job {
     override var delegate: JobDelegate? = null
     override var id: String? = null
     override var failureCount: Int = 0
@@ -15,17 +23,37 @@ class TrimThreadJob(val threadId: Long, val openGroupId: String?) : Job {
         const val KEY: String = "TrimThreadJob"
         const val THREAD_ID = "thread_id"
         const val OPEN_GROUP_ID = "open_group"
+        const val THREAD_LIMIT = "thread_limit"
 
         const val TRIM_TIME_LIMIT = 15552000000L // trim messages older than this
         const val THREAD_LENGTH_TRIGGER_SIZE = 2000
+        const val TRIM_INTERVAL = 60 * 60 * 1000L // check a busy community for messages to trim at most this often
+
+        private val lastScheduled = ConcurrentHashMap<Long, Long>()
+
+        /**
+         * Queues trimming of a community's thread, unless it was already queued in the last [TRIM_INTERVAL].
+         */
+        @JvmStatic
+        fun scheduleIfDue(threadId: Long, openGroupId: String) {
+            val now = System.currentTimeMillis()
+            var isDue = false
+            lastScheduled.compute(threadId) { _, last ->
+                if (last == null || now - last >= TRIM_INTERVAL) now.also { isDue = true } else last
+            }
+            if (isDue) {
+                JobQueue.shared.add(TrimThreadJob(threadId, openGroupId))
+            }
+        }
     }
 
     override suspend fun execute(dispatcherName: String) {
         val context = MessagingModuleConfiguration.shared.context
-        val trimmingEnabled = TextSecurePreferences.isThreadLengthTrimmingEnabled(context)
         val storage = MessagingModuleConfiguration.shared.storage
-        val messageCount = storage.getMessageCount(threadId)
-        if (trimmingEnabled && !openGroupId.isNullOrEmpty() && messageCount >= THREAD_LENGTH_TRIGGER_SIZE) {
+        if (threadLimit > 0) {
+            storage.trimThread(threadId, threadLimit)
+        } else if (TextSecurePreferences.isThreadLengthTrimmingEnabled(context) && !openGroupId.isNullOrEmpty()
+            && storage.getMessageCount(threadId) >= THREAD_LENGTH_TRIGGER_SIZE) {
             val oldestMessageTime = System.currentTimeMillis() - TRIM_TIME_LIMIT
             storage.trimThreadBefore(threadId, oldestMessageTime)
         }
@@ -35,6 +63,7 @@ class TrimThreadJob(val threadId: Long, val openGroupId: String?) : Job {
     override fun serialize(): Data {
         val builder = Data.Builder()
             .putLong(THREAD_ID, threadId)
+            .putInt(THREAD_LIMIT, threadLimit)
         if (!openGroupId.isNullOrEmpty()) {
             builder.putString(OPEN_GROUP_ID, openGroupId)
         }
@@ -46,8 +75,12 @@ class TrimThreadJob(val threadId: Long, val openGroupId: String?) : Job {
     class Factory : Job.Factory<TrimThreadJob> {
 
         override fun create(data: Data): TrimThreadJob {
-            return TrimThreadJob(data.getLong(THREAD_ID), data.getStringOrDefault(OPEN_GROUP_ID, null))
+            return TrimThreadJob(
+                data.getLong(THREAD_ID),
+                data.getStringOrDefault(OPEN_GROUP_ID, null),
+                data.getIntOrDefault(THREAD_LIMIT, 0)
+            )
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package org.session.libsession.messaging.open_groups
+
+/**
+ * Someone who has posted in a community, as far as this device has seen.
+ *
+ * @param displayName The name from their most recent message with a profile, if any.
+ * @param lastSeen The sent timestamp of their most recent message.
+ */
+data class CommunityMember(
+    val accountId: String,
+    val displayName: String?,
+    val lastSeen: Long
+)
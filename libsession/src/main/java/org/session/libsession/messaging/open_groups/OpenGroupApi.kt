@@ -17,6 +17,7 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.sending_receiving.pollers.OpenGroupPoller.Companion.maxInactivityPeriod
+import org.session.libsession.messaging.sending_receiving.pollers.PollCursor
 import org.session.libsession.messaging.utilities.AccountId
 import org.session.libsession.messaging.utilities.SodiumUtilities
 import org.session.libsession.messaging.utilities.SodiumUtilities.sodium
@@ -65,6 +66,34 @@ object OpenGroupApi {
 
     val pendingReactions = mutableListOf<PendingReaction>()
 
+    // Rooms whose latest messages were fetched but haven't been processed or persisted yet. Polls continue from
+    // here so the same messages aren't fetched again, but the stored cursor stays put until they're committed.
+    private val lastMessageServerIds = PollCursor<Pair<String, String>, Long>(
+        read = { (room, server) -> MessagingModuleConfiguration.shared.storage.getLastMessageServerID(room, server) },
+        write = { (room, server), seqNo ->
+            val storage = MessagingModuleConfiguration.shared.storage
+            // Seq nos only go up, so a cursor that's already further along covers this one
+            if (seqNo > (storage.getLastMessageServerID(room, server) ?: -1L)) {
+                storage.setLastMessageServerID(room, server, seqNo)
+            }
+        }
+    )
+
+    /**
+     * Records that a poll of [room] which continued from [fromSeqNo] fetched messages up to [seqNo]. Call
+     * [PollCursor.Batch.handled] on the result once they've been processed or persisted.
+     *
+     * @param fromSeqNo The seq no the messages were fetched since, or null if they're the room's most recent
+     *                  messages rather than a continuation.
+     */
+    internal fun fetchedMessages(room: String, server: String, fromSeqNo: Long?, seqNo: Long): PollCursor<Pair<String, String>, Long>.Batch {
+        val key = room to server
+        return lastMessageServerIds.fetched(key, fromSeqNo ?: lastMessageServerIds.get(key), seqNo)
+    }
+
+    private fun getLastMessageServerID(room: String, server: String): Long? =
+        lastMessageServerIds.get(room to server)
+
     sealed class Error(message: String) : Exception(message) {
         object Generic : Error("An error occurred.")
         object ParsingFailed : Error("Invalid response.")
@@ -492,7 +521,7 @@ object OpenGroupApi {
     fun getMessages(room: String, server: String): Promise<List<OpenGroupMessage>, Exception> {
         val storage = MessagingModuleConfiguration.shared.storage
         val queryParameters = mutableMapOf<String, String>()
-        storage.getLastMessageServerID(room, server)?.let { lastId ->
+        getLastMessageServerID(room, server)?.let { lastId ->
             queryParameters += "from_server_id" to lastId.toString()
         }
         val request = Request(
@@ -716,7 +745,7 @@ object OpenGroupApi {
         )
         rooms.forEach { room ->
             val infoUpdates = storage.getOpenGroup(room, server)?.infoUpdates ?: 0
-            val lastMessageServerId = storage.getLastMessageServerID(room, server) ?: 0L
+            val lastMessageServerId = getLastMessageServerID(room, server) ?: 0L
             requests.add(
                 BatchRequestInfo(
                     request = BatchRequest(
@@ -55,7 +55,8 @@ object MessageReceiver {
         isOutgoing: Boolean? = null,
         otherBlindedPublicKey: String? = null,
         openGroupPublicKey: String? = null,
-        currentClosedGroups: Set<String>?
+        currentClosedGroups: Set<String>?,
+        checkForDuplicates: Boolean = true
     ): Pair<Message, SignalServiceProtos.Content> {
         val storage = MessagingModuleConfiguration.shared.storage
         val userPublicKey = storage.getUserPublicKey()
@@ -178,6 +179,19 @@ object MessageReceiver {
         if (groupPublicKey != null && groupPublicKey !in (currentClosedGroups ?: emptySet())) {
             throw Error.NoGroupThread
         }
+        if (checkForDuplicates) { // Otherwise only looking at the message, so it mustn't count as received yet
+            recordReceived(message, envelope.timestamp)
+        }
+        // Return
+        return Pair(message, proto)
+    }
+
+    /**
+     * Records that the message sent at [timestamp] has been received, so that it isn't handled again.
+     *
+     * @throws Error.DuplicateMessage if it already has been.
+     */
+    internal fun recordReceived(message: Message, timestamp: Long) {
         if ((message is ClosedGroupControlMessage && message.kind is ClosedGroupControlMessage.Kind.New) || message is SharedConfigurationMessage) {
             // Allow duplicates in this case to avoid the following situation:
             // • The app performed a background poll or received a push notification
@@ -185,12 +199,11 @@ object MessageReceiver {
             // • Processing wasn't finished
             // • The user doesn't see the new closed group
             // also allow shared configuration messages to be duplicates since we track hashes separately use seqno for conflict resolution
-        } else {
-            if (storage.isDuplicateMessage(envelope.timestamp)) { throw Error.DuplicateMessage }
-            storage.addReceivedMessageTimestamp(envelope.timestamp)
+            return
         }
-        // Return
-        return Pair(message, proto)
+        val storage = MessagingModuleConfiguration.shared.storage
+        if (storage.isDuplicateMessage(timestamp)) { throw Error.DuplicateMessage }
+        storage.addReceivedMessageTimestamp(timestamp)
     }
 
 }
\ No newline at end of file
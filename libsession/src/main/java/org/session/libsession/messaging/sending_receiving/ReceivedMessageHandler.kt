@@ -424,73 +424,84 @@ fun MessageReceiver.handleVisibleMessage(
     return null
 }
 
+/**
+ * Brings the stored reactions of each message in [reactionsByServerId] in line with the reactions the server
+ * returned for it. Only reactions that differ from what's stored are written, all in one transaction.
+ */
 fun MessageReceiver.handleOpenGroupReactions(
     threadId: Long,
-    openGroupMessageServerID: Long,
-    reactions: Map<String, OpenGroupApi.Reaction>?
+    reactionsByServerId: Map<Long, Map<String, OpenGroupApi.Reaction>?>
 ) {
-    if (reactions.isNullOrEmpty()) return
+    val updatedReactions = reactionsByServerId.filterValues { !it.isNullOrEmpty() }
+    if (updatedReactions.isEmpty()) return
     val storage = MessagingModuleConfiguration.shared.storage
-    val (messageId, isSms) = MessagingModuleConfiguration.shared.messageDataProvider.getMessageID(openGroupMessageServerID, threadId) ?: return
-    storage.deleteReactions(messageId, !isSms)
+    val messageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
     val userPublicKey = storage.getUserPublicKey()!!
     val openGroup = storage.getOpenGroup(threadId)
     val blindedPublicKey = openGroup?.publicKey?.let { serverPublicKey ->
         SodiumUtilities.blindedKeyPair(serverPublicKey, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!)
             ?.let { AccountId(IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
     }
-    for ((emoji, reaction) in reactions) {
-        val pendingUserReaction = OpenGroupApi.pendingReactions
-            .filter { it.server == openGroup?.server && it.room == openGroup.room && it.messageId == openGroupMessageServerID && it.add }
-            .sortedByDescending { it.seqNo }
-            .any { it.emoji == emoji }
-        val shouldAddUserReaction = pendingUserReaction || reaction.you || reaction.reactors.contains(userPublicKey)
-        val reactorIds = reaction.reactors.filter { it != blindedPublicKey && it != userPublicKey }
-        val count = if (reaction.you) reaction.count - 1 else reaction.count
-        // Add the first reaction (with the count)
-        reactorIds.firstOrNull()?.let { reactor ->
-            storage.addReaction(Reaction(
-                localId = messageId,
-                isMms = !isSms,
-                publicKey = reactor,
-                emoji = emoji,
-                react = true,
-                serverId = "$openGroupMessageServerID",
-                count = count,
-                index = reaction.index
-            ), reactor, false)
-        }
+    val pendingUserReactions = OpenGroupApi.pendingReactions
+        .filter { it.server == openGroup?.server && it.room == openGroup.room && it.add }
+
+    val messageReactions = mutableMapOf<Pair<Long, Boolean>, List<Reaction>>()
+    for ((openGroupMessageServerID, reactions) in updatedReactions) {
+        val (messageId, isSms) = messageDataProvider.getMessageID(openGroupMessageServerID, threadId) ?: continue
+        val storedReactions = mutableListOf<Reaction>()
+        for ((emoji, reaction) in reactions!!) {
+            val pendingUserReaction = pendingUserReactions
+                .any { it.messageId == openGroupMessageServerID && it.emoji == emoji }
+            val shouldAddUserReaction = pendingUserReaction || reaction.you || reaction.reactors.contains(userPublicKey)
+            val reactorIds = reaction.reactors.filter { it != blindedPublicKey && it != userPublicKey }
+            val count = if (reaction.you) reaction.count - 1 else reaction.count
+            // Add the first reaction (with the count)
+            reactorIds.firstOrNull()?.let { reactor ->
+                storedReactions += Reaction(
+                    localId = messageId,
+                    isMms = !isSms,
+                    publicKey = reactor,
+                    emoji = emoji,
+                    react = true,
+                    serverId = "$openGroupMessageServerID",
+                    count = count,
+                    index = reaction.index
+                )
+            }
 
-        // Add all other reactions
-        val maxAllowed = if (shouldAddUserReaction) 4 else 5
-        val lastIndex = min(maxAllowed, reactorIds.size)
-        reactorIds.slice(1 until lastIndex).map { reactor ->
-            storage.addReaction(Reaction(
-                localId = messageId,
-                isMms = !isSms,
-                publicKey = reactor,
-                emoji = emoji,
-                react = true,
-                serverId = "$openGroupMessageServerID",
-                count = 0,  // Only want this on the first reaction
-                index = reaction.index
-            ), reactor, false)
-        }
+            // Add all other reactions
+            val maxAllowed = if (shouldAddUserReaction) 4 else 5
+            val lastIndex = min(maxAllowed, reactorIds.size)
+            reactorIds.slice(1 until lastIndex).mapTo(storedReactions) { reactor ->
+                Reaction(
+                    localId = messageId,
+                    isMms = !isSms,
+                    publicKey = reactor,
+                    emoji = emoji,
+                    react = true,
+                    serverId = "$openGroupMessageServerID",
+                    count = 0,  // Only want this on the first reaction
+                    index = reaction.index
+                )
+            }
 
-        // Add the current user reaction (if applicable and not already included)
-        if (shouldAddUserReaction) {
-            storage.addReaction(Reaction(
-                localId = messageId,
-                isMms = !isSms,
-                publicKey = userPublicKey,
-                emoji = emoji,
-                react = true,
-                serverId = "$openGroupMessageServerID",
-                count = 1,
-                index = reaction.index
-            ), userPublicKey, false)
+            // Add the current user reaction (if applicable and not already included)
+            if (shouldAddUserReaction) {
+                storedReactions += Reaction(
+                    localId = messageId,
+                    isMms = !isSms,
+                    publicKey = userPublicKey,
+                    emoji = emoji,
+                    react = true,
+                    serverId = "$openGroupMessageServerID",
+                    count = 1,
+                    index = reaction.index
+                )
+            }
         }
+        messageReactions[messageId to !isSms] = storedReactions
     }
+    storage.setReactions(messageReactions)
 }
 
 //endregion
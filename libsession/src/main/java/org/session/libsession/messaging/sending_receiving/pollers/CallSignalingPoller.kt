@@ -0,0 +1,143 @@
+package org.session.libsession.messaging.sending_receiving.pollers
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
+import kotlinx.coroutines.withTimeoutOrNull
+import org.session.libsession.messaging.jobs.BatchMessageReceiveJob
+import org.session.libsession.messaging.jobs.JobQueue
+import org.session.libsession.messaging.jobs.MessageReceiveParameters
+import org.session.libsession.messaging.messages.control.CallMessage
+import org.session.libsession.messaging.messages.visible.ParsedMessage
+import org.session.libsession.messaging.sending_receiving.MessageReceiver
+import org.session.libsession.snode.SnodeAPI
+import org.session.libsession.snode.SnodeMessage
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.Snode
+import org.session.libsignal.utilities.Util.SECURE_RANDOM
+
+private const val TAG = "CallSignalingPoller"
+
+/**
+ * Polls the user's swarm at a short, fixed interval while a call is being set up.
+ *
+ * Offers, answers and ICE candidates otherwise wait for the next [Poller] round and then for the receive queue,
+ * both of which can add seconds to call setup. Call messages fetched here are handled on the polling thread
+ * rather than through [JobQueue], so they reach the call manager as soon as they're fetched.
+ *
+ * Polling stops on its own after [MAX_DURATION] in case the call never connects or stop is never called.
+ */
+class CallSignalingPoller internal constructor(
+    private val userPublicKey: String,
+    private val jobQueue: JobQueue,
+    private val parse: (MessageReceiveParameters) -> ParsedMessage?
+) {
+
+    constructor(userPublicKey: String) : this(userPublicKey, JobQueue.shared, ::parseWithoutRecording)
+
+    companion object {
+        private const val INTERVAL = 500L
+        private const val MAX_DURATION = 60 * 1000L
+        private const val DISPATCHER_NAME = "callSignaling"
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO) + SupervisorJob()
+    private var job: Job? = null
+
+    @Synchronized
+    fun start() {
+        if (job?.isActive == true) return
+        Log.d(TAG, "Started call signaling polling.")
+        job = scope.launch {
+            withTimeoutOrNull(MAX_DURATION) {
+                var snode: Snode? = null
+                while (isActive) {
+                    val start = System.currentTimeMillis()
+                    snode = try {
+                        (snode ?: nextSnode()).also(::poll)
+                    } catch (e: Exception) {
+                        Log.d(TAG, "Polling $snode failed; switching to next snode.", e)
+                        null
+                    }
+                    delay(INTERVAL - (System.currentTimeMillis() - start))
+                }
+            } ?: Log.d(TAG, "Call signaling polling timed out.")
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        if (job == null) return
+        Log.d(TAG, "Stopped call signaling polling.")
+        job?.cancel()
+        job = null
+    }
+
+    private fun nextSnode(): Snode {
+        val swarm = SnodeAPI.getSwarm(userPublicKey).get()
+        return swarm.elementAt(SECURE_RANDOM.nextInt(swarm.size))
+    }
+
+    private fun poll(snode: Snode) {
+        val request = SnodeAPI.buildAuthenticatedRetrieveBatchRequest(snode, userPublicKey, maxSize = -2) ?: return
+        val result = SnodeAPI.getBatchResponse(snode, userPublicKey, listOf(request)).get().firstOrNull()
+        if (result?.code != 200) throw Exception("Retrieve failed with code ${result?.code}.")
+        process(snode, request.params["last_hash"] as? String, result.messages)
+    }
+
+    private fun process(snode: Snode, lastHash: String?, rawMessages: List<SnodeMessage>) {
+        // The main poller may fetch the same messages; whichever claims them first handles them
+        val messages = SnodeAPI.parseMessagesUncommitted(rawMessages, snode, userPublicKey, lastHash)
+        if (messages.envelopes.isEmpty()) {
+            messages.commit()
+            return
+        }
+
+        val parameters = messages.envelopes.map { (envelope, serverHash) ->
+            MessageReceiveParameters(envelope.toByteArray(), serverHash = serverHash)
+        }
+        receive(parameters)
+        messages.commit()
+    }
+
+    /**
+     * Handles call messages straight away. Everything else goes through the receive queue, so that it's handled
+     * in order with whatever else the main poller fetches.
+     *
+     * Messages have to be decrypted to tell whether they're calls, so the jobs are handed what was parsed here
+     * rather than decrypting it all again. Anything that couldn't be parsed here is left for the job to parse.
+     */
+    internal fun receive(parameters: List<MessageReceiveParameters>) {
+        val parsed = parameters.mapNotNull(parse)
+        val callParameters = parsed.filter { it.message is CallMessage }.mapTo(HashSet(), ParsedMessage::parameters)
+        val (calls, others) = parameters.partition { it in callParameters }
+        if (others.isNotEmpty()) jobQueue.add(BatchMessageReceiveJob(others, parsed))
+        if (calls.isEmpty()) return
+
+        val job = BatchMessageReceiveJob(calls, parsed)
+        try {
+            job.executeAsync(DISPATCHER_NAME).get()
+            // Anything that can be retried goes through the queue as usual
+            if (job.failures.isNotEmpty()) jobQueue.add(BatchMessageReceiveJob(job.failures.toList()))
+        } catch (e: Exception) {
+            Log.e(TAG, "Couldn't handle call messages inline; queueing them instead.", e)
+            jobQueue.add(BatchMessageReceiveJob(calls))
+        }
+    }
+}
+
+/**
+ * Parses [parameters] without recording it as received, which the receive job does before handling it. Anything
+ * that can't be parsed here is left for the receive job to deal with.
+ */
+private fun parseWithoutRecording(parameters: MessageReceiveParameters): ParsedMessage? = try {
+    val (message, proto) = MessageReceiver.parse(parameters.data, null, currentClosedGroups = null, checkForDuplicates = false)
+    ParsedMessage(parameters, message, proto)
+} catch (e: Exception) {
+    null
+}
\ No newline at end of file
@@ -15,6 +15,7 @@ import org.session.libsession.messaging.jobs.TrimThreadJob
 import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.messages.control.ExpirationTimerUpdate
 import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsession.messaging.open_groups.CommunityMember
 import org.session.libsession.messaging.open_groups.Endpoint
 import org.session.libsession.messaging.open_groups.GroupMember
 import org.session.libsession.messaging.open_groups.GroupMemberRole
@@ -24,17 +25,22 @@ import org.session.libsession.messaging.open_groups.OpenGroupMessage
 import org.session.libsession.messaging.sending_receiving.MessageReceiver
 import org.session.libsession.messaging.sending_receiving.handle
 import org.session.libsession.messaging.sending_receiving.handleOpenGroupReactions
+import org.session.libsession.messaging.utilities.AccountId
+import org.session.libsession.messaging.utilities.SodiumUtilities
 import org.session.libsession.snode.OnionRequestAPI
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.GroupUtil
 import org.session.libsignal.protos.SignalServiceProtos
 import org.session.libsignal.utilities.Base64
+import org.session.libsignal.utilities.IdPrefix
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.successBackground
 import java.util.UUID
 import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 class OpenGroupPoller(private val server: String, private val executorService: ScheduledExecutorService?) {
     var hasStarted = false
@@ -159,10 +165,10 @@ class OpenGroupPoller(private val server: String, private val executorService: S
                         handleRoomPollInfo(server, response.endpoint.roomToken, response.body as OpenGroupApi.RoomPollInfo)
                     }
                     is Endpoint.RoomMessagesRecent -> {
-                        handleMessages(server, response.endpoint.roomToken, response.body as List<OpenGroupApi.Message>)
+                        handleMessages(server, response.endpoint.roomToken, null, response.body as List<OpenGroupApi.Message>)
                     }
                     is Endpoint.RoomMessagesSince  -> {
-                        handleMessages(server, response.endpoint.roomToken, response.body as List<OpenGroupApi.Message>)
+                        handleMessages(server, response.endpoint.roomToken, response.endpoint.seqNo, response.body as List<OpenGroupApi.Message>)
                     }
                     is Endpoint.Inbox, is Endpoint.InboxSince -> {
                         handleDirectMessages(server, false, response.body as List<OpenGroupApi.DirectMessage>)
@@ -211,15 +217,18 @@ class OpenGroupPoller(private val server: String, private val executorService: S
     private fun handleMessages(
         server: String,
         roomToken: String,
+        fromSeqNo: Long?,
         messages: List<OpenGroupApi.Message>
     ) {
         val sortedMessages = messages.sortedBy { it.seqno }
-        sortedMessages.maxOfOrNull { it.seqno }?.let { seqNo ->
-            MessagingModuleConfiguration.shared.storage.setLastMessageServerID(roomToken, server, seqNo)
+        val cursor = sortedMessages.maxOfOrNull { it.seqno }?.let { seqNo ->
             OpenGroupApi.pendingReactions.removeAll { !(it.seqNo == null || it.seqNo!! > seqNo) }
+            OpenGroupApi.fetchedMessages(roomToken, server, fromSeqNo, seqNo)
         }
         val (deletions, additions) = sortedMessages.partition { it.deleted }
-        handleNewMessages(server, roomToken, additions.map {
+        // The stored cursor only moves once the new messages have been processed or persisted as a job
+        val onDone: (Boolean) -> Unit = { handled -> if (handled) cursor?.handled() else cursor?.failed() }
+        handleNewMessages(server, roomToken, onDone, additions.map {
             OpenGroupMessage(
                 serverID = it.id,
                 sender = it.sessionId,
@@ -288,44 +297,80 @@ class OpenGroupPoller(private val server: String, private val executorService: S
         }
     }
 
-    private fun handleNewMessages(server: String, roomToken: String, messages: List<OpenGroupMessage>) {
+    private fun handleNewMessages(server: String, roomToken: String, onDone: (handled: Boolean) -> Unit, messages: List<OpenGroupMessage>) {
         val storage = MessagingModuleConfiguration.shared.storage
         val openGroupID = "$server.$roomToken"
         val groupID = GroupUtil.getEncodedOpenGroupID(openGroupID.toByteArray())
         // check thread still exists
         val threadId = storage.getThreadId(Address.fromSerialized(groupID)) ?: -1
         val threadExists = threadId >= 0
-        if (!hasStarted || !threadExists) { return }
+        if (!hasStarted || !threadExists) { return onDone(true) }
         val envelopes =  mutableListOf<Triple<Long?, SignalServiceProtos.Envelope, Map<String, OpenGroupApi.Reaction>?>>()
+        val reactions = mutableMapOf<Long, Map<String, OpenGroupApi.Reaction>?>()
+        val members = mutableMapOf<String, CommunityMember>()
         messages.sortedBy { it.serverID!! }.forEach { message ->
             if (!message.base64EncodedData.isNullOrEmpty()) {
+                val sender = message.sender!!
+                val content = message.toProto()
                 val envelope = SignalServiceProtos.Envelope.newBuilder()
                     .setType(SignalServiceProtos.Envelope.Type.SESSION_MESSAGE)
-                    .setSource(message.sender!!)
+                    .setSource(sender)
                     .setSourceDevice(1)
-                    .setContent(message.toProto().toByteString())
+                    .setContent(content.toByteString())
                     .setTimestamp(message.sentTimestamp)
                     .build()
                 envelopes.add(Triple( message.serverID, envelope, message.reactions))
+
+                val displayName = content.dataMessage.profile.displayName
+                    .takeIf { content.hasDataMessage() && content.dataMessage.hasProfile() && it.isNotEmpty() }
+                val previous = members[sender]
+                members[sender] = CommunityMember(
+                    accountId = sender,
+                    displayName = displayName ?: previous?.displayName,
+                    lastSeen = maxOf(message.sentTimestamp, previous?.lastSeen ?: 0)
+                )
             } else if (!message.reactions.isNullOrEmpty()) {
-                message.serverID?.let {
-                    MessageReceiver.handleOpenGroupReactions(threadId, it, message.reactions)
-                }
+                message.serverID?.let { reactions[it] = message.reactions }
             }
         }
+        updateMembers(server, threadId, members.values)
+        // Reaction edits are applied together, so the whole poll is a single write
+        MessageReceiver.handleOpenGroupReactions(threadId, reactions)
 
-        envelopes.chunked(BatchMessageReceiveJob.BATCH_DEFAULT_NUMBER).forEach { list ->
+        val chunks = envelopes.chunked(BatchMessageReceiveJob.BATCH_DEFAULT_NUMBER)
+        val remaining = AtomicInteger(chunks.size)
+        val allHandled = AtomicBoolean(true)
+        if (chunks.isEmpty()) onDone(true)
+        chunks.forEach { list ->
             val parameters = list.map { (serverId, message, reactions) ->
                 MessageReceiveParameters(message.toByteArray(), openGroupMessageServerID = serverId, reactions = reactions)
             }
-            JobQueue.shared.add(BatchMessageReceiveJob(parameters, openGroupID))
+            JobQueue.shared.addEphemeral(BatchMessageReceiveJob(parameters, openGroupID)) { handled ->
+                if (!handled) allHandled.set(false)
+                if (remaining.decrementAndGet() == 0) onDone(allHandled.get())
+            }
         }
 
         if (envelopes.isNotEmpty()) {
-            JobQueue.shared.add(TrimThreadJob(threadId, openGroupID))
+            TrimThreadJob.scheduleIfDue(threadId, openGroupID)
         }
     }
 
+    /**
+     * Adds the senders of a poll's messages to the community's member index, leaving out the user.
+     */
+    private fun updateMembers(server: String, threadId: Long, members: Collection<CommunityMember>) {
+        if (members.isEmpty()) return
+        val storage = MessagingModuleConfiguration.shared.storage
+        val userPublicKey = storage.getUserPublicKey()
+        val userBlindedId = storage.getOpenGroupPublicKey(server)?.let { serverPublicKey ->
+            val edKeyPair = MessagingModuleConfiguration.shared.getUserED25519KeyPair() ?: return@let null
+            SodiumUtilities.blindedKeyPair(serverPublicKey, edKeyPair)
+        }?.let { AccountId(IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
+
+        storage.updateCommunityMembers(threadId, members.filter { it.accountId != userPublicKey && it.accountId != userBlindedId })
+    }
+
     private fun handleDeletedMessages(server: String, roomToken: String, serverIds: List<Long>) {
         val openGroupId = "$server.$roomToken"
         val storage = MessagingModuleConfiguration.shared.storage
@@ -0,0 +1,82 @@
+package org.session.libsession.messaging.sending_receiving.pollers
+
+/**
+ * Where polling has got to for each key (e.g. a swarm namespace or a community room) when the messages a poll
+ * fetches are handled asynchronously, and so possibly out of order.
+ *
+ * Polls continue from the newest position fetched so far, but the stored position only moves to the end of a
+ * batch once that batch and every batch fetched before it have been handled. So it never moves backwards, and
+ * never past messages that are still being handled. A batch that couldn't be handled holds the stored position
+ * where it is for the rest of the process, so its messages are fetched again the next time polling starts from
+ * the stored position.
+ */
+internal class PollCursor<K : Any, T : Any>(
+    private val read: (K) -> T?,
+    private val write: (K, T) -> Unit
+) {
+    private val latest = mutableMapOf<K, T>()
+    private val pending = mutableMapOf<K, ArrayDeque<Batch>>()
+    private val held = mutableSetOf<K>()
+
+    /**
+     * The position the next poll for [key] should continue from.
+     */
+    fun get(key: K): T? = synchronized(this) { latest[key] ?: read(key) }
+
+    /**
+     * Records that a poll for [key] which continued from [from] fetched a batch ending at [position].
+     *
+     * If another poll has moved on from [from] in the meantime, the batch overlaps what that poll fetched and
+     * doesn't move the cursor at all; its messages still need handling, but they'll be fetched again from the
+     * newer position if they're not.
+     */
+    fun fetched(key: K, from: T?, position: T): Batch {
+        synchronized(this) {
+            if (from != (latest[key] ?: read(key))) return Batch(key, position, isTracked = false)
+
+            latest[key] = position
+            val isTracked = key !in held
+            return Batch(key, position, isTracked).also { if (isTracked) pending.getOrPut(key, ::ArrayDeque) += it }
+        }
+    }
+
+    private fun complete(batch: Batch, handled: Boolean) {
+        synchronized(this) {
+            val batches = pending[batch.key]?.takeIf { batch in it } ?: return
+            batch.state = if (handled) State.HANDLED else State.FAILED
+
+            var position: T? = null
+            while (batches.firstOrNull()?.state == State.HANDLED) position = batches.removeFirst().position
+
+            if (batches.firstOrNull()?.state == State.FAILED) {
+                // Nothing fetched after this can be committed without skipping it
+                held += batch.key
+                batches.clear()
+            }
+            if (batches.isEmpty()) {
+                pending -= batch.key
+                // Caught up, so the stored position is the latest one again
+                if (batch.key !in held && latest[batch.key] == position) latest -= batch.key
+            }
+
+            // Written while locked so that writes for the same key can't overtake each other
+            position?.let { write(batch.key, it) }
+        }
+    }
+
+    enum class State { PENDING, HANDLED, FAILED }
+
+    inner class Batch internal constructor(val key: K, val position: T, private val isTracked: Boolean) {
+        internal var state = State.PENDING
+
+        /** The batch has been processed, or persisted somewhere it will be. */
+        fun handled() {
+            if (isTracked) complete(this, handled = true)
+        }
+
+        /** The batch couldn't be handled, so the stored position must not move past it. */
+        fun failed() {
+            if (isTracked) complete(this, handled = false)
+        }
+    }
+}
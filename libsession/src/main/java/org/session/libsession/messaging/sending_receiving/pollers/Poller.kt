@@ -19,17 +19,18 @@ import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.jobs.BatchMessageReceiveJob
 import org.session.libsession.messaging.jobs.JobQueue
 import org.session.libsession.messaging.jobs.MessageReceiveParameters
-import org.session.libsession.snode.RawResponse
 import org.session.libsession.snode.SnodeAPI
+import org.session.libsession.snode.SnodeMessage
 import org.session.libsession.snode.SnodeModule
 import org.session.libsession.utilities.ConfigFactoryProtocol
-import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.Namespace
 import org.session.libsignal.utilities.Snode
 import org.session.libsignal.utilities.Util.SECURE_RANDOM
 import java.util.Timer
 import java.util.TimerTask
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.time.Duration.Companion.days
 
 private const val TAG = "Poller"
@@ -123,31 +124,36 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
         }
     }
 
-    private fun processPersonalMessages(snode: Snode, rawMessages: RawResponse) {
-        val messages = SnodeAPI.parseRawMessagesResponse(rawMessages, snode, userPublicKey)
-        val parameters = messages.map { (envelope, serverHash) ->
+    private fun processPersonalMessages(snode: Snode, lastHash: String?, rawMessages: List<SnodeMessage>) {
+        // The messages stay on the swarm, so they're processed without persisting a job first and the cursor
+        // only moves once every batch has been handled (or written out as a job after all)
+        val messages = SnodeAPI.parseMessagesUncommitted(rawMessages, snode, userPublicKey, lastHash)
+        val parameters = messages.envelopes.map { (envelope, serverHash) ->
             MessageReceiveParameters(envelope.toByteArray(), serverHash = serverHash)
         }
-        parameters.chunked(BatchMessageReceiveJob.BATCH_DEFAULT_NUMBER).forEach { chunk ->
-            val job = BatchMessageReceiveJob(chunk)
-            JobQueue.shared.add(job)
+        val chunks = parameters.chunked(BatchMessageReceiveJob.BATCH_DEFAULT_NUMBER)
+        if (chunks.isEmpty()) {
+            messages.commit()
+            return
+        }
+        val remaining = AtomicInteger(chunks.size)
+        val allHandled = AtomicBoolean(true)
+        chunks.forEach { chunk ->
+            JobQueue.shared.addEphemeral(BatchMessageReceiveJob(chunk)) { handled ->
+                if (!handled) allHandled.set(false)
+                if (remaining.decrementAndGet() == 0) {
+                    if (allHandled.get()) messages.commit() else messages.abandon()
+                }
+            }
         }
     }
 
-    private fun processConfig(snode: Snode, rawMessages: RawResponse, namespace: Int, forConfigObject: ConfigBase?) {
+    private fun processConfig(snode: Snode, messages: List<SnodeMessage>, namespace: Int, forConfigObject: ConfigBase?) {
         if (forConfigObject == null) return
 
-        val messages = rawMessages["messages"] as? List<*>
-        val processed = if (!messages.isNullOrEmpty()) {
-            SnodeAPI.updateLastMessageHashValueIfPossible(snode, userPublicKey, messages, namespace)
-            SnodeAPI.removeDuplicates(userPublicKey, messages, namespace, true).mapNotNull { rawMessageAsJSON ->
-                val hashValue = rawMessageAsJSON["hash"] as? String ?: return@mapNotNull null
-                val b64EncodedBody = rawMessageAsJSON["data"] as? String ?: return@mapNotNull null
-                val timestamp = rawMessageAsJSON["t"] as? Long ?: SnodeAPI.nowWithOffset
-                val body = Base64.decode(b64EncodedBody)
-                Triple(body, hashValue, timestamp)
-            }
-        } else emptyList()
+        val processed = SnodeAPI.receiveMessages(snode, userPublicKey, messages, namespace).map { message ->
+            Triple(message.data, message.hash, message.timestamp ?: SnodeAPI.nowWithOffset)
+        }
 
         if (processed.isEmpty()) return
 
@@ -201,19 +207,17 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
             }
 
             if (requests.isNotEmpty()) {
-                SnodeAPI.getRawBatchResponse(snode, userPublicKey, requests).bind { rawResponses ->
+                SnodeAPI.getBatchResponse(snode, userPublicKey, requests).bind { responseList ->
                     isCaughtUp = true
                     if (!deferred.promise.isDone()) {
-                        val responseList = (rawResponses["results"] as List<RawResponse>)
                         responseList.getOrNull(0)?.let { rawResponse ->
-                            if (rawResponse["code"] as? Int != 200) {
-                                Log.e(TAG, "Batch sub-request had non-200 response code, returned code ${(rawResponse["code"] as? Int) ?: "[unknown]"}")
+                            if (rawResponse.code != 200) {
+                                Log.e(TAG, "Batch sub-request had non-200 response code, returned code ${rawResponse.code}")
                             } else {
-                                val body = rawResponse["body"] as? RawResponse
-                                if (body == null) {
+                                if (rawResponse.body == null) {
                                     Log.e(TAG, "Batch sub-request didn't contain a body")
                                 } else {
-                                    processConfig(snode, body, configFactory.user!!.configNamespace(), configFactory.user)
+                                    processConfig(snode, rawResponse.messages, configFactory.user!!.configNamespace(), configFactory.user)
                                 }
                             }
                         }
@@ -265,12 +269,11 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
                 }
 
                 if (requests.isNotEmpty()) {
-                    SnodeAPI.getRawBatchResponse(snode, userPublicKey, requests).bind { rawResponses ->
+                    SnodeAPI.getBatchResponse(snode, userPublicKey, requests).bind { responseList ->
                         isCaughtUp = true
                         if (deferred.promise.isDone()) {
                             return@bind Promise.ofSuccess(Unit)
                         } else {
-                            val responseList = (rawResponses["results"] as List<RawResponse>)
                             // in case we had null configs, the array won't be fully populated
                             // index of the sparse array key iterator should be the request index, with the key being the namespace
                             listOfNotNull(
@@ -282,12 +285,11 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
                                 it to requestSparseArray.indexOfKey(it)
                             }.filter { (_, i) -> i >= 0 }.forEach { (key, requestIndex) ->
                                 responseList.getOrNull(requestIndex)?.let { rawResponse ->
-                                    if (rawResponse["code"] as? Int != 200) {
-                                        Log.e(TAG, "Batch sub-request had non-200 response code, returned code ${(rawResponse["code"] as? Int) ?: "[unknown]"}")
+                                    if (rawResponse.code != 200) {
+                                        Log.e(TAG, "Batch sub-request had non-200 response code, returned code ${rawResponse.code}")
                                         return@forEach
                                     }
-                                    val body = rawResponse["body"] as? RawResponse
-                                    if (body == null) {
+                                    if (rawResponse.body == null) {
                                         Log.e(TAG, "Batch sub-request didn't contain a body")
                                         return@forEach
                                     }
@@ -295,10 +297,10 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
                                         return@forEach // continue, skip default namespace
                                     } else {
                                         when (ConfigBase.kindFor(key)) {
-                                            UserProfile::class.java -> processConfig(snode, body, key, configFactory.user)
-                                            Contacts::class.java -> processConfig(snode, body, key, configFactory.contacts)
-                                            ConversationVolatileConfig::class.java -> processConfig(snode, body, key, configFactory.convoVolatile)
-                                            UserGroupsConfig::class.java -> processConfig(snode, body, key, configFactory.userGroups)
+                                            UserProfile::class.java -> processConfig(snode, rawResponse.messages, key, configFactory.user)
+                                            Contacts::class.java -> processConfig(snode, rawResponse.messages, key, configFactory.contacts)
+                                            ConversationVolatileConfig::class.java -> processConfig(snode, rawResponse.messages, key, configFactory.convoVolatile)
+                                            UserGroupsConfig::class.java -> processConfig(snode, rawResponse.messages, key, configFactory.userGroups)
                                         }
                                     }
                                 }
@@ -308,18 +310,18 @@ class Poller(private val configFactory: ConfigFactoryProtocol, debounceTimer: Ti
                             val personalResponseIndex = requestSparseArray.indexOfKey(Namespace.DEFAULT)
                             if (personalResponseIndex >= 0) {
                                 responseList.getOrNull(personalResponseIndex)?.let { rawResponse ->
-                                    if (rawResponse["code"] as? Int != 200) {
-                                        Log.e(TAG, "Batch sub-request for personal messages had non-200 response code, returned code ${(rawResponse["code"] as? Int) ?: "[unknown]"}")
+                                    if (rawResponse.code != 200) {
+                                        Log.e(TAG, "Batch sub-request for personal messages had non-200 response code, returned code ${rawResponse.code}")
                                         // If we got a non-success response then the snode might be bad so we should try rotate
                                         // to a different one just in case
                                         pollNextSnode(deferred = deferred)
                                         return@bind Promise.ofSuccess(Unit)
                                     } else {
-                                        val body = rawResponse["body"] as? RawResponse
-                                        if (body == null) {
+                                        if (rawResponse.body == null) {
                                             Log.e(TAG, "Batch sub-request for personal messages didn't contain a body")
                                         } else {
-                                            processPersonalMessages(snode, body)
+                                            val lastHash = requestSparseArray[Namespace.DEFAULT].params["last_hash"] as? String
+                                            processPersonalMessages(snode, lastHash, rawResponse.messages)
                                         }
                                     }
                                 }
@@ -9,6 +9,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.session.libsession.utilities.ParcelableUtil;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -243,6 +244,23 @@ public class Data {
 
 
 
+    // Read-only views of the values for serializers. These deliberately don't follow the getter naming
+    // convention so that Jackson doesn't pick them up as properties.
+    public @NonNull Map<String, String>    strings()       { return Collections.unmodifiableMap(strings); }
+    public @NonNull Map<String, String[]>  stringArrays()  { return Collections.unmodifiableMap(stringArrays); }
+    public @NonNull Map<String, Integer>   integers()      { return Collections.unmodifiableMap(integers); }
+    public @NonNull Map<String, int[]>     integerArrays() { return Collections.unmodifiableMap(integerArrays); }
+    public @NonNull Map<String, Long>      longs()         { return Collections.unmodifiableMap(longs); }
+    public @NonNull Map<String, long[]>    longArrays()    { return Collections.unmodifiableMap(longArrays); }
+    public @NonNull Map<String, Float>     floats()        { return Collections.unmodifiableMap(floats); }
+    public @NonNull Map<String, float[]>   floatArrays()   { return Collections.unmodifiableMap(floatArrays); }
+    public @NonNull Map<String, Double>    doubles()       { return Collections.unmodifiableMap(doubles); }
+    public @NonNull Map<String, double[]>  doubleArrays()  { return Collections.unmodifiableMap(doubleArrays); }
+    public @NonNull Map<String, Boolean>   booleans()      { return Collections.unmodifiableMap(booleans); }
+    public @NonNull Map<String, boolean[]> booleanArrays() { return Collections.unmodifiableMap(booleanArrays); }
+    public @NonNull Map<String, byte[]>    byteArrays()    { return Collections.unmodifiableMap(byteArrays); }
+
+
     private void throwIfAbsent(@NonNull Map map, @NonNull String key) {
         if (!map.containsKey(key)) {
             throw new IllegalStateException("Tried to retrieve a value with key '" + key + "', but it wasn't present.");
@@ -359,4 +377,9 @@ public class Data {
         @NonNull String serialize(@NonNull Data data);
         @NonNull Data deserialize(@NonNull String serialized);
     }
+
+    public interface BinarySerializer {
+        @NonNull byte[] serialize(@NonNull Data data);
+        @NonNull Data deserialize(@NonNull byte[] serialized);
+    }
 }
\ No newline at end of file
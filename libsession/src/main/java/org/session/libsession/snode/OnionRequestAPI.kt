@@ -602,6 +602,16 @@ object OnionRequestAPI {
                             )
                             return deferred.reject(exception)
                         }
+                        destination is Destination.Snode && statusCode == 200 && json["body"] is String -> {
+                            // Snode responses can be large (a retrieve is mostly message data), so rather than being
+                            // parsed into a map here and serialized again they're passed on for SnodeAPI to decode
+                            @Suppress("NAME_SHADOWING")
+                            val body = (json["body"] as String).toByteArray()
+                            val header = SnodeResponseParser.parseHeader(body)
+                            header.timestamp?.let { SnodeAPI.clockOffset = it - System.currentTimeMillis() }
+                            header.forkInfo?.let(::updateForkInfo)
+                            deferred.resolve(OnionResponse(json, body))
+                        }
                         json["body"] != null -> {
                             @Suppress("NAME_SHADOWING")
                             val body = if (json["body"] is Map<*, *>) {
@@ -617,19 +627,7 @@ object OnionRequestAPI {
                             }
                             if (body.containsKey("hf")) {
                                 @Suppress("UNCHECKED_CAST")
-                                val currentHf = body["hf"] as List<Int>
-                                if (currentHf.size < 2) {
-                                    Log.e("Loki", "Response contains fork information but doesn't have a hard and soft number")
-                                } else {
-                                    val hf = currentHf[0]
-                                    val sf = currentHf[1]
-                                    val newForkInfo = ForkInfo(hf, sf)
-                                    if (newForkInfo > SnodeAPI.forkInfo) {
-                                        SnodeAPI.forkInfo = ForkInfo(hf,sf)
-                                    } else if (newForkInfo < SnodeAPI.forkInfo) {
-                                        Log.w("Loki", "Got a new snode info fork version that was $newForkInfo, less than current known ${SnodeAPI.forkInfo}")
-                                    }
-                                }
+                                updateForkInfo(body["hf"] as List<Int>)
                             }
                             if (statusCode != 200) {
                                 val exception = HTTPRequestFailedAtDestinationException(
@@ -662,6 +660,21 @@ object OnionRequestAPI {
         }
     }
 
+    private fun updateForkInfo(currentHf: List<Int>) {
+        if (currentHf.size < 2) {
+            Log.e("Loki", "Response contains fork information but doesn't have a hard and soft number")
+        } else {
+            val hf = currentHf[0]
+            val sf = currentHf[1]
+            val newForkInfo = ForkInfo(hf, sf)
+            if (newForkInfo > SnodeAPI.forkInfo) {
+                SnodeAPI.forkInfo = ForkInfo(hf,sf)
+            } else if (newForkInfo < SnodeAPI.forkInfo) {
+                Log.w("Loki", "Got a new snode info fork version that was $newForkInfo, less than current known ${SnodeAPI.forkInfo}")
+            }
+        }
+    }
+
     private fun ByteArray.getBody(infoLength: Int, infoEndIndex: Int): ByteArray {
         // If there is no data in the response, i.e. only `l123:jsone`, then just return the ResponseInfo
         val infoLengthStringLength = infoLength.toString().length
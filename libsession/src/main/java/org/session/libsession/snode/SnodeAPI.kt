@@ -16,6 +16,7 @@ import nl.komponents.kovenant.functional.map
 import nl.komponents.kovenant.task
 import nl.komponents.kovenant.unwrap
 import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.sending_receiving.pollers.PollCursor
 import org.session.libsession.messaging.utilities.MessageWrapper
 import org.session.libsession.messaging.utilities.SodiumUtilities.sodium
 import org.session.libsession.utilities.buildMutableMap
@@ -61,6 +62,18 @@ object SnodeAPI {
     val nowWithOffset
         get() = System.currentTimeMillis() + clockOffset
 
+    /**
+     * Cursors and received hashes for messages that have been fetched but not yet processed or persisted. Polls
+     * read these ahead of the stored values so the same messages aren't fetched again in the meantime, and they
+     * are only written to the database by [UncommittedMessages.commit]. See [PollCursor] for the order cursors are
+     * written in.
+     */
+    private val lastHashes = PollCursor<Triple<Snode, String, Int>, String>(
+        read = { (snode, publicKey, namespace) -> database.getLastMessageHashValue(snode, publicKey, namespace) },
+        write = { (snode, publicKey, namespace), hash -> database.setLastMessageHashValue(snode, publicKey, hash, namespace) }
+    )
+    private val uncommittedReceivedHashes = mutableMapOf<String, MutableSet<String>>()
+
     internal var forkInfo by observable(database.getForkInfo()) { _, oldValue, newValue ->
         if (newValue > oldValue) {
             Log.d("Loki", "Setting new fork info new: $newValue, old: $oldValue")
@@ -119,9 +132,22 @@ object SnodeAPI {
         parameters: Map<String, Any>,
         publicKey: String? = null,
         version: Version = Version.V3
-    ): RawResponsePromise = when {
+    ): RawResponsePromise = invokeForBody(method, snode, parameters, publicKey, version).map {
+        JsonUtil.fromJson(it, Map::class.java)
+    }
+
+    /**
+     * Like [invoke], but leaves decoding the response body to the caller.
+     */
+    private fun invokeForBody(
+        method: Snode.Method,
+        snode: Snode,
+        parameters: Map<String, Any>,
+        publicKey: String? = null,
+        version: Version = Version.V3
+    ): Promise<ByteArray, Exception> = when {
         useOnionRequests -> OnionRequestAPI.sendOnionRequest(method, parameters, snode, version, publicKey).map {
-            JsonUtil.fromJson(it.body ?: throw Error.Generic, Map::class.java)
+            it.body ?: throw Error.Generic
         }
         else -> task {
             HTTP.execute(
@@ -131,9 +157,7 @@ object SnodeAPI {
                     this["method"] = method.rawValue
                     this["params"] = parameters
                 }
-            ).toString().let {
-                JsonUtil.fromJson(it, Map::class.java)
-            }
+            )
         }.fail { e ->
             when (e) {
                 is HTTP.HTTPRequestFailedException -> handleSnodeError(e.statusCode, e.json, snode, publicKey)
@@ -288,7 +312,7 @@ object SnodeAPI {
 
     fun getRawMessages(snode: Snode, publicKey: String, requiresAuth: Boolean = true, namespace: Int = 0): RawResponsePromise {
         // Get last message hash
-        val lastHashValue = database.getLastMessageHashValue(snode, publicKey, namespace) ?: ""
+        val lastHashValue = getLastMessageHashValue(snode, publicKey, namespace) ?: ""
         val parameters = buildMutableMap<String, Any> {
             this["pubKey"] = publicKey
             this["last_hash"] = lastHashValue
@@ -384,7 +408,7 @@ object SnodeAPI {
     }
 
     fun buildAuthenticatedRetrieveBatchRequest(snode: Snode, publicKey: String, namespace: Int = 0, maxSize: Int? = null): SnodeBatchRequestInfo? {
-        val lastHashValue = database.getLastMessageHashValue(snode, publicKey, namespace) ?: ""
+        val lastHashValue = getLastMessageHashValue(snode, publicKey, namespace) ?: ""
         val userEd25519KeyPair = getUserED25519KeyPairCatchingOrNull() ?: return null
         val ed25519PublicKey = userEd25519KeyPair.publicKey.asHexString
         val timestamp = System.currentTimeMillis() + clockOffset
@@ -444,6 +468,24 @@ object SnodeAPI {
         }
     }
 
+    /**
+     * Like [getRawBatchResponse], but with the response decoded by [SnodeResponseParser] so that the messages of
+     * any retrieve requests are never held as a [Map] tree.
+     */
+    fun getBatchResponse(snode: Snode, publicKey: String, requests: List<SnodeBatchRequestInfo>, sequence: Boolean = false): Promise<List<BatchResult>, Exception> {
+        val parameters = buildMap { this["requests"] = requests }
+        return invokeForBody(if (sequence) Snode.Method.Sequence else Snode.Method.Batch, snode, parameters, publicKey)
+            .map(SnodeResponseParser::parseBatch)
+            .success { results ->
+                results.asSequence()
+                    .filter { it.code != 200 }
+                    .forEach { result ->
+                        Log.w("Loki", "response code was not 200")
+                        handleSnodeError(result.code, result.body, snode, publicKey)
+                    }
+            }
+    }
+
     fun getExpiries(messageHashes: List<String>, publicKey: String) : RawResponsePromise {
         val userEd25519KeyPair = getUserED25519KeyPairCatchingOrNull() ?: return Promise.ofFail(NullPointerException("No user key pair"))
         val hashes = messageHashes.takeIf { it.size != 1 } ?: (messageHashes + "///////////////////////////////////////////") // TODO remove this when bug is fixed on nodes.
@@ -646,6 +688,53 @@ object SnodeAPI {
             removeDuplicates(publicKey, messages, namespace, updateStoredHashes).let(::parseEnvelopes)
         } ?: listOf()
 
+    /**
+     * Like [parseRawMessagesResponse], but the cursor and received hashes are only held in memory until
+     * [UncommittedMessages.commit] is called, so the messages can be fetched again if the process dies before
+     * they've been handled.
+     *
+     * @param lastHash The `last_hash` the messages were retrieved with.
+     */
+    fun parseMessagesUncommitted(messages: List<SnodeMessage>, snode: Snode, publicKey: String, lastHash: String?, namespace: Int = 0): UncommittedMessages {
+        if (messages.isEmpty()) return UncommittedMessages(listOf()) {}
+        val cursor = lastHashes.fetched(Triple(snode, publicKey, namespace), lastHash?.takeIf { it.isNotEmpty() }, messages.last().hash)
+        val hashesKey = "$publicKey.$namespace"
+        val newHashes = mutableSetOf<String>()
+        val envelopes = synchronized(this) {
+            removeDuplicates(publicKey, messages, namespace, updateStoredHashes = false, newHashes = newHashes) { it.hash }.also {
+                uncommittedReceivedHashes.getOrPut(hashesKey, ::mutableSetOf) += newHashes
+            }
+        }.mapNotNull { message ->
+            runCatching { MessageWrapper.unwrap(message.data) to message.hash }
+                .onFailure { Log.d("Loki", "Failed to unwrap data for message: ${message.hash}.") }
+                .getOrNull()
+        }
+        return UncommittedMessages(envelopes) { handled ->
+            synchronized(this) {
+                if (handled && newHashes.isNotEmpty()) {
+                    val storedHashes = database.getReceivedMessageHashValues(publicKey, namespace).orEmpty()
+                    database.setReceivedMessageHashValues(publicKey, storedHashes + newHashes, namespace)
+                }
+                uncommittedReceivedHashes[hashesKey]?.removeAll(newHashes)
+            }
+            if (handled) cursor.handled() else cursor.failed()
+        }
+    }
+
+    class UncommittedMessages(
+        val envelopes: List<Pair<SignalServiceProtos.Envelope, String?>>,
+        private val onDone: (handled: Boolean) -> Unit
+    ) {
+        /** Records the messages as received. Call once they've been processed or persisted. */
+        fun commit() = onDone(true)
+
+        /** Keeps the stored cursor from moving past the messages, so they're fetched again. Call if they couldn't be handled. */
+        fun abandon() = onDone(false)
+    }
+
+    private fun getLastMessageHashValue(snode: Snode, publicKey: String, namespace: Int): String? =
+        lastHashes.get(Triple(snode, publicKey, namespace))
+
     fun updateLastMessageHashValueIfPossible(snode: Snode, publicKey: String, rawMessages: List<*>, namespace: Int) {
         val lastMessageAsJSON = rawMessages.lastOrNull() as? Map<*, *>
         val hashValue = lastMessageAsJSON?.get("hash") as? String
@@ -655,22 +744,45 @@ object SnodeAPI {
         }
     }
 
+    /**
+     * Moves the cursor past [messages] and returns those that haven't been received before, recording them as
+     * received.
+     */
+    fun receiveMessages(snode: Snode, publicKey: String, messages: List<SnodeMessage>, namespace: Int): List<SnodeMessage> {
+        if (messages.isEmpty()) return messages
+        database.setLastMessageHashValue(snode, publicKey, messages.last().hash, namespace)
+        return synchronized(this) {
+            removeDuplicates(publicKey, messages, namespace, updateStoredHashes = true, newHashes = mutableSetOf()) { it.hash }
+        }
+    }
+
     /**
      *
      *
      * TODO Use a db transaction, synchronizing is sufficient for now because
-     * database#setReceivedMessageHashValues is only called here.
+     * database#setReceivedMessageHashValues is only called while holding this lock.
      */
     @Synchronized
-    fun removeDuplicates(publicKey: String, rawMessages: List<*>, namespace: Int, updateStoredHashes: Boolean): List<Map<*, *>> {
-        val hashValues = database.getReceivedMessageHashValues(publicKey, namespace)?.toMutableSet() ?: mutableSetOf()
-        return rawMessages.filterIsInstance<Map<*, *>>().filter { rawMessage ->
+    fun removeDuplicates(publicKey: String, rawMessages: List<*>, namespace: Int, updateStoredHashes: Boolean): List<Map<*, *>> =
+        removeDuplicates(publicKey, rawMessages, namespace, updateStoredHashes, mutableSetOf())
+
+    @Synchronized
+    private fun removeDuplicates(publicKey: String, rawMessages: List<*>, namespace: Int, updateStoredHashes: Boolean, newHashes: MutableSet<String>): List<Map<*, *>> =
+        removeDuplicates(publicKey, rawMessages.filterIsInstance<Map<*, *>>(), namespace, updateStoredHashes, newHashes) { rawMessage ->
             val hash = rawMessage["hash"] as? String
             hash ?: Log.d("Loki", "Missing hash value for message: ${rawMessage.prettifiedDescription()}.")
-            hash?.let(hashValues::add) == true
+            hash
+        }
+
+    private fun <T> removeDuplicates(publicKey: String, messages: List<T>, namespace: Int, updateStoredHashes: Boolean, newHashes: MutableSet<String>, hashOf: (T) -> String?): List<T> {
+        val storedHashes = database.getReceivedMessageHashValues(publicKey, namespace).orEmpty()
+        val uncommittedHashes = uncommittedReceivedHashes["$publicKey.$namespace"].orEmpty()
+        return messages.filter { message ->
+            val hash = hashOf(message)
+            hash != null && hash !in storedHashes && hash !in uncommittedHashes && newHashes.add(hash)
         }.also {
             if (updateStoredHashes && it.isNotEmpty()) {
-                database.setReceivedMessageHashValues(publicKey, hashValues, namespace)
+                database.setReceivedMessageHashValues(publicKey, storedHashes + newHashes, namespace)
             }
         }
     }
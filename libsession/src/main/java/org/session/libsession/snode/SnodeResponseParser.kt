@@ -0,0 +1,168 @@
+package org.session.libsession.snode
+
+import com.fasterxml.jackson.core.Base64Variants
+import com.fasterxml.jackson.core.JsonParseException
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import org.session.libsignal.utilities.JsonUtil
+import org.session.libsignal.utilities.Log
+
+/**
+ * A message returned by a snode `retrieve` request. [data] is the Base64 decoded `data` field: a wrapped
+ * envelope for the default namespace, or a config message for the config namespaces.
+ */
+class SnodeMessage(
+    val hash: String,
+    val timestamp: Long?,
+    val expiry: Long?,
+    val data: ByteArray
+)
+
+/**
+ * One sub-response of a snode `batch` or `sequence` request. Any `messages` are decoded into [messages];
+ * the remaining fields of the body, which are all small, are kept in [body].
+ */
+class BatchResult(
+    val code: Int,
+    val body: Map<*, *>?,
+    val messages: List<SnodeMessage>
+)
+
+/**
+ * Decodes snode responses with a streaming parser rather than through a [Map] tree.
+ *
+ * Retrieve responses are almost entirely Base64 message data, so building a tree for them means a [String] per
+ * message that is immediately decoded into a byte array and thrown away. Here the data is decoded straight out
+ * of the parser's input buffer, and only the fields that are actually used are read.
+ */
+object SnodeResponseParser {
+
+    private const val TAG = "SnodeResponseParser"
+
+    /**
+     * Parses the body of a `batch` or `sequence` response.
+     */
+    @JvmStatic
+    fun parseBatch(json: ByteArray): List<BatchResult> = JsonUtil.getMapper().factory.createParser(json).use { parser ->
+        var results: List<BatchResult> = emptyList()
+        forEachField(parser) { name ->
+            if (name == "results") results = readArray(parser, ::readBatchResult) else parser.skipChildren()
+        }
+        results
+    }
+
+    /**
+     * Parses the body of a single `retrieve` response.
+     */
+    @JvmStatic
+    fun parseMessages(json: ByteArray): List<SnodeMessage> = JsonUtil.getMapper().factory.createParser(json).use { parser ->
+        var messages: List<SnodeMessage> = emptyList()
+        forEachField(parser) { name ->
+            if (name == "messages") messages = readMessages(parser) else parser.skipChildren()
+        }
+        messages
+    }
+
+    /**
+     * Reads the top level `t` and `hf` fields of a response without decoding anything else.
+     */
+    @JvmStatic
+    fun parseHeader(json: ByteArray): Header = JsonUtil.getMapper().factory.createParser(json).use { parser ->
+        var timestamp: Long? = null
+        var forkInfo: List<Int>? = null
+        forEachField(parser) { name ->
+            when (name) {
+                "t" -> timestamp = readLong(parser)
+                "hf" -> forkInfo = readArray(parser) { it.intValue }
+                else -> parser.skipChildren()
+            }
+        }
+        Header(timestamp, forkInfo)
+    }
+
+    class Header(val timestamp: Long?, val forkInfo: List<Int>?)
+
+    private fun readBatchResult(parser: JsonParser): BatchResult? {
+        if (parser.currentToken != JsonToken.START_OBJECT) return null.also { parser.skipChildren() }
+
+        var code = 0
+        var body: Map<*, *>? = null
+        var messages: List<SnodeMessage> = emptyList()
+        forEachField(parser) { name ->
+            when (name) {
+                "code" -> code = parser.valueAsInt
+                "body" -> if (parser.currentToken == JsonToken.START_OBJECT) {
+                    val fields = mutableMapOf<String, Any?>()
+                    forEachField(parser) { field ->
+                        if (field == "messages") messages = readMessages(parser)
+                        else fields[field] = parser.readValueAs(Any::class.java)
+                    }
+                    body = fields
+                } else {
+                    parser.skipChildren()
+                }
+                else -> parser.skipChildren()
+            }
+        }
+        return BatchResult(code, body, messages)
+    }
+
+    private fun readMessages(parser: JsonParser): List<SnodeMessage> = readArray(parser, ::readMessage)
+
+    private fun readMessage(parser: JsonParser): SnodeMessage? {
+        if (parser.currentToken != JsonToken.START_OBJECT) return null.also { parser.skipChildren() }
+
+        var hash: String? = null
+        var timestamp: Long? = null
+        var expiry: Long? = null
+        var data: ByteArray? = null
+        forEachField(parser) { name ->
+            when (name) {
+                "hash" -> hash = parser.valueAsString
+                "t" -> timestamp = readLong(parser)
+                "expiration" -> expiry = readLong(parser)
+                "data" -> data = if (parser.currentToken == JsonToken.VALUE_STRING) {
+                    parser.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS)
+                } else {
+                    parser.skipChildren()
+                    null
+                }
+                else -> parser.skipChildren()
+            }
+        }
+
+        return when {
+            hash == null -> null.also { Log.d(TAG, "Missing hash value for message.") }
+            data == null -> null.also { Log.d(TAG, "Failed to decode data for message: $hash.") }
+            else -> SnodeMessage(hash!!, timestamp, expiry, data!!)
+        }
+    }
+
+    /**
+     * Calls [read] with the parser positioned on the value of each field of the current object, which [read]
+     * must consume entirely.
+     */
+    private inline fun forEachField(parser: JsonParser, read: (String) -> Unit) {
+        val start = parser.currentToken ?: parser.nextToken()
+        if (start != JsonToken.START_OBJECT) throw JsonParseException(parser, "Expected an object but found $start.")
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName
+            parser.nextToken()
+            read(name)
+        }
+    }
+
+    private inline fun <T> readArray(parser: JsonParser, read: (JsonParser) -> T?): List<T> {
+        if (parser.currentToken != JsonToken.START_ARRAY) return emptyList<T>().also { parser.skipChildren() }
+
+        val values = mutableListOf<T>()
+        while (true) {
+            val token = parser.nextToken() ?: throw JsonParseException(parser, "Unexpected end of array.")
+            if (token == JsonToken.END_ARRAY) return values
+            read(parser)?.let(values::add)
+        }
+    }
+
+    private fun readLong(parser: JsonParser): Long? =
+        if (parser.currentToken == JsonToken.VALUE_NUMBER_INT) parser.longValue else null.also { parser.skipChildren() }
+}
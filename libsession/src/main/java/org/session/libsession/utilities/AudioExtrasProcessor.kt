@@ -0,0 +1,99 @@
+package org.session.libsession.utilities
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.async
+import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras
+import org.session.libsignal.utilities.Log
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+
+/**
+ * Works out the duration and waveform of audio attachments in the background, and stores them with the
+ * attachment in a single write.
+ *
+ * Attachments are processed one at a time on a dedicated thread. Audio is streamed out of the attachment and
+ * decoded a buffer at a time (see [DecodedAudio]), so memory use doesn't grow with the length of a voice note.
+ * Requests for an attachment that's already being processed share the running request.
+ */
+object AudioExtrasProcessor {
+
+    private const val TAG = "AudioExtrasProcessor"
+
+    /** The number of RMS values stored for an attachment's waveform. */
+    const val WAVEFORM_FRAMES = 64
+
+    /**
+     * How many times an attachment that can't be read is tried before it's left alone. A failure can be down to
+     * something passing, like a file that's still being written, so one failure alone doesn't rule it out.
+     */
+    internal const val MAX_ATTEMPTS = 3
+
+    private val scope = CoroutineScope(Executors.newSingleThreadExecutor().asCoroutineDispatcher() + SupervisorJob())
+    private val inProgress = ConcurrentHashMap<AttachmentId, Deferred<DatabaseAttachmentAudioExtras?>>()
+    /** How many times each attachment couldn't be read, so that they aren't tried again every time they're shown. */
+    private val failures = ConcurrentHashMap<AttachmentId, Int>()
+
+    /**
+     * Processes the audio attachment, or joins the request for it if there's one already running.
+     *
+     * @return The stored extras, or null if the attachment couldn't be read.
+     */
+    @JvmStatic
+    fun process(attachmentId: AttachmentId, threadId: Long): Deferred<DatabaseAttachmentAudioExtras?> {
+        if ((failures[attachmentId] ?: 0) >= MAX_ATTEMPTS) return CompletableDeferred(null)
+
+        var created: Deferred<DatabaseAttachmentAudioExtras?>? = null
+        val request = inProgress.computeIfAbsent(attachmentId) {
+            scope.async(start = CoroutineStart.LAZY) { extract(attachmentId, threadId) }.also { created = it }
+        }
+        if (request === created) {
+            request.invokeOnCompletion { inProgress.remove(attachmentId, request) }
+            request.start()
+        }
+        return request
+    }
+
+    private fun extract(attachmentId: AttachmentId, threadId: Long): DatabaseAttachmentAudioExtras? {
+        val messageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
+        val openStream = {
+            messageDataProvider.getAttachmentStream(attachmentId.rowId)?.inputStream
+                ?: throw IOException("No data for attachment $attachmentId.")
+        }
+
+        return try {
+            val size = messageDataProvider.getAttachmentStream(attachmentId.rowId)
+                ?.also { it.inputStream?.close() }?.length ?: return null
+            val extras = InputStreamMediaDataSource(if (size > 0) size else -1, openStream).use { dataSource ->
+                DecodedAudio.create(dataSource).use { audio ->
+                    val durationMs = if (audio.totalDuration >= 0) {
+                        (audio.totalDuration / 1000.0).toLong()
+                    } else {
+                        DatabaseAttachmentAudioExtras.DURATION_UNDEFINED
+                    }
+                    val visualSamples = try {
+                        audio.calculateRms(WAVEFORM_FRAMES)
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Couldn't decode audio attachment $attachmentId; storing its duration only.", e)
+                        ByteArray(0)
+                    }
+                    DatabaseAttachmentAudioExtras(attachmentId, visualSamples, durationMs)
+                }
+            }
+            messageDataProvider.updateAudioAttachmentExtras(extras, threadId)
+            failures -= attachmentId
+            extras
+        } catch (e: Exception) {
+            val attempts = failures.merge(attachmentId, 1, Int::plus)
+            Log.e(TAG, "Couldn't process audio attachment $attachmentId (attempt $attempts of $MAX_ATTEMPTS).", e)
+            null
+        }
+    }
+}
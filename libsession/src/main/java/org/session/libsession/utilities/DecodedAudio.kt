@@ -5,30 +5,31 @@ import android.media.MediaCodec
 import android.media.MediaDataSource
 import android.media.MediaExtractor
 import android.media.MediaFormat
+import java.io.Closeable
 import java.io.FileDescriptor
 import java.io.IOException
 import java.io.InputStream
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.nio.ShortBuffer
-import kotlin.math.ceil
 import kotlin.math.roundToInt
 import kotlin.math.sqrt
 
 /**
- * Decodes the audio data and provides access to its sample data.
- * We need this to extract RMS values for waveform visualization.
+ * Reads an audio track's format and reduces its sample data to RMS values for waveform visualization.
  *
- * Use static [DecodedAudio.create] methods to instantiate a [DecodedAudio].
+ * Use static [DecodedAudio.create] methods to instantiate a [DecodedAudio], and close it once done. Creating one
+ * only reads the track's format; the audio is only decoded by [calculateRms], which streams it through an
+ * [RmsAccumulator] so memory use doesn't depend on the length of the audio.
  *
  * Partially based on the old [Google's Ringdroid project]
  * (https://github.com/google/ringdroid/blob/master/app/src/main/java/com/ringdroid/soundfile/SoundFile.java).
  *
- * *NOTE:* This class instance creation might be pretty slow (depends on the source audio file size).
- * It's recommended to instantiate it in the background.
+ * *NOTE:* [calculateRms] might be pretty slow (depends on the source audio file size).
+ * It's recommended to call it in the background.
  */
 @Suppress("MemberVisibilityCanBePrivate")
-class DecodedAudio {
+class DecodedAudio : Closeable {
 
     companion object {
         @JvmStatic
@@ -44,11 +45,13 @@ class DecodedAudio {
             val mediaExtractor = MediaExtractor().apply { setDataSource(dataSource) }
             return DecodedAudio(mediaExtractor, dataSource.size)
         }
+
+        private const val TIMEOUT_US = 100L
     }
 
     val dataSize: Long
 
-    /** Average bit rate in kbps. */
+    /** Average bit rate in kbps, or -1 if the duration isn't known. */
     val avgBitRate: Int
 
     val sampleRate: Int
@@ -58,25 +61,13 @@ class DecodedAudio {
 
     val channels: Int
 
-    /** Total number of samples per channel in audio file. */
-    val numSamples: Int
-
-    val samples: ShortBuffer
-        get() {
-            return decodedSamples.asReadOnlyBuffer()
-        }
-
-    /**
-     * Shared buffer with mDecodedBytes.
-     * Has the following format:
-     * {s1c1, s1c2, ..., s1cM, s2c1, ..., s2cM, ..., sNc1, ..., sNcM}
-     * where sicj is the ith sample of the jth channel (a sample is a signed short)
-     * M is the number of channels (e.g. 2 for stereo) and N is the number of samples per channel.
-     */
-    private val decodedSamples: ShortBuffer
+    private val extractor: MediaExtractor
+    private val mediaFormat: MediaFormat
+    private var decoded = false
 
     @Throws(IOException::class)
     private constructor(extractor: MediaExtractor, size: Long) {
+        this.extractor = extractor
         dataSize = size
 
         var mediaFormat: MediaFormat? = null
@@ -90,8 +81,10 @@ class DecodedAudio {
             }
         }
         if (mediaFormat == null) {
+            extractor.release()
             throw IOException("No audio track found in the data source.")
         }
+        this.mediaFormat = mediaFormat
 
         channels = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
         sampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
@@ -101,153 +94,124 @@ class DecodedAudio {
         } else {
             -1L
         }
+        avgBitRate = if (totalDuration > 0 && size > 0) {
+            ((size * 8) / (totalDuration / 1000000.0) / 1000).toInt()
+        } else {
+            -1
+        }
+    }
+
+    /**
+     * Decodes the audio and reduces the first channel to at most [maxFrames] RMS values. Can only be called once.
+     *
+     * @return normalized RMS values as a signed byte array.
+     */
+    @Throws(IOException::class)
+    fun calculateRms(maxFrames: Int): ByteArray {
+        check(!decoded) { "The audio has already been decoded." }
+        decoded = true
+
+        val accumulator = RmsAccumulator(maxFrames)
+        val mime = mediaFormat.getString(MediaFormat.KEY_MIME)!!
 
         // Expected total number of samples per channel.
         val expectedNumSamples = if (totalDuration >= 0) {
-            ((totalDuration / 1000000f) * sampleRate + 0.5f).toInt()
+            ((totalDuration / 1000000f) * sampleRate + 0.5f).toLong()
         } else {
-            Int.MAX_VALUE
+            Long.MAX_VALUE
         }
 
-        val codec = MediaCodec.createDecoderByType(mediaFormat.getString(MediaFormat.KEY_MIME)!!)
-        codec.configure(mediaFormat, null, null, 0)
-        codec.start()
-
-        // Check if the track is in PCM 16 bit encoding.
+        val codec = MediaCodec.createDecoderByType(mime)
         try {
-            val pcmEncoding = codec.outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING)
-            if (pcmEncoding != AudioFormat.ENCODING_PCM_16BIT) {
-                throw IOException("Unsupported PCM encoding code: $pcmEncoding")
-            }
-        } catch (e: NullPointerException) {
-            // If KEY_PCM_ENCODING is not specified, means it's ENCODING_PCM_16BIT.
-        }
-
-        var decodedSamplesSize: Int = 0  // size of the output buffer containing decoded samples.
-        var decodedSamples: ByteArray? = null
-        var sampleSize: Int
-        val info = MediaCodec.BufferInfo()
-        var presentationTime: Long
-        var totalSizeRead: Int = 0
-        var doneReading = false
-
-        // Set the size of the decoded samples buffer to 1MB (~6sec of a stereo stream at 44.1kHz).
-        // For longer streams, the buffer size will be increased later on, calculating a rough
-        // estimate of the total size needed to store all the samples in order to resize the buffer
-        // only once.
-        var decodedBytes: ByteBuffer = ByteBuffer.allocate(1 shl 20)
-        var firstSampleData = true
-        while (true) {
-            // read data from file and feed it to the decoder input buffers.
-            val inputBufferIndex: Int = codec.dequeueInputBuffer(100)
-            if (!doneReading && inputBufferIndex >= 0) {
-                sampleSize = extractor.readSampleData(codec.getInputBuffer(inputBufferIndex)!!, 0)
-                if (firstSampleData
-                        && mediaFormat.getString(MediaFormat.KEY_MIME)!! == "audio/mp4a-latm"
-                        && sampleSize == 2
-                ) {
-                    // For some reasons on some devices (e.g. the Samsung S3) you should not
-                    // provide the first two bytes of an AAC stream, otherwise the MediaCodec will
-                    // crash. These two bytes do not contain music data but basic info on the
-                    // stream (e.g. channel configuration and sampling frequency), and skipping them
-                    // seems OK with other devices (MediaCodec has already been configured and
-                    // already knows these parameters).
-                    extractor.advance()
-                    totalSizeRead += sampleSize
-                } else if (sampleSize < 0) {
-                    // All samples have been read.
-                    codec.queueInputBuffer(
-                            inputBufferIndex, 0, 0, -1, MediaCodec.BUFFER_FLAG_END_OF_STREAM
-                    )
-                    doneReading = true
-                } else {
-                    presentationTime = extractor.sampleTime
-                    codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, presentationTime, 0)
-                    extractor.advance()
-                    totalSizeRead += sampleSize
+            codec.configure(mediaFormat, null, null, 0)
+            codec.start()
+
+            // Check if the track is in PCM 16 bit encoding.
+            try {
+                val pcmEncoding = codec.outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING)
+                if (pcmEncoding != AudioFormat.ENCODING_PCM_16BIT) {
+                    throw IOException("Unsupported PCM encoding code: $pcmEncoding")
                 }
-                firstSampleData = false
+            } catch (e: NullPointerException) {
+                // If KEY_PCM_ENCODING is not specified, means it's ENCODING_PCM_16BIT.
             }
 
-            // Get decoded stream from the decoder output buffers.
-            val outputBufferIndex: Int = codec.dequeueOutputBuffer(info, 100)
-            if (outputBufferIndex >= 0 && info.size > 0) {
-                if (decodedSamplesSize < info.size) {
-                    decodedSamplesSize = info.size
-                    decodedSamples = ByteArray(decodedSamplesSize)
-                }
-                val outputBuffer: ByteBuffer = codec.getOutputBuffer(outputBufferIndex)!!
-                outputBuffer.get(decodedSamples!!, 0, info.size)
-                outputBuffer.clear()
-                // Check if buffer is big enough. Resize it if it's too small.
-                if (decodedBytes.remaining() < info.size) {
-                    // Getting a rough estimate of the total size, allocate 20% more, and
-                    // make sure to allocate at least 5MB more than the initial size.
-                    val position = decodedBytes.position()
-                    var newSize = ((position * (1.0 * dataSize / totalSizeRead)) * 1.2).toInt()
-                    if (newSize - position < info.size + 5 * (1 shl 20)) {
-                        newSize = position + info.size + 5 * (1 shl 20)
-                    }
-                    var newDecodedBytes: ByteBuffer? = null
-                    // Try to allocate memory. If we are OOM, try to run the garbage collector.
-                    var retry = 10
-                    while (retry > 0) {
-                        try {
-                            newDecodedBytes = ByteBuffer.allocate(newSize)
-                            break
-                        } catch (e: OutOfMemoryError) {
-                            // setting android:largeHeap="true" in <application> seem to help not
-                            // reaching this section.
-                            retry--
+            var outputChannels = channels
+            var numSamples = 0L
+            val info = MediaCodec.BufferInfo()
+            var doneReading = false
+            var firstSampleData = true
+            while (true) {
+                // read data from file and feed it to the decoder input buffers.
+                if (!doneReading) {
+                    val inputBufferIndex: Int = codec.dequeueInputBuffer(TIMEOUT_US)
+                    if (inputBufferIndex >= 0) {
+                        val sampleSize = extractor.readSampleData(codec.getInputBuffer(inputBufferIndex)!!, 0)
+                        if (firstSampleData && mime == "audio/mp4a-latm" && sampleSize == 2) {
+                            // For some reasons on some devices (e.g. the Samsung S3) you should not
+                            // provide the first two bytes of an AAC stream, otherwise the MediaCodec will
+                            // crash. These two bytes do not contain music data but basic info on the
+                            // stream (e.g. channel configuration and sampling frequency), and skipping them
+                            // seems OK with other devices (MediaCodec has already been configured and
+                            // already knows these parameters).
+                            extractor.advance()
+                        } else if (sampleSize < 0) {
+                            // All samples have been read.
+                            codec.queueInputBuffer(
+                                    inputBufferIndex, 0, 0, -1, MediaCodec.BUFFER_FLAG_END_OF_STREAM
+                            )
+                            doneReading = true
+                        } else {
+                            codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, extractor.sampleTime, 0)
+                            extractor.advance()
                         }
+                        firstSampleData = false
                     }
-                    if (retry == 0) {
-                        // Failed to allocate memory... Stop reading more data and finalize the
-                        // instance with the data decoded so far.
-                        break
+                }
+
+                // Get decoded stream from the decoder output buffers, and reduce it straight away.
+                val outputBufferIndex: Int = codec.dequeueOutputBuffer(info, TIMEOUT_US)
+                if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    outputChannels = codec.outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                } else if (outputBufferIndex >= 0) {
+                    if (info.size > 0) {
+                        val outputBuffer: ByteBuffer = codec.getOutputBuffer(outputBufferIndex)!!
+                        outputBuffer.position(info.offset)
+                        outputBuffer.limit(info.offset + info.size)
+                        accumulator.add(outputBuffer.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer(), outputChannels)
+                        numSamples += info.size / (2 * outputChannels)
                     }
-                    decodedBytes.rewind()
-                    newDecodedBytes!!.put(decodedBytes)
-                    decodedBytes = newDecodedBytes
-                    decodedBytes.position(position)
+                    codec.releaseOutputBuffer(outputBufferIndex, false)
                 }
-                decodedBytes.put(decodedSamples, 0, info.size)
-                codec.releaseOutputBuffer(outputBufferIndex, false)
-            }
 
-            if ((info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0
-                    || (decodedBytes.position() / (2 * channels)) >= expectedNumSamples
-            ) {
-                // We got all the decoded data from the decoder. Stop here.
-                // Theoretically dequeueOutputBuffer(info, ...) should have set info.flags to
-                // MediaCodec.BUFFER_FLAG_END_OF_STREAM. However some phones (e.g. Samsung S3)
-                // won't do that for some files (e.g. with mono AAC files), in which case subsequent
-                // calls to dequeueOutputBuffer may result in the application crashing, without
-                // even an exception being thrown... Hence the second check.
-                // (for mono AAC files, the S3 will actually double each sample, as if the stream
-                // was stereo. The resulting stream is half what it's supposed to be and with a much
-                // lower pitch.)
-                break
+                if ((info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0 || numSamples >= expectedNumSamples) {
+                    // We got all the decoded data from the decoder. Stop here.
+                    // Theoretically dequeueOutputBuffer(info, ...) should have set info.flags to
+                    // MediaCodec.BUFFER_FLAG_END_OF_STREAM. However some phones (e.g. Samsung S3)
+                    // won't do that for some files (e.g. with mono AAC files), in which case subsequent
+                    // calls to dequeueOutputBuffer may result in the application crashing, without
+                    // even an exception being thrown... Hence the second check.
+                    // (for mono AAC files, the S3 will actually double each sample, as if the stream
+                    // was stereo. The resulting stream is half what it's supposed to be and with a much
+                    // lower pitch.)
+                    break
+                }
             }
+            codec.stop()
+        } finally {
+            codec.release()
         }
-        numSamples = decodedBytes.position() / (channels * 2)  // One sample = 2 bytes.
-        decodedBytes.rewind()
-        decodedBytes.order(ByteOrder.LITTLE_ENDIAN)
-        this.decodedSamples = decodedBytes.asShortBuffer()
-        avgBitRate = ((dataSize * 8) * (sampleRate.toFloat() / numSamples) / 1000).toInt()
 
-        extractor.release()
-        codec.stop()
-        codec.release()
+        return accumulator.calculateRms()
     }
 
-    fun calculateRms(maxFrames: Int): ByteArray {
-        return calculateRms(this.samples, this.numSamples, this.channels, maxFrames)
+    override fun close() {
+        extractor.release()
     }
 }
 
 /**
- * Computes audio RMS values for the first channel only.
+ * Computes audio RMS values for the first channel of a stream of samples of unknown length, in constant memory.
  *
  * A typical RMS calculation algorithm is:
  * 1. Square each sample
@@ -255,58 +219,79 @@ class DecodedAudio {
  * 3. Divide the sum of the squared samples by the number of samples
  * 4. Take the square root of step 3., the mean of the squared samples
  *
+ * Squared samples are summed into twice [maxFrames] buckets of equal size. Once they're all full, neighbouring
+ * buckets are merged and the bucket size doubles, so the buckets always cover everything added so far evenly.
+ *
  * @param maxFrames Defines amount of output RMS frames.
  * If number of samples per channel is less than "maxFrames",
  * the result array will match the source sample size instead.
- *
- * @return normalized RMS values as a signed byte array.
  */
-private fun calculateRms(samples: ShortBuffer, numSamples: Int, channels: Int, maxFrames: Int): ByteArray {
-    val numFrames: Int
-    val frameStep: Float
-
-    val samplesPerChannel = numSamples / channels
-    if (samplesPerChannel <= maxFrames) {
-        frameStep = 1f
-        numFrames = samplesPerChannel
-    } else {
-        frameStep = numSamples / maxFrames.toFloat()
-        numFrames = maxFrames
-    }
+class RmsAccumulator(private val maxFrames: Int) {
 
-    val rmsValues = FloatArray(numFrames)
+    private val sums = DoubleArray(maxFrames * 2)
+    private val counts = IntArray(maxFrames * 2)
+    private var bucket = 0
+    private var samplesPerBucket = 1
 
-    var squaredFrameSum = 0.0
-    var currentFrameIdx = 0
-
-    fun calculateFrameRms(nextFrameIdx: Int) {
-        rmsValues[currentFrameIdx] = sqrt(squaredFrameSum.toFloat())
+    init {
+        require(maxFrames > 0) { "maxFrames must be positive." }
+    }
 
-        // Advance to the next frame.
-        squaredFrameSum = 0.0
-        currentFrameIdx = nextFrameIdx
+    fun add(sample: Short) {
+        if (counts[bucket] == samplesPerBucket) {
+            bucket++
+            if (bucket == sums.size) merge()
+        }
+        val value = sample.toInt()
+        sums[bucket] += (value * value).toDouble()
+        counts[bucket]++
     }
 
-    (0 until numSamples * channels step channels).forEach { sampleIdx ->
-        val channelSampleIdx = sampleIdx / channels
-        val frameIdx = (channelSampleIdx / frameStep).toInt()
+    /**
+     * Adds the first channel of interleaved [samples], from their position to their limit.
+     */
+    fun add(samples: ShortBuffer, channels: Int) {
+        var index = samples.position()
+        while (index < samples.limit()) {
+            add(samples[index])
+            index += channels
+        }
+    }
 
-        if (currentFrameIdx != frameIdx) {
-            // Calculate RMS value for the previous frame.
-            calculateFrameRms(frameIdx)
+    /**
+     * @return normalized RMS values as a signed byte array.
+     */
+    fun calculateRms(): ByteArray {
+        val usedBuckets = if (counts[bucket] > 0) bucket + 1 else bucket
+        if (usedBuckets == 0) return ByteArray(0)
+
+        val numFrames = minOf(usedBuckets, maxFrames)
+        val rmsValues = FloatArray(numFrames) { frame ->
+            var sum = 0.0
+            var count = 0
+            for (i in frame * usedBuckets / numFrames until (frame + 1) * usedBuckets / numFrames) {
+                sum += sums[i]
+                count += counts[i]
+            }
+            sqrt(sum / count).toFloat()
         }
 
-        val samplesInCurrentFrame = ceil((currentFrameIdx + 1) * frameStep) - ceil(currentFrameIdx * frameStep)
-        squaredFrameSum += (samples[sampleIdx] * samples[sampleIdx]) / samplesInCurrentFrame
-    }
-    // Calculate RMS value for the last frame.
-    calculateFrameRms(-1)
+        normalizeArray(rmsValues)
 
-//    smoothArray(rmsValues, 1.0f)
-    normalizeArray(rmsValues)
+        // Convert normalized result to a signed byte array.
+        return rmsValues.map { value -> normalizedFloatToByte(value) }.toByteArray()
+    }
 
-    // Convert normalized result to a signed byte array.
-    return rmsValues.map { value -> normalizedFloatToByte(value) }.toByteArray()
+    private fun merge() {
+        for (i in 0 until maxFrames) {
+            sums[i] = sums[2 * i] + sums[2 * i + 1]
+            counts[i] = counts[2 * i] + counts[2 * i + 1]
+        }
+        sums.fill(0.0, maxFrames)
+        counts.fill(0, maxFrames)
+        bucket = maxFrames
+        samplesPerBucket *= 2
+    }
 }
 
 /**
@@ -352,32 +337,58 @@ inline fun normalizedFloatToByte(value: Float): Byte {
     return (255f * value - 128f).roundToInt().toByte()
 }
 
-class InputStreamMediaDataSource: MediaDataSource {
-
-    private val data: ByteArray
+/**
+ * A [MediaDataSource] that reads from a stream rather than holding all of the data in memory.
+ *
+ * [MediaExtractor] mostly reads forwards, which is served by skipping ahead in the current stream. Reads that
+ * go backwards reopen it with [openStream].
+ *
+ * @param size The size of the data, or -1 if it isn't known.
+ */
+class InputStreamMediaDataSource(private val size: Long, private val openStream: () -> InputStream) : MediaDataSource() {
 
-    constructor(inputStream: InputStream): super() {
-        this.data = inputStream.readBytes()
-    }
+    private var stream: InputStream? = null
+    private var streamPosition = 0L
 
+    @Synchronized
     override fun readAt(position: Long, buffer: ByteArray, offset: Int, size: Int): Int {
-        val length: Int = data.size
-        if (position >= length) {
+        if (this.size >= 0 && position >= this.size) {
             return -1 // -1 indicates EOF
         }
-        var actualSize = size
-        if (position + size > length) {
-            actualSize -= (position + size - length).toInt()
+        if (size == 0) return 0
+
+        var stream = this.stream
+        if (stream == null || position < streamPosition) {
+            stream?.close()
+            stream = openStream()
+            this.stream = stream
+            streamPosition = 0
         }
-        System.arraycopy(data, position.toInt(), buffer, offset, actualSize)
-        return actualSize
+
+        while (streamPosition < position) {
+            val skipped = stream.skip(position - streamPosition)
+            if (skipped > 0) {
+                streamPosition += skipped
+            } else if (stream.read() >= 0) {
+                streamPosition++
+            } else {
+                return -1
+            }
+        }
+
+        val read = stream.read(buffer, offset, size)
+        if (read < 0) return -1
+        streamPosition += read
+        return read
     }
 
     override fun getSize(): Long {
-        return data.size.toLong()
+        return size
     }
 
+    @Synchronized
     override fun close() {
-        // We don't need to close the wrapped stream.
+        stream?.close()
+        stream = null
     }
-}
\ No newline at end of file
+}
@@ -37,12 +37,18 @@ object DownloadUtilities {
      */
     @JvmStatic
     fun downloadFile(outputStream: OutputStream, urlAsString: String) {
+        outputStream.write(download(urlAsString))
+    }
+
+    /**
+     * Blocks the calling thread.
+     */
+    @JvmStatic
+    fun download(urlAsString: String): ByteArray {
         val url = urlAsString.toHttpUrlOrNull()!!
         val fileID = url.pathSegments.last()
         try {
-            FileServerApi.download(fileID).get().let {
-                outputStream.write(it)
-            }
+            return FileServerApi.download(fileID).get()
         } catch (e: Exception) {
             when (e) {
                 // No need for the stack trace for HTTP errors
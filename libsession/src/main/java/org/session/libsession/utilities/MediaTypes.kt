@@ -7,6 +7,7 @@ object MediaTypes {
     const val IMAGE_GIF         = "image/gif"
     const val AUDIO_AAC         = "audio/aac"
     const val AUDIO_UNSPECIFIED = "audio/*"
+    const val VIDEO_MP4         = "video/mp4"
     const val VIDEO_UNSPECIFIED = "video/*"
     const val VCARD             = "text/x-vcard"
     const val LONG_TEXT         = "text/x-signal-plain"
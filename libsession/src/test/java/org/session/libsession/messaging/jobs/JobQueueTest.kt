@@ -0,0 +1,81 @@
+package org.session.libsession.messaging.jobs
+
+import android.content.Context
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.session.libsession.database.StorageProtocol
+import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.utilities.Device
+
+class JobQueueTest {
+
+    private val storage = mock<StorageProtocol>()
+    private val queue = JobQueue()
+    private val results = mutableListOf<Boolean>()
+
+    @Before
+    fun setUp() {
+        val configuration = MessagingModuleConfiguration(mock(), storage, Device.ANDROID, mock(), { null }, mock(), mock())
+        MessagingModuleConfiguration.configure(mock<Context> {
+            on { getSystemService(MessagingModuleConfiguration.MESSAGING_MODULE_SERVICE) } doReturn configuration
+        })
+    }
+
+    @Test
+    fun `an ephemeral job that succeeds should be reported as handled`() {
+        val job = receiveJob(failureCount = 0, maxFailureCount = 1)
+        queue.addEphemeral(job) { results += it }
+
+        queue.handleJobSucceeded(job, "rx")
+
+        assertEquals(listOf(true), results)
+        verify(storage, never()).persistJob(any())
+    }
+
+    @Test
+    fun `an ephemeral job that fails permanently should not be reported as handled`() {
+        val job = receiveJob(failureCount = 1, maxFailureCount = 1)
+        queue.addEphemeral(job) { results += it }
+
+        queue.handleJobFailed(job, "rx", Exception())
+
+        assertEquals(listOf(false), results)
+        verify(storage, never()).persistJob(any())
+    }
+
+    @Test
+    fun `an ephemeral job that will be retried should be persisted and reported as handled`() {
+        val job = receiveJob(failureCount = 0, maxFailureCount = 3)
+        queue.addEphemeral(job) { results += it }
+
+        queue.handleJobFailed(job, "rx", Exception())
+
+        assertEquals(listOf(true), results)
+        verify(storage).persistJob(job)
+    }
+
+    @Test
+    fun `persisting running ephemeral jobs should report them as handled once`() {
+        val job = receiveJob(failureCount = 0, maxFailureCount = 1)
+        queue.addEphemeral(job) { results += it }
+
+        queue.persistEphemeralJobs()
+        queue.handleJobSucceeded(job, "rx")
+
+        assertEquals(listOf(true), results)
+        verify(storage).persistJob(job)
+    }
+
+    // Stays out of the way of the queue when it's picked up, since executing a mock does nothing
+    private fun receiveJob(failureCount: Int, maxFailureCount: Int) = mock<BatchMessageReceiveJob> {
+        on { id } doReturn "1"
+        on { this.failureCount } doReturn failureCount
+        on { this.maxFailureCount } doReturn maxFailureCount
+    }
+}
@@ -0,0 +1,59 @@
+package org.session.libsession.messaging.sending_receiving.pollers
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.session.libsession.messaging.jobs.BatchMessageReceiveJob
+import org.session.libsession.messaging.jobs.JobQueue
+import org.session.libsession.messaging.jobs.MessageReceiveParameters
+import org.session.libsession.messaging.messages.visible.ParsedMessage
+import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsignal.protos.SignalServiceProtos
+
+class CallSignalingPollerTest {
+
+    private val jobQueue = mock<JobQueue>()
+    private val poller = CallSignalingPoller("05", jobQueue) { parameters ->
+        ParsedMessage(parameters, VisibleMessage(), SignalServiceProtos.Content.getDefaultInstance()).takeIf { parameters.data[0] == PARSED }
+    }
+
+    @Test
+    fun `messages that aren't calls should go through the receive queue`() {
+        val messages = listOf(message(PARSED, "a"), message(UNPARSED, "b"), message(PARSED, "c"))
+
+        poller.receive(messages)
+
+        val jobs = argumentCaptor<BatchMessageReceiveJob>()
+        verify(jobQueue).add(jobs.capture())
+        assertEquals(messages, jobs.firstValue.messages)
+    }
+
+    @Test
+    fun `messages parsed to tell whether they're calls shouldn't be parsed again`() {
+        val messages = listOf(message(PARSED, "a"), message(UNPARSED, "b"))
+
+        poller.receive(messages)
+
+        val jobs = argumentCaptor<BatchMessageReceiveJob>()
+        verify(jobQueue).add(jobs.capture())
+        assertEquals(setOf(messages[0]), jobs.firstValue.parsedMessages.keys)
+    }
+
+    @Test
+    fun `nothing should be queued when there are no messages`() {
+        poller.receive(emptyList())
+
+        verify(jobQueue, never()).add(any())
+    }
+
+    private fun message(type: Byte, hash: String) = MessageReceiveParameters(byteArrayOf(type), serverHash = hash)
+
+    private companion object {
+        const val PARSED: Byte = 1
+        const val UNPARSED: Byte = 2
+    }
+}
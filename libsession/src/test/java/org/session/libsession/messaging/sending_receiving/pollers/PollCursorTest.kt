@@ -0,0 +1,110 @@
+package org.session.libsession.messaging.sending_receiving.pollers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class PollCursorTest {
+
+    private val stored = mutableMapOf<String, String>()
+    private val writes = mutableListOf<String>()
+    private val cursor = PollCursor<String, String>(
+        read = { stored[it] },
+        write = { key, position -> stored[key] = position; writes += position }
+    )
+
+    @Test
+    fun `polls should continue from the latest batch before it is handled`() {
+        cursor.fetched(KEY, null, "a")
+
+        assertEquals("a", cursor.get(KEY))
+        assertNull(stored[KEY])
+    }
+
+    @Test
+    fun `batches handled out of order should be written in the order they were fetched`() {
+        val first = cursor.fetched(KEY, null, "a")
+        val second = cursor.fetched(KEY, "a", "b")
+        val third = cursor.fetched(KEY, "b", "c")
+
+        third.handled()
+        assertEquals(emptyList<String>(), writes)
+
+        first.handled()
+        assertEquals(listOf("a"), writes)
+
+        second.handled()
+        assertEquals(listOf("a", "c"), writes)
+        assertEquals("c", cursor.get(KEY))
+    }
+
+    @Test
+    fun `an older batch handled last should not move the cursor backwards`() {
+        val first = cursor.fetched(KEY, null, "a")
+        val second = cursor.fetched(KEY, "a", "b")
+
+        second.handled()
+        first.handled()
+
+        assertEquals(listOf("b"), writes)
+        assertEquals("b", stored[KEY])
+    }
+
+    @Test
+    fun `a poll that was overtaken by another should not move the cursor`() {
+        stored[KEY] = "a"
+        val newer = cursor.fetched(KEY, "a", "c")
+        // Started from "a" too, but finished after the poll above
+        val stale = cursor.fetched(KEY, "a", "b")
+
+        stale.handled()
+        assertEquals("c", cursor.get(KEY))
+        assertEquals(emptyList<String>(), writes)
+
+        newer.handled()
+        assertEquals(listOf("c"), writes)
+    }
+
+    @Test
+    fun `a failed batch should hold the cursor before it`() {
+        val first = cursor.fetched(KEY, null, "a")
+        val failed = cursor.fetched(KEY, "a", "b")
+        val third = cursor.fetched(KEY, "b", "c")
+
+        failed.failed()
+        third.handled()
+        first.handled()
+
+        assertEquals(listOf("a"), writes)
+
+        // Polling carries on from the latest batch, but nothing after the failed one is ever written
+        cursor.fetched(KEY, "c", "d").handled()
+        assertEquals("d", cursor.get(KEY))
+        assertEquals(listOf("a"), writes)
+        assertEquals("a", stored[KEY])
+    }
+
+    @Test
+    fun `a failed batch should only hold its own key`() {
+        cursor.fetched(KEY, null, "a").failed()
+        cursor.fetched(OTHER_KEY, null, "x").handled()
+
+        assertNull(stored[KEY])
+        assertEquals("x", stored[OTHER_KEY])
+    }
+
+    @Test
+    fun `handling a batch twice should write it once`() {
+        val batch = cursor.fetched(KEY, null, "a")
+
+        batch.handled()
+        batch.handled()
+
+        assertEquals(listOf("a"), writes)
+    }
+
+    private companion object {
+        const val KEY = "key"
+        const val OTHER_KEY = "other"
+    }
+}
@@ -0,0 +1,128 @@
+package org.session.libsession.snode
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.session.libsignal.utilities.JsonUtil
+import java.lang.management.ManagementFactory
+import java.util.Base64
+import java.util.Random
+
+class SnodeResponseParserTest {
+
+    @Test
+    fun `it should decode the messages of each batch result`() {
+        val json = """
+            {"results":[
+              {"code":200,"body":{"hf":[19,3],"more":false,"messages":[
+                {"hash":"a","expiration":2000,"data":"AQID","t":1000},
+                {"data":"BAU=","t":1001},
+                {"hash":"c","data":"BgcI","t":1002,"unknown":{"nested":[1,2]}}
+              ]}},
+              {"code":421,"body":"Wrong swarm"},
+              {"body":{"updated":["x"]},"code":200}
+            ]}
+        """.trimIndent().toByteArray()
+
+        val results = SnodeResponseParser.parseBatch(json)
+
+        assertEquals(3, results.size)
+        assertEquals(200, results[0].code)
+        assertEquals(false, results[0].body!!["more"])
+        assertEquals(listOf("a", "c"), results[0].messages.map { it.hash })
+        assertEquals(1000L, results[0].messages[0].timestamp)
+        assertEquals(2000L, results[0].messages[0].expiry)
+        assertNull(results[0].messages[1].expiry)
+        assertArrayEquals(byteArrayOf(1, 2, 3), results[0].messages[0].data)
+        assertArrayEquals(byteArrayOf(6, 7, 8), results[0].messages[1].data)
+
+        assertEquals(421, results[1].code)
+        assertNull(results[1].body)
+
+        assertEquals(200, results[2].code)
+        assertEquals(listOf("x"), results[2].body!!["updated"])
+        assertTrue(results[2].messages.isEmpty())
+    }
+
+    @Test
+    fun `it should read the header without decoding the messages`() {
+        val json = """{"messages":[{"hash":"a","data":"not base64!"}],"t":1234,"hf":[19,3]}""".toByteArray()
+
+        val header = SnodeResponseParser.parseHeader(json)
+
+        assertEquals(1234L, header.timestamp)
+        assertEquals(listOf(19, 3), header.forkInfo)
+    }
+
+    @Test
+    fun `it should decode a large retrieve response like the map parser`() {
+        val json = createRetrieveResponse()
+
+        val streamed = SnodeResponseParser.parseMessages(json)
+        val mapped = parseWithMap(json)
+
+        assertEquals(MESSAGE_COUNT, streamed.size)
+        streamed.zip(mapped).forEach { (message, data) -> assertArrayEquals(data, message.data) }
+    }
+
+    /**
+     * The streaming parser replaced building a [Map] tree of the whole response, so decoding a full retrieve
+     * response should allocate less than that did.
+     */
+    @Test
+    fun `it should allocate less than the map parser for a 1000 message retrieve response`() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue("The JVM can't report allocations", threads?.isThreadAllocatedMemorySupported == true)
+        val json = createRetrieveResponse()
+
+        repeat(WARM_UP_ROUNDS) {
+            parseWithMap(json)
+            SnodeResponseParser.parseMessages(json)
+        }
+        val mapBytes = allocatedBytes(threads!!) { parseWithMap(json) }
+        val streamBytes = allocatedBytes(threads) { SnodeResponseParser.parseMessages(json) }
+
+        assertTrue("Streaming allocated $streamBytes bytes, the map parser $mapBytes", streamBytes < mapBytes)
+    }
+
+    /**
+     * @return The bytes the current thread allocated per run of [block], on average.
+     */
+    private fun allocatedBytes(threads: com.sun.management.ThreadMXBean, block: () -> Unit): Long {
+        val threadId = Thread.currentThread().id
+        val start = threads.getThreadAllocatedBytes(threadId)
+        repeat(ROUNDS) { block() }
+        return (threads.getThreadAllocatedBytes(threadId) - start) / ROUNDS
+    }
+
+    private fun parseWithMap(json: ByteArray): List<ByteArray> {
+        val response = JsonUtil.fromJson(json, Map::class.java)
+        return (response["messages"] as List<*>).map { rawMessage ->
+            org.session.libsignal.utilities.Base64.decode((rawMessage as Map<*, *>)["data"] as String)
+        }
+    }
+
+    private fun createRetrieveResponse(): ByteArray {
+        val random = Random(42)
+        val messages = (0 until MESSAGE_COUNT).map { i ->
+            val data = ByteArray(MESSAGE_SIZE).also(random::nextBytes)
+            mapOf(
+                "hash" to java.lang.Long.toHexString(random.nextLong()) + java.lang.Long.toHexString(random.nextLong()),
+                "expiration" to 1_700_001_209_600L + i,
+                "t" to 1_700_000_000_000L + i,
+                "data" to Base64.getEncoder().encodeToString(data)
+            )
+        }
+        return JsonUtil.toJson(mapOf("hf" to listOf(19, 3), "t" to 1_700_000_000_000L, "more" to false, "messages" to messages)).toByteArray()
+    }
+
+    private companion object {
+        const val MESSAGE_COUNT = 1000
+        const val MESSAGE_SIZE = 720
+        const val WARM_UP_ROUNDS = 5
+        const val ROUNDS = 10
+    }
+}
@@ -0,0 +1,48 @@
+package org.session.libsession.utilities
+
+import android.content.Context
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doThrow
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.session.libsession.database.MessageDataProvider
+import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import java.io.IOException
+
+class AudioExtrasProcessorTest {
+
+    private val messageDataProvider = mock<MessageDataProvider> {
+        on { getAttachmentStream(any()) } doThrow IOException()
+    }
+
+    @Before
+    fun setUp() {
+        val configuration = MessagingModuleConfiguration(mock(), mock(), Device.ANDROID, messageDataProvider, { null }, mock(), mock())
+        MessagingModuleConfiguration.configure(mock<Context> {
+            on { getSystemService(MessagingModuleConfiguration.MESSAGING_MODULE_SERVICE) } doReturn configuration
+        })
+    }
+
+    @Test
+    fun `an attachment that can't be read should be tried a few times and then left alone`() = runBlocking {
+        val attachmentId = AttachmentId(ROW_ID, System.nanoTime())
+
+        repeat(AudioExtrasProcessor.MAX_ATTEMPTS + 2) {
+            assertNull(AudioExtrasProcessor.process(attachmentId, THREAD_ID).await())
+        }
+
+        verify(messageDataProvider, times(AudioExtrasProcessor.MAX_ATTEMPTS)).getAttachmentStream(ROW_ID)
+    }
+
+    private companion object {
+        const val ROW_ID = 1L
+        const val THREAD_ID = 1L
+    }
+}
@@ -0,0 +1,74 @@
+package org.session.libsession.utilities
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ShortBuffer
+import kotlin.math.sqrt
+
+class RmsAccumulatorTest {
+
+    @Test
+    fun `it should keep one frame per sample for short audio`() {
+        val accumulator = RmsAccumulator(8)
+        shortArrayOf(0, 100, -200, 50).forEach(accumulator::add)
+
+        val rms = accumulator.calculateRms()
+
+        assertArrayEquals(normalize(floatArrayOf(0f, 100f, 200f, 50f)), rms)
+    }
+
+    @Test
+    fun `it should match the rms of evenly sized frames`() {
+        val maxFrames = 16
+        val samples = ShortArray(maxFrames * 1024) { i -> ((i * 37) % 20000 - 10000).toShort() }
+        val accumulator = RmsAccumulator(maxFrames)
+        samples.forEach(accumulator::add)
+
+        val expected = FloatArray(maxFrames) { frame ->
+            val frameSamples = samples.copyOfRange(frame * 1024, (frame + 1) * 1024)
+            sqrt(frameSamples.sumOf { it.toDouble() * it } / frameSamples.size).toFloat()
+        }
+
+        assertArrayEquals(normalize(expected), accumulator.calculateRms())
+    }
+
+    @Test
+    fun `it should only read the first channel`() {
+        val accumulator = RmsAccumulator(4)
+        // Left is silent and right is loud, so only the left channel's own shape should come through
+        accumulator.add(ShortBuffer.wrap(shortArrayOf(0, 30000, 100, 30000, 0, 30000, 200, 30000)), 2)
+
+        assertArrayEquals(normalize(floatArrayOf(0f, 100f, 0f, 200f)), accumulator.calculateRms())
+    }
+
+    /**
+     * A 10 minute mono voice note at 48 kHz, fed in decoder sized buffers, shouldn't need memory beyond the
+     * accumulator itself.
+     */
+    @Test
+    fun `it should reduce 10 minutes of audio in constant memory`() {
+        val buffer = ShortBuffer.wrap(ShortArray(1024) { i -> (i * 31).toShort() })
+        val accumulator = RmsAccumulator(64)
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+
+        val startBytes = threads?.getThreadAllocatedBytes(threadId) ?: 0L
+        repeat(10 * 60 * 48_000 / 1024) {
+            buffer.rewind()
+            accumulator.add(buffer, 1)
+        }
+        val allocated = (threads?.getThreadAllocatedBytes(threadId) ?: 0L) - startBytes
+
+        assertEquals(64, accumulator.calculateRms().size)
+        assertTrue("Allocated $allocated bytes", allocated < 64 * 1024)
+    }
+
+    private fun normalize(values: FloatArray): ByteArray {
+        val min = values.minOrNull()!!
+        val span = values.maxOrNull()!! - min
+        return values.map { normalizedFloatToByte(if (span == 0f) 0f else (it - min) / span) }.toByteArray()
+    }
+}
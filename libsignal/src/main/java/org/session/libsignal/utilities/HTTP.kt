@@ -1,23 +1,44 @@
 package org.session.libsignal.utilities
 
 import android.util.Log
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.EventListener
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody
 import org.session.libsignal.utilities.Util.SECURE_RANDOM
+import java.net.InetSocketAddress
+import java.net.Proxy
 import java.security.cert.X509Certificate
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLSocket
 import javax.net.ssl.X509TrustManager
 
 
 object HTTP {
     var isConnectedToNetwork: (() -> Boolean) = { false }
 
+    /**
+     * Shared by every client so that connections to a host are reused whatever timeout a request uses. Guard
+     * snodes are used for every onion request, which the pollers make every few seconds, so the usual five minute
+     * keep-alive is enough to keep their connections open without pinging them.
+     */
+    private val connectionPool = ConnectionPool(16, 5, TimeUnit.MINUTES)
+    private val dispatcher = Dispatcher()
+    private val connectionStats = ConcurrentHashMap<String, ConnectionStats>()
+
     private val seedNodeConnection by lazy {
 
         OkHttpClient().newBuilder()
+            .connectionPool(connectionPool)
+            .dispatcher(dispatcher)
+            .eventListenerFactory { StatsListener() }
             .callTimeout(timeout, TimeUnit.SECONDS)
             .connectTimeout(timeout, TimeUnit.SECONDS)
             .readTimeout(timeout, TimeUnit.SECONDS)
@@ -35,7 +56,12 @@ object HTTP {
         }
         val sslContext = SSLContext.getInstance("SSL")
         sslContext.init(null, arrayOf( trustManager ), SECURE_RANDOM)
+        // One context for all snode requests, so new connections can resume an earlier TLS session
+        sslContext.clientSessionContext.sessionTimeout = TLS_SESSION_TIMEOUT
         OkHttpClient().newBuilder()
+            .connectionPool(connectionPool)
+            .dispatcher(dispatcher)
+            .eventListenerFactory { StatsListener() }
             .sslSocketFactory(sslContext.socketFactory, trustManager)
             .hostnameVerifier { _, _ -> true }
             .callTimeout(timeout, TimeUnit.SECONDS)
@@ -45,24 +71,71 @@ object HTTP {
             .build()
     }
 
+    private val customTimeoutConnections = ConcurrentHashMap<Long, OkHttpClient>()
+
     private fun getDefaultConnection(timeout: Long): OkHttpClient {
-        // Snode to snode communication uses self-signed certificates but clients can safely ignore this
-        val trustManager = object : X509TrustManager {
+        // Shares the default connection's pool, dispatcher and TLS sessions
+        return customTimeoutConnections.getOrPut(timeout) {
+            defaultConnection.newBuilder()
+                .callTimeout(timeout, TimeUnit.SECONDS)
+                .connectTimeout(timeout, TimeUnit.SECONDS)
+                .readTimeout(timeout, TimeUnit.SECONDS)
+                .writeTimeout(timeout, TimeUnit.SECONDS)
+                .build()
+        }
+    }
 
-            override fun checkClientTrusted(chain: Array<out X509Certificate>?, authorizationType: String?) { }
-            override fun checkServerTrusted(chain: Array<out X509Certificate>?, authorizationType: String?) { }
-            override fun getAcceptedIssuers(): Array<X509Certificate> { return arrayOf() }
+    /** In seconds. */
+    private const val TLS_SESSION_TIMEOUT = 60 * 60
+
+    /**
+     * How requests to a host got their connections: reused from the pool, or newly connected with either a
+     * full or a resumed TLS handshake.
+     */
+    data class ConnectionStats(
+        val host: String,
+        val reusedConnections: Int,
+        val newConnections: Int,
+        val fullHandshakes: Int,
+        val resumedHandshakes: Int
+    ) {
+        internal fun add(reused: Int, new: Int, full: Int, resumed: Int) =
+            copy(
+                reusedConnections = reusedConnections + reused,
+                newConnections = newConnections + new,
+                fullHandshakes = fullHandshakes + full,
+                resumedHandshakes = resumedHandshakes + resumed
+            )
+    }
+
+    /**
+     * A snapshot of the connection stats of every host that's been requested since launch, which are added to
+     * the logs when they're shared.
+     */
+    fun getConnectionStats(): List<ConnectionStats> = connectionStats.values.toList()
+
+    private class StatsListener : EventListener() {
+        private var connectStart = 0L
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = System.currentTimeMillis()
+        }
+
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            val host = call.request().url.host
+            val isNew = connectStart != 0L
+            // A resumed session keeps the creation time of the session it resumed
+            val session = if (isNew) (connection.socket() as? SSLSocket)?.session else null
+            val isResumed = session != null && session.creationTime < connectStart
+            connectionStats.compute(host) { _, stats ->
+                (stats ?: ConnectionStats(host, 0, 0, 0, 0)).add(
+                    reused = if (isNew) 0 else 1,
+                    new = if (isNew) 1 else 0,
+                    full = if (session != null && !isResumed) 1 else 0,
+                    resumed = if (isResumed) 1 else 0
+                )
+            }
         }
-        val sslContext = SSLContext.getInstance("SSL")
-        sslContext.init(null, arrayOf( trustManager ), SECURE_RANDOM)
-        return OkHttpClient().newBuilder()
-            .sslSocketFactory(sslContext.socketFactory, trustManager)
-            .hostnameVerifier { _, _ -> true }
-            .callTimeout(timeout, TimeUnit.SECONDS)
-            .connectTimeout(timeout, TimeUnit.SECONDS)
-            .readTimeout(timeout, TimeUnit.SECONDS)
-            .writeTimeout(timeout, TimeUnit.SECONDS)
-            .build()
     }
 
     private const val timeout: Long = 120